@@ -39,6 +39,10 @@ public class CdChecksums {
     static byte[] eccBTable;
     static int[] edcTable;
 
+    static {
+        initEcc();
+    }
+
     /**
      * Checks the EDC and ECC of a CD sector
      *
@@ -113,7 +117,7 @@ public class CdChecksums {
             eccBTable[i ^ j] = (byte) i;
 
             for (j = 0; j < 8; j++)
-                edc = (edc >> 1) ^ ((edc & 1) > 0 ? 0xD8018001 : 0);
+                edc = (edc >>> 1) ^ ((edc & 1) != 0 ? 0xD8018001 : 0);
 
             edcTable[i] = edc;
         }
@@ -126,26 +130,25 @@ public class CdChecksums {
 
         for (major = 0; major < majorCount; major++) {
             int index = ((major >> 1) * majorMult) + (major & 1);
-            byte eccA = 0;
-            byte eccB = 0;
+            int eccA = 0;
+            int eccB = 0;
             int minor;
 
             for (minor = 0; minor < minorCount; minor++) {
-                byte temp = index < 4 ? address[index] : data[index - 4];
+                int temp = (index < 4 ? address[index] : data[index - 4]) & 0xff;
                 index += minorInc;
 
                 if (index >= size)
                     index -= size;
 
-                eccA = (byte) (eccA ^ temp);
-                eccB = (byte) (eccB ^ temp);
-                eccA = eccFTable[eccA];
+                eccA ^= temp;
+                eccB ^= temp;
+                eccA = eccFTable[eccA] & 0xff;
             }
 
-            eccA = eccBTable[eccFTable[eccA] ^ eccB];
+            eccA = eccBTable[(eccFTable[eccA] ^ eccB) & 0xff] & 0xff;
 
-            if (ecc[major] != eccA ||
-                    ecc[major + majorCount] != (eccA ^ eccB))
+            if ((ecc[major] & 0xff) != eccA || (ecc[major + majorCount] & 0xff) != (eccA ^ eccB))
                 return false;
         }
 
@@ -154,8 +157,6 @@ public class CdChecksums {
 
     static Boolean checkCdSectorChannel(byte[] channel, /*out*/ Boolean[] correctEccP, /*out*/ Boolean[] correctEccQ,
             /*out*/ Boolean[] correctEdc) {
-        initEcc();
-
         correctEccP[0] = null;
         correctEccQ[0] = null;
         correctEdc[0] = null;
@@ -327,7 +328,7 @@ logger.log(Level.DEBUG, "CD checksum: Unknown mode %d sector at address: %2x:%2x
         int pos = 0;
 
         for (; size > 0; size--)
-            edc = (edc >> 8) ^ edcTable[(edc ^ src[pos++]) & 0xFF];
+            edc = (edc >>> 8) ^ edcTable[(edc ^ src[pos++]) & 0xFF];
 
         return edc;
     }
@@ -22,6 +22,8 @@
 
 package discUtils.btrfs;
 
+import java.util.List;
+
 import discUtils.core.vfs.VfsFileSystemFacade;
 import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.Stream;
@@ -55,6 +57,20 @@ public final class BtrfsFileSystem extends VfsFileSystemFacade {
         super(new VfsBtrfsFileSystem(stream, options));
     }
 
+    /**
+     * Initializes a new instance of the BtrfsFileSystem class for a file system
+     * spanning several devices.
+     *
+     * @param streams The streams containing the devices of the btrfs file
+     *            system, in any order. They are matched to the chunk stripes by
+     *            device UUID, devices missing from a RAID1/10 file system are
+     *            served by their mirrors.
+     * @param options Options for opening the file system
+     */
+    public BtrfsFileSystem(List<Stream> streams, BtrfsFileSystemOptions options) {
+        super(new VfsBtrfsFileSystem(streams, options));
+    }
+
     public static boolean detect(Stream stream) {
         if (stream.getLength() < SuperBlock.Length + SuperblockOffsets[0]) {
             return false;
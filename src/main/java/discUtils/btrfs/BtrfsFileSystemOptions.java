@@ -31,6 +31,7 @@ public class BtrfsFileSystemOptions extends DiscFileSystemOptions {
 
     public BtrfsFileSystemOptions() {
         useDefaultSubvolume = true;
+        parallelDeviceReads = true;
     }
 
     public long getSubvolumeId() {
@@ -61,4 +62,18 @@ public class BtrfsFileSystemOptions extends DiscFileSystemOptions {
     public void setUseDefaultSubvolume(boolean value) {
         useDefaultSubvolume = value;
     }
+
+    private boolean parallelDeviceReads;
+
+    /**
+     * Whether a read spanning several devices (RAID0/10 stripes, RAID1
+     * mirrors) reads the devices concurrently.
+     */
+    public boolean parallelDeviceReads() {
+        return parallelDeviceReads;
+    }
+
+    public void setParallelDeviceReads(boolean value) {
+        parallelDeviceReads = value;
+    }
 }
@@ -22,10 +22,16 @@
 
 package discUtils.btrfs;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import discUtils.btrfs.base.BlockGroupFlag;
 import discUtils.btrfs.base.ChecksumType;
@@ -40,9 +46,10 @@ import discUtils.btrfs.base.items.ExtentData;
 import discUtils.btrfs.base.items.RootItem;
 import discUtils.core.internal.Crc32Algorithm;
 import discUtils.core.internal.Crc32LittleEndian;
+import discUtils.core.internal.Utilities;
 import discUtils.core.vfs.VfsContext;
+import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.IOException;
-import dotnet4j.io.SeekOrigin;
 import dotnet4j.io.Stream;
 import vavi.util.ByteUtil;
 
@@ -51,6 +58,7 @@ public class Context extends VfsContext {
 
     public Context(BtrfsFileSystemOptions options) {
         fsTrees = new HashMap<>();
+        devices = new LinkedHashMap<>();
         this.options = options;
     }
 
@@ -92,6 +100,7 @@ public class Context extends VfsContext {
 
     void setChunkTreeRoot(NodeHeader value) {
         chunkTreeRoot = value;
+        chunks = null;
     }
 
     private NodeHeader rootTreeRoot;
@@ -123,56 +132,255 @@ public class Context extends VfsContext {
         return tree;
     }
 
-    public long mapToPhysical(long logical) {
-        if (getChunkTreeRoot() != null) {
-            List<ChunkItem> nodes = getChunkTreeRoot()
-                    .find(ChunkItem.class, new Key(ReservedObjectId.FirstChunkTree, ItemType.ChunkItem), this);
-            for (ChunkItem chunk : nodes) {
-                if (chunk.getKey().getItemType() != ItemType.ChunkItem)
-                    continue;
-                if (chunk.getKey().getOffset() > logical)
-                    continue;
-                if (chunk.getKey().getOffset() + chunk.getChunkSize() < logical)
-                    continue;
-                checkStriping(chunk.getType());
-                if (chunk.getStripeCount() < 1)
-                    throw new IOException("Invalid stripe count in ChunkItem");
-                Stripe stripe = chunk.getStripes()[0];
-                return stripe.getOffset() + (logical - chunk.getKey().getOffset());
-            }
+    private final Map<UUID, Stream> devices;
+
+    /**
+     * Registers a member device of the file system.
+     *
+     * @param deviceUuid the device UUID as recorded in the device's superblock
+     * @param stream the stream containing the device
+     */
+    public void addDevice(UUID deviceUuid, Stream stream) {
+        devices.put(deviceUuid, stream);
+    }
+
+    /**
+     * @return the stream of the member device, or {@code null} if the device
+     *         is not present
+     */
+    public Stream getDevice(UUID deviceUuid) {
+        return devices.get(deviceUuid);
+    }
+
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    private NavigableMap<Long, ChunkItem> chunks;
+
+    private boolean loadingChunks;
+
+    /**
+     * Finds the chunk containing a logical address.
+     * <p>
+     * The chunk tree is read once and kept sorted by logical start, while it is
+     * being read (or before it is known) the system chunk array of the
+     * superblock is used.
+     */
+    ChunkItem findChunk(long logical) {
+        ChunkItem chunk = lookupChunk(logical);
+        if (chunk == null)
+            throw new IOException("no matching ChunkItem found");
+        return chunk;
+    }
+
+    /** @return the chunk holding the logical address, or {@code null} if it isn't mapped */
+    private ChunkItem lookupChunk(long logical) {
+        loadChunks();
+        if (chunks != null) {
+            Map.Entry<Long, ChunkItem> entry = chunks.floorEntry(logical);
+            if (entry != null && logical < entry.getKey() + entry.getValue().getChunkSize())
+                return entry.getValue();
         }
         for (ChunkItem chunk : superBlock.getSystemChunkArray()) {
             if (chunk.getKey().getItemType() != ItemType.ChunkItem)
                 continue;
-            if (chunk.getKey().getOffset() > logical)
-                continue;
-            if (chunk.getKey().getOffset() + chunk.getChunkSize() < logical)
-                continue;
+            long start = chunk.getKey().getOffset();
+            if (start <= logical && logical < start + chunk.getChunkSize())
+                return chunk;
+        }
+        return null;
+    }
+
+    private void loadChunks() {
+        if (chunks == null && chunkTreeRoot != null && !loadingChunks) {
+            loadingChunks = true;
+            try {
+                NavigableMap<Long, ChunkItem> map = new TreeMap<>();
+                List<ChunkItem> nodes = chunkTreeRoot
+                        .find(ChunkItem.class, new Key(ReservedObjectId.FirstChunkTree, ItemType.ChunkItem), this);
+                for (ChunkItem chunk : nodes) {
+                    if (chunk.getKey().getItemType() == ItemType.ChunkItem)
+                        map.put(chunk.getKey().getOffset(), chunk);
+                }
+                chunks = map;
+            } finally {
+                loadingChunks = false;
+            }
+        }
+    }
+
+    /**
+     * @return the end of the highest mapped logical address
+     */
+    long getLogicalLength() {
+        loadChunks();
+        long result = 0;
+        if (chunks != null) {
+            for (ChunkItem chunk : chunks.values())
+                result = Math.max(result, chunk.getKey().getOffset() + chunk.getChunkSize());
+        }
+        for (ChunkItem chunk : superBlock.getSystemChunkArray())
+            result = Math.max(result, chunk.getKey().getOffset() + chunk.getChunkSize());
+        return result;
+    }
+
+    /** A run of logical addresses that lies contiguously on one device. */
+    private static final class Mapping {
+
+        final Stream device;
+
+        final long offset;
 
-            checkStriping(chunk.getType());
-            if (chunk.getStripeCount() < 1)
-                throw new IOException("Invalid stripe count in ChunkItem");
-            Stripe stripe = chunk.getStripes()[0];
-            return stripe.getOffset() + (logical - chunk.getKey().getOffset());
+        final long length;
+
+        Mapping(Stream device, long offset, long length) {
+            this.device = device;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Maps a logical address onto a device.
+     * <p>
+     * RAID0 and RAID10 chunks are striped across their devices in units of the
+     * stripe length, SINGLE, DUP and RAID1 chunks hold a complete copy on each
+     * stripe. Where there is more than one copy on separate devices, the copy is
+     * chosen per stripe-length unit, so that consecutive units are served by
+     * different mirrors. Missing devices are skipped as long as one copy is
+     * present.
+     */
+    private Mapping map(long logical) {
+        ChunkItem chunk = findChunk(logical);
+        EnumSet<BlockGroupFlag> flags = chunk.getType();
+        checkStriping(flags);
+        int stripeCount = chunk.getStripeCount();
+        if (stripeCount < 1)
+            throw new IOException("Invalid stripe count in ChunkItem");
+        long chunkOffset = logical - chunk.getKey().getOffset();
+        long stripeLength = chunk.getStripeLength();
+        if (stripeLength <= 0)
+            stripeLength = chunk.getChunkSize();
+        long stripeNr = chunkOffset / stripeLength;
+        long stripeOffset = chunkOffset % stripeLength;
+
+        if (flags.contains(BlockGroupFlag.Raid0) || flags.contains(BlockGroupFlag.Raid10)) {
+            int subStripes = flags.contains(BlockGroupFlag.Raid10) ? Math.max(chunk.getSubStripes(), 1) : 1;
+            int factor = stripeCount / subStripes;
+            if (factor < 1)
+                throw new IOException("Invalid sub stripe count in ChunkItem");
+            long row = stripeNr / factor;
+            int first = (int) (stripeNr % factor) * subStripes;
+            Stripe stripe = selectMirror(chunk.getStripes(), first, subStripes, row);
+            return new Mapping(getDevice(stripe.getDeviceUuid()),
+                               stripe.getOffset() + row * stripeLength + stripeOffset,
+                               stripeLength - stripeOffset);
+        }
+
+        int copies = flags.contains(BlockGroupFlag.Dup) ? 1 : stripeCount;
+        Stripe stripe = selectMirror(chunk.getStripes(), 0, copies, stripeNr);
+        long length = copies > 1 ? stripeLength - stripeOffset : chunk.getChunkSize() - chunkOffset;
+        return new Mapping(getDevice(stripe.getDeviceUuid()), stripe.getOffset() + chunkOffset, length);
+    }
+
+    private Stripe selectMirror(Stripe[] stripes, int first, int count, long selector) {
+        for (int i = 0; i < count; i++) {
+            Stripe stripe = stripes[first + (int) ((selector + i) % count)];
+            if (devices.containsKey(stripe.getDeviceUuid()))
+                return stripe;
+        }
+        throw new IOException("missing device: " + stripes[first].getDeviceUuid());
+    }
+
+    /**
+     * Maps a logical address to the offset on the device holding it.
+     *
+     * @see #read(long, byte[], int, int)
+     */
+    public long mapToPhysical(long logical) {
+        return map(logical).offset;
+    }
+
+    /**
+     * Reads from the logical address space.
+     * <p>
+     * The range is split into device runs, when these span more than one device
+     * (and {@link BtrfsFileSystemOptions#parallelDeviceReads()} is set) the
+     * devices are read concurrently.
+     *
+     * @return the number of bytes read, less than {@code count} only at the end
+     *         of the mapped address space
+     */
+    public int read(long logical, byte[] buffer, int offset, int count) {
+        List<Mapping> runs = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int pos = 0;
+        while (pos < count) {
+            // only the end of the mapped address space cuts a read short,
+            // a missing device or a bad chunk is an error wherever it is
+            if (pos > 0 && lookupChunk(logical + pos) == null)
+                break;
+            Mapping mapping = map(logical + pos);
+            int length = (int) Math.min(count - pos, mapping.length);
+            runs.add(new Mapping(mapping.device, mapping.offset, length));
+            offsets.add(offset + pos);
+            pos += length;
+        }
+
+        Map<Stream, List<Integer>> byDevice = new LinkedHashMap<>();
+        for (int i = 0; i < runs.size(); i++)
+            byDevice.computeIfAbsent(runs.get(i).device, k -> new ArrayList<>()).add(i);
+
+        if (byDevice.size() > 1 && options.parallelDeviceReads()) {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (List<Integer> indexes : byDevice.values())
+                tasks.add(CompletableFuture.runAsync(() -> readRuns(runs, offsets, indexes, buffer)));
+            Utilities.join(CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])));
+        } else {
+            for (List<Integer> indexes : byDevice.values())
+                readRuns(runs, offsets, indexes, buffer);
         }
-        throw new IOException("no matching ChunkItem found");
+        return pos;
+    }
+
+    private static void readRuns(List<Mapping> runs, List<Integer> offsets, List<Integer> indexes, byte[] buffer) {
+        for (int i : indexes) {
+            Mapping run = runs.get(i);
+            run.device.position(run.offset);
+            StreamUtilities.readExact(run.device, buffer, offsets.get(i), (int) run.length);
+        }
+    }
+
+    private Stream logicalStream;
+
+    /**
+     * @return a read-only stream over the logical address space of the file
+     *         system
+     */
+    public Stream getLogicalStream() {
+        if (logicalStream == null)
+            logicalStream = new LogicalStream(this);
+        return logicalStream;
     }
 
     public NodeHeader readTree(long logical, int level) {
-        long physical = mapToPhysical(logical);
-        rawStream.seek(physical, SeekOrigin.Begin);
         int dataSize = level > 0 ? superBlock.getNodeSize() : superBlock.getLeafSize();
         byte[] buffer = new byte[dataSize];
-        rawStream.read(buffer, 0, buffer.length);
+        read(logical, buffer, 0, buffer.length);
         NodeHeader result = NodeHeader.create(buffer, 0);
         verifyChecksum(result.getChecksum(), buffer, 0x20, dataSize - 0x20);
         return result;
     }
 
     void verifyChecksum(byte[] checksum, byte[] data, int offset, int count) {
+        verifyChecksum(superBlock.getChecksumType(), checksum, data, offset, count);
+    }
+
+    void verifyChecksum(ChecksumType checksumType, byte[] checksum, byte[] data, int offset, int count) {
         if (!getOptions().verifyChecksums())
             return;
-        if (superBlock.getChecksumType() != ChecksumType.Crc32C)
+        if (checksumType != ChecksumType.Crc32C)
             throw new IllegalArgumentException("Unsupported ChecksumType {SuperBlock.ChecksumType}");
         Crc32LittleEndian crc = new Crc32LittleEndian(Crc32Algorithm.Castagnoli);
         crc.process(data, offset, count);
@@ -185,12 +393,6 @@ public class Context extends VfsContext {
     }
 
     private static void checkStriping(EnumSet<BlockGroupFlag> flags) {
-        if (flags.contains(BlockGroupFlag.Raid0))
-            throw new IOException("Raid0 not supported");
-
-        if (flags.contains(BlockGroupFlag.Raid10))
-            throw new IOException("Raid10 not supported");
-
         if (flags.contains(BlockGroupFlag.Raid5))
             throw new IOException("Raid5 not supported");
 
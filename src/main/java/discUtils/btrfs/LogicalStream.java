@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.btrfs;
+
+import dotnet4j.io.SeekOrigin;
+import dotnet4j.io.Stream;
+
+
+/**
+ * Read-only view of the logical address space, spanning all devices of the
+ * file system.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+final class LogicalStream extends Stream {
+
+    private final Context context;
+
+    private long length = -1;
+
+    private long position;
+
+    public LogicalStream(Context context) {
+        this.context = context;
+    }
+
+    @Override public boolean canRead() {
+        return true;
+    }
+
+    @Override public boolean canSeek() {
+        return true;
+    }
+
+    @Override public boolean canWrite() {
+        return false;
+    }
+
+    @Override public long getLength() {
+        if (length < 0) {
+            length = context.getLogicalLength();
+        }
+        return length;
+    }
+
+    @Override public long position() {
+        return position;
+    }
+
+    @Override public void position(long value) {
+        position = value;
+    }
+
+    @Override public int read(byte[] buffer, int offset, int count) {
+        int toRead = (int) Math.min(count, Math.max(0, getLength() - position));
+        if (toRead == 0) {
+            return 0;
+        }
+        int numRead = context.read(position, buffer, offset, toRead);
+        position += numRead;
+        return numRead;
+    }
+
+    @Override public long seek(long offset, SeekOrigin origin) {
+        long effectiveOffset = offset;
+        if (origin == SeekOrigin.Current) {
+            effectiveOffset += position;
+        } else if (origin == SeekOrigin.End) {
+            effectiveOffset += getLength();
+        }
+
+        if (effectiveOffset < 0) {
+            throw new dotnet4j.io.IOException("Attempt to move before beginning of stream");
+        }
+
+        position = effectiveOffset;
+        return position;
+    }
+
+    @Override public void setLength(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override public void write(byte[] buffer, int offset, int count) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override public void flush() {
+    }
+}
@@ -32,8 +32,10 @@ import java.util.UUID;
 import java.util.stream.IntStream;
 
 import discUtils.btrfs.base.ChecksumType;
+import discUtils.btrfs.base.ItemType;
 import discUtils.btrfs.base.Key;
 import discUtils.btrfs.base.items.ChunkItem;
+import discUtils.btrfs.base.items.DevItem;
 import discUtils.streams.IByteArraySerializable;
 import discUtils.streams.util.EndianUtilities;
 import vavi.util.ByteUtil;
@@ -405,6 +407,19 @@ public class SuperBlock implements IByteArraySerializable {
         label = value;
     }
 
+    /**
+     * the device this superblock resides on
+     */
+    private DevItem devItem;
+
+    public DevItem getDevItem() {
+        return devItem;
+    }
+
+    public void setDevItem(DevItem value) {
+        devItem = value;
+    }
+
     private ChunkItem[] systemChunkArray;
 
     public ChunkItem[] getSystemChunkArray() {
@@ -449,6 +464,8 @@ public class SuperBlock implements IByteArraySerializable {
         rootLevel = buffer[offset + 0xc6];
         chunkRootLevel = buffer[offset + 0xc7];
         logRootLevel = buffer[offset + 0xc8];
+        devItem = new DevItem(new Key(0, ItemType.DevItem));
+        devItem.readFrom(buffer, offset + 0xc9);
         // c9 62 DEV_ITEM data for this device
         byte[] labelData = EndianUtilities.toByteArray(buffer, offset + 0x12b, 0x100);
         OptionalInt eos = IntStream.range(0, labelData.length).filter(i -> labelData[i] == (byte) 0).findFirst();
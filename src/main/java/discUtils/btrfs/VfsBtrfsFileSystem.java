@@ -23,6 +23,7 @@
 package discUtils.btrfs;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import discUtils.btrfs.base.DirItemChildType;
@@ -47,32 +48,34 @@ final class VfsBtrfsFileSystem extends VfsReadOnlyFileSystem<DirEntry, File, Dir
     }
 
     public VfsBtrfsFileSystem(Stream stream, BtrfsFileSystemOptions options) {
+        this(Collections.singletonList(stream), options);
+    }
+
+    /**
+     * @param streams all devices of a multi device file system, in any order,
+     *            they are matched to the chunk stripes by device UUID.
+     */
+    public VfsBtrfsFileSystem(List<Stream> streams, BtrfsFileSystemOptions options) {
         super(options);
 
+        if (streams.isEmpty())
+            throw new IllegalArgumentException("no device streams");
+
         Context context = new Context(options);
-        context.setRawStream(stream);
+        context.setRawStream(streams.get(0));
         setContext(context);
-        for (long offset : BtrfsFileSystem.SuperblockOffsets) {
-            if (offset + SuperBlock.Length > stream.getLength())
-                break;
-
-            stream.position(offset);
-            byte[] superblockData = StreamUtilities.readExact(stream, SuperBlock.Length);
-            SuperBlock superblock = new SuperBlock();
-            superblock.readFrom(superblockData, 0);
-
-            if (superblock.getMagic() != SuperBlock.BtrfsMagic)
-                throw new IOException("Invalid Superblock Magic");
-
-            if (getContext().getSuperBlock() == null)
-                getContext().setSuperBlock(superblock);
-            else if (getContext().getSuperBlock().getGeneration() < superblock.getGeneration())
-                getContext().setSuperBlock(superblock);
-
-            getContext().verifyChecksum(superblock.getChecksum(), superblockData, 0x20, 0x1000 - 0x20);
+        for (Stream stream : streams) {
+            SuperBlock superblock = readSuperBlock(stream, context);
+            if (context.getSuperBlock() == null) {
+                context.setSuperBlock(superblock);
+            } else {
+                if (!context.getSuperBlock().getFsUuid().equals(superblock.getFsUuid()))
+                    throw new IOException("Device belongs to a different file system: " + superblock.getFsUuid());
+                if (context.getSuperBlock().getGeneration() < superblock.getGeneration())
+                    context.setSuperBlock(superblock);
+            }
+            context.addDevice(superblock.getDevItem().getDeviceUuid(), stream);
         }
-        if (getContext().getSuperBlock() == null)
-            throw new IOException("No Superblock detected");
         context.setChunkTreeRoot(context.readTree(context.getSuperBlock().getChunkRoot(),
                                                             context.getSuperBlock().getChunkRootLevel()));
         context.setRootTreeRoot(context.readTree(context.getSuperBlock().getRoot(),
@@ -93,6 +96,33 @@ final class VfsBtrfsFileSystem extends VfsReadOnlyFileSystem<DirEntry, File, Dir
         setRootDirectory(new Directory(dirEntry, context));
     }
 
+    /**
+     * @return the most recent of the superblock copies on the device
+     */
+    private static SuperBlock readSuperBlock(Stream stream, Context context) {
+        SuperBlock result = null;
+        for (long offset : BtrfsFileSystem.SuperblockOffsets) {
+            if (offset + SuperBlock.Length > stream.getLength())
+                break;
+
+            stream.position(offset);
+            byte[] superblockData = StreamUtilities.readExact(stream, SuperBlock.Length);
+            SuperBlock superblock = new SuperBlock();
+            superblock.readFrom(superblockData, 0);
+
+            if (superblock.getMagic() != SuperBlock.BtrfsMagic)
+                throw new IOException("Invalid Superblock Magic");
+
+            if (result == null || result.getGeneration() < superblock.getGeneration())
+                result = superblock;
+
+            context.verifyChecksum(superblock.getChecksumType(), superblock.getChecksum(), superblockData, 0x20, 0x1000 - 0x20);
+        }
+        if (result == null)
+            throw new IOException("No Superblock detected");
+        return result;
+    }
+
     @Override public String getFriendlyName() {
         return "btrfs";
     }
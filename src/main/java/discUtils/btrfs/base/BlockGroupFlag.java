@@ -68,7 +68,15 @@ public enum BlockGroupFlag {
     /**
      * Parity striping with double-disk fault tolerance
      */
-    Raid6;
+    Raid6,
+    /**
+     * Mirror on three separate devices
+     */
+    Raid1C3,
+    /**
+     * Mirror on four separate devices
+     */
+    Raid1C4;
 
     private final int value = 1 << ordinal();
 
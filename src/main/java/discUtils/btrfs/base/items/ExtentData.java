@@ -225,11 +225,12 @@ public class ExtentData extends BaseItem {
             if (address == 0) {
                 stream = new ZeroStream(logicalSize);
             } else {
-                long physicalAddress = context.mapToPhysical(address);
-                stream = new SubStream(context.getRawStream(),
+                Stream logicalStream = context.getLogicalStream();
+                long start = address + getExtentOffset();
+                stream = new SubStream(logicalStream,
                                        Ownership.None,
-                                       physicalAddress + getExtentOffset(),
-                                       getExtentSize());
+                                       start,
+                                       Math.min(getExtentSize(), logicalStream.getLength() - start));
             }
             break;
         case PreAlloc:
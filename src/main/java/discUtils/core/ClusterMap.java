@@ -22,42 +22,81 @@
 
 package discUtils.core;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.Objects;
 
 
 /**
  * Class that identifies the role of each cluster in a file system.
+ *
+ * The map is held as sorted, non-overlapping runs of clusters sharing a role
+ * and a file, clusters in no run are free. So the size follows the number of
+ * fragments rather than the size of the volume.
  */
 public final class ClusterMap {
 
-    private final Object[] clusterToFileId;
+    private final long totalClusters;
 
-    private final EnumSet<ClusterRoles>[] clusterToRole;
+    /** the first cluster of each run, ascending */
+    private final long[] starts;
+
+    private final long[] counts;
+
+    /** the roles of each run, as {@link ClusterRoles#valueOf(EnumSet)} */
+    private final int[] roles;
+
+    private final Object[] fileIds;
 
     private final Map<Object, String[]> fileIdToPaths;
 
-    public ClusterMap(EnumSet<ClusterRoles>[] clusterToRole,
-            Object[] clusterToFileId,
+    private ClusterMap(long totalClusters,
+            long[] starts,
+            long[] counts,
+            int[] roles,
+            Object[] fileIds,
             Map<Object, String[]> fileIdToPaths) {
-        this.clusterToRole = clusterToRole;
-        this.clusterToFileId = clusterToFileId;
+        this.totalClusters = totalClusters;
+        this.starts = starts;
+        this.counts = counts;
+        this.roles = roles;
+        this.fileIds = fileIds;
         this.fileIdToPaths = fileIdToPaths;
     }
 
+    /**
+     * Gets the number of clusters the map covers.
+     */
+    public long getTotalClusters() {
+        return totalClusters;
+    }
+
+    /**
+     * Gets the number of runs of clusters in use.
+     */
+    public int getRunCount() {
+        return starts.length;
+    }
+
     /**
      * Gets the role of a cluster within the file system.
      *
      * @param cluster The cluster to inspect.
      * @return The clusters role (or roles).
      */
-    public EnumSet<ClusterRoles> getRole(int cluster) {
-        if (clusterToRole == null || clusterToRole.length < cluster) {
+    public EnumSet<ClusterRoles> getRole(long cluster) {
+        if (cluster < 0 || cluster >= totalClusters) {
             return EnumSet.noneOf(ClusterRoles.class);
         }
 
-        return clusterToRole[cluster];
+        int run = findRun(cluster);
+        if (run < 0) {
+            return EnumSet.of(ClusterRoles.Free);
+        }
+
+        return ClusterRoles.valueOf(roles[run]);
     }
 
     /**
@@ -69,12 +108,141 @@ public final class ClusterMap {
      *         hard links, a cluster may correspond to multiple directory
      *         entries.
      */
-    public String[] clusterToPaths(int cluster) {
+    public String[] clusterToPaths(long cluster) {
         if (!Collections.disjoint(getRole(cluster), EnumSet.of(ClusterRoles.DataFile, ClusterRoles.SystemFile))) {
-            Object fileId = clusterToFileId[cluster];
+            Object fileId = fileIds[findRun(cluster)];
             return fileIdToPaths.get(fileId);
         }
 
         return new String[0];
     }
+
+    /** @return the run holding the cluster, or -1 */
+    private int findRun(long cluster) {
+        int index = Arrays.binarySearch(starts, cluster);
+        if (index < 0) {
+            index = ~index - 1;
+        }
+        if (index >= 0 && cluster < starts[index] + counts[index]) {
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Collects runs of clusters in any order to build a {@link ClusterMap}.
+     * Builders may be filled separately (e.g. in parallel) and then
+     * combined.
+     */
+    public static final class Builder {
+
+        private final long totalClusters;
+
+        private long[] starts = new long[16];
+
+        private long[] counts = new long[16];
+
+        private int[] roles = new int[16];
+
+        private Object[] fileIds = new Object[16];
+
+        private int size;
+
+        /**
+         * @param totalClusters The number of clusters in the file system.
+         */
+        public Builder(long totalClusters) {
+            this.totalClusters = totalClusters;
+        }
+
+        /**
+         * Adds a run of clusters, empty runs are ignored.
+         *
+         * @param start The first cluster.
+         * @param count The number of clusters.
+         * @param role The role of the clusters.
+         * @param fileId The file the clusters belong to, as known to the paths
+         *            given when building.
+         */
+        public void addRun(long start, long count, EnumSet<ClusterRoles> role, Object fileId) {
+            if (count <= 0) {
+                return;
+            }
+
+            ensureCapacity(size + 1);
+            starts[size] = start;
+            counts[size] = count;
+            roles[size] = (int) ClusterRoles.valueOf(role);
+            fileIds[size] = fileId;
+            size++;
+        }
+
+        /**
+         * Adds the runs of another builder, after those of this one.
+         */
+        public void addAll(Builder other) {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.starts, 0, starts, size, other.size);
+            System.arraycopy(other.counts, 0, counts, size, other.size);
+            System.arraycopy(other.roles, 0, roles, size, other.size);
+            System.arraycopy(other.fileIds, 0, fileIds, size, other.size);
+            size += other.size;
+        }
+
+        /**
+         * Builds the map, merging adjacent runs of the same role and file.
+         * Where runs overlap the clusters go to the run starting first, or
+         * of runs starting at the same cluster, to the one added first.
+         *
+         * @param fileIdToPaths The paths of each file.
+         */
+        public ClusterMap build(Map<Object, String[]> fileIdToPaths) {
+            Integer[] order = new Integer[size];
+            Arrays.setAll(order, i -> i);
+            Arrays.parallelSort(order, (a, b) -> starts[a] != starts[b] ? Long.compare(starts[a], starts[b]) : Integer.compare(a, b));
+
+            long[] mergedStarts = new long[size];
+            long[] mergedCounts = new long[size];
+            int[] mergedRoles = new int[size];
+            Object[] mergedFileIds = new Object[size];
+            int n = 0;
+            long end = 0;
+            for (int i : order) {
+                long start = Math.max(starts[i], end);
+                long runEnd = Math.min(starts[i] + counts[i], totalClusters);
+                if (runEnd <= start) {
+                    continue;
+                }
+
+                if (n > 0 && mergedStarts[n - 1] + mergedCounts[n - 1] == start && mergedRoles[n - 1] == roles[i] &&
+                    Objects.equals(mergedFileIds[n - 1], fileIds[i])) {
+                    mergedCounts[n - 1] += runEnd - start;
+                } else {
+                    mergedStarts[n] = start;
+                    mergedCounts[n] = runEnd - start;
+                    mergedRoles[n] = roles[i];
+                    mergedFileIds[n] = fileIds[i];
+                    n++;
+                }
+                end = runEnd;
+            }
+
+            return new ClusterMap(totalClusters,
+                                  Arrays.copyOf(mergedStarts, n),
+                                  Arrays.copyOf(mergedCounts, n),
+                                  Arrays.copyOf(mergedRoles, n),
+                                  Arrays.copyOf(mergedFileIds, n),
+                                  fileIdToPaths);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > starts.length) {
+                int newLength = Math.max(capacity, starts.length * 2);
+                starts = Arrays.copyOf(starts, newLength);
+                counts = Arrays.copyOf(counts, newLength);
+                roles = Arrays.copyOf(roles, newLength);
+                fileIds = Arrays.copyOf(fileIds, newLength);
+            }
+        }
+    }
 }
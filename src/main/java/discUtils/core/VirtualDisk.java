@@ -29,6 +29,7 @@ import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URI;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -40,7 +41,9 @@ import discUtils.core.internal.VirtualDiskTransport;
 import discUtils.core.partitions.BiosPartitionTable;
 import discUtils.core.partitions.GuidPartitionTable;
 import discUtils.core.partitions.PartitionTable;
+import discUtils.streams.LayerChainStream;
 import discUtils.streams.SparseStream;
+import discUtils.streams.util.Ownership;
 import discUtils.streams.util.Sizes;
 import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.FileAccess;
@@ -569,6 +572,36 @@ logger.log(Level.DEBUG, extension + " / " + VirtualDiskManager.getExtensionMap()
         transport = null;
     }
 
+    /**
+     * Opens the content of a chain of layers. Each layer is opened on top of
+     * its parent's content, and reads through the chain are resolved by a
+     * {@link LayerChainStream} rather than layer by layer.
+     *
+     * @param layers The layers, the top-most first.
+     * @return The content of the top-most layer.
+     */
+    protected static SparseStream openLayerChain(List<? extends VirtualDiskLayer> layers) {
+        List<SparseStream> streams = new ArrayList<>(layers.size());
+        SparseStream stream = null;
+        for (int i = layers.size() - 1; i >= 0; --i) {
+            stream = layers.get(i).openContent(stream, Ownership.Dispose);
+            streams.add(0, stream);
+        }
+
+        // A layer that doesn't need its parent has already let go of it
+        for (int i = 0; i < layers.size(); ++i) {
+            if (!layers.get(i).needsParent()) {
+                streams = streams.subList(0, i + 1);
+                break;
+            }
+        }
+
+        if (streams.size() < 2) {
+            return stream;
+        }
+        return new LayerChainStream(streams, Ownership.Dispose);
+    }
+
     private static URI pathToUri(String path) {
         if (path == null || path.isEmpty()) {
             throw new IllegalArgumentException("path must not be null or empty: " + path);
@@ -22,6 +22,9 @@
 
 package discUtils.core.compression;
 
+import java.util.Arrays;
+
+
 /**
  * A canonical Huffman tree implementation.
  *
@@ -73,6 +76,95 @@ public final class HuffmanTree {
         return symbol;
     }
 
+    /**
+     * Builds the codeword lengths of a length limited Huffman code from symbol
+     * frequencies. Symbols that don't occur get no codeword. The result is
+     * fully determined by the frequencies (ties are broken by symbol value),
+     * as needed by formats where the encoder never transmits the code.
+     *
+     * @param freqs the frequency of each symbol
+     * @param maxLength the maximum codeword length
+     * @return the codeword length of each symbol
+     */
+    public static int[] buildLengths(int[] freqs, int maxLength) {
+        int numSyms = freqs.length;
+        int[] lengths = new int[numSyms];
+
+        // Sort the used symbols by frequency, then by symbol value
+        long[] keys = new long[numSyms];
+        int numUsed = 0;
+        for (int i = 0; i < numSyms; ++i) {
+            if (freqs[i] != 0) {
+                keys[numUsed++] = (long) freqs[i] << 32 | i;
+            }
+        }
+        Arrays.sort(keys, 0, numUsed);
+
+        if (numUsed < 2) {
+            // A complete code needs two codewords
+            int sym = numUsed == 0 ? 0 : (int) keys[0];
+            lengths[sym] = 1;
+            if (numSyms > 1) {
+                lengths[sym == 0 ? 1 : 0] = 1;
+            }
+            return lengths;
+        }
+
+        int[] leafFreqs = new int[numUsed];
+        for (int i = 0; i < numUsed; ++i) {
+            leafFreqs[i] = (int) (keys[i] >>> 32);
+        }
+
+        // Build the tree, leaves and non-leaves are taken from two queues
+        int[] nodeFreqs = new int[numUsed - 1];
+        int[] parents = new int[numUsed - 1];
+        int i = 0;
+        int b = 0;
+        int e = 0;
+        do {
+            int freq = 0;
+            for (int k = 0; k < 2; ++k) {
+                if (i != numUsed && (b == e || leafFreqs[i] <= nodeFreqs[b])) {
+                    freq += leafFreqs[i++];
+                } else {
+                    freq += nodeFreqs[b];
+                    parents[b++] = e;
+                }
+            }
+            nodeFreqs[e++] = freq;
+        } while (numUsed - e > 1);
+
+        // Count the codewords of each length, the tree is traversed parents
+        // first. Nodes too deep take the longest length still available.
+        int[] lengthCounts = new int[maxLength + 1];
+        lengthCounts[1] = 2;
+        int root = numUsed - 2;
+        int[] depths = new int[numUsed - 1];
+        for (int node = root - 1; node >= 0; node--) {
+            int depth = depths[parents[node]] + 1;
+            depths[node] = depth;
+            int length = depth;
+            if (length >= maxLength) {
+                length = maxLength;
+                do {
+                    length--;
+                } while (lengthCounts[length] == 0);
+            }
+
+            lengthCounts[length]--;
+            lengthCounts[length + 1] += 2;
+        }
+
+        // The least frequent symbols get the longest codewords
+        int n = 0;
+        for (int length = maxLength; length >= 1; length--) {
+            for (int count = lengthCounts[length]; count > 0; count--) {
+                lengths[(int) keys[n++]] = length;
+            }
+        }
+        return lengths;
+    }
+
     private void build() {
         int position = 0;
 
@@ -23,10 +23,14 @@
 package discUtils.core.internal;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -313,4 +317,55 @@ public class Utilities {
         }
         return value;
     }
+
+    /**
+     * Waits for a task run on another thread. An unchecked exception of the
+     * task is thrown as it is, an I/O or other checked one, or one wrapped in
+     * an {@link UncheckedIOException}, as a {@link dotnet4j.io.IOException}.
+     *
+     * @param future The task.
+     * @return The result of the task.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unchecked(e.getCause());
+        }
+    }
+
+    /**
+     * Waits for a task run on another thread, as {@link #join} does, for
+     * callers throwing {@link IOException}. An I/O exception of the task,
+     * wrapped in an {@link UncheckedIOException} or not, is thrown as it is.
+     *
+     * @param future The task.
+     * @return The result of the task.
+     */
+    public static <T> T joinIO(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) {
+                throw u.getCause();
+            }
+            if (e.getCause() instanceof IOException i) {
+                throw i;
+            }
+            throw unchecked(e.getCause());
+        }
+    }
+
+    private static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof Error e) {
+            throw e;
+        }
+        if (cause instanceof UncheckedIOException u) {
+            return new dotnet4j.io.IOException(u.getCause());
+        }
+        if (cause instanceof RuntimeException r) {
+            return r;
+        }
+        return new dotnet4j.io.IOException(cause);
+    }
 }
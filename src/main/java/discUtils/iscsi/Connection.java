@@ -40,8 +40,20 @@ import vavi.util.ByteUtil;
 
 class Connection implements Closeable {
 
+    /** the most commands sent and not answered yet */
+    private static final int MaxOutstandingTasks = 32;
+
+    /** the target transfer tag of data not asked for by the target */
+    private static final int UnsolicitedTransferTag = 0xffff_ffff;
+
     private final Authenticator[] authenticators;
 
+    /** the commands sent and not answered yet, by initiator task tag */
+    private final Map<Integer, Task> tasks = new HashMap<>();
+
+    /** the highest command sequence number the target accepts */
+    private int maxCommandSequenceNumber;
+
     /**
      * The set of all 'parameters' we've negotiated.
      */
@@ -67,6 +79,7 @@ class Connection implements Closeable {
             maxTargetReceiveDataSegmentLength = 8192;
 
             negotiatedParameters = new HashMap<>();
+            maxCommandSequenceNumber = session.getCommandSequenceNumber();
             negotiateSecurity();
             negotiateFeatures();
         } catch (IOException e) {
@@ -105,7 +118,12 @@ class Connection implements Closeable {
         return session;
     }
 
-    @Override public void close() throws IOException {
+    @Override public synchronized void close() throws IOException {
+        // Let the commands in flight finish
+        while (!tasks.isEmpty()) {
+            receive();
+        }
+
         LogoutRequest req = new LogoutRequest(this);
         byte[] packet = req.getBytes(LogoutReason.CloseConnection);
         stream.write(packet, 0, packet.length);
@@ -134,75 +152,181 @@ class Connection implements Closeable {
      * @return The number of bytes received.
      */
     public int send(ScsiCommand cmd, byte[] outBuffer, int outBufferOffset, int outBufferCount, byte[] inBuffer, int inBufferOffset, int inBufferMax) {
-        CommandRequest req = new CommandRequest(this, cmd.getTargetLun());
+        return complete(submit(cmd, outBuffer, outBufferOffset, outBufferCount, inBuffer, inBufferOffset, inBufferMax));
+    }
+
+    /**
+     * Sends an SCSI command without waiting for its response, so several
+     * commands can be in flight at once. Waits first, handling the responses
+     * coming in, while the target's command window is full.
+     *
+     * The data to send goes as immediate data and unsolicited Data-Out PDUs
+     * as far as negotiated, the rest when the target asks for it. Data
+     * received lands straight in the in buffer.
+     *
+     * @return The task to wait for with {@link #complete}.
+     */
+    synchronized Task submit(ScsiCommand cmd, byte[] outBuffer, int outBufferOffset, int outBufferCount, byte[] inBuffer, int inBufferOffset, int inBufferMax) {
+        while (tasks.size() >= MaxOutstandingTasks ||
+               (!cmd.getImmediateDelivery() && maxCommandSequenceNumber - session.getCommandSequenceNumber() < 0)) {
+            if (tasks.isEmpty()) {
+                throw new InvalidProtocolException("Target doesn't accept commands, MaxCmdSN " + maxCommandSequenceNumber);
+            }
+            receive();
+        }
+
+        Task task = new Task(session.getCurrentTaskTag(), cmd.getTargetLun(), outBuffer, outBufferOffset, inBuffer, inBufferOffset, inBufferMax);
+
+        int immediate = session.immediateData ? Math.min(Math.min(outBufferCount, session.firstBurstLength), maxTargetReceiveDataSegmentLength) : 0;
+        int unsolicited = session.initialR2T ? 0 : Math.min(outBufferCount, session.firstBurstLength) - immediate;
 
-        int toSend = Math.min(Math.min(outBufferCount, session.immediateData ? session.firstBurstLength : 0), maxTargetReceiveDataSegmentLength);
-        byte[] packet = req.getBytes(cmd, outBuffer, outBufferOffset, toSend, true, inBufferMax != 0, outBufferCount != 0, outBufferCount != 0 ? outBufferCount : inBufferMax);
+        CommandRequest req = new CommandRequest(this, cmd.getTargetLun());
+        byte[] packet = req.getBytes(cmd, outBuffer, outBufferOffset, immediate, unsolicited == 0, inBufferMax != 0, outBufferCount != 0, outBufferCount != 0 ? outBufferCount : inBufferMax);
+        tasks.put(task.tag, task);
         stream.write(packet, 0, packet.length);
-        stream.flush();
 
-        int numApproved;
-        int numSent = toSend;
-        int pktsSent = 0;
-        while (numSent < outBufferCount) {
-            ProtocolDataUnit pdu = readPdu();
+        session.nextTaskTag();
+        if (!cmd.getImmediateDelivery()) {
+            session.nextCommandSequenceNumber();
+        }
 
-            ReadyToTransferPacket resp = parseResponse(ReadyToTransferPacket.class, pdu);
-            numApproved = resp.desiredTransferLength;
-            int targetTransferTag = resp.targetTransferTag;
+        if (unsolicited > 0) {
+            sendData(task, immediate, unsolicited, UnsolicitedTransferTag);
+        }
+        stream.flush();
 
-            while (numApproved > 0) {
-                toSend = Math.min(Math.min(outBufferCount - numSent, numApproved), maxTargetReceiveDataSegmentLength);
+        return task;
+    }
+
+    /**
+     * Waits for the final response to a command, handling the responses to
+     * other commands coming in meanwhile.
+     *
+     * @return The number of bytes received.
+     */
+    synchronized int complete(Task task) {
+        while (!task.done) {
+            receive();
+        }
 
-                DataOutPacket pkt = new DataOutPacket(this, cmd.getTargetLun());
-                packet = pkt.getBytes(outBuffer, outBufferOffset + numSent, toSend, toSend == numApproved, pktsSent++, numSent, targetTransferTag);
-                stream.write(packet, 0, packet.length);
-                stream.flush();
+        if (task.failure != null) {
+            throw task.failure;
+        }
+        return task.numRead;
+    }
 
-                numApproved -= toSend;
-                numSent += toSend;
+    /**
+     * Reads and handles one PDU of the full feature phase. If that fails the
+     * connection can't be relied on any more, so every task outstanding is
+     * finished with the failure, and none is left holding its buffers.
+     */
+    private void receive() {
+        try {
+            receivePdu();
+        } catch (RuntimeException e) {
+            for (Task task : new ArrayList<>(tasks.values())) {
+                finish(task, e);
             }
+            throw e;
         }
+    }
 
-        boolean isFinal = false;
-        int numRead = 0;
-        while (!isFinal) {
-            ProtocolDataUnit pdu = readPdu();
+    private void receivePdu() {
+        byte[] headerData = ProtocolDataUnit.readHeader(stream, headerDigest != Digest.None);
+        BasicHeaderSegment bhs = new BasicHeaderSegment();
+        bhs.readFrom(headerData, 0);
+        Task task = tasks.get(bhs.initiatorTaskTag);
+
+        if (bhs.opCode == OpCode.ScsiDataIn && task != null) {
+            DataInPacket resp = new DataInPacket();
+            resp.parse(headerData, 0, null);
+            if (bhs.dataSegmentLength > 0) {
+                if (resp.bufferOffset < 0 || resp.bufferOffset + bhs.dataSegmentLength > task.inBufferMax) {
+                    throw new InvalidProtocolException("Target sent data beyond the expected transfer length, offset " +
+                                                       resp.bufferOffset + ", length " + bhs.dataSegmentLength);
+                }
+                ProtocolDataUnit.readContent(stream, dataDigest != Digest.None, task.inBuffer, task.inBufferOffset + resp.bufferOffset, bhs.dataSegmentLength);
+                task.numRead += bhs.dataSegmentLength;
+            }
 
-            if (pdu.getOpCode() == OpCode.ScsiResponse) {
-                Response resp = parseResponse(Response.class, pdu);
+            updateCommandWindow(resp);
+            if (resp.statusPresent) {
+                seenStatusSequenceNumber(resp.statusSequenceNumber);
+                finish(task, resp.status != ScsiStatus.Good ? new ScsiCommandException(resp.status, "Target indicated SCSI failure") : null);
+            }
+            return;
+        }
 
-                if (resp.statusPresent && resp.status == ScsiStatus.CheckCondition) {
-                    short senseLength = ByteUtil.readBeShort(pdu.getContentData(), 0);
-                    byte[] senseData = new byte[senseLength];
-                    System.arraycopy(pdu.getContentData(), 2, senseData, 0, senseLength);
-                    throw new ScsiCommandException(resp.status, "Target indicated SCSI failure", senseData);
-                }
-                if (resp.statusPresent && resp.status != ScsiStatus.Good) {
-                    throw new ScsiCommandException(resp.status, "Target indicated SCSI failure");
-                }
+        byte[] contentData = null;
+        if (bhs.dataSegmentLength > 0) {
+            contentData = new byte[bhs.dataSegmentLength];
+            ProtocolDataUnit.readContent(stream, dataDigest != Digest.None, contentData, 0, bhs.dataSegmentLength);
+        }
+        ProtocolDataUnit pdu = new ProtocolDataUnit(headerData, contentData);
 
-                isFinal = resp.header.finalPdu;
-            } else if (pdu.getOpCode() == OpCode.ScsiDataIn) {
-                DataInPacket resp = parseResponse(DataInPacket.class, pdu);
+        if (pdu.getOpCode() == OpCode.Reject) {
+            RejectPacket pkt = new RejectPacket();
+            pkt.parse(pdu);
 
-                if (resp.statusPresent && resp.status != ScsiStatus.Good) {
-                    throw new ScsiCommandException(resp.status, "Target indicated SCSI failure");
-                }
+            throw new IscsiException("Target sent reject packet, reason " + pkt.reason);
+        }
 
-                if (resp.readData != null) {
-                    System.arraycopy(resp.readData, 0, inBuffer, inBufferOffset + resp.bufferOffset, resp.readData.length);
-                    numRead += resp.readData.length;
-                }
+        if (pdu.getOpCode() == OpCode.NopIn) {
+            return;
+        }
 
-                isFinal = resp.header.finalPdu;
+        if (task == null) {
+            throw new InvalidProtocolException("Target responded to unknown task " + bhs.initiatorTaskTag + ": " + pdu.getOpCode());
+        }
+
+        if (pdu.getOpCode() == OpCode.ReadyToTransfer) {
+            ReadyToTransferPacket resp = parseResponse(ReadyToTransferPacket.class, pdu);
+            sendData(task, resp.bufferOffset, resp.desiredTransferLength, resp.targetTransferTag);
+            stream.flush();
+        } else {
+            Response resp = parseResponse(Response.class, pdu);
+
+            if (resp.status == ScsiStatus.CheckCondition && contentData != null) {
+                short senseLength = ByteUtil.readBeShort(contentData, 0);
+                byte[] senseData = new byte[senseLength];
+                System.arraycopy(contentData, 2, senseData, 0, senseLength);
+                finish(task, new ScsiCommandException(resp.status, "Target indicated SCSI failure", senseData));
+            } else if (resp.status != ScsiStatus.Good) {
+                finish(task, new ScsiCommandException(resp.status, "Target indicated SCSI failure"));
+            } else {
+                finish(task, null);
             }
         }
+    }
 
-        session.nextTaskTag();
-        session.nextCommandSequenceNumber();
+    /** sends part of a task's data as a sequence of Data-Out PDUs */
+    private void sendData(Task task, int bufferOffset, int count, int targetTransferTag) {
+        int numSent = 0;
+        int dataSequenceNumber = 0;
+        while (numSent < count) {
+            int toSend = Math.min(count - numSent, maxTargetReceiveDataSegmentLength);
+
+            DataOutPacket pkt = new DataOutPacket(this, task.lun, task.tag);
+            byte[] packet = pkt.getBytes(task.outBuffer, task.outBufferOffset + bufferOffset + numSent, toSend, numSent + toSend == count, dataSequenceNumber++, bufferOffset + numSent, targetTransferTag);
+            stream.write(packet, 0, packet.length);
+
+            numSent += toSend;
+        }
+    }
 
-        return numRead;
+    private void finish(Task task, RuntimeException failure) {
+        task.failure = failure;
+        task.done = true;
+        tasks.remove(task.tag);
+    }
+
+    /** keeps the highest command sequence number the target accepts */
+    private void updateCommandWindow(BaseResponse resp) {
+        // MaxCmdSN below ExpCmdSN - 1 means the values aren't valid
+        if (resp.maxCommandSequenceNumber - resp.expectedCommandSequenceNumber >= -1 &&
+            resp.maxCommandSequenceNumber - maxCommandSequenceNumber > 0) {
+            maxCommandSequenceNumber = resp.maxCommandSequenceNumber;
+        }
     }
 
     public <T extends ScsiResponse> T send(Class<T> clazz, ScsiCommand cmd, byte[] buffer, int offset, int count, int expected) {
@@ -580,6 +704,7 @@ class Connection implements Closeable {
         };
 
         resp.parse(pdu);
+        updateCommandWindow(resp);
         if (resp.statusPresent) {
             seenStatusSequenceNumber(resp.statusSequenceNumber);
         }
@@ -628,4 +753,38 @@ class Connection implements Closeable {
 
     @ProtocolKeyAttribute(name = "MaxRecvDataSegmentLength", defaultValue = "8192", phase = KeyUsagePhase.OperationalNegotiation, sender = KeySender.Target, type = KeyType.Declarative)
     int maxTargetReceiveDataSegmentLength;
+
+    /** an SCSI command sent, until its final response */
+    static final class Task {
+
+        final int tag;
+
+        final long lun;
+
+        final byte[] outBuffer;
+
+        final int outBufferOffset;
+
+        final byte[] inBuffer;
+
+        final int inBufferOffset;
+
+        final int inBufferMax;
+
+        int numRead;
+
+        boolean done;
+
+        RuntimeException failure;
+
+        Task(int tag, long lun, byte[] outBuffer, int outBufferOffset, byte[] inBuffer, int inBufferOffset, int inBufferMax) {
+            this.tag = tag;
+            this.lun = lun;
+            this.outBuffer = outBuffer;
+            this.outBufferOffset = outBufferOffset;
+            this.inBuffer = inBuffer;
+            this.inBufferOffset = inBufferOffset;
+            this.inBufferMax = inBufferMax;
+        }
+    }
 }
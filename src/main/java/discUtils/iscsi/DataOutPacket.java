@@ -32,9 +32,12 @@ public class DataOutPacket {
 
     private final long lun;
 
-    public DataOutPacket(Connection connection, long lun) {
+    private final int initiatorTaskTag;
+
+    public DataOutPacket(Connection connection, long lun, int initiatorTaskTag) {
         this.connection = connection;
         this.lun = lun;
+        this.initiatorTaskTag = initiatorTaskTag;
     }
 
     public byte[] getBytes(byte[] data,
@@ -50,7 +53,7 @@ public class DataOutPacket {
         basicHeader.finalPdu = isFinalData;
         basicHeader.totalAhsLength = 0;
         basicHeader.dataSegmentLength = count;
-        basicHeader.initiatorTaskTag = connection.getSession().getCurrentTaskTag();
+        basicHeader.initiatorTaskTag = initiatorTaskTag;
         byte[] buffer = new byte[48 + MathUtilities.roundUp(count, 4)];
         basicHeader.writeTo(buffer, 0);
         buffer[1] = (byte) (isFinalData ? 0x80 : 0x00);
@@ -27,7 +27,6 @@ import java.util.List;
 
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
-import discUtils.streams.util.MathUtilities;
 import dotnet4j.io.FileAccess;
 import dotnet4j.io.IOException;
 import dotnet4j.io.SeekOrigin;
@@ -38,6 +37,9 @@ public class DiskStream extends SparseStream {
 
     private final long length;
 
+    /** a block partially read or written */
+    private final byte[] blockBuffer;
+
     private final long lun;
 
     private long position;
@@ -50,6 +52,7 @@ public class DiskStream extends SparseStream {
         LunCapacity capacity = session.getCapacity(lun);
         blockSize = capacity.getBlockSize();
         length = capacity.getLogicalBlockCount() * capacity.getBlockSize();
+        blockBuffer = new byte[blockSize];
         canWrite = access != FileAccess.Read;
         canRead = access != FileAccess.Write;
     }
@@ -94,15 +97,30 @@ public class DiskStream extends SparseStream {
             throw new UnsupportedOperationException("Attempt to read from read-only stream");
         }
 
-        int maxToRead = (int) Math.min(length - position, count);
-        long firstBlock = position / blockSize;
-        long lastBlock = MathUtilities.ceil(position + maxToRead, blockSize);
-        byte[] tempBuffer = new byte[(int) (lastBlock - firstBlock) * blockSize];
-        int numRead = session.read(lun, firstBlock, (short) (lastBlock - firstBlock), tempBuffer, 0);
-        int numCopied = Math.min(maxToRead, numRead);
-        System.arraycopy(tempBuffer, (int) (position - firstBlock * blockSize), buffer, offset, numCopied);
-        position += numCopied;
-        return numCopied;
+        int maxToRead = (int) Math.max(0, Math.min(length - position, count));
+        int numRead = 0;
+        while (numRead < maxToRead) {
+            long block = position / blockSize;
+            int offsetInBlock = (int) (position % blockSize);
+            int toRead = maxToRead - numRead;
+            if (offsetInBlock != 0 || toRead < blockSize) {
+                // A partial block goes through the block buffer
+                toRead = Math.min(toRead, blockSize - offsetInBlock);
+                readBlock(block);
+                System.arraycopy(blockBuffer, offsetInBlock, buffer, offset + numRead, toRead);
+            } else {
+                // Whole blocks land in the caller's buffer
+                int numBlocks = toRead / blockSize;
+                toRead = numBlocks * blockSize;
+                int n = session.read(lun, block, numBlocks, blockSize, buffer, offset + numRead);
+                if (n != toRead) {
+                    throw new IOException("Incomplete read, received " + n + " bytes from " + numBlocks + " blocks");
+                }
+            }
+            numRead += toRead;
+            position += toRead;
+        }
+        return numRead;
     }
 
     @Override public long seek(long offset, SeekOrigin origin) {
@@ -142,19 +160,15 @@ public class DiskStream extends SparseStream {
             // Need to read - we're not handling a full block
             if (offsetInBlock != 0 || toWrite < blockSize) {
                 toWrite = Math.min(toWrite, blockSize - offsetInBlock);
-                byte[] blockBuffer = new byte[blockSize];
-                int numRead = session.read(lun, block, (short) 1, blockBuffer, 0);
-                if (numRead != blockSize) {
-                    throw new IOException("Incomplete read, received " + numRead + " bytes from 1 block");
-                }
+                readBlock(block);
 
                 // Overlay as much data as we have for this block
                 System.arraycopy(buffer, offset + numWritten, blockBuffer, offsetInBlock, toWrite);
                 // Write the block back
-                session.write(lun, block, (short) 1, blockSize, blockBuffer, 0);
+                session.write(lun, block, 1, blockSize, blockBuffer, 0);
             } else {
                 // Processing at least one whole block, just write (after making sure to trim any partial sectors from the end)...
-                short numBlocks = (short) (toWrite / blockSize);
+                int numBlocks = toWrite / blockSize;
                 toWrite = numBlocks * blockSize;
                 session.write(lun, block, numBlocks, blockSize, buffer, offset + numWritten);
             }
@@ -163,6 +177,13 @@ public class DiskStream extends SparseStream {
         }
     }
 
+    private void readBlock(long block) {
+        int numRead = session.read(lun, block, 1, blockBuffer, 0);
+        if (numRead != blockSize) {
+            throw new IOException("Incomplete read, received " + numRead + " bytes from 1 block");
+        }
+    }
+
     @Override
     public void close() throws java.io.IOException {
         session.close();
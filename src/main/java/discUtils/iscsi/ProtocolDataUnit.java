@@ -51,34 +51,47 @@ public class ProtocolDataUnit {
     }
 
     public static ProtocolDataUnit readFrom(Stream stream, boolean headerDigestEnabled, boolean dataDigestEnabled) {
-        int numRead = 0;
-        byte[] headerData = StreamUtilities.readExact(stream, 48);
-        numRead += 48;
+        byte[] headerData = readHeader(stream, headerDigestEnabled);
         byte[] contentData = null;
-        if (headerDigestEnabled) {
-            @SuppressWarnings("unused")
-            int digest = readDigest(stream);
-            numRead += 4;
-        }
 
         BasicHeaderSegment bhs = new BasicHeaderSegment();
         bhs.readFrom(headerData, 0);
         if (bhs.dataSegmentLength > 0) {
-            contentData = StreamUtilities.readExact(stream, bhs.dataSegmentLength);
-            numRead += bhs.dataSegmentLength;
-            if (dataDigestEnabled) {
-                @SuppressWarnings("unused")
-                int digest = readDigest(stream);
-                numRead += 4;
-            }
+            contentData = new byte[bhs.dataSegmentLength];
+            readContent(stream, dataDigestEnabled, contentData, 0, bhs.dataSegmentLength);
         }
 
-        int rem = 4 - numRead % 4;
+        return new ProtocolDataUnit(headerData, contentData);
+    }
+
+    /**
+     * Reads the basic header segment of a PDU, and its digest if any.
+     */
+    static byte[] readHeader(Stream stream, boolean headerDigestEnabled) {
+        byte[] headerData = StreamUtilities.readExact(stream, 48);
+        if (headerDigestEnabled) {
+            @SuppressWarnings("unused")
+            int digest = readDigest(stream);
+        }
+        return headerData;
+    }
+
+    /**
+     * Reads the data segment of a PDU into a buffer, skipping its padding
+     * and digest.
+     */
+    static void readContent(Stream stream, boolean dataDigestEnabled, byte[] buffer, int offset, int length) {
+        StreamUtilities.readExact(stream, buffer, offset, length);
+
+        int rem = 4 - length % 4;
         if (rem != 4) {
             StreamUtilities.readExact(stream, rem);
         }
 
-        return new ProtocolDataUnit(headerData, contentData);
+        if (dataDigestEnabled) {
+            @SuppressWarnings("unused")
+            int digest = readDigest(stream);
+        }
     }
 
     private static int readDigest(Stream stream) {
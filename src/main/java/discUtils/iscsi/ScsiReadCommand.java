@@ -25,20 +25,28 @@ package discUtils.iscsi;
 import vavi.util.ByteUtil;
 
 
+/**
+ * READ(10), or READ(16) for blocks beyond the reach of a 32 bit address or
+ * more than 65535 blocks at once.
+ */
 public class ScsiReadCommand extends ScsiCommand {
 
-    private final int logicalBlockAddress;
+    private final long logicalBlockAddress;
 
-    private final short numBlocks;
+    private final int numBlocks;
 
-    public ScsiReadCommand(long targetLun, int logicalBlockAddress, short numBlocks) {
+    public ScsiReadCommand(long targetLun, long logicalBlockAddress, int numBlocks) {
         super(targetLun);
         this.logicalBlockAddress = logicalBlockAddress;
         this.numBlocks = numBlocks;
     }
 
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
     @Override public int size() {
-        return 10;
+        return needsLongForm(logicalBlockAddress, numBlocks) ? 16 : 10;
     }
 
     @Override public int readFrom(byte[] buffer, int offset) {
@@ -46,11 +54,25 @@ public class ScsiReadCommand extends ScsiCommand {
     }
 
     @Override public void writeTo(byte[] buffer, int offset) {
-        buffer[offset + 0] = 0x28; // OpCode: READ(10)
-        buffer[offset + 1] = 0;
-        ByteUtil.writeBeInt(logicalBlockAddress, buffer, offset + 2);
-        buffer[offset + 6] = 0;
-        ByteUtil.writeBeShort(numBlocks, buffer, offset + 7);
-        buffer[offset + 9] = 0;
+        if (needsLongForm(logicalBlockAddress, numBlocks)) {
+            buffer[offset + 0] = (byte) 0x88; // OpCode: READ(16)
+            buffer[offset + 1] = 0;
+            ByteUtil.writeBeLong(logicalBlockAddress, buffer, offset + 2);
+            ByteUtil.writeBeInt(numBlocks, buffer, offset + 10);
+            buffer[offset + 14] = 0;
+            buffer[offset + 15] = 0;
+        } else {
+            buffer[offset + 0] = 0x28; // OpCode: READ(10)
+            buffer[offset + 1] = 0;
+            ByteUtil.writeBeInt((int) logicalBlockAddress, buffer, offset + 2);
+            buffer[offset + 6] = 0;
+            ByteUtil.writeBeShort((short) numBlocks, buffer, offset + 7);
+            buffer[offset + 9] = 0;
+        }
+    }
+
+    /** @return whether the range can't be given in a 10 byte command */
+    static boolean needsLongForm(long logicalBlockAddress, int numBlocks) {
+        return numBlocks > 0xffff || logicalBlockAddress + numBlocks > 0x1_0000_0000L;
     }
 }
@@ -25,24 +25,28 @@ package discUtils.iscsi;
 import vavi.util.ByteUtil;
 
 
+/**
+ * WRITE(10), or WRITE(16) for blocks beyond the reach of a 32 bit address or
+ * more than 65535 blocks at once.
+ */
 public class ScsiWriteCommand extends ScsiCommand {
 
-    private final int logicalBlockAddress;
+    private final long logicalBlockAddress;
 
-    public ScsiWriteCommand(long targetLun, int logicalBlockAddress, short numBlocks) {
+    public ScsiWriteCommand(long targetLun, long logicalBlockAddress, int numBlocks) {
         super(targetLun);
         this.logicalBlockAddress = logicalBlockAddress;
         this.numBlocks = numBlocks;
     }
 
-    private final short numBlocks;
+    private final int numBlocks;
 
     public int getNumBlocks() {
-        return numBlocks & 0xffff;
+        return numBlocks;
     }
 
     @Override public int size() {
-        return 10;
+        return ScsiReadCommand.needsLongForm(logicalBlockAddress, numBlocks) ? 16 : 10;
     }
 
     @Override public TaskAttributes getTaskAttributes() {
@@ -54,11 +58,20 @@ public class ScsiWriteCommand extends ScsiCommand {
     }
 
     @Override public void writeTo(byte[] buffer, int offset) {
-        buffer[offset] = 0x2A;
-        buffer[offset + 1] = 0;
-        ByteUtil.writeBeInt(logicalBlockAddress, buffer, offset + 2);
-        buffer[offset + 6] = 0;
-        ByteUtil.writeBeShort(numBlocks, buffer, offset + 7);
-        buffer[offset + 9] = 0;
+        if (ScsiReadCommand.needsLongForm(logicalBlockAddress, numBlocks)) {
+            buffer[offset] = (byte) 0x8A; // WRITE(16)
+            buffer[offset + 1] = 0;
+            ByteUtil.writeBeLong(logicalBlockAddress, buffer, offset + 2);
+            ByteUtil.writeBeInt(numBlocks, buffer, offset + 10);
+            buffer[offset + 14] = 0;
+            buffer[offset + 15] = 0;
+        } else {
+            buffer[offset] = 0x2A;
+            buffer[offset + 1] = 0;
+            ByteUtil.writeBeInt((int) logicalBlockAddress, buffer, offset + 2);
+            buffer[offset + 6] = 0;
+            ByteUtil.writeBeShort((short) numBlocks, buffer, offset + 7);
+            buffer[offset + 9] = 0;
+        }
     }
 }
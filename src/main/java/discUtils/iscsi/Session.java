@@ -40,6 +40,9 @@ import dotnet4j.io.FileAccess;
  */
 public final class Session implements Closeable {
 
+    /** the most data moved by one command of a read or write */
+    private static final int MaxTransferLength = 1024 * 1024;
+
     private static final AtomicInteger nextInitiatorSessionId = new AtomicInteger(new SecureRandom().nextInt());
 
     private final List<TargetAddress> addresses;
@@ -65,12 +68,12 @@ public final class Session implements Closeable {
         setCommandSequenceNumber(1);
         setCurrentTaskTag(1);
 
-        // Default negotiated values...
+        // Default negotiated values, asking for unsolicited data and longer bursts...
         maxConnections = 1;
-        initialR2T = true;
+        initialR2T = false;
         immediateData = true;
-        maxBurstLength = 262144;
-        firstBurstLength = 65536;
+        maxBurstLength = 1048576;
+        firstBurstLength = 262144;
         defaultTime2Wait = 0;
         defaultTime2Retain = 60;
         maxOutstandingR2T = 1;
@@ -282,13 +285,46 @@ public final class Session implements Closeable {
      * @param offset The offset of the first byte to fill.
      * @return The number of bytes read.
      */
-    public int read(long lun, long startBlock, short blockCount, byte[] buffer, int offset) {
-        ScsiReadCommand cmd = new ScsiReadCommand(lun, (int) startBlock, blockCount);
+    public int read(long lun, long startBlock, int blockCount, byte[] buffer, int offset) {
+        ScsiReadCommand cmd = new ScsiReadCommand(lun, startBlock, blockCount);
         return send(cmd, null, 0, 0, buffer, offset, buffer.length - offset);
     }
 
     /**
-     * Writes some data to a LUN.
+     * Reads some data from a LUN, in commands of at most 1 MiB which are all
+     * sent before waiting for their data, as far as the target's command
+     * window allows.
+     *
+     * @param lun The LUN to read from.
+     * @param startBlock The first block to read.
+     * @param blockCount The number of blocks to read.
+     * @param blockSize The size of each block (must match the actual LUN
+     *            geometry).
+     * @param buffer The buffer to fill.
+     * @param offset The offset of the first byte to fill.
+     * @return The number of bytes read.
+     */
+    public int read(long lun, long startBlock, int blockCount, int blockSize, byte[] buffer, int offset) {
+        Connection connection = getActiveConnection();
+        int blocksPerCommand = Math.max(1, MaxTransferLength / blockSize);
+        List<Connection.Task> tasks = new ArrayList<>();
+        try {
+            for (int i = 0; i < blockCount; i += blocksPerCommand) {
+                int count = Math.min(blocksPerCommand, blockCount - i);
+                ScsiReadCommand cmd = new ScsiReadCommand(lun, startBlock + i, count);
+                tasks.add(connection.submit(cmd, null, 0, 0, buffer, offset + i * blockSize, count * blockSize));
+            }
+        } catch (RuntimeException e) {
+            completeAll(connection, tasks, e);
+        }
+
+        return completeAll(connection, tasks, null);
+    }
+
+    /**
+     * Writes some data to a LUN, in commands of at most 1 MiB which are all
+     * sent before waiting for their completion, as far as the target's
+     * command window allows.
      *
      * @param lun The LUN to write to.
      * @param startBlock The first block to write.
@@ -298,9 +334,49 @@ public final class Session implements Closeable {
      * @param buffer The data to write.
      * @param offset The offset of the first byte to write in buffer.
      */
-    public void write(long lun, long startBlock, short blockCount, int blockSize, byte[] buffer, int offset) {
-        ScsiWriteCommand cmd = new ScsiWriteCommand(lun, (int) startBlock, blockCount);
-        send(cmd, buffer, offset, blockCount * blockSize, null, 0, 0);
+    public void write(long lun, long startBlock, int blockCount, int blockSize, byte[] buffer, int offset) {
+        Connection connection = getActiveConnection();
+        int blocksPerCommand = Math.max(1, MaxTransferLength / blockSize);
+        List<Connection.Task> tasks = new ArrayList<>();
+        try {
+            for (int i = 0; i < blockCount; i += blocksPerCommand) {
+                int count = Math.min(blocksPerCommand, blockCount - i);
+                ScsiWriteCommand cmd = new ScsiWriteCommand(lun, startBlock + i, count);
+                tasks.add(connection.submit(cmd, buffer, offset + i * blockSize, count * blockSize, null, 0, 0));
+            }
+        } catch (RuntimeException e) {
+            completeAll(connection, tasks, e);
+        }
+
+        completeAll(connection, tasks, null);
+    }
+
+    /**
+     * Waits for every task, also after one has failed, so that none is left
+     * reading from or writing into the caller's buffer.
+     *
+     * @param failure a failure already met, or {@code null}
+     * @return The number of bytes read.
+     * @throws RuntimeException the first failure, the others suppressed
+     */
+    private static int completeAll(Connection connection, List<Connection.Task> tasks, RuntimeException failure) {
+        int numRead = 0;
+        for (Connection.Task task : tasks) {
+            try {
+                numRead += connection.complete(task);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else if (failure != e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        return numRead;
     }
 
     /**
@@ -341,10 +341,7 @@ public class VfsCDReader extends VfsReadOnlyFileSystem<ReaderDirEntry, File, Rea
     }
 
     @Override public ClusterMap buildClusterMap() {
-        long totalClusters = getTotalClusters();
-        @SuppressWarnings("unchecked")
-        EnumSet<ClusterRoles>[] clusterToRole = new EnumSet[(int) totalClusters];
-        Object[] clusterToFileId = new Object[(int) totalClusters];
+        ClusterMap.Builder builder = new ClusterMap.Builder(getTotalClusters());
         Map<Object, String[]> fileIdToPaths = new HashMap<>();
         forAllDirEntries("", (path, entry) -> {
             String[] paths = null;
@@ -370,14 +367,12 @@ public class VfsCDReader extends VfsReadOnlyFileSystem<ReaderDirEntry, File, Rea
 
             long clusters = MathUtilities.ceil(((ReaderDirEntry) entry).getRecord().dataLength,
                                                IsoUtilities.SectorSize);
-            for (long i = 0; i < clusters; ++i) {
-                clusterToRole[(int) i + ((ReaderDirEntry) entry).getRecord().locationOfExtent] = EnumSet
-                        .of(ClusterRoles.DataFile);
-                clusterToFileId[(int) i + ((ReaderDirEntry) entry).getRecord().locationOfExtent] = entry
-                        .getUniqueCacheId();
-            }
+            builder.addRun(((ReaderDirEntry) entry).getRecord().locationOfExtent & 0xffff_ffffL,
+                           clusters,
+                           EnumSet.of(ClusterRoles.DataFile),
+                           entry.getUniqueCacheId());
         });
-        return new ClusterMap(clusterToRole, clusterToFileId, fileIdToPaths);
+        return builder.build(fileIdToPaths);
     }
 
     @Override public UnixFileSystemInfo getUnixFileInfo(String path) {
@@ -1,4 +1,3 @@
-
 package discUtils.nfs;
 
 import java.io.Closeable;
@@ -11,4 +10,22 @@ public interface IRpcTransport extends Closeable {
     byte[] sendAndReceive(byte[] message);
 
     byte[] receive();
+
+    /**
+     * Sends a call without waiting for its reply, so that several calls can
+     * be outstanding at once.
+     *
+     * @param message The call, starting with its transaction id.
+     * @return The transaction id, to collect the reply with {@link #receive(int)}.
+     */
+    int sendCall(byte[] message);
+
+    /**
+     * Waits for the reply to a call sent with {@link #sendCall(byte[])}.
+     * Replies to other outstanding calls arriving first are kept until
+     * they're asked for.
+     *
+     * @param transactionId The transaction id of the call.
+     */
+    byte[] receive(int transactionId);
 }
@@ -107,12 +107,32 @@ public final class Nfs3 extends RpcProgram {
     }
 
     public Nfs3ReadResult read(Nfs3FileHandle handle, long position, int count) {
+        return readResult(doSend(readCall(handle, position, count)));
+    }
+
+    /**
+     * Sends a READ without waiting for the reply, several can be outstanding.
+     *
+     * @return The transaction id, to pass to {@link #endRead(int)}.
+     */
+    public int beginRead(Nfs3FileHandle handle, long position, int count) {
+        return beginSend(readCall(handle, position, count));
+    }
+
+    public Nfs3ReadResult endRead(int transactionId) {
+        return readResult(endSend(transactionId));
+    }
+
+    private MemoryStream readCall(Nfs3FileHandle handle, long position, int count) {
         MemoryStream ms = new MemoryStream();
         XdrDataWriter writer = startCallMessage(ms, client.getCredentials(), NfsProc3.Read);
         handle.write(writer);
         writer.write(position);
         writer.write(count);
-        RpcReply reply = doSend(ms);
+        return ms;
+    }
+
+    private static Nfs3ReadResult readResult(RpcReply reply) {
         if (reply.getHeader().isSuccess()) {
             return new Nfs3ReadResult(reply.getBodyReader());
         }
@@ -121,6 +141,25 @@ public final class Nfs3 extends RpcProgram {
     }
 
     public Nfs3WriteResult write(Nfs3FileHandle handle, long position, byte[] buffer, int bufferOffset, int count) {
+        return writeResult(doSend(writeCall(handle, position, buffer, bufferOffset, count)));
+    }
+
+    /**
+     * Sends a WRITE without waiting for the reply, several can be
+     * outstanding. The data is copied into the call, so the buffer can be
+     * reused at once.
+     *
+     * @return The transaction id, to pass to {@link #endWrite(int)}.
+     */
+    public int beginWrite(Nfs3FileHandle handle, long position, byte[] buffer, int bufferOffset, int count) {
+        return beginSend(writeCall(handle, position, buffer, bufferOffset, count));
+    }
+
+    public Nfs3WriteResult endWrite(int transactionId) {
+        return writeResult(endSend(transactionId));
+    }
+
+    private MemoryStream writeCall(Nfs3FileHandle handle, long position, byte[] buffer, int bufferOffset, int count) {
         MemoryStream ms = new MemoryStream();
         XdrDataWriter writer = startCallMessage(ms, client.getCredentials(), NfsProc3.Write);
         handle.write(writer);
@@ -128,7 +167,10 @@ public final class Nfs3 extends RpcProgram {
         writer.write(count);
         writer.write(Nfs3StableHow.Unstable.ordinal());
         writer.writeBuffer(buffer, bufferOffset, count);
-        RpcReply reply = doSend(ms);
+        return ms;
+    }
+
+    private static Nfs3WriteResult writeResult(RpcReply reply) {
         if (reply.getHeader().isSuccess()) {
             return new Nfs3WriteResult(reply.getBodyReader());
         }
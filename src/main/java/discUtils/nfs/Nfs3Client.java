@@ -27,16 +27,28 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 
 public final class Nfs3Client implements Closeable {
 
+    /** the number of directories whose handles are kept */
+    private static final int MaxCachedDirectories = 256;
+
     private final Map<Nfs3FileHandle, Nfs3FileAttributes> cachedAttributes;
 
     private final Map<Nfs3FileHandle, Nfs3FileSystemStat> cachedStats;
 
+    /**
+     * the handles of directory entries listed by READDIRPLUS, by directory
+     * and name, least recently used first
+     */
+    private final Map<Nfs3FileHandle, CachedNames> cachedHandles;
+
+    private long handleCacheMillis = 3000;
+
     private final Nfs3Mount mountClient;
 
     private final Nfs3 nfsClient;
@@ -57,6 +69,12 @@ public final class Nfs3Client implements Closeable {
         cachedAttributes = new HashMap<>();
         cachedAttributes.put(getRootHandle(), fsiResult.getPostOpAttributes());
         cachedStats = new HashMap<>();
+        cachedHandles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Nfs3FileHandle, CachedNames> eldest) {
+                return size() > MaxCachedDirectories;
+            }
+        };
     }
 
     private final Nfs3FileSystemInfo fileSystemInfo;
@@ -71,6 +89,20 @@ public final class Nfs3Client implements Closeable {
         return rootHandle;
     }
 
+    /**
+     * Gets how long the handles of a directory listing are used for lookups,
+     * after which they are asked of the server again.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getHandleCacheMillis() {
+        return handleCacheMillis;
+    }
+
+    public void setHandleCacheMillis(long value) {
+        handleCacheMillis = value;
+    }
+
     @Override
     public void close() throws IOException {
         if (rpcClient != null) {
@@ -91,18 +123,27 @@ public final class Nfs3Client implements Closeable {
             return getResult.getAttributes();
         }
 
-        throw new Nfs3Exception(getResult.getStatus());
+        throw error(getResult.getStatus(), handle);
     }
 
     public void setAttributes(Nfs3FileHandle handle, Nfs3SetAttributes newAttributes) {
         Nfs3ModifyResult result = nfsClient.setAttributes(handle, newAttributes);
         cachedAttributes.put(handle, result.getCacheConsistency().getAfter());
         if (result.getStatus() != Nfs3Status.Ok) {
-            throw new Nfs3Exception(result.getStatus());
+            throw error(result.getStatus(), handle);
         }
     }
 
     public Nfs3FileHandle lookup(Nfs3FileHandle dirHandle, String name) {
+        CachedNames cached = cachedHandles.get(dirHandle);
+        if (cached != null) {
+            if (cached.expires - System.currentTimeMillis() <= 0) {
+                cachedHandles.remove(dirHandle);
+            } else if (cached.names.containsKey(name)) {
+                return cached.names.get(name);
+            }
+        }
+
         Nfs3LookupResult result = nfsClient.lookup(dirHandle, name);
         if (result.getObjectAttributes() != null && result.getObjectHandle() != null) {
             cachedAttributes.put(result.getObjectHandle(), result.getObjectAttributes());
@@ -120,7 +161,7 @@ public final class Nfs3Client implements Closeable {
             return null;
         }
 
-        throw new Nfs3Exception(result.getStatus());
+        throw error(result.getStatus(), dirHandle);
     }
 
     public EnumSet<Nfs3AccessPermissions> access(Nfs3FileHandle handle, EnumSet<Nfs3AccessPermissions> requested) {
@@ -133,11 +174,27 @@ public final class Nfs3Client implements Closeable {
             return result.getAccess();
         }
 
-        throw new Nfs3Exception(result.getStatus());
+        throw error(result.getStatus(), handle);
     }
 
     public Nfs3ReadResult read(Nfs3FileHandle fileHandle, long position, int count) {
-        Nfs3ReadResult result = nfsClient.read(fileHandle, position, count);
+        return readResult(fileHandle, nfsClient.read(fileHandle, position, count));
+    }
+
+    /**
+     * Sends a READ without waiting for the reply.
+     *
+     * @return The transaction id, to pass to {@link #endRead}.
+     */
+    public int beginRead(Nfs3FileHandle fileHandle, long position, int count) {
+        return nfsClient.beginRead(fileHandle, position, count);
+    }
+
+    public Nfs3ReadResult endRead(Nfs3FileHandle fileHandle, int transactionId) {
+        return readResult(fileHandle, nfsClient.endRead(transactionId));
+    }
+
+    private Nfs3ReadResult readResult(Nfs3FileHandle fileHandle, Nfs3ReadResult result) {
         if (result.getFileAttributes() != null) {
             cachedAttributes.put(fileHandle, result.getFileAttributes());
         }
@@ -146,61 +203,84 @@ public final class Nfs3Client implements Closeable {
             return result;
         }
 
-        throw new Nfs3Exception(result.getStatus());
+        throw error(result.getStatus(), fileHandle);
     }
 
     public int write(Nfs3FileHandle fileHandle, long position, byte[] buffer, int offset, int count) {
-        Nfs3WriteResult result = nfsClient.write(fileHandle, position, buffer, offset, count);
+        return writeResult(fileHandle, nfsClient.write(fileHandle, position, buffer, offset, count));
+    }
+
+    /**
+     * Sends a WRITE without waiting for the reply.
+     *
+     * @return The transaction id, to pass to {@link #endWrite}.
+     */
+    public int beginWrite(Nfs3FileHandle fileHandle, long position, byte[] buffer, int offset, int count) {
+        return nfsClient.beginWrite(fileHandle, position, buffer, offset, count);
+    }
+
+    /** @return the number of bytes written */
+    public int endWrite(Nfs3FileHandle fileHandle, int transactionId) {
+        return writeResult(fileHandle, nfsClient.endWrite(transactionId));
+    }
+
+    private int writeResult(Nfs3FileHandle fileHandle, Nfs3WriteResult result) {
         cachedAttributes.put(fileHandle, result.getCacheConsistency().getAfter());
         if (result.getStatus() == Nfs3Status.Ok) {
             return result.getCount();
         }
 
-        throw new Nfs3Exception(result.getStatus());
+        throw error(result.getStatus(), fileHandle);
     }
 
     public Nfs3FileHandle create(Nfs3FileHandle dirHandle, String name, boolean createNew, Nfs3SetAttributes attributes) {
+        cachedHandles.remove(dirHandle);
         Nfs3CreateResult result = nfsClient.create(dirHandle, name, createNew, attributes);
         if (result.getStatus() == Nfs3Status.Ok) {
             cachedAttributes.put(result.getFileHandle(), result.getFileAttributes());
             return result.getFileHandle();
         }
 
-        throw new Nfs3Exception(result.getStatus());
+        throw error(result.getStatus(), dirHandle);
     }
 
     public Nfs3FileHandle makeDirectory(Nfs3FileHandle dirHandle, String name, Nfs3SetAttributes attributes) {
+        cachedHandles.remove(dirHandle);
         Nfs3CreateResult result = nfsClient.makeDirectory(dirHandle, name, attributes);
         if (result.getStatus() == Nfs3Status.Ok) {
             cachedAttributes.put(result.getFileHandle(), result.getFileAttributes());
             return result.getFileHandle();
         }
 
-        throw new Nfs3Exception(result.getStatus());
+        throw error(result.getStatus(), dirHandle);
     }
 
     public void remove(Nfs3FileHandle dirHandle, String name) {
+        cachedHandles.remove(dirHandle);
         Nfs3ModifyResult result = nfsClient.remove(dirHandle, name);
         cachedAttributes.put(dirHandle, result.getCacheConsistency().getAfter());
         if (result.getStatus() != Nfs3Status.Ok) {
-            throw new Nfs3Exception(result.getStatus());
+            throw error(result.getStatus(), dirHandle);
         }
     }
 
     public void removeDirectory(Nfs3FileHandle dirHandle, String name) {
+        cachedHandles.remove(dirHandle);
         Nfs3ModifyResult result = nfsClient.removeDirectory(dirHandle, name);
         cachedAttributes.put(dirHandle, result.getCacheConsistency().getAfter());
         if (result.getStatus() != Nfs3Status.Ok) {
-            throw new Nfs3Exception(result.getStatus());
+            throw error(result.getStatus(), dirHandle);
         }
     }
 
     public void rename(Nfs3FileHandle fromDirHandle, String fromName, Nfs3FileHandle toDirHandle, String toName) {
+        cachedHandles.remove(fromDirHandle);
+        cachedHandles.remove(toDirHandle);
         Nfs3RenameResult result = nfsClient.rename(fromDirHandle, fromName, toDirHandle, toName);
         cachedAttributes.put(fromDirHandle, result.getFromDirCacheConsistency().getAfter());
         cachedAttributes.put(toDirHandle, result.getToDirCacheConsistency().getAfter());
         if (result.getStatus() != Nfs3Status.Ok) {
-            throw new Nfs3Exception(result.getStatus());
+            throw error(result.getStatus(), fromDirHandle, toDirHandle);
         }
     }
 
@@ -217,12 +297,18 @@ public final class Nfs3Client implements Closeable {
             cachedStats.put(handle, getResult.getFileSystemStat());
             return getResult.getFileSystemStat();
         } else {
-            throw new Nfs3Exception(getResult.getStatus());
+            throw error(getResult.getStatus(), handle);
         }
     }
 
+    /**
+     * Lists a directory with READDIRPLUS. The attributes and handles of the
+     * entries are kept, so looking them up afterwards needn't go to the
+     * server.
+     */
     public List<Nfs3DirectoryEntry> readDirectory(Nfs3FileHandle parent, boolean silentFail) {
         List<Nfs3DirectoryEntry> entries = new ArrayList<>();
+        Map<String, Nfs3FileHandle> names = new HashMap<>();
         long cookie = 0;
         long cookieVerifier = 0;
         Nfs3ReadDirPlusResult result;
@@ -237,16 +323,58 @@ public final class Nfs3Client implements Closeable {
             }
 
             if (result.getStatus() != Nfs3Status.Ok) {
-                throw new Nfs3Exception(result.getStatus());
+                throw error(result.getStatus(), parent);
             }
 
             for (Nfs3DirectoryEntry entry : result.getDirEntries()) {
-                cachedAttributes.put(entry.getFileHandle(), entry.getFileAttributes());
+                // the server may leave out the handle and attributes of an entry
+                if (entry.getFileHandle() != null && entry.getFileAttributes() != null) {
+                    cachedAttributes.put(entry.getFileHandle(), entry.getFileAttributes());
+                    if (!entry.getName().equals(".") && !entry.getName().equals("..")) {
+                        names.put(entry.getName(), entry.getFileHandle());
+                    }
+                }
                 entries.add(entry);
                 cookie = entry.getCookie();
             }
             cookieVerifier = result.getCookieVerifier();
         } while (!result.getEof());
+        if (result.getStatus() == Nfs3Status.Ok) {
+            cachedHandles.put(parent, new CachedNames(names, System.currentTimeMillis() + handleCacheMillis));
+        }
         return entries;
     }
+
+    /**
+     * Makes the exception for a failed call. A stale handle is forgotten, so
+     * it isn't given out again.
+     *
+     * @param handles The handles the call was made with.
+     */
+    private Nfs3Exception error(Nfs3Status status, Nfs3FileHandle... handles) {
+        if (status == Nfs3Status.StaleFileHandle) {
+            for (Nfs3FileHandle handle : handles) {
+                cachedAttributes.remove(handle);
+                cachedStats.remove(handle);
+                cachedHandles.remove(handle);
+                for (CachedNames cached : cachedHandles.values()) {
+                    cached.names.values().removeIf(handle::equals);
+                }
+            }
+        }
+        return new Nfs3Exception(status);
+    }
+
+    /** the handles of the entries of a directory, and until when they are used */
+    private static final class CachedNames {
+
+        final Map<String, Nfs3FileHandle> names;
+
+        final long expires;
+
+        CachedNames(Map<String, Nfs3FileHandle> names, long expires) {
+            this.names = names;
+            this.expires = expires;
+        }
+    }
 }
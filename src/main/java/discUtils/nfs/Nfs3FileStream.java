@@ -22,8 +22,10 @@
 
 package discUtils.nfs;
 
-import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 import discUtils.streams.SparseStream;
@@ -32,22 +34,58 @@ import dotnet4j.io.FileAccess;
 import dotnet4j.io.SeekOrigin;
 
 
+/**
+ * A file on an NFS server.
+ *
+ * Several READ or WRITE calls are kept outstanding, up to the window: reads
+ * running on from where the last one stopped fetch the following chunks of
+ * the file ahead, and writes return once their calls are sent, the replies
+ * being collected when the window is full, on {@link #flush()} or before the
+ * next read. So an error writing may only be reported by a later call.
+ */
 public final class Nfs3FileStream extends SparseStream {
 
+    /** the number of calls kept outstanding by default */
+    public static final int DefaultWindow = 8;
+
     private final FileAccess access;
 
     private final Nfs3Client client;
 
     private final Nfs3FileHandle handle;
 
+    private final int window;
+
     private long length;
 
     private long position;
 
+    /** where the last read stopped, reading on from there fetches ahead */
+    private long sequentialPosition;
+
+    /** the READs sent, for consecutive chunks of the file */
+    private final Deque<PendingRead> readAhead = new ArrayDeque<>();
+
+    /** the WRITEs sent, in the order they were */
+    private final Deque<PendingWrite> writeBehind = new ArrayDeque<>();
+
     public Nfs3FileStream(Nfs3Client client, Nfs3FileHandle handle, FileAccess access) {
+        this(client, handle, access, DefaultWindow);
+    }
+
+    /**
+     * @param window The number of READ or WRITE calls to keep outstanding, 1
+     *            to wait for each in turn.
+     */
+    public Nfs3FileStream(Nfs3Client client, Nfs3FileHandle handle, FileAccess access, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1: " + window);
+        }
+
         this.client = client;
         this.handle = handle;
         this.access = access;
+        this.window = window;
         length = this.client.getAttributes(this.handle).size;
     }
 
@@ -80,19 +118,82 @@ public final class Nfs3FileStream extends SparseStream {
     }
 
     @Override public void flush() {
+        completeWrites();
     }
 
     @Override public int read(byte[] buffer, int offset, int count) {
-        int numToRead = Math.min(client.getFileSystemInfo().getReadMaxBytes(), count);
-        Nfs3ReadResult readResult = client.read(handle, position, numToRead);
-        int toCopy = Math.min(count, readResult.getCount());
-        System.arraycopy(readResult.getData(), 0, buffer, offset, toCopy);
-        if (readResult.getEof()) {
-            length = position + readResult.getCount();
+        completeWrites();
+        if (!readAhead.isEmpty() && readAhead.getFirst().getNext() != position) {
+            cancelReads();
+        }
+
+        int totalRead = 0;
+        while (totalRead < count) {
+            sendReads(count - totalRead);
+            PendingRead read = readAhead.getFirst();
+            Nfs3ReadResult readResult;
+            try {
+                readResult = read.getResult();
+            } catch (RuntimeException e) {
+                // the reply is used up, reading again has to send new calls
+                readAhead.removeFirst();
+                cancelReads();
+                throw e;
+            }
+            int toCopy = Math.min(count - totalRead, readResult.getCount() - read.consumed);
+            System.arraycopy(readResult.getData(), read.consumed, buffer, offset + totalRead, toCopy);
+            read.consumed += toCopy;
+            position += toCopy;
+            totalRead += toCopy;
+            if (read.consumed < readResult.getCount()) {
+                break;
+            }
+
+            readAhead.removeFirst();
+            if (readResult.getEof()) {
+                length = read.position + readResult.getCount();
+                cancelReads();
+                break;
+            }
+            if (readResult.getCount() < read.count) {
+                // a short read, the reads sent after it start at the wrong place
+                cancelReads();
+                if (readResult.getCount() == 0) {
+                    break;
+                }
+            }
         }
 
-        position += toCopy;
-        return toCopy;
+        sequentialPosition = position;
+        return totalRead;
+    }
+
+    /**
+     * Sends the reads needed for the next {@code count} bytes, and when
+     * reading on from where the last read stopped, those for the rest of
+     * the file up to the window.
+     */
+    private void sendReads(int count) {
+        int chunkSize = client.getFileSystemInfo().getReadMaxBytes();
+        boolean sequential = position == sequentialPosition;
+        long end = sequential ? Math.max(length, position + count) : position + count;
+        long next = readAhead.isEmpty() ? position : readAhead.getLast().getEnd();
+        while (readAhead.isEmpty() || (readAhead.size() < window && next < end)) {
+            int numToRead = sequential ? chunkSize : (int) Math.min(chunkSize, end - next);
+            readAhead.addLast(new PendingRead(next, numToRead, client.beginRead(handle, next, numToRead)));
+            next += numToRead;
+        }
+    }
+
+    /** drops the reads sent ahead, the replies still have to be taken */
+    private void cancelReads() {
+        while (!readAhead.isEmpty()) {
+            try {
+                readAhead.removeFirst().getResult();
+            } catch (RuntimeException e) {
+                // not wanted anyway, and if the connection is lost so are the others
+            }
+        }
     }
 
     @Override public long seek(long offset, SeekOrigin origin) {
@@ -109,6 +210,8 @@ public final class Nfs3FileStream extends SparseStream {
 
     @Override public void setLength(long value) {
         if (canWrite()) {
+            completeWrites();
+            cancelReads();
             client.setAttributes(handle, new Nfs3SetAttributes());
             length = value;
         } else {
@@ -117,18 +220,97 @@ public final class Nfs3FileStream extends SparseStream {
     }
 
     @Override public void write(byte[] buffer, int offset, int count) {
+        cancelReads();
         int totalWritten = 0;
         while (totalWritten < count) {
             int numToWrite = Math.min(client.getFileSystemInfo().getWriteMaxBytes(), count - totalWritten);
-            int numWritten = client.write(handle, position, buffer, offset + totalWritten, numToWrite);
-            position += numWritten;
-            totalWritten += numWritten;
+            while (writeBehind.size() >= window) {
+                completeWrite(writeBehind.removeFirst());
+            }
+            byte[] data = Arrays.copyOfRange(buffer, offset + totalWritten, offset + totalWritten + numToWrite);
+            writeBehind.addLast(new PendingWrite(position, data, client.beginWrite(handle, position, data, 0, numToWrite)));
+            position += numToWrite;
+            totalWritten += numToWrite;
         }
         length = Math.max(length, position);
     }
 
+    private void completeWrites() {
+        while (!writeBehind.isEmpty()) {
+            completeWrite(writeBehind.removeFirst());
+        }
+    }
+
+    private void completeWrite(PendingWrite write) {
+        int totalWritten = client.endWrite(handle, write.transactionId);
+        // the server may have taken less than was sent
+        while (totalWritten < write.data.length) {
+            totalWritten += client.write(handle, write.position + totalWritten, write.data, totalWritten, write.data.length - totalWritten);
+        }
+    }
+
+    /**
+     * Waits for the outstanding writes, the client is shared and left open.
+     */
     @Override
-    public void close() throws IOException {
-        client.close();
+    public void close() {
+        try {
+            completeWrites();
+        } finally {
+            cancelReads();
+        }
+    }
+
+    /** a READ sent */
+    private final class PendingRead {
+
+        final long position;
+
+        final int count;
+
+        final int transactionId;
+
+        Nfs3ReadResult result;
+
+        /** the number of bytes of the result already read */
+        int consumed;
+
+        PendingRead(long position, int count, int transactionId) {
+            this.position = position;
+            this.count = count;
+            this.transactionId = transactionId;
+        }
+
+        /** @return the position in the file to be read next from the result */
+        long getNext() {
+            return position + consumed;
+        }
+
+        long getEnd() {
+            return position + count;
+        }
+
+        Nfs3ReadResult getResult() {
+            if (result == null) {
+                result = client.endRead(handle, transactionId);
+            }
+            return result;
+        }
+    }
+
+    /** a WRITE sent, the data is kept in case the server takes less */
+    private static final class PendingWrite {
+
+        final long position;
+
+        final byte[] data;
+
+        final int transactionId;
+
+        PendingWrite(long position, byte[] data, int transactionId) {
+            this.position = position;
+            this.data = data;
+            this.transactionId = transactionId;
+        }
     }
 }
@@ -178,8 +178,9 @@ public class NfsFileSystem extends DiscFileSystem {
             destFileHandle = client.create(destParent, destFileName, !overwrite, setAttrs);
 
             // Copy the file contents
-            try (Nfs3FileStream sourceFs = new Nfs3FileStream(client, sourceFileHandle, FileAccess.Read);
-                 Nfs3FileStream destFs = new Nfs3FileStream(client, destFileHandle, FileAccess.Write)) {
+            int window = getNfsOptions().getTransferWindow();
+            try (Nfs3FileStream sourceFs = new Nfs3FileStream(client, sourceFileHandle, FileAccess.Read, window);
+                 Nfs3FileStream destFs = new Nfs3FileStream(client, destFileHandle, FileAccess.Write, window)) {
                 int bufferSize = (int) Math.max(1 * Sizes.OneMiB,
                                                 Math.min(client.getFileSystemInfo().getWritePreferredBytes(),
                                                          client.getFileSystemInfo().getReadPreferredBytes()));
@@ -190,8 +191,6 @@ public class NfsFileSystem extends DiscFileSystem {
                     destFs.write(buffer, 0, numRead);
                     numRead = sourceFs.read(buffer, 0, bufferSize);
                 }
-            } catch (IOException e) {
-                throw new dotnet4j.io.IOException(e);
             }
 
             // Set the new file's attributes based on the source file
@@ -477,7 +476,7 @@ public class NfsFileSystem extends DiscFileSystem {
                 Nfs3FileHandle handle = client
                         .create(parent, Utilities.getFileFromPath(path), mode != FileMode.Create, setAttrs);
 
-                return new Nfs3FileStream(client, handle, access);
+                return new Nfs3FileStream(client, handle, access, getNfsOptions().getTransferWindow());
             } else {
                 Nfs3FileHandle handle = getFile(path);
                 EnumSet<Nfs3AccessPermissions> actualPerms = client.access(handle, requested);
@@ -490,7 +489,7 @@ public class NfsFileSystem extends DiscFileSystem {
                                     actualPerms));
                 }
 
-                Nfs3FileStream result = new Nfs3FileStream(client, handle, access);
+                Nfs3FileStream result = new Nfs3FileStream(client, handle, access, getNfsOptions().getTransferWindow());
                 if (mode == FileMode.Append) {
                     result.seek(0, SeekOrigin.End);
                 } else if (mode == FileMode.Truncate) {
@@ -709,8 +708,16 @@ public class NfsFileSystem extends DiscFileSystem {
         throw new dotnet4j.io.IOException("NFS Status: " + ne.getMessage());
     }
 
+    /**
+     * The entries are listed by READDIRPLUS, which also gets their handles
+     * and attributes, so inspecting the results afterwards, or searching
+     * subdirectories, needn't look them up again.
+     */
     private void doSearch(List<String> results, String path, Pattern regex, boolean subFolders, boolean dirs, boolean files) {
-        Nfs3FileHandle dir = getDirectory(path);
+        doSearch(results, path, getDirectory(path), regex, subFolders, dirs, files);
+    }
+
+    private void doSearch(List<String> results, String path, Nfs3FileHandle dir, Pattern regex, boolean subFolders, boolean dirs, boolean files) {
         for (Nfs3DirectoryEntry de : client.readDirectory(dir, true)) {
             if (de.getName().equals(".") || de.getName().equals("..")) {
                 continue;
@@ -727,7 +734,8 @@ public class NfsFileSystem extends DiscFileSystem {
             }
 
             if (subFolders && isDir) {
-                doSearch(results, Utilities.combinePaths(path, de.getName()), regex, subFolders, dirs, files);
+                Nfs3FileHandle subDir = de.getFileHandle() != null ? de.getFileHandle() : client.lookup(dir, de.getName());
+                doSearch(results, Utilities.combinePaths(path, de.getName()), subDir, regex, subFolders, dirs, files);
             }
         }
     }
@@ -74,4 +74,22 @@ public final class NfsFileSystemOptions extends DiscFileSystemOptions {
     public void setNewFilePermissions(EnumSet<UnixFilePermissions> value) {
         newFilePermissions = value;
     }
+
+    /**
+     * Gets or sets the number of READ or WRITE calls a file stream keeps
+     * outstanding, reading ahead and writing behind. 1 waits for each call
+     * in turn.
+     */
+    private int transferWindow = Nfs3FileStream.DefaultWindow;
+
+    public int getTransferWindow() {
+        return transferWindow;
+    }
+
+    public void setTransferWindow(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("transfer window must be at least 1: " + value);
+        }
+        transferWindow = value;
+    }
 }
@@ -54,6 +54,26 @@ public abstract class RpcProgram {
         IRpcTransport transport = client.getTransport(getIdentifier(), getVersion());
         byte[] buffer = ms.toArray();
         buffer = transport.sendAndReceive(buffer);
+        return parseReply(buffer);
+    }
+
+    /**
+     * Sends a call without waiting for the reply.
+     *
+     * @return The transaction id of the call, to pass to {@link #endSend(int)}.
+     */
+    protected int beginSend(MemoryStream ms) {
+        IRpcTransport transport = client.getTransport(getIdentifier(), getVersion());
+        return transport.sendCall(ms.toArray());
+    }
+
+    /** Waits for the reply to a call sent by {@link #beginSend(MemoryStream)}. */
+    protected RpcReply endSend(int transactionId) {
+        IRpcTransport transport = client.getTransport(getIdentifier(), getVersion());
+        return parseReply(transport.receive(transactionId));
+    }
+
+    private static RpcReply parseReply(byte[] buffer) {
         XdrDataReader reader = new XdrDataReader(new MemoryStream(buffer));
         RpcMessageHeader header = new RpcMessageHeader(reader);
         return new RpcReply() {{ setHeader(header); setBodyReader(reader); }};
@@ -26,6 +26,10 @@ package discUtils.nfs;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.MemoryStream;
@@ -48,6 +52,12 @@ public final class RpcTcpTransport implements IRpcTransport {
 
     private NetworkStream tcpStream;
 
+    /** the transaction ids of the calls sent by {@link #sendCall(byte[])} not yet replied to */
+    private final Set<Integer> outstanding = new HashSet<>();
+
+    /** replies received, but not yet asked for, by transaction id */
+    private final Map<Integer, byte[]> replies = new HashMap<>();
+
     public RpcTcpTransport(String address, int port) {
         this(address, port, 0);
     }
@@ -59,7 +69,9 @@ public final class RpcTcpTransport implements IRpcTransport {
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        outstanding.clear();
+        replies.clear();
         if (tcpStream != null) {
             tcpStream.close();
             tcpStream = null;
@@ -72,7 +84,12 @@ public final class RpcTcpTransport implements IRpcTransport {
     }
 
     @Override
-    public byte[] sendAndReceive(byte[] message) {
+    public synchronized byte[] sendAndReceive(byte[] message) {
+        if (!outstanding.isEmpty()) {
+            // the reply has to be picked out from those of the other calls
+            return receive(sendCall(message));
+        }
+
         int retries = 0;
         int retryLimit = RetryLimit;
         Exception lastException = null;
@@ -85,25 +102,7 @@ public final class RpcTcpTransport implements IRpcTransport {
         while (response == null && retries < retryLimit) {
             while (retries < retryLimit && (socket == null || !socket.isConnected())) {
                 try {
-                    if (tcpStream != null) {
-                        tcpStream.close();
-                        tcpStream = null;
-                    }
-
-                    if (socket != null) {
-                        socket.close();
-                        socket = null;
-                    }
-
-                    socket = new Socket();
-                    socket.setReuseAddress(true);
-                    socket.setTcpNoDelay(true);
-                    if (localPort != 0) {
-                        socket.bind(new InetSocketAddress(localPort));
-                    }
-
-                    socket.connect(new InetSocketAddress(address, port));
-                    tcpStream = new NetworkStream(socket, false);
+                    connect();
                 } catch (IOException se) {
                     retries++;
                     lastException = se;
@@ -139,6 +138,91 @@ public final class RpcTcpTransport implements IRpcTransport {
         return response;
     }
 
+    @Override
+    public synchronized int sendCall(byte[] message) {
+        if (socket == null || !socket.isConnected()) {
+            try {
+                connect();
+            } catch (IOException e) {
+                throw new dotnet4j.io.IOException(String.format("Unable to connect to %s:%d", address, port), e);
+            }
+        }
+
+        int transactionId = ByteUtil.readBeInt(message, 0);
+        try {
+            send(tcpStream, message);
+        } catch (dotnet4j.io.IOException e) {
+            disconnect();
+            throw e;
+        }
+        outstanding.add(transactionId);
+        return transactionId;
+    }
+
+    @Override
+    public synchronized byte[] receive(int transactionId) {
+        while (!replies.containsKey(transactionId)) {
+            if (!outstanding.contains(transactionId)) {
+                throw new dotnet4j.io.IOException(String
+                        .format("No reply to RPC call %08x from %s:%d", transactionId, address, port));
+            }
+
+            byte[] reply;
+            try {
+                reply = receive(tcpStream);
+            } catch (dotnet4j.io.IOException e) {
+                disconnect();
+                throw e;
+            }
+            // a reply to no outstanding call is dropped
+            int replyId = ByteUtil.readBeInt(reply, 0);
+            if (outstanding.remove(replyId)) {
+                replies.put(replyId, reply);
+            }
+        }
+        return replies.remove(transactionId);
+    }
+
+    private void connect() throws IOException {
+        if (tcpStream != null) {
+            tcpStream.close();
+            tcpStream = null;
+        }
+
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+
+        socket = new Socket();
+        socket.setReuseAddress(true);
+        socket.setTcpNoDelay(true);
+        if (localPort != 0) {
+            socket.bind(new InetSocketAddress(localPort));
+        }
+
+        socket.connect(new InetSocketAddress(address, port));
+        tcpStream = new NetworkStream(socket, false);
+    }
+
+    /** drops the connection after an error, the calls outstanding on it are lost */
+    private void disconnect() {
+        outstanding.clear();
+        try {
+            if (tcpStream != null) {
+                tcpStream.close();
+            }
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // the connection is given up anyway
+        } finally {
+            tcpStream = null;
+            socket = null;
+        }
+    }
+
     @Override
     public void send(byte[] message) {
         send(tcpStream, message);
@@ -24,6 +24,8 @@ package discUtils.ntfs;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 
 import discUtils.streams.SparseStream;
 import discUtils.streams.block.BlockCacheStream;
@@ -34,8 +36,17 @@ import dotnet4j.io.Stream;
 
 final class Bitmap implements Closeable {
 
+    /** the size of the pieces of the bitmap held while writes are deferred */
+    private static final int PageSize = 4096;
+
+    /** the size of the pieces of the bitmap searched for a clear bit */
+    private static final int ScanSize = 4096;
+
     private BlockCacheStream bitmap;
 
+    /** the pages changed since the writes were deferred, by page number */
+    private TreeMap<Long, byte[]> deferredPages;
+
     private final long maxIndex;
 
     private long nextAvailable;
@@ -92,11 +103,7 @@ final class Bitmap implements Closeable {
             buffer[buffer.length - 1] = getByte(lastByte);
         }
 
-        for (long i = index; i < index + count; ++i) {
-            long byteIdx = i / 8 - firstByte;
-            byte mask = (byte) (1 << (byte) (i % 8));
-            buffer[(int) byteIdx] = (byte) (buffer[(int) byteIdx] | mask);
-        }
+        setBits(buffer, index - firstByte * 8, count, true);
 
         setBytes(firstByte, buffer);
     }
@@ -132,12 +139,7 @@ final class Bitmap implements Closeable {
             buffer[buffer.length - 1] = getByte(lastByte);
         }
 
-        for (long i = index; i < index + count; ++i) {
-            long byteIdx = i / 8 - firstByte;
-            byte mask = (byte) (1 << (byte) (i % 8));
-
-            buffer[(int) byteIdx] = (byte) (buffer[(int) byteIdx] & (byte) ~mask);
-        }
+        setBits(buffer, index - firstByte * 8, count, false);
 
         setBytes(firstByte, buffer);
 
@@ -146,10 +148,54 @@ final class Bitmap implements Closeable {
         }
     }
 
+    /** sets or clears a run of bits, whole bytes at a time in the middle */
+    private static void setBits(byte[] buffer, long first, long count, boolean value) {
+        long i = first;
+        long end = first + count;
+        for (; i < end && i % 8 != 0; ++i) {
+            setBit(buffer, i, value);
+        }
+        for (; end - i >= 8; i += 8) {
+            buffer[(int) (i / 8)] = value ? (byte) 0xff : 0;
+        }
+        for (; i < end; ++i) {
+            setBit(buffer, i, value);
+        }
+    }
+
+    private static void setBit(byte[] buffer, long i, boolean value) {
+        byte mask = (byte) (1 << (byte) (i % 8));
+        if (value) {
+            buffer[(int) (i / 8)] |= mask;
+        } else {
+            buffer[(int) (i / 8)] &= (byte) ~mask;
+        }
+    }
+
     long allocateFirstAvailable(long minValue) {
         long i = Math.max(minValue, nextAvailable);
-        while (isPresent(i) && i < maxIndex) {
-            ++i;
+
+        // whole bytes are tested at a time, bits past the end of the bitmap
+        // are clear
+        byte[] buffer = new byte[ScanSize];
+        while (i < maxIndex) {
+            long byteIdx = i / 8;
+            int numRead = getBytes(byteIdx, buffer, 0, buffer.length);
+            if (numRead <= 0) {
+                break;
+            }
+
+            int clear = ~buffer[0] & (0xff << (int) (i % 8)) & 0xff;
+            int k = 0;
+            while (clear == 0 && ++k < numRead) {
+                clear = ~buffer[k] & 0xff;
+            }
+
+            if (clear != 0) {
+                i = (byteIdx + k) * 8 + Integer.numberOfTrailingZeros(clear);
+                break;
+            }
+            i = (byteIdx + numRead) * 8;
         }
 
         if (i < maxIndex) {
@@ -175,6 +221,13 @@ final class Bitmap implements Closeable {
             return 0;
         }
 
+        if (deferredPages != null) {
+            byte[] page = deferredPages.get(index / PageSize);
+            if (page != null) {
+                return page[(int) (index % PageSize)];
+            }
+        }
+
         byte[] buffer = new byte[1];
         bitmap.position(index);
         if (bitmap.read(buffer, 0, 1) != 0) {
@@ -190,21 +243,122 @@ final class Bitmap implements Closeable {
         if (count <= 0)
             return 0;
         bitmap.position(index);
-        return bitmap.read(buffer, offset, count);
+        int numRead = bitmap.read(buffer, offset, count);
+
+        if (deferredPages != null && numRead > 0) {
+            for (Map.Entry<Long, byte[]> page : deferredPages.subMap(index / PageSize, true,
+                                                                      (index + numRead - 1) / PageSize, true)
+                    .entrySet()) {
+                long pageStart = page.getKey() * PageSize;
+                long from = Math.max(index, pageStart);
+                long to = Math.min(index + numRead, pageStart + PageSize);
+                System.arraycopy(page.getValue(),
+                                 (int) (from - pageStart),
+                                 buffer,
+                                 offset + (int) (from - index),
+                                 (int) (to - from));
+            }
+        }
+        return numRead;
+    }
+
+    /**
+     * Holds changes to the bitmap in memory until {@link #flushDeferredWrites()},
+     * so many changes to the same part of the bitmap are written once.
+     */
+    void beginDeferredWrites() {
+        if (deferredPages == null) {
+            deferredPages = new TreeMap<>();
+        }
+    }
+
+    /**
+     * Writes the changes held in memory, runs of changed pages in one write
+     * each.
+     */
+    void flushDeferredWrites() {
+        if (deferredPages == null || deferredPages.isEmpty()) {
+            return;
+        }
+
+        long length = bitmap.getLength();
+        Map.Entry<Long, byte[]> first = deferredPages.firstEntry();
+        while (first != null) {
+            long startPage = first.getKey();
+            long endPage = startPage + 1;
+            while (deferredPages.containsKey(endPage)) {
+                ++endPage;
+            }
+
+            long start = startPage * PageSize;
+            int count = (int) (Math.min(endPage * PageSize, length) - start);
+            if (count > 0) {
+                byte[] buffer = new byte[count];
+                for (int offset = 0; offset < count; offset += PageSize) {
+                    byte[] page = deferredPages.get(startPage + offset / PageSize);
+                    System.arraycopy(page, 0, buffer, offset, Math.min(PageSize, count - offset));
+                }
+                bitmap.position(start);
+                bitmap.write(buffer, 0, count);
+            }
+
+            first = deferredPages.ceilingEntry(endPage);
+        }
+        bitmap.flush();
+        deferredPages.clear();
+    }
+
+    /**
+     * Writes the changes held in memory, and writes changes straight through
+     * again from now on.
+     */
+    void endDeferredWrites() {
+        flushDeferredWrites();
+        deferredPages = null;
     }
 
     private void setByte(long index, byte value) {
-        byte[] buffer = new byte[] {
+        setBytes(index, new byte[] {
             value
-        };
-        bitmap.position(index);
-        bitmap.write(buffer, 0, 1);
-        bitmap.flush();
+        });
     }
 
     private void setBytes(long index, byte[] buffer) {
+        if (deferredPages != null) {
+            for (int i = 0; i < buffer.length;) {
+                long pos = index + i;
+                int pageOffset = (int) (pos % PageSize);
+                int count = Math.min(PageSize - pageOffset, buffer.length - i);
+                System.arraycopy(buffer, i, getDeferredPage(pos / PageSize), pageOffset, count);
+                i += count;
+            }
+            return;
+        }
+
         bitmap.position(index);
         bitmap.write(buffer, 0, buffer.length);
         bitmap.flush();
     }
+
+    private byte[] getDeferredPage(long pageNumber) {
+        byte[] page = deferredPages.get(pageNumber);
+        if (page == null) {
+            page = new byte[PageSize];
+            long start = pageNumber * PageSize;
+            int count = (int) Math.min(PageSize, bitmap.getLength() - start);
+            if (count > 0) {
+                bitmap.position(start);
+                int numRead = 0;
+                while (numRead < count) {
+                    int n = bitmap.read(page, numRead, count - numRead);
+                    if (n <= 0) {
+                        break;
+                    }
+                    numRead += n;
+                }
+            }
+            deferredPages.put(pageNumber, page);
+        }
+        return page;
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Holds the meta-data writes of a bulk ingest in memory.
+ *
+ * MFT records, index blocks and the MFT and cluster bitmaps are written at
+ * checkpoints rather than each time they change, runs of neighbouring records
+ * and blocks in one write each. Creating many files changes the same few
+ * directory index blocks and bitmap bytes over and over, so most of the
+ * writes are never made.
+ *
+ * The records and blocks held are the ones the caches hand out, and holding
+ * them keeps them in the caches, so reads see the changes not yet written.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+final class BulkIngest {
+
+    /** the number of records and blocks held before a checkpoint is made */
+    static final int DefaultCheckpointSize = 4096;
+
+    private final MasterFileTable mft;
+
+    private final ClusterBitmap clusterBitmap;
+
+    private final int checkpointSize;
+
+    private final TreeMap<Long, FileRecord> records = new TreeMap<>();
+
+    private final Map<Index, TreeMap<Long, IndexBlock>> indexBlocks = new IdentityHashMap<>();
+
+    private int numIndexBlocks;
+
+    private boolean flushing;
+
+    BulkIngest(INtfsContext context, int checkpointSize) {
+        mft = context.getMft();
+        clusterBitmap = context.getClusterBitmap();
+        this.checkpointSize = checkpointSize;
+
+        mft.getBitmap().beginDeferredWrites();
+        clusterBitmap.getBitmap().beginDeferredWrites();
+    }
+
+    /**
+     * Holds a record to be written at the next checkpoint.
+     *
+     * @return {@code false} if the record should be written now instead.
+     */
+    boolean deferRecord(FileRecord record) {
+        if (flushing) {
+            return false;
+        }
+
+        records.put((long) record.getMasterFileTableIndex(), record);
+        return true;
+    }
+
+    /**
+     * Gets a record held for the next checkpoint.
+     *
+     * @return the record, or {@code null} if none is held for the index.
+     */
+    FileRecord getRecord(long index) {
+        return records.get(index);
+    }
+
+    /**
+     * Holds an index block to be written at the next checkpoint.
+     *
+     * @return {@code false} if the block should be written now instead.
+     */
+    boolean deferIndexBlock(Index index, IndexBlock block) {
+        if (flushing) {
+            return false;
+        }
+
+        if (indexBlocks.computeIfAbsent(index, k -> new TreeMap<>()).put(block.getStreamPosition(), block) == null) {
+            ++numIndexBlocks;
+        }
+        return true;
+    }
+
+    private int getPendingCount() {
+        return records.size() + numIndexBlocks;
+    }
+
+    /**
+     * Writes everything held. The bitmaps go first and the index blocks last,
+     * so nothing written refers to something not yet written.
+     */
+    void flush() {
+        flushing = true;
+        try {
+            mft.getBitmap().flushDeferredWrites();
+            clusterBitmap.getBitmap().flushDeferredWrites();
+
+            mft.writeRecords(records.values());
+            records.clear();
+
+            for (Map.Entry<Index, TreeMap<Long, IndexBlock>> entry : indexBlocks.entrySet()) {
+                IndexBlock.writeBlocksToDisk(entry.getKey(), entry.getValue().values());
+            }
+            indexBlocks.clear();
+            numIndexBlocks = 0;
+        } finally {
+            flushing = false;
+        }
+    }
+
+    /**
+     * Writes everything held, and writes straight through from now on.
+     */
+    void end() {
+        flush();
+        mft.getBitmap().endDeferredWrites();
+        clusterBitmap.getBitmap().endDeferredWrites();
+    }
+
+    /**
+     * Writes everything held if enough has built up. Only called between
+     * operations, as records and blocks are only whole then.
+     */
+    void checkpointIfFull() {
+        if (getPendingCount() >= checkpointSize) {
+            flush();
+        }
+    }
+}
@@ -43,11 +43,16 @@ class ClusterBitmap implements Closeable {
 
     private long nextDataCluster;
 
+    private final long maxClusters;
+
+    /** the free clusters, built from the bitmap when first needed */
+    private FreeExtentIndex freeExtents;
+
     public ClusterBitmap(File file) {
         this.file = file;
-        bitmap = new Bitmap(this.file.openStream(AttributeType.Data, null, FileAccess.ReadWrite),
-                             MathUtilities.ceil(file.getContext().getBiosParameterBlock().totalSectors64,
-                                                file.getContext().getBiosParameterBlock().getSectorsPerCluster()));
+        maxClusters = MathUtilities.ceil(file.getContext().getBiosParameterBlock().totalSectors64,
+                                         file.getContext().getBiosParameterBlock().getSectorsPerCluster());
+        bitmap = new Bitmap(this.file.openStream(AttributeType.Data, null, FileAccess.ReadWrite), maxClusters);
     }
 
     Bitmap getBitmap() {
@@ -139,18 +144,43 @@ class ClusterBitmap implements Closeable {
 
     void markAllocated(long first, long count) {
         bitmap.markPresentRange(first, count);
+        if (freeExtents != null) {
+            freeExtents.markUsed(first, count);
+        }
     }
 
     void freeClusters(List<Tuple<Long, Long>> runs) {
         for (Tuple<Long, Long> run : runs) {
-            bitmap.markAbsentRange(run.getItem1(), run.getItem2());
+            markFree(run.getItem1(), run.getItem2());
         }
     }
 
     void freeClusters(Range... runs) {
         for (Range run : runs) {
-            bitmap.markAbsentRange(run.getOffset(), run.getCount());
+            markFree(run.getOffset(), run.getCount());
+        }
+    }
+
+    private void markFree(long first, long count) {
+        bitmap.markAbsentRange(first, count);
+        if (freeExtents != null) {
+            freeExtents.markFree(first, count);
+        }
+    }
+
+    /**
+     * Gets the number of clusters in use, counting those the bitmap covers
+     * beyond the end of the volume.
+     */
+    long getUsedClusters() {
+        return getFreeExtents().getUsedCount();
+    }
+
+    private FreeExtentIndex getFreeExtents() {
+        if (freeExtents == null) {
+            freeExtents = FreeExtentIndex.scan(bitmap, Math.max(bitmap.getSize() * 8, maxClusters));
         }
+        return freeExtents;
     }
 
     /**
@@ -163,30 +193,31 @@ class ClusterBitmap implements Closeable {
      */
     void setTotalClusters(long numClusters) {
         long actualClusters = bitmap.setTotalEntries(numClusters);
+        freeExtents = null;
         if (actualClusters != numClusters) {
             markAllocated(numClusters, actualClusters - numClusters);
         }
     }
 
     private long extendRun(long count, List<Tuple<Long, Long>> result, long start, long end) {
-        long focusCluster = start;
-        while (!bitmap.isPresent(focusCluster) && focusCluster < end && focusCluster - start < count) {
-            ++focusCluster;
-        }
-
-        long numFound = focusCluster - start;
-
-        if (numFound > 0) {
-            bitmap.markPresentRange(start, numFound);
-            result.add(new Tuple<>(start, numFound));
+        Range run = getFreeExtents().getFreeAt(start, end);
+        if (run == null) {
+            return 0;
         }
 
+        long numFound = Math.min(count, run.getCount());
+        allocate(start, numFound, result);
         return numFound;
     }
 
     /**
      * Finds one or more free clusters in a range.
      *
+     * A contiguous range is taken from the shortest free run long enough
+     * (with the headroom, if there's one), otherwise free runs are taken in
+     * order. Either way the search starts where the last allocation stopped
+     * (or the start of the range for the MFT), wrapping around.
+     *
      * @param count The number of clusters required.
      * @param result The list of clusters found (i.e. out param).
      * @param start The first cluster in the range to look at.
@@ -204,7 +235,7 @@ class ClusterBitmap implements Closeable {
                               boolean isMft,
                               boolean contiguous,
                               long headroom) {
-        long numFound = 0;
+        FreeExtentIndex index = getFreeExtents();
 
         long focusCluster;
         if (isMft) {
@@ -217,32 +248,42 @@ class ClusterBitmap implements Closeable {
             focusCluster = nextDataCluster;
         }
 
-        long numInspected = 0;
-        while (numFound < count && focusCluster >= start && numInspected < end - start) {
-            if (!bitmap.isPresent(focusCluster)) {
-                // Start of a run...
-                long runStart = focusCluster;
-                ++focusCluster;
+        if (contiguous) {
+            // ahead of the rotor first, so the headroom left behind earlier
+            // allocations stays free for them to grow into
+            Range run = findBestFit(index, count, headroom, focusCluster, end);
+            if (run == null && focusCluster > start) {
+                run = findBestFit(index, count, headroom, start, end);
+            }
+            if (run == null) {
+                return 0;
+            }
 
-                while (!bitmap.isPresent(focusCluster) && focusCluster - runStart < count - numFound) {
-                    ++focusCluster;
-                    ++numInspected;
-                }
+            allocate(run.getOffset(), count, result);
+            if (!isMft) {
+                nextDataCluster = run.getOffset() + count + headroom;
+            }
+            return count;
+        }
 
-                if (!contiguous || focusCluster - runStart == count - numFound) {
-                    bitmap.markPresentRange(runStart, focusCluster - runStart);
-                    result.add(new Tuple<>(runStart, focusCluster - runStart));
-                    numFound += focusCluster - runStart;
+        long numFound = 0;
+        long limit = end;
+        long wrapAt = focusCluster;
+        while (numFound < count) {
+            Range run = index.findNext(focusCluster, limit);
+            if (run == null) {
+                if (limit == end && wrapAt > start) {
+                    focusCluster = start;
+                    limit = wrapAt;
+                    continue;
                 }
-            } else {
-                ++focusCluster;
+                break;
             }
 
-            ++numInspected;
-
-            if (focusCluster >= end) {
-                focusCluster = start;
-            }
+            long numToTake = Math.min(run.getCount(), count - numFound);
+            allocate(run.getOffset(), numToTake, result);
+            numFound += numToTake;
+            focusCluster = run.getOffset() + numToTake;
         }
 
         if (!isMft) {
@@ -251,4 +292,19 @@ class ClusterBitmap implements Closeable {
 
         return numFound;
     }
+
+    /** the shortest run holding the clusters, with the headroom if possible */
+    private static Range findBestFit(FreeExtentIndex index, long count, long headroom, long start, long end) {
+        Range run = headroom > 0 ? index.findBestFit(count + headroom, start, end) : null;
+        if (run == null) {
+            run = index.findBestFit(count, start, end);
+        }
+        return run;
+    }
+
+    private void allocate(long first, long count, List<Tuple<Long, Long>> result) {
+        bitmap.markPresentRange(first, count);
+        freeExtents.markUsed(first, count);
+        result.add(new Tuple<>(first, count));
+    }
 }
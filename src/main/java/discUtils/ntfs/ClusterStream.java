@@ -22,6 +22,7 @@
 
 package discUtils.ntfs;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import discUtils.streams.util.Range;
@@ -33,6 +34,22 @@ public abstract class ClusterStream {
 
     public abstract List<Range> getStoredClusters();
 
+    /**
+     * Gets the stored clusters within a range of virtual clusters.
+     */
+    public List<Range> getStoredClusters(long startVcn, long count) {
+        List<Range> result = new ArrayList<>();
+        long endVcn = startVcn + count;
+        for (Range range : getStoredClusters()) {
+            long start = Math.max(range.getOffset(), startVcn);
+            long end = Math.min(range.getOffset() + range.getCount(), endVcn);
+            if (start < end) {
+                result.add(new Range(start, end - start));
+            }
+        }
+        return result;
+    }
+
     public abstract boolean isClusterStored(long vcn);
 
     public abstract void expandToClusters(long numVirtualClusters, NonResidentAttributeRecord extent, boolean allocate);
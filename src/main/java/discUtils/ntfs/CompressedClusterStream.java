@@ -22,11 +22,16 @@
 
 package discUtils.ntfs;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import discUtils.core.compression.BlockCompressor;
 import discUtils.core.compression.CompressionResult;
+import discUtils.core.internal.Utilities;
 import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Range;
 import dotnet4j.io.IOException;
@@ -101,34 +106,37 @@ public final class CompressedClusterStream extends ClusterStream {
         }
     }
 
+    /**
+     * Writes clusters. The whole compression units in the clusters are
+     * compressed in parallel, then stored in turn.
+     */
     @Override public int writeClusters(long startVcn, int count, byte[] buffer, int offset) {
         if (buffer.length < count * bytesPerCluster + offset) {
             throw new IllegalArgumentException("Cluster buffer too small");
         }
 
+        int unitSize = attr.getCompressionUnitSize();
         int totalAllocated = 0;
         int totalWritten = 0;
         while (totalWritten < count) {
             long focusVcn = startVcn + totalWritten;
             long cuStart = compressionStart(focusVcn);
-            if (cuStart == focusVcn && count - totalWritten >= attr.getCompressionUnitSize()) {
+            if (cuStart == focusVcn && count - totalWritten >= unitSize) {
                 // Aligned write...
-                totalAllocated += compressAndWriteClusters(focusVcn,
-                                                           attr.getCompressionUnitSize(),
-                                                           buffer,
-                                                           offset + totalWritten * bytesPerCluster);
-                totalWritten += attr.getCompressionUnitSize();
+                int numUnits = (count - totalWritten) / unitSize;
+                totalAllocated += compressAndWriteUnits(focusVcn, numUnits, buffer, offset + totalWritten * bytesPerCluster);
+                totalWritten += numUnits * unitSize;
             } else {
                 // Unaligned, so go through cache
                 loadCache(focusVcn);
                 int cacheOffset = (int) (focusVcn - cacheBufferVcn);
-                int toCopy = Math.min(count - totalWritten, attr.getCompressionUnitSize() - cacheOffset);
+                int toCopy = Math.min(count - totalWritten, unitSize - cacheOffset);
                 System.arraycopy(buffer,
                                  offset + totalWritten * bytesPerCluster,
                         cacheBuffer,
                                  cacheOffset * bytesPerCluster,
                                  toCopy * bytesPerCluster);
-                totalAllocated += compressAndWriteClusters(cacheBufferVcn, attr.getCompressionUnitSize(), cacheBuffer, 0);
+                totalAllocated += compressAndWriteClusters(cacheBufferVcn, unitSize, cacheBuffer, 0);
                 totalWritten += toCopy;
             }
         }
@@ -169,19 +177,65 @@ public final class CompressedClusterStream extends ClusterStream {
     private int compressAndWriteClusters(long focusVcn, int count, byte[] buffer, int offset) {
         BlockCompressor compressor = context.getOptions().getCompressor();
         compressor.setBlockSize(bytesPerCluster);
+        CompressedUnit unit = compress(compressor, buffer, offset, ioBuffer);
+        return writeUnit(focusVcn, count, unit, buffer, offset);
+    }
+
+    /**
+     * Compresses whole compression units, a window of them at a time on the
+     * common fork-join pool, storing each as soon as it and those before it
+     * are done.
+     */
+    private int compressAndWriteUnits(long focusVcn, int numUnits, byte[] buffer, int offset) {
+        if (numUnits == 1) {
+            return compressAndWriteClusters(focusVcn, attr.getCompressionUnitSize(), buffer, offset);
+        }
+
+        BlockCompressor compressor = context.getOptions().getCompressor();
+        compressor.setBlockSize(bytesPerCluster);
+        int unitBytes = attr.getCompressionUnitSize() * bytesPerCluster;
+        int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        Deque<CompletableFuture<CompressedUnit>> pending = new ArrayDeque<>();
         int totalAllocated = 0;
+        try {
+            int numWritten = 0;
+            for (int i = 0; i < numUnits; ++i) {
+                int unitOffset = offset + i * unitBytes;
+                pending.add(CompletableFuture.supplyAsync(() -> compress(compressor, buffer, unitOffset, new byte[unitBytes])));
+
+                while (pending.size() >= window || (i == numUnits - 1 && !pending.isEmpty())) {
+                    totalAllocated += writeUnit(focusVcn + (long) numWritten * attr.getCompressionUnitSize(),
+                                                attr.getCompressionUnitSize(),
+                                                Utilities.join(pending.remove()),
+                                                buffer,
+                                                offset + numWritten * unitBytes);
+                    numWritten++;
+                }
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(false));
+        }
+        return totalAllocated;
+    }
+
+    private CompressedUnit compress(BlockCompressor compressor, byte[] buffer, int offset, byte[] compressed) {
         int[] compressedLength = new int[] {
-            ioBuffer.length
+            compressed.length
         };
         CompressionResult result = compressor
-                .compress(buffer, offset, attr.getCompressionUnitSize() * bytesPerCluster, ioBuffer, 0, compressedLength);
-        if (result == CompressionResult.AllZeros) {
+                .compress(buffer, offset, attr.getCompressionUnitSize() * bytesPerCluster, compressed, 0, compressedLength);
+        return new CompressedUnit(result, compressed, compressedLength[0]);
+    }
+
+    private int writeUnit(long focusVcn, int count, CompressedUnit unit, byte[] buffer, int offset) {
+        int totalAllocated = 0;
+        if (unit.result == CompressionResult.AllZeros) {
             totalAllocated -= rawStream.releaseClusters(focusVcn, count);
-        } else if (result == CompressionResult.Compressed &&
-                   attr.getCompressionUnitSize() * bytesPerCluster - compressedLength[0] > bytesPerCluster) {
-            int compClusters = MathUtilities.ceil(compressedLength[0], bytesPerCluster);
+        } else if (unit.result == CompressionResult.Compressed &&
+                   attr.getCompressionUnitSize() * bytesPerCluster - unit.length > bytesPerCluster) {
+            int compClusters = MathUtilities.ceil(unit.length, bytesPerCluster);
             totalAllocated += rawStream.allocateClusters(focusVcn, compClusters);
-            totalAllocated += rawStream.writeClusters(focusVcn, compClusters, ioBuffer, 0);
+            totalAllocated += rawStream.writeClusters(focusVcn, compClusters, unit.data, 0);
             totalAllocated -= rawStream.releaseClusters(focusVcn + compClusters,
                                                          attr.getCompressionUnitSize() - compClusters);
         } else {
@@ -217,4 +271,20 @@ public final class CompressedClusterStream extends ClusterStream {
             cacheBufferVcn = cuStart;
         }
     }
+
+    /** a compression unit, compressed */
+    private static final class CompressedUnit {
+
+        final CompressionResult result;
+
+        final byte[] data;
+
+        final int length;
+
+        CompressedUnit(CompressionResult result, byte[] data, int length) {
+            this.result = result;
+            this.data = data;
+            this.length = length;
+        }
+    }
 }
@@ -23,6 +23,7 @@
 package discUtils.ntfs;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import dotnet4j.io.IOException;
@@ -36,6 +37,11 @@ class CookedDataRuns {
 
     private final List<CookedDataRun> runs;
 
+    /** the start VCNs of the runs, for binary search, valid up to {@link #indexed} */
+    private long[] startVcns = new long[16];
+
+    private int indexed;
+
     public CookedDataRuns() {
         runs = new ArrayList<>();
     }
@@ -79,17 +85,44 @@ class CookedDataRuns {
                 throw new IOException("Looking for VCN outside of data runs");
             }
 
-            for (int i = startIdx; i < numRuns; ++i) {
-                run = runs.get(i);
-                if (run.getStartVcn() + run.getLength() > vcn) {
-                    return i;
+            // the last run starting at or before the VCN, the runs being contiguous
+            updateIndex();
+            int i = Arrays.binarySearch(startVcns, 0, numRuns, vcn);
+            if (i < 0) {
+                i = Math.max(0, -i - 2);
+            } else {
+                // skip empty runs
+                while (i < numRuns - 1 && startVcns[i + 1] == vcn) {
+                    i++;
                 }
             }
+
+            i = Math.max(i, startIdx);
+            if (i < numRuns) {
+                return i;
+            }
         }
 
         throw new IOException("Looking for VCN outside of data runs");
     }
 
+    private void updateIndex() {
+        int numRuns = runs.size();
+        if (startVcns.length < numRuns) {
+            startVcns = Arrays.copyOf(startVcns, Math.max(numRuns, startVcns.length * 2));
+        }
+        for (; indexed < numRuns; ++indexed) {
+            startVcns[indexed] = runs.get(indexed).getStartVcn();
+        }
+    }
+
+    /** runs from the index on have moved */
+    private void invalidateIndex(int index) {
+        if (index < indexed) {
+            indexed = index;
+        }
+    }
+
     public void append(DataRun rawRun, NonResidentAttributeRecord attributeExtent) {
         CookedDataRun last = getLast();
         runs.add(new CookedDataRun(rawRun, getNextVirtualCluster(), last == null ? 0 : last.getStartLcn(), attributeExtent));
@@ -153,6 +186,7 @@ class CookedDataRuns {
         }
 
         runs.remove(index);
+        invalidateIndex(index);
         int insertIdx = run.getAttributeExtent().removeRun(run.getDataRun());
 
         CookedDataRun lastNewRun = null;
@@ -208,6 +242,7 @@ class CookedDataRuns {
         run.setLength(distance);
 
         runs.add(runIdx + 1, newRun);
+        invalidateIndex(runIdx + 1);
         run.getAttributeExtent().insertRun(run.getDataRun(), newRun.getDataRun());
 
         for (int i = runIdx + 2; i < runs.size(); ++i) {
@@ -226,6 +261,7 @@ class CookedDataRuns {
      * @param index The first run to be truncated.
      */
     public void truncateAt(int index) {
+        invalidateIndex(index);
         while (index < runs.size()) {
             runs.get(index).getAttributeExtent().removeRun(runs.get(index).getDataRun());
             runs.remove(index);
@@ -239,11 +275,13 @@ class CookedDataRuns {
                 runs.get(i).setLength(runs.get(i).getLength() + runs.get(i + 1).getLength());
                 runs.get(i + 1).getAttributeExtent().removeRun(runs.get(i + 1).getDataRun());
                 runs.remove(i + 1);
+                invalidateIndex(i + 1);
             } else if (!runs.get(i).isSparse() && !runs.get(i + 1).isSparse() &&
                        runs.get(i).getStartLcn() + runs.get(i).getLength() == runs.get(i + 1).getStartLcn()) {
                 runs.get(i).setLength(runs.get(i).getLength() + runs.get(i + 1).getLength());
                 runs.get(i + 1).getAttributeExtent().removeRun(runs.get(i + 1).getDataRun());
                 runs.remove(i + 1);
+                invalidateIndex(i + 1);
 
                 for (int j = i + 1; j < runs.size(); ++j) {
                     if (runs.get(j).isSparse()) {
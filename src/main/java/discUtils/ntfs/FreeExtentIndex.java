@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import discUtils.streams.util.Range;
+import vavi.util.ByteUtil;
+
+
+/**
+ * The free runs of the cluster bitmap, kept in memory so that finding free
+ * clusters and counting the used ones needn't read the bitmap.
+ *
+ * The runs are held twice, by start for finding the run at or after a
+ * cluster, and by length for finding the best fit, so each run taken or
+ * given back costs O(log n).
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+final class FreeExtentIndex {
+
+    private static final int ScanBufferSize = 64 * 1024;
+
+    /** the number of runs {@link #findBestFit} tries by length before walking the range */
+    private static final int MaxBestFitCandidates = 64;
+
+    /** the number of clusters covered */
+    private final long size;
+
+    /** the length of the free runs, by start */
+    private final TreeMap<Long, Long> byStart = new TreeMap<>();
+
+    /** the free runs, by length then start */
+    private final TreeSet<Range> byLength = new TreeSet<>(Comparator.comparingLong(Range::getCount)
+            .thenComparingLong(Range::getOffset));
+
+    private long freeCount;
+
+    private FreeExtentIndex(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Builds the index from a bitmap, reading it a word at a time.
+     *
+     * @param size The number of clusters to cover, clusters beyond the end
+     *            of the bitmap are free.
+     */
+    static FreeExtentIndex scan(Bitmap bitmap, long size) {
+        FreeExtentIndex index = new FreeExtentIndex(size);
+        byte[] buffer = new byte[ScanBufferSize];
+        long bitmapBits = Math.min(bitmap.getSize() * 8, size);
+        long runStart = -1;
+        long pos = 0;
+        while (pos * 8 < bitmapBits) {
+            int numRead = bitmap.getBytes(pos, buffer, 0, buffer.length);
+            if (numRead <= 0) {
+                break;
+            }
+
+            // a partial word at the end reads as zeros, i.e. free
+            int numWords = (numRead + 7) / 8;
+            if (numRead % 8 != 0) {
+                Arrays.fill(buffer, numRead, numWords * 8, (byte) 0);
+            }
+            for (int i = 0; i < numWords; ++i) {
+                long word = ByteUtil.readLeLong(buffer, i * 8);
+                long base = (pos + i * 8L) * 8;
+                if (word == -1L) {
+                    if (runStart >= 0) {
+                        index.addScanned(runStart, base);
+                        runStart = -1;
+                    }
+                } else if (word == 0) {
+                    if (runStart < 0) {
+                        runStart = base;
+                    }
+                } else {
+                    int bit = 0;
+                    while (bit < 64) {
+                        if (runStart < 0) {
+                            long zeros = ~word & (-1L << bit);
+                            if (zeros == 0) {
+                                break;
+                            }
+                            bit = Long.numberOfTrailingZeros(zeros);
+                            runStart = base + bit;
+                        } else {
+                            long ones = word & (-1L << bit);
+                            if (ones == 0) {
+                                break;
+                            }
+                            bit = Long.numberOfTrailingZeros(ones);
+                            index.addScanned(runStart, base + bit);
+                            runStart = -1;
+                        }
+                    }
+                }
+            }
+            pos += numRead;
+        }
+
+        if (runStart < 0 && pos * 8 < size) {
+            runStart = pos * 8;
+        }
+        if (runStart >= 0) {
+            index.addScanned(runStart, size);
+        }
+        return index;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getFreeCount() {
+        return freeCount;
+    }
+
+    long getUsedCount() {
+        return size - freeCount;
+    }
+
+    /**
+     * Takes clusters out of the free runs, those already in use are left
+     * as they are.
+     */
+    void markUsed(long start, long count) {
+        if (count <= 0) {
+            return;
+        }
+
+        long end = Math.min(start + count, size);
+        Map.Entry<Long, Long> entry = byStart.floorEntry(start);
+        if (entry == null || entry.getKey() + entry.getValue() <= start) {
+            entry = byStart.higherEntry(start);
+        }
+        while (entry != null && entry.getKey() < end) {
+            long runStart = entry.getKey();
+            long runEnd = runStart + entry.getValue();
+            removeRun(runStart, entry.getValue());
+            if (runStart < start) {
+                addRun(runStart, start - runStart);
+            }
+            if (runEnd > end) {
+                addRun(end, runEnd - end);
+            }
+            entry = byStart.higherEntry(runStart);
+        }
+    }
+
+    /**
+     * Gives clusters back to the free runs, merging them with the runs
+     * they overlap or adjoin.
+     */
+    void markFree(long start, long count) {
+        long end = Math.min(start + count, size);
+        if (end <= start) {
+            return;
+        }
+
+        Map.Entry<Long, Long> entry = byStart.floorEntry(start);
+        if (entry == null || entry.getKey() + entry.getValue() < start) {
+            entry = byStart.higherEntry(start);
+        }
+        while (entry != null && entry.getKey() <= end) {
+            long runStart = entry.getKey();
+            long runEnd = runStart + entry.getValue();
+            removeRun(runStart, entry.getValue());
+            start = Math.min(start, runStart);
+            end = Math.max(end, runEnd);
+            entry = byStart.higherEntry(runStart);
+        }
+        addRun(start, end - start);
+    }
+
+    /**
+     * @return the free clusters from {@code cluster} on, up to {@code end},
+     *         or {@code null} if it's in use
+     */
+    Range getFreeAt(long cluster, long end) {
+        Map.Entry<Long, Long> entry = byStart.floorEntry(cluster);
+        if (entry == null || entry.getKey() + entry.getValue() <= cluster || cluster >= end) {
+            return null;
+        }
+        return new Range(cluster, Math.min(entry.getKey() + entry.getValue(), end) - cluster);
+    }
+
+    /**
+     * Finds the shortest free run holding {@code count} clusters within a
+     * range of the volume.
+     *
+     * The runs are tried shortest first, but only so many of them, as with
+     * the range a small part of a fragmented volume most would lie outside
+     * it. After that the runs in the range are walked instead.
+     *
+     * @return the first {@code count} clusters of the run in the range, or
+     *         {@code null} if there's none long enough
+     */
+    Range findBestFit(long count, long start, long end) {
+        int numTried = 0;
+        for (Range run : byLength.tailSet(new Range(Long.MIN_VALUE, count), true)) {
+            long runStart = Math.max(run.getOffset(), start);
+            long runEnd = Math.min(run.getOffset() + run.getCount(), end);
+            if (runEnd - runStart >= count) {
+                return new Range(runStart, count);
+            }
+            if (++numTried >= MaxBestFitCandidates) {
+                return findBestFitInRange(count, start, end);
+            }
+        }
+        return null;
+    }
+
+    /** {@link #findBestFit} by walking the runs in the range, O(runs in range) */
+    private Range findBestFitInRange(long count, long start, long end) {
+        Map.Entry<Long, Long> first = byStart.floorEntry(start);
+        long from = first != null ? first.getKey() : start;
+        long bestStart = -1;
+        long bestLength = Long.MAX_VALUE;
+        for (Map.Entry<Long, Long> entry : byStart.subMap(from, true, end, false).entrySet()) {
+            long runStart = Math.max(entry.getKey(), start);
+            long runEnd = Math.min(entry.getKey() + entry.getValue(), end);
+            if (runEnd - runStart >= count && entry.getValue() < bestLength) {
+                bestStart = runStart;
+                bestLength = entry.getValue();
+                if (bestLength == count) {
+                    break;
+                }
+            }
+        }
+        return bestStart >= 0 ? new Range(bestStart, count) : null;
+    }
+
+    /**
+     * @return the first free clusters at or after {@code cluster}, up to
+     *         {@code end}, or {@code null} if there are none
+     */
+    Range findNext(long cluster, long end) {
+        Range run = getFreeAt(cluster, end);
+        if (run != null) {
+            return run;
+        }
+
+        Map.Entry<Long, Long> entry = byStart.higherEntry(cluster);
+        if (entry == null || entry.getKey() >= end) {
+            return null;
+        }
+        return new Range(entry.getKey(), Math.min(entry.getKey() + entry.getValue(), end) - entry.getKey());
+    }
+
+    /** adds a run found scanning, the part beyond the clusters covered is dropped */
+    private void addScanned(long start, long end) {
+        end = Math.min(end, size);
+        if (start < end) {
+            addRun(start, end - start);
+        }
+    }
+
+    private void addRun(long start, long count) {
+        byStart.put(start, count);
+        byLength.add(new Range(start, count));
+        freeCount += count;
+    }
+
+    private void removeRun(long start, long count) {
+        byStart.remove(start);
+        byLength.remove(new Range(start, count));
+        freeCount -= count;
+    }
+}
@@ -12,6 +12,8 @@ public interface INtfsContext {
 
     BiosParameterBlock getBiosParameterBlock();
 
+    BulkIngest getBulkIngest();
+
     ClusterBitmap getClusterBitmap();
 
     ForgetFileFn getForgetFile();
@@ -22,6 +22,10 @@
 
 package discUtils.ntfs;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.Stream;
 import vavi.util.ByteUtil;
@@ -81,14 +85,59 @@ public class IndexBlock extends FixupRecordBase {
     }
 
     public void writeToDisk() {
+        Stream stream = index.getAllocationStream();
+
+        // a block past the end of the stream is written now, so that writing
+        // the blocks held never allocates
+        BulkIngest bulkIngest = index.file.getContext().getBulkIngest();
+        if (bulkIngest != null && streamPosition + index.getIndexBufferSize() <= stream.getLength() &&
+            bulkIngest.deferIndexBlock(index, this)) {
+            return;
+        }
+
         byte[] buffer = new byte[index.getIndexBufferSize()];
         toBytes(buffer, 0);
-        Stream stream = index.getAllocationStream();
         stream.position(streamPosition);
         stream.write(buffer, 0, buffer.length);
         stream.flush();
     }
 
+    long getStreamPosition() {
+        return streamPosition;
+    }
+
+    /**
+     * Writes blocks of an index, runs of neighbouring blocks in one write.
+     *
+     * @param blocks The blocks, in order of position.
+     */
+    static void writeBlocksToDisk(Index index, Collection<IndexBlock> blocks) {
+        int blockSize = index.getIndexBufferSize();
+        Stream stream = index.getAllocationStream();
+
+        List<IndexBlock> run = new ArrayList<>();
+        for (IndexBlock block : blocks) {
+            if (!run.isEmpty() && block.streamPosition != run.get(0).streamPosition + (long) run.size() * blockSize) {
+                writeRun(stream, run, blockSize);
+                run.clear();
+            }
+            run.add(block);
+        }
+        if (!run.isEmpty()) {
+            writeRun(stream, run, blockSize);
+        }
+        stream.flush();
+    }
+
+    private static void writeRun(Stream stream, List<IndexBlock> run, int blockSize) {
+        byte[] buffer = new byte[run.size() * blockSize];
+        for (int i = 0; i < run.size(); ++i) {
+            run.get(i).toBytes(buffer, i * blockSize);
+        }
+        stream.position(run.get(0).streamPosition);
+        stream.write(buffer, 0, buffer.length);
+    }
+
     @Override protected void read(byte[] buffer, int offset) {
         // Skip FixupRecord fields...
         logSequenceNumber = ByteUtil.readLeLong(buffer, offset + 0x08);
@@ -57,11 +57,49 @@ public final class LZNT1 extends BlockCompressor {
 
     private static final byte[] compressionBits = calcCompressionBits();
 
+    private static final int MinMatchLength = 3;
+
+    /** the hash of the next three bytes picks one of this many match chains */
+    private static final int HashBits = 12;
+
+    /** the number of earlier matches tried by default */
+    private static final int DefaultEffort = 64;
+
+    private int effort = DefaultEffort;
+
     public LZNT1() {
         setBlockSize(4096);
     }
 
     /**
+     * Gets how hard the compressor looks for matches, as the most earlier
+     * positions with the same leading bytes tried at each position.
+     */
+    public int getEffort() {
+        return effort;
+    }
+
+    /**
+     * Sets how hard the compressor looks for matches. Higher efforts find
+     * longer matches, for better compression at the cost of speed.
+     *
+     * @param value The most earlier positions to try at each position, at
+     *            least 1.
+     */
+    public void setEffort(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("effort must be at least 1: " + value);
+        }
+        effort = value;
+    }
+
+    /**
+     * Matches are found with hash chains: for each sub-block, the positions
+     * already passed are linked by the hash of the three bytes there, most
+     * recent first.
+     * <p>
+     * Holds no state between calls, so may be called from many threads.
+     *
      * @param compressedLength {@cs out}
      */
     @Override public CompressionResult compress(byte[] source,
@@ -70,56 +108,59 @@ public final class LZNT1 extends BlockCompressor {
                                       byte[] compressed,
                                       int compressedOffset,
                                       int[] compressedLength) {
-        int sourcePointer = 0;
-        int sourceCurrentBlock;
+        int blockSize = getBlockSize();
+        int maxEffort = effort;
+        int[] head = new int[1 << HashBits];
+        int[] prev = new int[blockSize];
         int destPointer = 0;
-        // Set up the Lz compression Map
-        LzWindowDictionary lzMap = new LzWindowDictionary();
         boolean nonZeroDataFound = false;
-        for (int subBlock = 0; subBlock < sourceLength; subBlock += getBlockSize()) {
-            lzMap.setMinMatchAmount(3);
-            sourceCurrentBlock = sourcePointer;
-            int decompressedSize = Math.min(sourceLength - subBlock, getBlockSize());
+        for (int subBlock = 0; subBlock < sourceLength; subBlock += blockSize) {
+            int blockStart = sourceOffset + subBlock;
+            int decompressedSize = Math.min(sourceLength - subBlock, blockSize);
             int compressedSize = 0;
+            Arrays.fill(head, -1);
+            int numChained = 0;
             // Start compression
             int headerPosition = destPointer;
+            if (destPointer + 2 >= compressedLength[0]) {
+                return CompressionResult.Incompressible;
+            }
             compressed[compressedOffset + destPointer] = compressed[compressedOffset + destPointer + 1] = 0;
             destPointer += 2;
-            while (sourcePointer - subBlock < decompressedSize) {
+            int pos = 0;
+            while (pos < decompressedSize) {
                 if (destPointer + 1 >= compressedLength[0]) {
                     return CompressionResult.Incompressible;
                 }
 
                 byte bitFlag = 0x0;
                 int flagPosition = destPointer;
-                compressed[compressedOffset + destPointer] = bitFlag;
                 // It will be filled in later
                 compressedSize++;
                 destPointer++;
-                for (int i = 0; i < 8; i++) {
-                    int lengthBits = 16 - compressionBits[sourcePointer - subBlock];
-                    short lengthMask = (short) ((1 << compressionBits[sourcePointer - subBlock]) - 1);
-                    lzMap.setMaxMatchAmount(Math.min(1 << lengthBits, getBlockSize() - 1));
-                    int[] lzSearchMatch = lzMap
-                            .search(source, sourceOffset + subBlock, sourcePointer - subBlock, decompressedSize);
-                    if (lzSearchMatch[1] > 0) {
+                for (int i = 0; i < 8 && pos < decompressedSize; i++) {
+                    int lengthBits = 16 - compressionBits[pos];
+                    int maxLength = Math.min((1 << lengthBits) + MinMatchLength - 1, decompressedSize - pos);
+
+                    for (; numChained < Math.min(pos, decompressedSize - MinMatchLength + 1); ++numChained) {
+                        int hash = hash(source, blockStart + numChained);
+                        prev[numChained] = head[hash];
+                        head[hash] = numChained;
+                    }
+
+                    long match = findMatch(source, blockStart, pos, maxLength, head, prev, maxEffort);
+                    int matchLength = (int) match;
+                    if (matchLength >= MinMatchLength) {
                         // There is a compression match
                         if (destPointer + 2 >= compressedLength[0]) {
                             return CompressionResult.Incompressible;
                         }
 
                         bitFlag |= (byte) (1 << i);
-                        int rawOffset = lzSearchMatch[0];
-                        int rawLength = lzSearchMatch[1];
-                        int convertedOffset = (rawOffset - 1) << lengthBits;
-                        int convertedSize = (rawLength - 3) & ((1 << lengthMask) - 1);
-                        short convertedData = (short) (convertedOffset | convertedSize);
+                        int matchOffset = (int) (match >>> 32);
+                        short convertedData = (short) (((matchOffset - 1) << lengthBits) | (matchLength - MinMatchLength));
                         ByteUtil.writeLeShort(convertedData, compressed, compressedOffset + destPointer);
-                        lzMap.addEntryRange(source,
-                                            sourceOffset + subBlock,
-                                            sourcePointer - subBlock,
-                                            lzSearchMatch[1]);
-                        sourcePointer += lzSearchMatch[1];
+                        pos += matchLength;
                         destPointer += 2;
                         compressedSize += 2;
                     } else {
@@ -128,49 +169,45 @@ public final class LZNT1 extends BlockCompressor {
                             return CompressionResult.Incompressible;
                         }
 
-                        bitFlag |= (byte) (0 << i);
-                        if (source[sourceOffset + sourcePointer] != 0) {
+                        if (source[blockStart + pos] != 0) {
                             nonZeroDataFound = true;
                         }
 
-                        compressed[compressedOffset + destPointer] = source[sourceOffset + sourcePointer];
-                        lzMap.addEntry(source, sourceOffset + subBlock, sourcePointer - subBlock);
-                        sourcePointer++;
+                        compressed[compressedOffset + destPointer] = source[blockStart + pos];
+                        pos++;
                         destPointer++;
                         compressedSize++;
                     }
-                    // Check for out of bounds
-                    if (sourcePointer - subBlock >= decompressedSize) {
-                        break;
-                    }
-
                 }
                 // Write the real flag.
                 compressed[compressedOffset + flagPosition] = bitFlag;
             }
             // If compressed size >= block size just store block
-            if (compressedSize >= getBlockSize()) {
+            if (compressedSize >= blockSize) {
+                if (headerPosition + 2 + decompressedSize + 2 > compressedLength[0]) {
+                    return CompressionResult.Incompressible;
+                }
+
                 // Set the header to indicate non-compressed block
-                ByteUtil.writeLeShort((short) (0x3000 | (getBlockSize() - 1)),
-                                                       compressed,
-                                                       compressedOffset + headerPosition);
+                ByteUtil.writeLeShort((short) (0x3000 | (decompressedSize - 1)),
+                                      compressed,
+                                      compressedOffset + headerPosition);
                 System.arraycopy(source,
-                                 sourceOffset + sourceCurrentBlock,
+                                 blockStart,
                                  compressed,
                                  compressedOffset + headerPosition + 2,
-                                 getBlockSize());
-                destPointer = headerPosition + 2 + getBlockSize();
+                                 decompressedSize);
+                destPointer = headerPosition + 2 + decompressedSize;
                 // Make sure decompression stops by setting the next two bytes to null, prevents us from having to
                 // clear the rest of the array.
-                compressed[destPointer] = 0;
-                compressed[destPointer + 1] = 0;
+                compressed[compressedOffset + destPointer] = 0;
+                compressed[compressedOffset + destPointer + 1] = 0;
             } else {
                 // Set the header to indicate compressed and the right length
                 ByteUtil.writeLeShort((short) (0xb000 | (compressedSize - 1)),
-                                                       compressed,
-                                                       compressedOffset + headerPosition);
+                                      compressed,
+                                      compressedOffset + headerPosition);
             }
-            lzMap.reset();
         }
         if (destPointer >= sourceLength) {
             compressedLength[0] = 0;
@@ -186,6 +223,45 @@ public final class LZNT1 extends BlockCompressor {
         return CompressionResult.AllZeros;
     }
 
+    /**
+     * Finds the longest match for the bytes at a position of a sub-block.
+     *
+     * @return The offset back to the match in the high 32 bits and its
+     *         length in the low, or zero if there's no match.
+     */
+    private static long findMatch(byte[] data, int blockStart, int pos, int maxLength, int[] head, int[] prev, int effort) {
+        if (pos < 1 || maxLength < MinMatchLength) {
+            return 0;
+        }
+
+        int bestLength = 0;
+        int bestOffset = 0;
+        int candidate = head[hash(data, blockStart + pos)];
+        for (int tries = 0; candidate >= 0 && tries < effort; ++tries) {
+            if (data[blockStart + candidate + bestLength] == data[blockStart + pos + bestLength]) {
+                int length = 0;
+                while (length < maxLength && data[blockStart + candidate + length] == data[blockStart + pos + length]) {
+                    length++;
+                }
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestOffset = pos - candidate;
+                    if (length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            candidate = prev[candidate];
+        }
+
+        return bestLength >= MinMatchLength ? ((long) bestOffset << 32) | bestLength : 0;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int value = (data[offset] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff);
+        return (value * 0x9e3779b1) >>> (32 - HashBits);
+    }
+
     @Override public int decompress(byte[] source, int sourceOffset, int sourceLength, byte[] decompressed, int decompressedOffset) {
         int sourceIdx = 0;
         int destIdx = 0;
@@ -227,7 +303,7 @@ public final class LZNT1 extends BlockCompressor {
                         } else {
                             short lengthBits = (short) (16 - compressionBits[destIdx - destSubBlockStart]);
                             short lengthMask = (short) ((1 << lengthBits) - 1);
-                            short phraseToken = ByteUtil.readLeShort(source, sourceOffset + sourceIdx);
+                            int phraseToken = ByteUtil.readLeShort(source, sourceOffset + sourceIdx) & 0xffff;
                             sourceIdx += 2;
                             int destBackAddr = destIdx - (phraseToken >>> lengthBits) - 1;
                             int length = (phraseToken & lengthMask) + 3;
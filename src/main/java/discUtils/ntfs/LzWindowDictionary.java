@@ -30,6 +30,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 
+/**
+ * @deprecated {@link LZNT1} finds its matches with hash chains now, see
+ *             {@link LZNT1#setEffort(int)}.
+ */
+@Deprecated
 public final class LzWindowDictionary {
 
     /**
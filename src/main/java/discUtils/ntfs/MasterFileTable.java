@@ -28,16 +28,25 @@ import java.io.PrintWriter;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import discUtils.core.ClusterMap;
 import discUtils.core.ClusterRoles;
 import discUtils.core.IDiagnosticTraceable;
 import discUtils.core.internal.ObjectCache;
+import discUtils.core.internal.Utilities;
 import discUtils.streams.SubStream;
 import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Range;
@@ -124,6 +133,15 @@ public class MasterFileTable implements IDiagnosticTraceable, Closeable {
      */
     private static final int FirstAvailableMftIndex = 24;
 
+    /** the size of the chunks the MFT is scanned in */
+    private static final int ScanChunkSize = 1024 * 1024;
+
+    /** the fewest files worth gathering the clusters of in a task of their own */
+    private static final int ClusterMapBatchSize = 1024;
+
+    /** the number of records the MFT is extended by during a bulk ingest */
+    private static final int BulkIngestGrowth = 1024;
+
     private Bitmap bitmap;
 
     private int bytesPerSector;
@@ -152,6 +170,7 @@ public class MasterFileTable implements IDiagnosticTraceable, Closeable {
      * cache.
      */
     public List<FileRecord> getRecords() {
+        flushBulkIngest();
         List<FileRecord> result = new ArrayList<>();
         try (Stream mftStream = self.openStream(AttributeType.Data, null, FileAccess.Read)) {
             int index = 0;
@@ -177,6 +196,62 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
         }
     }
 
+    /**
+     * Reads the MFT records directly from the MFT stream - bypassing the
+     * record cache - a chunk at a time. Each chunk is parsed on the common
+     * fork-join pool while the next ones are read, and the results are
+     * handed on in order, on the calling thread.
+     *
+     * @param parse Converts the records of a chunk, indexed from the first
+     *            record of the chunk, {@code null} where there's no record.
+     * @param consumer Receives the result for each chunk.
+     */
+    public <T> void scanRecords(Function<FileRecord[], T> parse, Consumer<T> consumer) {
+        int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        int chunkRecords = Math.max(1, ScanChunkSize / getRecordSize());
+        Deque<CompletableFuture<T>> pending = new ArrayDeque<>();
+        flushBulkIngest();
+        try (Stream mftStream = self.openStream(AttributeType.Data, null, FileAccess.Read)) {
+            long firstIndex = 0;
+            long numRecords = mftStream.getLength() / getRecordSize();
+            while (firstIndex < numRecords) {
+                int count = (int) Math.min(chunkRecords, numRecords - firstIndex);
+                byte[] chunk = StreamUtilities.readExact(mftStream, count * getRecordSize());
+                long chunkIndex = firstIndex;
+                pending.add(CompletableFuture.supplyAsync(() -> parse.apply(parseRecords(chunk, chunkIndex))));
+                firstIndex += count;
+
+                if (pending.size() >= window) {
+                    consumer.accept(Utilities.join(pending.remove()));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                consumer.accept(Utilities.join(pending.remove()));
+            }
+        } catch (IOException e) {
+            throw new dotnet4j.io.IOException(e);
+        } finally {
+            pending.forEach(f -> f.cancel(false));
+        }
+    }
+
+    private FileRecord[] parseRecords(byte[] chunk, long firstIndex) {
+        FileRecord[] records = new FileRecord[chunk.length / getRecordSize()];
+        for (int i = 0; i < records.length; ++i) {
+            int offset = i * getRecordSize();
+            if (chunk[offset] != 'F' || chunk[offset + 1] != 'I' || chunk[offset + 2] != 'L' || chunk[offset + 3] != 'E') {
+                continue;
+            }
+
+            FileRecord record = new FileRecord(bytesPerSector);
+            record.fromBytes(Arrays.copyOfRange(chunk, offset, offset + getRecordSize()), 0);
+            record.setLoadedIndex((int) (firstIndex + i));
+            records[i] = record;
+        }
+        return records;
+    }
+
     private int recordSize;
 
     public int getRecordSize() {
@@ -310,13 +385,16 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
 
         if (index * recordSize >= recordStream.getLength()) {
             // Note: 64 is significant, since bitmap extends by 8 bytes (=64
-            // bits) at a time.
-            long newEndIndex = MathUtilities.roundUp(index + 1, 64);
+            // bits) at a time. A bulk ingest reserves a larger run of records,
+            // to keep the MFT in fewer fragments.
+            int growth = self.getContext().getBulkIngest() != null ? BulkIngestGrowth : 64;
+            long newEndIndex = MathUtilities.roundUp(index + 1, growth);
             recordStream.setLength(newEndIndex * recordSize);
+            List<FileRecord> records = new ArrayList<>();
             for (long i = index; i < newEndIndex; ++i) {
-                FileRecord record = new FileRecord(bytesPerSector, recordSize, (int) i);
-                writeRecord(record);
+                records.add(new FileRecord(bytesPerSector, recordSize, (int) i));
             }
+            writeRecords(records);
         }
 
         FileRecord newRecord = getRecord(index, true);
@@ -382,6 +460,15 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
                 return result;
             }
 
+            // A record held by a bulk ingest may have left the cache (freed
+            // records are dropped from it), and the copy on disk is stale.
+            BulkIngest bulkIngest = self == null ? null : self.getContext().getBulkIngest();
+            result = bulkIngest != null ? bulkIngest.getRecord(index) : null;
+            if (result != null) {
+                recordCache.put(index, result);
+                return result;
+            }
+
             if ((index + 1) * recordSize <= recordStream.getLength()) {
                 recordStream.position(index * recordSize);
                 byte[] recordBuffer = StreamUtilities.readExact(recordStream, recordSize);
@@ -406,6 +493,15 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
             throw new dotnet4j.io.IOException("Attempting to write over-sized MFT record");
         }
 
+        // The system records are always written straight away, so the MFT
+        // can be bootstrapped and its mirror kept up to date.
+        BulkIngest bulkIngest = self.getContext().getBulkIngest();
+        if (bulkIngest != null && record.getMasterFileTableIndex() >= FirstAvailableMftIndex &&
+            (record.getMasterFileTableIndex() + 1L) * this.recordSize <= recordStream.getLength() &&
+            bulkIngest.deferRecord(record)) {
+            return;
+        }
+
         byte[] buffer = new byte[this.recordSize];
         record.toBytes(buffer, 0);
 
@@ -413,16 +509,7 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
         recordStream.write(buffer, 0, this.recordSize);
         recordStream.flush();
 
-        // We may have modified our own meta-data by extending the data stream,
-        // so make sure our records are up-to-date.
-        if (self.getMftRecordIsDirty()) {
-            DirectoryEntry dirEntry = self.getDirectoryEntry();
-            if (dirEntry != null) {
-                dirEntry.updateFrom(self);
-            }
-
-            self.updateRecordInMft();
-        }
+        updateSelf();
 
         // Need to update Mirror. OpenRaw is OK because this is short duration,
         // and we don't extend or otherwise modify any meta-data, just the
@@ -440,42 +527,121 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
         }
     }
 
+    /**
+     * Writes records, runs of neighbouring records in one write. None of
+     * them may be one of the records the mirror holds.
+     *
+     * @param records The records, in order of index.
+     */
+    void writeRecords(Collection<FileRecord> records) {
+        List<FileRecord> run = new ArrayList<>();
+        for (FileRecord record : records) {
+            if (record.getSize() > recordSize) {
+                throw new dotnet4j.io.IOException("Attempting to write over-sized MFT record");
+            }
+            if (!run.isEmpty() &&
+                record.getMasterFileTableIndex() != run.get(0).getMasterFileTableIndex() + run.size()) {
+                writeRun(run);
+                run.clear();
+            }
+            run.add(record);
+        }
+        if (!run.isEmpty()) {
+            writeRun(run);
+        }
+        recordStream.flush();
+
+        updateSelf();
+    }
+
+    private void writeRun(List<FileRecord> run) {
+        byte[] buffer = new byte[run.size() * recordSize];
+        for (int i = 0; i < run.size(); ++i) {
+            run.get(i).toBytes(buffer, i * recordSize);
+        }
+        recordStream.position((long) run.get(0).getMasterFileTableIndex() * recordSize);
+        recordStream.write(buffer, 0, buffer.length);
+    }
+
+    private void updateSelf() {
+        // We may have modified our own meta-data by extending the data stream,
+        // so make sure our records are up-to-date.
+        if (self.getMftRecordIsDirty()) {
+            DirectoryEntry dirEntry = self.getDirectoryEntry();
+            if (dirEntry != null) {
+                dirEntry.updateFrom(self);
+            }
+
+            self.updateRecordInMft();
+        }
+    }
+
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    private void flushBulkIngest() {
+        BulkIngest bulkIngest = self.getContext().getBulkIngest();
+        if (bulkIngest != null) {
+            bulkIngest.flush();
+        }
+    }
+
     public long getRecordOffset(FileRecordReference fileReference) {
         return fileReference.getMftIndex() * recordSize;
     }
 
+    /**
+     * Builds the map of clusters to files. The records are read and the
+     * files named in turn, then the clusters of their streams gathered in
+     * parallel.
+     */
     public ClusterMap getClusterMap() {
-        int totalClusters = (int) MathUtilities.ceil(self.getContext().getBiosParameterBlock().totalSectors64,
-                                                     self.getContext().getBiosParameterBlock().getSectorsPerCluster());
+        long totalClusters = MathUtilities.ceil(self.getContext().getBiosParameterBlock().totalSectors64,
+                                                self.getContext().getBiosParameterBlock().getSectorsPerCluster());
 
-        @SuppressWarnings("unchecked")
-        EnumSet<ClusterRoles>[] clusterToRole = new EnumSet[totalClusters];
-        Object[] clusterToFile = new Object[totalClusters];
+        List<File> files = new ArrayList<>();
         Map<Object, String[]> fileToPaths = new HashMap<>();
 
-        for (int i = 0; i < totalClusters; ++i) {
-            clusterToRole[i] = EnumSet.of(ClusterRoles.Free);
-        }
-
         for (FileRecord fr : getRecords()) {
             if (fr.getBaseFile().getValue() != 0 || !fr.getFlags().contains(FileRecordFlags.InUse)) {
                 continue;
             }
 
             File f = new File(self.getContext(), fr);
+            files.add(f);
 
+            List<String> names = f.getNames();
             for (NtfsStream stream : f.getAllStreams()) {
-                String fileId;
-
+                String fileId = getClusterMapFileId(f, stream);
                 if (stream.getAttributeType() == AttributeType.Data && stream.getName() != null &&
                     !stream.getName().isEmpty()) {
-                    fileId = f.getIndexInMft() + ":" + stream.getName();
-                    fileToPaths.put(fileId, f.getNames().stream().map(n -> n + ":" + stream.getName()).toArray(String[]::new));
+                    fileToPaths.put(fileId, names.stream().map(n -> n + ":" + stream.getName()).toArray(String[]::new));
                 } else {
-                    fileId = String.valueOf(f.getIndexInMft());
-                    fileToPaths.put(fileId, f.getNames().toArray(new String[0]));
+                    fileToPaths.put(fileId, names.toArray(new String[0]));
                 }
+            }
+        }
 
+        int numTasks = Math.max(1, Math.min(files.size() / ClusterMapBatchSize, ForkJoinPool.getCommonPoolParallelism()));
+        List<CompletableFuture<ClusterMap.Builder>> tasks = new ArrayList<>();
+        for (int i = 0; i < numTasks; ++i) {
+            List<File> batch = files.subList(files.size() * i / numTasks, files.size() * (i + 1) / numTasks);
+            tasks.add(CompletableFuture.supplyAsync(() -> addClusterRuns(batch, totalClusters)));
+        }
+
+        ClusterMap.Builder builder = new ClusterMap.Builder(totalClusters);
+        for (CompletableFuture<ClusterMap.Builder> task : tasks) {
+            builder.addAll(Utilities.join(task));
+        }
+
+        return builder.build(fileToPaths);
+    }
+
+    private static ClusterMap.Builder addClusterRuns(List<File> files, long totalClusters) {
+        ClusterMap.Builder builder = new ClusterMap.Builder(totalClusters);
+        for (File f : files) {
+            for (NtfsStream stream : f.getAllStreams()) {
                 EnumSet<ClusterRoles> roles = EnumSet.noneOf(ClusterRoles.class);
                 if (f.getIndexInMft() < FirstAvailableMftIndex) {
                     roles.add(ClusterRoles.SystemFile);
@@ -490,16 +656,21 @@ logger.log(Level.TRACE, "MFT records[" + index + "]: " + new String(recordData,
                     roles.add(ClusterRoles.Metadata);
                 }
 
+                String fileId = getClusterMapFileId(f, stream);
                 for (Range range : stream.getClusters()) {
-                    for (long cluster = range.getOffset(); cluster < range.getOffset() + range.getCount(); ++cluster) {
-                        clusterToRole[(int) cluster] = roles;
-                        clusterToFile[(int) cluster] = fileId;
-                    }
+                    builder.addRun(range.getOffset(), range.getCount(), roles, fileId);
                 }
             }
         }
+        return builder;
+    }
 
-        return new ClusterMap(clusterToRole, clusterToFile, fileToPaths);
+    private static String getClusterMapFileId(File f, NtfsStream stream) {
+        if (stream.getAttributeType() == AttributeType.Data && stream.getName() != null && !stream.getName().isEmpty()) {
+            return f.getIndexInMft() + ":" + stream.getName();
+        } else {
+            return String.valueOf(f.getIndexInMft());
+        }
     }
 
     private static void wipe(Stream s) {
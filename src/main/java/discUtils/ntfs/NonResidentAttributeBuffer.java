@@ -45,7 +45,7 @@ public class NonResidentAttributeBuffer extends NonResidentDataBuffer {
         this.attribute = attribute;
 
         if (attribute.getFlags().contains(AttributeFlags.Sparse)) {
-            activeStream = new SparseClusterStream(this.attribute, rawStream);
+            activeStream = new SparseClusterStream(context, this.attribute, rawStream);
         } else if (attribute.getFlags().contains(AttributeFlags.Compressed)) {
             activeStream = new CompressedClusterStream(context, this.attribute, rawStream);
         } else if (attribute.getFlags().isEmpty()) {
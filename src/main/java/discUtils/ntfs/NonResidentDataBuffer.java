@@ -28,6 +28,7 @@ import java.util.List;
 import discUtils.streams.StreamExtent;
 import discUtils.streams.buffer.Buffer;
 import discUtils.streams.buffer.IMappedBuffer;
+import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Range;
 import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.IOException;
@@ -79,17 +80,24 @@ public class NonResidentDataBuffer extends Buffer implements IMappedBuffer {
     }
 
     @Override public List<StreamExtent> getExtents() {
-        List<StreamExtent> extents = new ArrayList<>();
-        for (Range range : activeStream.getStoredClusters()) {
-            extents.add(new StreamExtent(range.getOffset() * bytesPerCluster, range.getCount() * bytesPerCluster));
-        }
-//logger.log(Level.DEBUG, extents + ", " + new StreamExtent(0, getCapacity()));
-        return StreamExtent.intersect(extents, new StreamExtent(0, getCapacity()));
+        return getExtentsInRange(0, getCapacity());
     }
 
+    /** the clusters stored, from the data runs covering the range only */
     @Override public List<StreamExtent> getExtentsInRange(long start, long count) {
-//logger.log(Level.DEBUG, getExtents() + ", " + new StreamExtent(start, count));
-        return StreamExtent.intersect(getExtents(), new StreamExtent(start, count));
+        long end = Math.min(start + count, getCapacity());
+        if (start >= end) {
+            return new ArrayList<>();
+        }
+
+        List<StreamExtent> extents = new ArrayList<>();
+        long startVcn = start / bytesPerCluster;
+        long endVcn = MathUtilities.ceil(end, bytesPerCluster);
+        for (Range range : activeStream.getStoredClusters(startVcn, endVcn - startVcn)) {
+            extents.add(new StreamExtent(range.getOffset() * bytesPerCluster, range.getCount() * bytesPerCluster));
+        }
+//logger.log(Level.DEBUG, extents + ", " + new StreamExtent(start, end - start));
+        return StreamExtent.intersect(extents, new StreamExtent(start, end - start));
     }
 
     @Override public long mapPosition(long pos) {
@@ -171,9 +171,15 @@ public class NtfsAttributeBuffer extends Buffer implements IMappedBuffer {
         }
     }
 
+    /**
+     * Bytes past the initialized length read as zeros, so they're left out
+     * even where clusters are allocated for them.
+     */
     @Override public List<StreamExtent> getExtentsInRange(long start, long count) {
+        AttributeRecord record = attribute.getPrimaryRecord();
+        long end = record.isNonResident() ? Math.min(record.getInitializedDataLength(), getCapacity()) : getCapacity();
 //logger.log(Level.DEBUG, count + ", " + attribute.getRawBuffer().getExtentsInRange(start, count) + ", " + new StreamExtent(0, getCapacity()));
         return StreamExtent.intersect(attribute.getRawBuffer().getExtentsInRange(start, count),
-                                      new StreamExtent(0, getCapacity()));
+                                      new StreamExtent(0, end));
     }
 }
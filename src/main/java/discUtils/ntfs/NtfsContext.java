@@ -224,4 +224,15 @@ public final class NtfsContext implements INtfsContext {
     public void setReadOnly(boolean value) {
         readOnly = value;
     }
+
+    private BulkIngest bulkIngest;
+
+    @Override
+    public BulkIngest getBulkIngest() {
+        return bulkIngest;
+    }
+
+    public void setBulkIngest(BulkIngest value) {
+        bulkIngest = value;
+    }
 }
@@ -54,7 +54,6 @@ import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
 import discUtils.streams.block.BlockCacheSettings;
 import discUtils.streams.block.BlockCacheStream;
-import discUtils.streams.util.BitCounter;
 import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Ownership;
 import discUtils.streams.util.Range;
@@ -161,6 +160,10 @@ logger.log(Level.TRACE, volumeInfo);
                 !volumeInfo.getFlags().contains(VolumeInformationFlags.DisableShortNameCreation));
     }
 
+    INtfsContext getContext() {
+        return context;
+    }
+
     /**
      * Gets the friendly name for the file system.
      */
@@ -217,6 +220,7 @@ logger.log(Level.TRACE, volumeInfo);
      */
     @SuppressWarnings("incomplete-switch")
     @Override public void copyFile(String sourceFile, String destinationFile, boolean overwrite) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             DirectoryEntry sourceParentDirEntry = getDirectoryEntry(Utilities.getDirectoryFromPath(sourceFile));
             if (sourceParentDirEntry == null || !sourceParentDirEntry.isDirectory()) {
@@ -308,6 +312,7 @@ logger.log(Level.TRACE, volumeInfo);
      * @param path The path of the directory to delete.
      */
     @Override public void deleteDirectory(String path) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             if (path == null || path.isEmpty()) {
                 throw new dotnet4j.io.IOException("Unable to delete root directory");
@@ -347,6 +352,7 @@ logger.log(Level.TRACE, volumeInfo);
      * @param path The path of the file to delete.
      */
     @Override public void deleteFile(String path) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             String[] attributeName = new String[1];
             AttributeType[] attributeType = new AttributeType[1];
@@ -554,6 +560,7 @@ logger.log(Level.TRACE, volumeInfo);
      * @param overwrite Whether to permit a destination file to be overwritten.
      */
     @Override public void moveFile(String sourceName, String destinationName, boolean overwrite) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             DirectoryEntry sourceParentDirEntry = getDirectoryEntry(Utilities.getDirectoryFromPath(sourceName));
             if (sourceParentDirEntry == null || !sourceParentDirEntry.isDirectory()) {
@@ -1499,6 +1506,102 @@ logger.log(Level.TRACE, volumeInfo);
         return bpb.isValid(stream.getLength());
     }
 
+    /**
+     * Gets the USN change journal of the volume, to find the files changed
+     * since an earlier look at it.
+     *
+     * @return The journal, or {@code null} if the volume has none.
+     */
+    public UsnJournal getUsnJournal() {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            if (volumeInfo.getVersion() < VolumeInformation.VersionW2k) {
+                return null;
+            }
+
+            DirectoryEntry dirEntry = getDirectoryEntry("$Extend" + FS + "$UsnJrnl");
+            if (dirEntry == null) {
+                return null;
+            }
+
+            File file = getFile(dirEntry.getReference());
+            if (file.getStream(AttributeType.Data, "$Max") == null || file.getStream(AttributeType.Data, "$J") == null) {
+                return null;
+            }
+            return new UsnJournal(file);
+        }
+    }
+
+    /**
+     * Starts a bulk ingest, to create many files quickly.
+     *
+     * Until {@link #endBulkIngest()}, changes to MFT records, directory
+     * indexes and the allocation bitmaps are held in memory, and written
+     * together at checkpoints - when enough have built up by the start of an
+     * operation, on {@link #flushBulkIngest()}, and at the end. The MFT is also extended
+     * in larger steps. The volume on disk is only consistent at checkpoints.
+     */
+    public void beginBulkIngest() {
+        beginBulkIngest(BulkIngest.DefaultCheckpointSize);
+    }
+
+    /**
+     * Starts a bulk ingest, to create many files quickly.
+     *
+     * @param checkpointSize The number of MFT records and index blocks held
+     *            before a checkpoint is made. Smaller values use less memory
+     *            and keep the volume on disk closer to date, at the cost of
+     *            more writes.
+     * @see #beginBulkIngest()
+     */
+    public void beginBulkIngest(int checkpointSize) {
+        if (checkpointSize < 1) {
+            throw new IllegalArgumentException("checkpointSize must be positive: " + checkpointSize);
+        }
+
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            if (context.getReadOnly()) {
+                throw new UnsupportedOperationException("File system is read-only");
+            }
+            if (context.getBulkIngest() == null) {
+                context.setBulkIngest(new BulkIngest(context, checkpointSize));
+            }
+        }
+    }
+
+    /**
+     * Makes a checkpoint of a bulk ingest, writing the changes held so far.
+     * Does nothing if no bulk ingest is under way.
+     */
+    public void flushBulkIngest() {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            if (context.getBulkIngest() != null) {
+                context.getBulkIngest().flush();
+            }
+        }
+    }
+
+    /** makes a checkpoint of a bulk ingest if enough has built up, between operations */
+    private void checkpointBulkIngestIfFull() {
+        BulkIngest bulkIngest = context.getBulkIngest();
+        if (bulkIngest != null && NtfsTransaction.getCurrent() == null) {
+            bulkIngest.checkpointIfFull();
+        }
+    }
+
+    /**
+     * Ends a bulk ingest, writing the changes held. Closing the file system
+     * ends one too.
+     */
+    public void endBulkIngest() {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            BulkIngest bulkIngest = context.getBulkIngest();
+            if (bulkIngest != null) {
+                context.setBulkIngest(null);
+                bulkIngest.end();
+            }
+        }
+    }
+
     /**
      * Gets the Master File Table for this file system.
      *
@@ -1519,6 +1622,7 @@ logger.log(Level.TRACE, volumeInfo);
      *            {@code null} for defaults.
      */
     public void createDirectory(String path, NewFileOptions options) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             String[] pathElements = Arrays.stream(path.split(StringUtilities.escapeForRegex(FS)))
                     .filter(e -> !e.isEmpty())
@@ -1583,6 +1687,7 @@ logger.log(Level.TRACE, volumeInfo);
      * @return The new stream.
      */
     public SparseStream openFile(String path, FileMode mode, FileAccess access, NewFileOptions options) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             String[] attributeName = new String[1];
             AttributeType[] attributeType = new AttributeType[1];
@@ -1645,6 +1750,133 @@ logger.log(Level.TRACE, volumeInfo);
         }
     }
 
+    /**
+     * Reads the whole of a file.
+     *
+     * Quicker than opening the file, for scanning many small files. Data
+     * held in the MFT record is copied straight out of it, and other data is
+     * read straight from its clusters - unless the file is compressed,
+     * sparse or encrypted, or its attributes don't fit in one record, when
+     * it's read through a stream as usual. The last access time of the file
+     * isn't updated.
+     *
+     * @param path The path of the file, may name an alternate data stream.
+     * @return The content of the file.
+     */
+    public byte[] readAllBytes(String path) {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            String[] attributeName = new String[1];
+            AttributeType[] attributeType = new AttributeType[1];
+            String dirEntryPath = parsePath(path, attributeName, attributeType);
+
+            DirectoryEntry entry = getDirectoryEntry(dirEntryPath);
+            if (entry == null) {
+                throw new FileNotFoundException("No such file " + path);
+            }
+
+            return readAllBytes(entry.getReference(), attributeType[0], attributeName[0]);
+        }
+    }
+
+    /**
+     * Reads the whole of a file, found by its MFT reference.
+     *
+     * @param fileId The file id, as given by {@link #getFileId(String)}, or
+     *            by scanning the {@link #getMasterFileTable() MFT}.
+     * @return The content of the file's unnamed data stream.
+     * @see #readAllBytes(String)
+     */
+    public byte[] readAllBytes(long fileId) {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            return readAllBytes(new FileRecordReference(fileId), AttributeType.Data, null);
+        }
+    }
+
+    private byte[] readAllBytes(FileRecordReference fileReference, AttributeType type, String name) {
+        FileRecord record = context.getMft().getRecord(fileReference);
+        if (record == null || !record.getFlags().contains(FileRecordFlags.InUse) || record.getBaseFile().getValue() != 0) {
+            throw new FileNotFoundException("No such file " + fileReference);
+        }
+        if (record.getFlags().contains(FileRecordFlags.IsDirectory) && type == AttributeType.Data) {
+            throw new dotnet4j.io.IOException("Attempt to open directory as a file");
+        }
+
+        byte[] result = readDirect(record, type, name);
+        if (result != null) {
+            return result;
+        }
+
+        try (SparseStream s = getFile(fileReference).openStream(type, name, FileAccess.Read)) {
+            if (s == null) {
+                throw new FileNotFoundException("No such attribute on file " + fileReference);
+            }
+            return StreamUtilities.readExact(s, toArrayLength(s.getLength()));
+        } catch (IOException e) {
+            throw new dotnet4j.io.IOException(e);
+        }
+    }
+
+    /**
+     * Reads an attribute held whole in a record, without a stream: resident
+     * data is copied out of the record, other data read a run at a time.
+     *
+     * @return The content, or {@code null} if it has to be read through a
+     *         stream.
+     */
+    private byte[] readDirect(FileRecord record, AttributeType type, String name) {
+        if (record.getAttribute(AttributeType.AttributeList) != null) {
+            return null;
+        }
+
+        AttributeRecord attr = record.getAttribute(type, name);
+        if (attr == null ||
+            !Collections.disjoint(attr.getFlags(),
+                                  EnumSet.of(AttributeFlags.Compressed, AttributeFlags.Encrypted, AttributeFlags.Sparse))) {
+            return null;
+        }
+
+        if (attr instanceof ResidentAttributeRecord resident) {
+            byte[] result = new byte[toArrayLength(resident.getDataLength())];
+            resident.getDataBuffer().read(0, result, 0, result.length);
+            return result;
+        }
+
+        NonResidentAttributeRecord nonResident = (NonResidentAttributeRecord) attr;
+        if (nonResident.getStartVcn() != 0) {
+            return null;
+        }
+
+        byte[] result = new byte[toArrayLength(nonResident.getDataLength())];
+        long initialized = Math.min(nonResident.getInitializedDataLength(), result.length);
+        long bytesPerCluster = context.getBiosParameterBlock().getBytesPerCluster();
+        Stream rawStream = context.getRawStream();
+        long lcn = 0;
+        long pos = 0;
+        for (DataRun run : nonResident.getDataRuns()) {
+            if (pos >= initialized) {
+                break;
+            }
+
+            int count = (int) Math.min(run.getRunLength() * bytesPerCluster, initialized - pos);
+            if (!run.isSparse()) {
+                lcn += run.getRunOffset();
+                rawStream.position(lcn * bytesPerCluster);
+                StreamUtilities.readExact(rawStream, result, (int) pos, count);
+            }
+            pos += count;
+        }
+
+        // the rest of the attribute is in another record
+        return pos < initialized ? null : result;
+    }
+
+    private static int toArrayLength(long length) {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new dotnet4j.io.IOException("File too large to read whole: " + length);
+        }
+        return (int) length;
+    }
+
     /**
      * Creates an NTFS hard link to an existing file.
      *
@@ -1652,6 +1884,7 @@ logger.log(Level.TRACE, volumeInfo);
      * @param destinationName The name of the new hard link to the file.
      */
     public void createHardLink(String sourceName, String destinationName) {
+        checkpointBulkIngestIfFull();
         try (NtfsTransaction c = new NtfsTransaction()) {
             DirectoryEntry sourceDirEntry = getDirectoryEntry(sourceName);
             if (sourceDirEntry == null) {
@@ -1738,6 +1971,10 @@ logger.log(Level.TRACE, volumeInfo);
      * Disposes of this instance.
      */
     @Override public void close() throws IOException {
+        if (context != null && context.getBulkIngest() != null) {
+            endBulkIngest();
+        }
+
         if (context != null && context.getMft() != null) {
             context.getMft().close();
             context.setMft(null);
@@ -2114,16 +2351,7 @@ logger.log(Level.TRACE, volumeInfo);
      * Used space of the Filesystem in bytes
      */
     @Override public long getUsedSpace() {
-        long usedCluster = 0;
-        Bitmap bitmap = context.getClusterBitmap().getBitmap();
-        long processed = 0L;
-        while (processed < bitmap.getSize()) {
-            byte[] buffer = new byte[(int) (4 * Sizes.OneKiB)];
-            int count = bitmap.getBytes(processed, buffer, 0, buffer.length);
-            usedCluster += BitCounter.count(buffer, 0, count);
-            processed += count;
-        }
-        return usedCluster * getClusterSize();
+        return context.getClusterBitmap().getUsedClusters() * getClusterSize();
     }
 
     /**
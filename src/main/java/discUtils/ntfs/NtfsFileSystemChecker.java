@@ -27,24 +27,33 @@ import java.io.PrintWriter;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import discUtils.core.ClusterMap;
 import discUtils.core.DiscFileSystemChecker;
 import discUtils.core.IDiagnosticTraceable;
 import discUtils.core.InvalidFileSystemException;
 import discUtils.core.ReportLevels;
+import discUtils.core.internal.Utilities;
 import discUtils.streams.SnapshotStream;
 import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Ownership;
 import discUtils.streams.util.Range;
 import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.FileAccess;
+import dotnet4j.io.MemoryStream;
 import dotnet4j.io.Stream;
 import dotnet4j.util.compat.Tuple;
 import vavi.util.ByteUtil;
@@ -67,10 +76,16 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
 
     private EnumSet<ReportLevels> reportLevels;
 
-    private ReportLevels levelsDetected;
+    private EnumSet<ReportLevels> levelsDetected;
 
     private final ReportLevels levelsConsideredFail = ReportLevels.Errors;
 
+    /** the size of the chunks the MFT is read in for checking */
+    private static final int CheckChunkSize = 1024 * 1024;
+
+    /** the fewest files worth claiming the clusters of in a task of their own */
+    private static final int ClaimBatchSize = 1024;
+
     /**
      * Initializes a new instance of the NtfsFileSystemChecker class.
      *
@@ -98,7 +113,7 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
 
         report = reportOutput;
         reportLevels = levels;
-        levelsDetected = ReportLevels.None;
+        levelsDetected = EnumSet.noneOf(ReportLevels.class);
 
         try {
             doCheck();
@@ -110,7 +125,7 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
             return false;
         }
 
-        return levelsDetected != levelsConsideredFail;
+        return !levelsDetected.contains(levelsConsideredFail);
     }
 
     /**
@@ -253,6 +268,8 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
     }
 
     private void verifyDirectories() {
+        long start = System.nanoTime();
+        long numEntries = 0;
         for (FileRecord fr : context.getMft().getRecords()) {
             if (fr.getBaseFile().getValue() != 0) {
                 continue;
@@ -265,6 +282,7 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
                                                                                          FileRecordReference.class,
                                                                                          f.getIndex("$I30"));
                     for (Tuple<FileNameRecord, FileRecordReference> entry : dir.getEntries()) {
+                        numEntries++;
                         FileRecord refFile = context.getMft().getRecord(entry.getValue());
                         // Make sure each referenced file actually exists...
                         if (refFile == null) {
@@ -282,47 +300,44 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
                 }
             }
         }
+        reportProgress("Directory check", numEntries, "entries", start);
     }
 
+    /**
+     * Self-checks every index. The indexes are read in turn, then checked in
+     * parallel, with the findings reported in MFT order.
+     */
     private void selfCheckIndexes() {
+        long start = System.nanoTime();
+        List<CompletableFuture<Findings>> tasks = new ArrayList<>();
         for (FileRecord fr : context.getMft().getRecords()) {
             File f = new File(context, fr);
             for (NtfsStream stream : f.getAllStreams()) {
                 if (stream.getAttributeType() == AttributeType.IndexRoot) {
-                    selfCheckIndex(f, stream.getName());
+                    IndexToCheck index = new IndexToCheck(f, stream.getName());
+                    tasks.add(CompletableFuture.supplyAsync(() -> selfCheckIndex(index)));
                 }
             }
         }
-    }
 
-    private void selfCheckIndex(File file, String name) {
-        reportInfo("About to self-check index %s in file %s (MFT:{2})", name, file.getBestName(), file.getIndexInMft());
-        IndexRoot root = file.getStream(AttributeType.IndexRoot, name).getContent(IndexRoot.class);
-        byte[] rootBuffer;
-        Stream s = file.openStream(AttributeType.IndexRoot, name, FileAccess.Read);
-        try {
-            rootBuffer = StreamUtilities.readExact(s, (int) s.getLength());
-        } finally {
-            if (s != null)
-                try {
-                    s.close();
-                } catch (IOException e) {
-                    logger.log(Level.DEBUG, e.getMessage(), e);
-                }
-        }
-        Bitmap indexBitmap = null;
-        if (file.getStream(AttributeType.Bitmap, name) != null) {
-            indexBitmap = new Bitmap(file.openStream(AttributeType.Bitmap, name, FileAccess.Read), Long.MAX_VALUE);
+        for (CompletableFuture<Findings> task : tasks) {
+            report(Utilities.join(task));
         }
+        reportProgress("Index self-check", tasks.size(), "indexes", start);
+    }
 
-        if (!selfCheckIndexNode(rootBuffer, IndexRoot.HeaderOffset, indexBitmap, root, file.getBestName(), name)) {
-            reportError("Index %s in file %s (MFT:{2}) has corrupt IndexRoot attribute",
-                        name,
-                        file.getBestName(),
-                        file.getIndexInMft());
+    private Findings selfCheckIndex(IndexToCheck index) {
+        Findings findings = new Findings();
+        findings.info("About to self-check index %s in file %s (MFT:{2})", index.name, index.fileName, index.mftIndex);
+        if (!selfCheckIndexNode(index.rootBuffer, IndexRoot.HeaderOffset, index.bitmap, index.root, index.fileName, index.name, findings)) {
+            findings.error("Index %s in file %s (MFT:{2}) has corrupt IndexRoot attribute",
+                           index.name,
+                           index.fileName,
+                           index.mftIndex);
         } else {
-            reportInfo("Self-check of index %s in file %s (MFT:{2}) complete", name, file.getBestName(), file.getIndexInMft());
+            findings.info("Self-check of index %s in file %s (MFT:{2}) complete", index.name, index.fileName, index.mftIndex);
         }
+        return findings;
     }
 
     private boolean selfCheckIndexNode(byte[] buffer,
@@ -330,7 +345,8 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
                                        Bitmap bitmap,
                                        IndexRoot root,
                                        String fileName,
-                                       String indexName) {
+                                       String indexName,
+                                       Findings findings) {
         boolean ok = true;
 
         IndexHeader header = new IndexHeader(buffer, offset);
@@ -351,25 +367,25 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
                               context.getBiosParameterBlock().getSectorsPerCluster() *
                                                              context.getBiosParameterBlock().getBytesPerSector());
                 if (!bitmap.isPresent(bitmapIdx)) {
-                    reportError("Index entry %s is non-leaf, but child vcn %s is not in bitmap at index {2}",
-                                Index.entryAsString(entry, fileName, indexName),
-                                entry.getChildrenVirtualCluster(),
-                                bitmapIdx);
+                    findings.error("Index entry %s is non-leaf, but child vcn %s is not in bitmap at index {2}",
+                                   Index.entryAsString(entry, fileName, indexName),
+                                   entry.getChildrenVirtualCluster(),
+                                   bitmapIdx);
                 }
             }
 
             if (entry.getFlags().contains(IndexEntryFlags.End)) {
                 if (pos != header.totalSizeOfEntries) {
-                    reportError("Found END index entry %s, but not at end of node",
-                                Index.entryAsString(entry, fileName, indexName));
+                    findings.error("Found END index entry %s, but not at end of node",
+                                   Index.entryAsString(entry, fileName, indexName));
                     ok = false;
                 }
             }
 
             if (lastEntry != null && collator.compare(lastEntry.getKeyBuffer(), entry.getKeyBuffer()) >= 0) {
-                reportError("Found entries out of order %s was before %s",
-                            Index.entryAsString(lastEntry, fileName, indexName),
-                            Index.entryAsString(entry, fileName, indexName));
+                findings.error("Found entries out of order %s was before %s",
+                               Index.entryAsString(lastEntry, fileName, indexName),
+                               Index.entryAsString(entry, fileName, indexName));
                 ok = false;
             }
 
@@ -398,75 +414,142 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
             }
         }
 
+        // the records are read in chunks, and each chunk verified in parallel
+        long start = System.nanoTime();
+        int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        int chunkRecords = Math.max(1, CheckChunkSize / recordLength);
+        Deque<CompletableFuture<Findings>> pending = new ArrayDeque<>();
+        long numRecords;
         try (Stream mftStream = file.openStream(AttributeType.Data, null, FileAccess.Read);
              Stream bitmapStream = file.openStream(AttributeType.Bitmap, null, FileAccess.Read);
              Bitmap bitmap = new Bitmap(bitmapStream, Long.MAX_VALUE)) {
 
+            numRecords = mftStream.getLength() / recordLength;
             long index = 0;
-            while (mftStream.position() < mftStream.getLength()) {
-                byte[] recordData = StreamUtilities.readExact(mftStream, recordLength);
-
-                String magic = new String(recordData, 0, 4, StandardCharsets.US_ASCII);
-                if (!magic.equals("FILE")) {
-                    if (bitmap.isPresent(index)) {
-                        reportError("Invalid MFT record magic at index %s - was ({2},{3},{4},{5}) \"%s\"",
-                                    index,
-                                    magic.replaceAll("(^\0*|\0*$)", ""),
-                                    (int) magic.charAt(0),
-                                    (int) magic.charAt(1),
-                                    (int) magic.charAt(2),
-                                    (int) magic.charAt(3));
-                    }
-                } else {
-                    if (!verifyMftRecord(recordData, bitmap.isPresent(index), bytesPerSector)) {
-                        reportError("Invalid MFT record at index %s", index);
-                        StringBuilder sb = new StringBuilder();
-                        for (byte recordDatum : recordData) {
-                            sb.append(" %2x}".formatted(recordDatum));
-                        }
+            while (index < numRecords) {
+                int count = (int) Math.min(chunkRecords, numRecords - index);
+                byte[] chunk = StreamUtilities.readExact(mftStream, count * recordLength);
+                boolean[] present = new boolean[count];
+                for (int i = 0; i < count; ++i) {
+                    present[i] = bitmap.isPresent(index + i);
+                }
 
-                        reportInfo("MFT record binary data for index %s:%s", index, sb.toString());
-                    }
+                long firstIndex = index;
+                pending.add(CompletableFuture.supplyAsync(() -> preVerifyMftRecords(chunk, firstIndex, present, recordLength, bytesPerSector)));
+                index += count;
+
+                if (pending.size() >= window) {
+                    report(Utilities.join(pending.remove()));
                 }
+            }
 
-                index++;
+            while (!pending.isEmpty()) {
+                report(Utilities.join(pending.remove()));
             }
         } catch (IOException e) {
             throw new dotnet4j.io.IOException(e);
+        } finally {
+            pending.forEach(f -> f.cancel(false));
+        }
+        reportProgress("MFT pre-verification", numRecords, "records", start);
+    }
+
+    private Findings preVerifyMftRecords(byte[] chunk, long firstIndex, boolean[] present, int recordLength, int bytesPerSector) {
+        Findings findings = new Findings();
+        for (int i = 0; i < present.length; ++i) {
+            long index = firstIndex + i;
+            byte[] recordData = Arrays.copyOfRange(chunk, i * recordLength, (i + 1) * recordLength);
+
+            String magic = new String(recordData, 0, 4, StandardCharsets.US_ASCII);
+            if (!magic.equals("FILE")) {
+                if (present[i]) {
+                    findings.error("Invalid MFT record magic at index %s - was ({2},{3},{4},{5}) \"%s\"",
+                                   index,
+                                   magic.replaceAll("(^\0*|\0*$)", ""),
+                                   (int) magic.charAt(0),
+                                   (int) magic.charAt(1),
+                                   (int) magic.charAt(2),
+                                   (int) magic.charAt(3));
+                }
+            } else {
+                if (!verifyMftRecord(recordData, present[i], bytesPerSector, findings)) {
+                    findings.error("Invalid MFT record at index %s", index);
+                    StringBuilder sb = new StringBuilder();
+                    for (byte recordDatum : recordData) {
+                        sb.append(" %2x}".formatted(recordDatum));
+                    }
+
+                    findings.info("MFT record binary data for index %s:%s", index, sb.toString());
+                }
+            }
         }
+        return findings;
     }
 
-    /** Cluster allocation check - check for double allocations */
+    /**
+     * Cluster allocation check - check for double allocations.
+     *
+     * The clusters are claimed in a shared bitmap in parallel, a partition of
+     * the files at a time. Only the clusters claimed more than once are then
+     * looked at in MFT order, to report who they belong to.
+     */
     private void verifyMft() {
-        Map<Long, String> clusterMap = new HashMap<>();
+        long start = System.nanoTime();
+        List<FileRecord> records = new ArrayList<>();
+        List<File> files = new ArrayList<>();
         for (FileRecord fr : context.getMft().getRecords()) {
             if (fr.getFlags().contains(FileRecordFlags.InUse)) {
-                File f = new File(context, fr);
-                for (NtfsAttribute attr : f.getAllAttributes()) {
-                    String attrKey = fr.getMasterFileTableIndex() + ":" + attr.getId();
+                records.add(fr);
+                files.add(new File(context, fr));
+            }
+        }
 
-                    for (Range range : attr.getClusters()) {
-                        if (!verifyClusterRange(range)) {
-                            reportError("Attribute %s contains bad cluster range %s", attrKey, range);
+        long totalClusters = context.getRawStream().getLength() / context.getBiosParameterBlock().getBytesPerCluster();
+        ClusterClaims claims = new ClusterClaims(totalClusters);
+        int numTasks = Math.max(1, Math.min(files.size() / ClaimBatchSize, ForkJoinPool.getCommonPoolParallelism()));
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < numTasks; ++i) {
+            List<File> batch = files.subList(files.size() * i / numTasks, files.size() * (i + 1) / numTasks);
+            tasks.add(CompletableFuture.runAsync(() -> {
+                for (File f : batch) {
+                    for (NtfsAttribute attr : f.getAllAttributes()) {
+                        for (Range range : attr.getClusters()) {
+                            claims.claim(range.getOffset(), range.getCount());
                         }
+                    }
+                }
+            }));
+        }
+        tasks.forEach(Utilities::join);
 
-                        for (long cluster = range.getOffset(); cluster < range.getOffset() + range.getCount(); ++cluster) {
-                            if (clusterMap.containsKey(cluster)) {
-                                reportError("Two attributes referencing cluster %1$s (0x%16X) - %2$s and %3$s (as MftIndex:AttrId)",
-                                            cluster,
-                                            clusterMap.get(cluster),
-                                            attrKey);
-                            } else {
-                                clusterMap.put(cluster, attrKey);
-                            }
+        Map<Long, String> clusterMap = new HashMap<>();
+        for (int i = 0; i < files.size(); ++i) {
+            for (NtfsAttribute attr : files.get(i).getAllAttributes()) {
+                String attrKey = records.get(i).getMasterFileTableIndex() + ":" + attr.getId();
+
+                for (Range range : attr.getClusters()) {
+                    if (!verifyClusterRange(range)) {
+                        reportError("Attribute %s contains bad cluster range %s", attrKey, range);
+                    }
+
+                    long end = range.getOffset() + range.getCount();
+                    for (long cluster = claims.nextConflict(range.getOffset(), end); cluster >= 0; cluster = claims.nextConflict(cluster + 1, end)) {
+                        if (clusterMap.containsKey(cluster)) {
+                            reportError("Two attributes referencing cluster %1$s (0x%16X) - %2$s and %3$s (as MftIndex:AttrId)",
+                                        cluster,
+                                        clusterMap.get(cluster),
+                                        attrKey);
+                        } else {
+                            clusterMap.put(cluster, attrKey);
                         }
                     }
                 }
             }
         }
+        reportProgress("Cluster allocation check", claims.getClaimedCount(), "clusters", start);
     }
 
-    private boolean verifyMftRecord(byte[] recordData, boolean presentInBitmap, int bytesPerSector) {
+    private boolean verifyMftRecord(byte[] recordData, boolean presentInBitmap, int bytesPerSector, Findings findings) {
         boolean ok = true;
 
         //
@@ -483,7 +566,7 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
             try {
                 AttributeRecord ar = AttributeRecord.fromBytes(genericRecord.getContent(), pos, attrLen);
                 if (attrLen[0] != ar.getSize()) {
-                    reportError("Attribute size is different to calculated size.  AttrId=%s", ar.getAttributeId());
+                    findings.error("Attribute size is different to calculated size.  AttrId=%s", ar.getAttributeId());
                     ok = false;
                 }
 
@@ -496,14 +579,14 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
                         }
 
                         if (totalVcn != nrr.getLastVcn() - nrr.getStartVcn() + 1) {
-                            reportError("Declared VCNs doesn't match data runs.  AttrId=%s", ar.getAttributeId());
+                            findings.error("Declared VCNs doesn't match data runs.  AttrId=%s", ar.getAttributeId());
                             ok = false;
                         }
                     }
                 }
             } catch (Exception e) {
                 logger.log(Level.DEBUG, e.getMessage(), e);
-                reportError("Failure parsing attribute at pos=%s", pos);
+                findings.error("Failure parsing attribute at pos=%s", pos);
                 return false;
             }
 
@@ -518,21 +601,21 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
 
         boolean inUse = record.getFlags().contains(FileRecordFlags.InUse);
         if (inUse != presentInBitmap) {
-            reportError("MFT bitmap and record in-use flag don't agree.  Mft=%s, Record=%s",
-                        presentInBitmap ? "InUse" : "Free",
-                        inUse ? "InUse" : "Free");
+            findings.error("MFT bitmap and record in-use flag don't agree.  Mft=%s, Record=%s",
+                           presentInBitmap ? "InUse" : "Free",
+                           inUse ? "InUse" : "Free");
             ok = false;
         }
 
         if (record.getSize() != record.getRealSize()) {
-            reportError("MFT record real size is different to calculated size.  Stored in MFT=%s, Calculated=%s",
-                        record.getRealSize(),
-                        record.getSize());
+            findings.error("MFT record real size is different to calculated size.  Stored in MFT=%s, Calculated=%s",
+                           record.getRealSize(),
+                           record.getSize());
             ok = false;
         }
 
         if (ByteUtil.readLeInt(recordData, record.getRealSize() - 8) != 0xffffffff) {
-            reportError("MFT record is not correctly terminated with 0xFFFFFFFF");
+            findings.error("MFT record is not correctly terminated with 0xFFFFFFFF");
             ok = false;
         }
 
@@ -560,22 +643,38 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
         return ok;
     }
 
+    /** reports what a task found, in the order it found it */
+    private void report(Findings findings) {
+        for (Object[] finding : findings.items) {
+            if (finding[0] == ReportLevels.Errors) {
+                reportError((String) finding[1], (Object[]) finding[2]);
+            } else {
+                reportInfo((String) finding[1], (Object[]) finding[2]);
+            }
+        }
+    }
+
+    private void reportProgress(String phase, long count, String units, long startNanos) {
+        long millis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        reportInfo("%s: %d %s in %d ms (%d %s/s)", phase, count, units, millis, count * 1000 / millis, units);
+    }
+
     private void reportDump(IDiagnosticTraceable toDump) {
-        levelsDetected = ReportLevels.Information;
+        levelsDetected.add(ReportLevels.Information);
         if (reportLevels.contains(ReportLevels.Information)) {
             toDump.dump(report, "INFO: ");
         }
     }
 
     private void reportInfo(String str, Object... args) {
-        levelsDetected = ReportLevels.Information;
+        levelsDetected.add(ReportLevels.Information);
         if (reportLevels.contains(ReportLevels.Information)) {
             report.printf("INFO: " + str + "\n", args);
         }
     }
 
     private void reportError(String str, Object... args) {
-        levelsDetected = ReportLevels.Errors;
+        levelsDetected.add(ReportLevels.Errors);
         if (reportLevels.contains(ReportLevels.Errors)) {
             report.printf("ERROR: " + str + "\n",
                            Arrays.stream(args).filter(a -> !(a instanceof Throwable)).toArray(Object[]::new));
@@ -588,4 +687,124 @@ public final class NtfsFileSystemChecker extends DiscFileSystemChecker {
 
     private final static class AbortException extends InvalidFileSystemException {
     }
+
+    /** the reports of a task run in parallel, held to be reported in order */
+    private static final class Findings {
+
+        /** level, format and arguments of each finding */
+        final List<Object[]> items = new ArrayList<>();
+
+        void info(String str, Object... args) {
+            items.add(new Object[] {ReportLevels.Information, str, args});
+        }
+
+        void error(String str, Object... args) {
+            items.add(new Object[] {ReportLevels.Errors, str, args});
+        }
+    }
+
+    /** an index, read in to be self-checked on another thread */
+    private static final class IndexToCheck {
+
+        final String name;
+
+        final String fileName;
+
+        final long mftIndex;
+
+        final IndexRoot root;
+
+        final byte[] rootBuffer;
+
+        final Bitmap bitmap;
+
+        IndexToCheck(File file, String name) {
+            this.name = name;
+            fileName = file.getBestName();
+            mftIndex = file.getIndexInMft();
+            root = file.getStream(AttributeType.IndexRoot, name).getContent(IndexRoot.class);
+            try (Stream s = file.openStream(AttributeType.IndexRoot, name, FileAccess.Read)) {
+                rootBuffer = StreamUtilities.readExact(s, (int) s.getLength());
+            } catch (IOException e) {
+                throw new dotnet4j.io.IOException(e);
+            }
+
+            if (file.getStream(AttributeType.Bitmap, name) != null) {
+                try (Stream s = file.openStream(AttributeType.Bitmap, name, FileAccess.Read)) {
+                    bitmap = new Bitmap(new MemoryStream(StreamUtilities.readExact(s, (int) s.getLength())), Long.MAX_VALUE);
+                } catch (IOException e) {
+                    throw new dotnet4j.io.IOException(e);
+                }
+            } else {
+                bitmap = null;
+            }
+        }
+    }
+
+    /**
+     * The clusters of the volume claimed by attributes, safe to claim from
+     * many threads. Clusters claimed more than once are marked as conflicts.
+     */
+    private static final class ClusterClaims {
+
+        private final long numClusters;
+
+        private final AtomicLongArray claimed;
+
+        private final AtomicLongArray conflicts;
+
+        ClusterClaims(long numClusters) {
+            this.numClusters = numClusters;
+            int numWords = (int) MathUtilities.ceil(numClusters, 64);
+            claimed = new AtomicLongArray(numWords);
+            conflicts = new AtomicLongArray(numWords);
+        }
+
+        /** claims clusters, those outside the volume are left to the range check */
+        void claim(long first, long count) {
+            long start = Math.max(first, 0);
+            long end = Math.min(first + count, numClusters);
+            while (start < end) {
+                int word = (int) (start >>> 6);
+                long wordEnd = Math.min(end, ((long) word + 1) << 6);
+                long mask = bits(start, wordEnd);
+                long duplicates = claimed.getAndAccumulate(word, mask, (x, y) -> x | y) & mask;
+                if (duplicates != 0) {
+                    conflicts.accumulateAndGet(word, duplicates, (x, y) -> x | y);
+                }
+                start = wordEnd;
+            }
+        }
+
+        /** the first cluster claimed more than once in a range, or -1 */
+        long nextConflict(long from, long end) {
+            long start = Math.max(from, 0);
+            end = Math.min(end, numClusters);
+            while (start < end) {
+                int word = (int) (start >>> 6);
+                long wordEnd = Math.min(end, ((long) word + 1) << 6);
+                long found = conflicts.get(word) & bits(start, wordEnd);
+                if (found != 0) {
+                    return ((long) word << 6) + Long.numberOfTrailingZeros(found);
+                }
+                start = wordEnd;
+            }
+            return -1;
+        }
+
+        long getClaimedCount() {
+            long count = 0;
+            for (int i = 0; i < claimed.length(); ++i) {
+                count += Long.bitCount(claimed.get(i));
+            }
+            return count;
+        }
+
+        /** the bits for clusters from start to end, within one word */
+        private static long bits(long start, long end) {
+            int from = (int) (start & 63);
+            int to = (int) (end - (start & ~63L));
+            return (to == 64 ? -1L : (1L << to) - 1) & (-1L << from);
+        }
+    }
 }
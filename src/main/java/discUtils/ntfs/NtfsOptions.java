@@ -43,7 +43,9 @@ public final class NtfsOptions extends DiscFileSystemOptions {
     }
 
     /**
-     * Gets or sets the compression algorithm used for compressing files.
+     * Gets or sets the compression algorithm used for compressing files. The
+     * compression units of a write may be compressed at the same time, so the
+     * algorithm must be safe to call from many threads.
      */
     private BlockCompressor compressor;
 
@@ -24,6 +24,7 @@ package discUtils.ntfs;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import discUtils.streams.util.Range;
@@ -51,6 +52,12 @@ import dotnet4j.util.compat.Tuple;
  */
 final class RawClusterStream extends ClusterStream {
 
+    /** the most clusters between pieces on disk that are read rather than sought over */
+    private static final int MaxGapClusters = 16;
+
+    /** the most read in one go for pieces not in file order */
+    private static final int MaxVectoredReadSize = 4 * 1024 * 1024;
+
     private final int bytesPerCluster;
 
     private final INtfsContext context;
@@ -102,6 +109,34 @@ final class RawClusterStream extends ClusterStream {
         return ranges;
     }
 
+    /** walks the runs in the range only, found by binary search */
+    @Override public List<Range> getStoredClusters(long startVcn, long count) {
+        List<Range> ranges = new ArrayList<>();
+        long endVcn = Math.min(startVcn + count, cookedRuns.getNextVirtualCluster());
+        if (startVcn >= endVcn) {
+            return ranges;
+        }
+
+        for (int i = cookedRuns.findDataRun(startVcn, 0); i < cookedRuns.getCount(); i++) {
+            CookedDataRun run = cookedRuns.get(i);
+            if (run.getStartVcn() >= endVcn) {
+                break;
+            }
+            if (!run.isSparse()) {
+                long start = Math.max(run.getStartVcn(), startVcn);
+                long end = Math.min(run.getStartVcn() + run.getLength(), endVcn);
+                Range last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last.getOffset() + last.getCount() == start) {
+                    ranges.set(ranges.size() - 1, new Range(last.getOffset(), end - last.getOffset()));
+                } else if (start < end) {
+                    ranges.add(new Range(start, end - start));
+                }
+            }
+        }
+
+        return ranges;
+    }
+
     @Override public boolean isClusterStored(long vcn) {
         int runIdx = cookedRuns.findDataRun(vcn, 0);
         return !cookedRuns.get(runIdx).isSparse();
@@ -254,6 +289,7 @@ final class RawClusterStream extends ClusterStream {
     @Override public void readClusters(long startVcn, int count, byte[] buffer, int offset) {
         StreamUtilities.assertBufferParameters(buffer, offset, count * bytesPerCluster);
 
+        List<StoredPiece> pieces = new ArrayList<>();
         int runIdx = 0;
         int totalRead = 0;
         while (totalRead < count) {
@@ -270,13 +306,65 @@ final class RawClusterStream extends ClusterStream {
                             offset + totalRead * bytesPerCluster + toRead * bytesPerCluster,
                             (byte) 0);
             } else {
-                long lcn = cookedRuns.get(runIdx).getStartLcn() + (focusVcn - run.getStartVcn());
-                fsStream.position(lcn * bytesPerCluster);
-                StreamUtilities.readExact(fsStream, buffer, offset + totalRead * bytesPerCluster, toRead * bytesPerCluster);
+                long lcn = run.getStartLcn() + (focusVcn - run.getStartVcn());
+                pieces.add(new StoredPiece(lcn, totalRead, toRead));
             }
 
             totalRead += toRead;
         }
+
+        readPieces(pieces, buffer, offset);
+    }
+
+    /**
+     * Reads the stored clusters of a request in disk order, with the pieces
+     * that are close on disk read together.
+     */
+    private void readPieces(List<StoredPiece> pieces, byte[] buffer, int offset) {
+        pieces.sort(Comparator.comparingLong(p -> p.lcn));
+
+        int i = 0;
+        while (i < pieces.size()) {
+            StoredPiece first = pieces.get(i);
+            long groupEnd = first.lcn + first.count;
+            boolean inPlace = true;
+            int j = i + 1;
+            while (j < pieces.size()) {
+                StoredPiece next = pieces.get(j);
+                long end = Math.max(groupEnd, next.lcn + next.count);
+                if (next.lcn - groupEnd > MaxGapClusters || (end - first.lcn) * bytesPerCluster > MaxVectoredReadSize) {
+                    break;
+                }
+
+                StoredPiece prev = pieces.get(j - 1);
+                inPlace &= next.lcn == groupEnd && next.index == prev.index + prev.count;
+                groupEnd = end;
+                j++;
+            }
+
+            if (inPlace) {
+                // one piece, or pieces in the same order on disk as in the file
+                fsStream.position(first.lcn * bytesPerCluster);
+                StreamUtilities.readExact(fsStream,
+                                          buffer,
+                                          offset + first.index * bytesPerCluster,
+                                          (int) (groupEnd - first.lcn) * bytesPerCluster);
+            } else {
+                byte[] span = new byte[(int) (groupEnd - first.lcn) * bytesPerCluster];
+                fsStream.position(first.lcn * bytesPerCluster);
+                StreamUtilities.readExact(fsStream, span, 0, span.length);
+                for (int k = i; k < j; ++k) {
+                    StoredPiece piece = pieces.get(k);
+                    System.arraycopy(span,
+                                     (int) (piece.lcn - first.lcn) * bytesPerCluster,
+                                     buffer,
+                                     offset + piece.index * bytesPerCluster,
+                                     piece.count * bytesPerCluster);
+                }
+            }
+
+            i = j;
+        }
     }
 
     @Override public int writeClusters(long startVcn, int count, byte[] buffer, int offset) {
@@ -322,4 +410,21 @@ final class RawClusterStream extends ClusterStream {
 
         return -clustersAllocated;
     }
+
+    /** clusters of a read that are stored on disk */
+    private static final class StoredPiece {
+
+        final long lcn;
+
+        /** the first cluster in the read */
+        final int index;
+
+        final int count;
+
+        StoredPiece(long lcn, int index, int count) {
+            this.lcn = lcn;
+            this.index = index;
+            this.count = count;
+        }
+    }
 }
@@ -22,6 +22,7 @@
 
 package discUtils.ntfs;
 
+import java.util.Arrays;
 import java.util.List;
 
 import discUtils.streams.util.MathUtilities;
@@ -34,9 +35,15 @@ public final class SparseClusterStream extends ClusterStream {
 
     private final RawClusterStream rawStream;
 
-    public SparseClusterStream(NtfsAttribute attr, RawClusterStream rawStream) {
+    private final int bytesPerCluster;
+
+    /** a compression unit of zeros, to compare written units with */
+    private byte[] zeros;
+
+    public SparseClusterStream(INtfsContext context, NtfsAttribute attr, RawClusterStream rawStream) {
         this.attr = attr;
         this.rawStream = rawStream;
+        bytesPerCluster = context.getBiosParameterBlock().getBytesPerCluster();
     }
 
     @Override public long getAllocatedClusterCount() {
@@ -47,6 +54,10 @@ public final class SparseClusterStream extends ClusterStream {
         return rawStream.getStoredClusters();
     }
 
+    @Override public List<Range> getStoredClusters(long startVcn, long count) {
+        return rawStream.getStoredClusters(startVcn, count);
+    }
+
     @Override public boolean isClusterStored(long vcn) {
         return rawStream.isClusterStored(vcn);
     }
@@ -68,13 +79,51 @@ public final class SparseClusterStream extends ClusterStream {
         rawStream.readClusters(startVcn, count, buffer, offset);
     }
 
+    /**
+     * Whole compression units of zeros are released rather than written, so
+     * the file stays sparse when zeros are copied into it.
+     *
+     * @return The number of clusters allocated, less the number released.
+     */
     @Override public int writeClusters(long startVcn, int count, byte[] buffer, int offset) {
+        int unitSize = attr.getCompressionUnitSize();
+        long endVcn = startVcn + count;
+
+        int clustersAllocated = 0;
+        long pending = startVcn;
+        if (unitSize > 0) {
+            for (long unit = compressionStart(startVcn); unit + unitSize <= endVcn; unit += unitSize) {
+                if (isZeros(buffer, offset + (int) (unit - startVcn) * bytesPerCluster, unitSize * bytesPerCluster)) {
+                    int pendingOffset = offset + (int) (pending - startVcn) * bytesPerCluster;
+                    clustersAllocated += writeStored(pending, (int) (unit - pending), buffer, pendingOffset);
+                    clustersAllocated -= rawStream.releaseClusters(unit, unitSize);
+                    pending = unit + unitSize;
+                }
+            }
+        }
+        int pendingOffset = offset + (int) (pending - startVcn) * bytesPerCluster;
+        clustersAllocated += writeStored(pending, (int) (endVcn - pending), buffer, pendingOffset);
+        return clustersAllocated;
+    }
+
+    private int writeStored(long startVcn, int count, byte[] buffer, int offset) {
+        if (count == 0) {
+            return 0;
+        }
+
         int clustersAllocated = 0;
         clustersAllocated += rawStream.allocateClusters(startVcn, count);
         clustersAllocated += rawStream.writeClusters(startVcn, count, buffer, offset);
         return clustersAllocated;
     }
 
+    private boolean isZeros(byte[] buffer, int offset, int count) {
+        if (zeros == null || zeros.length < count) {
+            zeros = new byte[count];
+        }
+        return Arrays.mismatch(buffer, offset, offset + count, zeros, 0, count) < 0;
+    }
+
     @Override public int clearClusters(long startVcn, int count) {
         return rawStream.releaseClusters(startVcn, count);
     }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import discUtils.core.internal.Utilities;
+import discUtils.streams.SparseStream;
+import discUtils.streams.StreamExtent;
+import discUtils.streams.util.MathUtilities;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.FileAccess;
+import vavi.util.ByteUtil;
+
+
+/**
+ * The USN change journal of a volume, {@code $Extend\$UsnJrnl}.
+ *
+ * The journal is the {@code $J} stream, a sparse stream in which each record
+ * is at the offset given by its update sequence number (USN). Windows frees
+ * the start of the stream as the journal grows, so only the allocated
+ * extents are read. The {@code $Max} stream holds the journal's settings.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class UsnJournal {
+
+    /** records don't span pages, the end of a page is padded with zeros */
+    private static final int PageSize = 0x1000;
+
+    private static final int ReadSize = 16 * PageSize;
+
+    private final File file;
+
+    private final long maximumSize;
+
+    private final long allocationDelta;
+
+    private final long journalId;
+
+    private final long lowestValidUsn;
+
+    UsnJournal(File file) {
+        this.file = file;
+
+        byte[] max;
+        try (SparseStream s = file.openStream(AttributeType.Data, "$Max", FileAccess.Read)) {
+            max = StreamUtilities.readExact(s, 0x20);
+        } catch (IOException e) {
+            throw new dotnet4j.io.IOException(e);
+        }
+        maximumSize = ByteUtil.readLeLong(max, 0x00);
+        allocationDelta = ByteUtil.readLeLong(max, 0x08);
+        journalId = ByteUtil.readLeLong(max, 0x10);
+        lowestValidUsn = ByteUtil.readLeLong(max, 0x18);
+    }
+
+    /**
+     * Gets the identity of the journal, which changes whenever the journal is
+     * deleted and created again. USNs of one journal mean nothing to another.
+     */
+    public long getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * Gets the size the journal is kept to.
+     */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the size the journal grows and is trimmed by.
+     */
+    public long getAllocationDelta() {
+        return allocationDelta;
+    }
+
+    /**
+     * Gets the first USN that may still be in the journal.
+     */
+    public long getLowestValidUsn() {
+        return lowestValidUsn;
+    }
+
+    /**
+     * Gets the USN the next record will have.
+     */
+    public long getNextUsn() {
+        return file.getStream(AttributeType.Data, "$J").getAttribute().getLength();
+    }
+
+    /**
+     * Gets the records of the journal.
+     *
+     * @param startUsn The USN of the first record to get, e.g. the
+     *            {@link #getNextUsn() next USN} of an earlier look at the
+     *            journal. Records before the lowest valid USN are gone.
+     * @return The records from {@code startUsn} on, read as they're iterated.
+     *         The journal is read afresh each time the result is iterated.
+     */
+    public Iterable<UsnRecord> getRecords(long startUsn) {
+        return () -> new RecordIterator(Math.max(startUsn, lowestValidUsn));
+    }
+
+    /**
+     * Gets the path of the file a record is for, by the name in the record
+     * and where its directory is now.
+     *
+     * @return The path, or {@code null} if the directory has since been
+     *         deleted.
+     */
+    public String getPath(UsnRecord record) {
+        List<String> dirPaths = getPaths(record.getParentFileReference());
+        if (dirPaths.isEmpty()) {
+            return null;
+        }
+        return Utilities.combinePaths(dirPaths.get(0), record.getFileName());
+    }
+
+    /**
+     * Gets the current paths of a file.
+     *
+     * @param reference The file, e.g. from {@link UsnRecord#getFileReference()}.
+     * @return The paths, empty if the file has since been deleted.
+     */
+    public List<String> getPaths(FileRecordReference reference) {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            FileRecord record = file.getContext().getMft().getRecord(reference.getMftIndex(), false);
+            if (record == null || !record.getFlags().contains(FileRecordFlags.InUse) ||
+                record.getBaseFile().getValue() != 0 ||
+                (reference.getSequenceNumber() != 0 && record.getSequenceNumber() != reference.getSequenceNumber())) {
+                return Collections.emptyList();
+            }
+
+            File f = file.getContext().getGetFileByRef().invoke(reference);
+            return f == null ? Collections.emptyList() : f.getNames();
+        }
+    }
+
+    /** reads the records extent by extent, a few pages at a time */
+    private final class RecordIterator implements Iterator<UsnRecord> {
+
+        private final SparseStream stream;
+
+        private final Iterator<StreamExtent> extents;
+
+        private final byte[] buffer = new byte[ReadSize];
+
+        private long bufferStart;
+
+        private int bufferLength;
+
+        private long pos;
+
+        private long extentEnd;
+
+        private UsnRecord next;
+
+        private boolean done;
+
+        RecordIterator(long startUsn) {
+            stream = file.openStream(AttributeType.Data, "$J", FileAccess.Read);
+            List<StreamExtent> allocated = new ArrayList<>(stream.getExtentsInRange(startUsn,
+                                                                                   Math.max(0, stream.getLength() - startUsn)));
+            extents = allocated.iterator();
+            pos = startUsn;
+            extentEnd = startUsn;
+        }
+
+        @Override public boolean hasNext() {
+            if (next == null && !done) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        @Override public UsnRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            UsnRecord result = next;
+            next = null;
+            return result;
+        }
+
+        private UsnRecord readNext() {
+            while (true) {
+                if (pos >= extentEnd) {
+                    if (!extents.hasNext()) {
+                        done = true;
+                        close();
+                        return null;
+                    }
+
+                    StreamExtent extent = extents.next();
+                    pos = Math.max(pos, extent.getStart());
+                    extentEnd = extent.getStart() + extent.getLength();
+                    bufferLength = 0;
+                    continue;
+                }
+
+                if (pos + 8 > bufferStart + bufferLength) {
+                    fill();
+                }
+
+                int offset = (int) (pos - bufferStart);
+                int recordLength = ByteUtil.readLeInt(buffer, offset);
+                if (recordLength == 0) {
+                    pos = MathUtilities.roundUp(pos + 1, PageSize);
+                    continue;
+                }
+                if (recordLength > 0 && pos + recordLength > bufferStart + bufferLength &&
+                    bufferStart + bufferLength < extentEnd) {
+                    fill();
+                    offset = 0;
+                }
+
+                UsnRecord record = new UsnRecord();
+                pos += record.readFrom(buffer, offset, bufferLength - offset);
+                return record;
+            }
+        }
+
+        private void fill() {
+            bufferStart = pos;
+            bufferLength = (int) Math.min(buffer.length, extentEnd - pos);
+            stream.position(pos);
+            StreamUtilities.readExact(stream, buffer, 0, bufferLength);
+            if (bufferLength < 8) {
+                // a truncated record at the end of the extent reads as padding
+                Arrays.fill(buffer, bufferLength, 8, (byte) 0);
+            }
+        }
+
+        private void close() {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                throw new dotnet4j.io.IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+/**
+ * The changes a USN change journal record reports.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public enum UsnReasons {
+    /**
+     * Data in the unnamed data stream was overwritten.
+     */
+    DataOverwrite(0x00000001),
+    /**
+     * The unnamed data stream was extended.
+     */
+    DataExtend(0x00000002),
+    /**
+     * The unnamed data stream was truncated.
+     */
+    DataTruncation(0x00000004),
+    /**
+     * Data in a named data stream was overwritten.
+     */
+    NamedDataOverwrite(0x00000010),
+    /**
+     * A named data stream was extended.
+     */
+    NamedDataExtend(0x00000020),
+    /**
+     * A named data stream was truncated.
+     */
+    NamedDataTruncation(0x00000040),
+    /**
+     * The file was created.
+     */
+    FileCreate(0x00000100),
+    /**
+     * The file was deleted.
+     */
+    FileDelete(0x00000200),
+    /**
+     * The extended attributes of the file changed.
+     */
+    EaChange(0x00000400),
+    /**
+     * The security descriptor of the file changed.
+     */
+    SecurityChange(0x00000800),
+    /**
+     * The file was renamed, the record holds the old name.
+     */
+    RenameOldName(0x00001000),
+    /**
+     * The file was renamed, the record holds the new name.
+     */
+    RenameNewName(0x00002000),
+    /**
+     * The file's content indexed attribute changed.
+     */
+    IndexableChange(0x00004000),
+    /**
+     * The file's attributes or timestamps changed.
+     */
+    BasicInfoChange(0x00008000),
+    /**
+     * A hard link to the file was added or removed.
+     */
+    HardLinkChange(0x00010000),
+    /**
+     * The file was compressed or decompressed.
+     */
+    CompressionChange(0x00020000),
+    /**
+     * The file was encrypted or decrypted.
+     */
+    EncryptionChange(0x00040000),
+    /**
+     * The object id of the file changed.
+     */
+    ObjectIdChange(0x00080000),
+    /**
+     * The reparse point of the file changed.
+     */
+    ReparsePointChange(0x00100000),
+    /**
+     * A named data stream was added, removed or renamed.
+     */
+    StreamChange(0x00200000),
+    /**
+     * The file was changed in a transaction.
+     */
+    TransactedChange(0x00400000),
+    /**
+     * The integrity attribute of the file changed.
+     */
+    IntegrityChange(0x00800000),
+    /**
+     * The file was closed, the record sums up the changes since it was
+     * opened.
+     */
+    Close(0x80000000);
+
+    private final int value;
+
+    UsnReasons(int value) {
+        this.value = value;
+    }
+
+    public Supplier<Integer> supplier() {
+        return () -> value;
+    }
+
+    public Function<Integer, Boolean> function() {
+        return v -> (v & value) != 0;
+    }
+
+    public static EnumSet<UsnReasons> valueOf(int value) {
+        return Arrays.stream(values())
+                .filter(v -> v.function().apply(value))
+                .collect(Collectors.toCollection(() -> EnumSet.noneOf(UsnReasons.class)));
+    }
+
+    public static long valueOf(EnumSet<UsnReasons> flags) {
+        return flags.stream().mapToLong(e -> e.supplier().get() & 0xffff_ffffL).sum();
+    }
+}
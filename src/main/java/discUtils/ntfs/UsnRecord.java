@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import discUtils.core.coreCompat.FileAttributes;
+import vavi.util.ByteUtil;
+import vavi.util.win32.DateUtil;
+
+
+/**
+ * A record of the USN change journal, version 2 or 3.
+ *
+ * Version 3 records carry 128-bit file ids, for NTFS the low 64 bits are the
+ * file reference and the rest zero, so both versions give the reference.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class UsnRecord {
+
+    private int majorVersion;
+
+    private int minorVersion;
+
+    private FileRecordReference fileReference;
+
+    private FileRecordReference parentFileReference;
+
+    private long usn;
+
+    private long timeStamp;
+
+    private int reason;
+
+    private int sourceInfo;
+
+    private int securityId;
+
+    private int fileAttributes;
+
+    private String fileName;
+
+    /**
+     * Reads a record.
+     *
+     * @return The length of the record, or {@code 0} if there's no record at
+     *         the offset.
+     * @throws dotnet4j.io.IOException The record is of an unknown version or
+     *             malformed.
+     */
+    int readFrom(byte[] buffer, int offset, int count) {
+        if (count < 8) {
+            return 0;
+        }
+
+        int recordLength = ByteUtil.readLeInt(buffer, offset + 0x00);
+        if (recordLength == 0) {
+            return 0;
+        }
+
+        majorVersion = ByteUtil.readLeShort(buffer, offset + 0x04) & 0xffff;
+        minorVersion = ByteUtil.readLeShort(buffer, offset + 0x06) & 0xffff;
+        int headerSize = majorVersion == 2 ? 0x3c : 0x4c;
+        if ((majorVersion != 2 && majorVersion != 3) || recordLength < headerSize || recordLength > count ||
+            recordLength % 8 != 0) {
+            throw new dotnet4j.io.IOException("Malformed USN record (version " + majorVersion + "." + minorVersion +
+                                              ", length " + recordLength + ")");
+        }
+
+        int pos = offset + 0x08;
+        fileReference = new FileRecordReference(ByteUtil.readLeLong(buffer, pos));
+        pos += majorVersion == 2 ? 8 : 16;
+        parentFileReference = new FileRecordReference(ByteUtil.readLeLong(buffer, pos));
+        pos += majorVersion == 2 ? 8 : 16;
+        usn = ByteUtil.readLeLong(buffer, pos);
+        timeStamp = DateUtil.fromFileTime(ByteUtil.readLeLong(buffer, pos + 0x08));
+        reason = ByteUtil.readLeInt(buffer, pos + 0x10);
+        sourceInfo = ByteUtil.readLeInt(buffer, pos + 0x14);
+        securityId = ByteUtil.readLeInt(buffer, pos + 0x18);
+        fileAttributes = ByteUtil.readLeInt(buffer, pos + 0x1c);
+        int fileNameLength = ByteUtil.readLeShort(buffer, pos + 0x20) & 0xffff;
+        int fileNameOffset = ByteUtil.readLeShort(buffer, pos + 0x22) & 0xffff;
+        if (fileNameOffset + fileNameLength > recordLength) {
+            throw new dotnet4j.io.IOException("Malformed USN record, name beyond record");
+        }
+        fileName = new String(buffer, offset + fileNameOffset, fileNameLength, StandardCharsets.UTF_16LE);
+
+        return recordLength;
+    }
+
+    /**
+     * Gets the version of the record, 2 or 3.
+     */
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * Gets the file changed.
+     */
+    public FileRecordReference getFileReference() {
+        return fileReference;
+    }
+
+    /**
+     * Gets the directory holding the file.
+     */
+    public FileRecordReference getParentFileReference() {
+        return parentFileReference;
+    }
+
+    /**
+     * Gets the update sequence number of the record, that is its offset in
+     * the journal.
+     */
+    public long getUsn() {
+        return usn;
+    }
+
+    /**
+     * Gets the time of the change.
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * Gets the changes made.
+     */
+    public EnumSet<UsnReasons> getReasons() {
+        return UsnReasons.valueOf(reason);
+    }
+
+    /**
+     * Gets the flags telling whether the change was made by the operating
+     * system rather than for the user.
+     */
+    public int getSourceInfo() {
+        return sourceInfo;
+    }
+
+    public int getSecurityId() {
+        return securityId;
+    }
+
+    /**
+     * Gets the attributes of the file.
+     */
+    public EnumSet<FileAttributes> getFileAttributes() {
+        return FileAttributes.valueOf(fileAttributes);
+    }
+
+    /**
+     * Gets the name of the file, without its directory.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override public String toString() {
+        return "[USN %d: %s %s %s]".formatted(usn, fileReference, fileName, getReasons());
+    }
+}
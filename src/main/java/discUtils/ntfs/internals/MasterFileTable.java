@@ -25,10 +25,21 @@ package discUtils.ntfs.internals;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
+import discUtils.ntfs.AttributeRecord;
+import discUtils.ntfs.FileAttributeFlags;
+import discUtils.ntfs.FileNameNamespace;
+import discUtils.ntfs.FileNameRecord;
 import discUtils.ntfs.FileRecord;
 import discUtils.ntfs.FileRecordFlags;
+import discUtils.ntfs.FileRecordReference;
 import discUtils.ntfs.INtfsContext;
+import discUtils.ntfs.ResidentAttributeRecord;
+import discUtils.ntfs.StandardInformation;
+import discUtils.streams.buffer.IBuffer;
 
 
 /**
@@ -145,4 +156,114 @@ public final class MasterFileTable {
         }
         return result;
     }
+
+    /**
+     * Scans all files, reading the Master File Table in large chunks and
+     * parsing its entries in parallel. This is much faster than walking the
+     * directories, but gives no paths, just the names of each file and the
+     * entries of the directories holding it.
+     *
+     * The files are given in the order of their entries, on the calling
+     * thread, except those spread over several entries, which come last.
+     * The file system must not be changed while scanning.
+     *
+     * @param consumer Receives each file in use.
+     */
+    public void scan(Consumer<MasterFileTableFile> consumer) {
+        // files with an attribute list, completed from their extension
+        // entries once all have been read
+        Map<Long, MasterFileTableFile> spread = new TreeMap<>();
+        List<MasterFileTableFile> extensions = new ArrayList<>();
+
+        mft.scanRecords(MasterFileTable::toFiles, entries -> {
+            for (ScannedEntry entry : entries) {
+                if (entry.isExtension) {
+                    extensions.add(entry.file);
+                } else if (entry.hasAttributeList) {
+                    spread.put(entry.file.getReference().getRecordIndex(), entry.file);
+                } else {
+                    consumer.accept(entry.file);
+                }
+            }
+        });
+
+        for (MasterFileTableFile extension : extensions) {
+            MasterFileTableFile file = spread.get(extension.getReference().getRecordIndex());
+            if (file != null) {
+                file.merge(extension);
+            }
+        }
+        spread.values().forEach(consumer);
+    }
+
+    private static List<ScannedEntry> toFiles(FileRecord[] records) {
+        List<ScannedEntry> result = new ArrayList<>();
+        for (FileRecord record : records) {
+            if (record == null || !record.getFlags().contains(FileRecordFlags.InUse)) {
+                continue;
+            }
+
+            boolean isExtension = record.getBaseFile().getValue() != 0;
+            FileRecordReference reference = isExtension ? record.getBaseFile()
+                                                        : new FileRecordReference(record.getLoadedIndex(),
+                                                                                  (short) record.getSequenceNumber());
+            MasterFileTableFile file = new MasterFileTableFile(new MasterFileTableReference(reference));
+            EnumSet<NtfsFileAttributes> attributes = EnumSet.noneOf(NtfsFileAttributes.class);
+            boolean hasAttributeList = false;
+            for (AttributeRecord attr : record.getAttributes()) {
+                switch (attr.getAttributeType()) {
+                case StandardInformation -> {
+                    StandardInformation si = new StandardInformation();
+                    si.readFrom(getContent(attr), 0);
+                    file.setTimes(si.creationTime, si.modificationTime, si.mftChangedTime, si.lastAccessTime);
+                    attributes.addAll(FileAttributeFlags.cast(NtfsFileAttributes.class, si.fileAttributeFlags));
+                }
+                case FileName -> {
+                    FileNameRecord fnr = new FileNameRecord();
+                    fnr.readFrom(getContent(attr), 0);
+                    if (fnr.fileNameNamespace != FileNameNamespace.Dos) {
+                        file.addName(fnr.fileName, new MasterFileTableReference(fnr.parentDirectory));
+                    }
+                }
+                case Data -> {
+                    if ((attr.getName() == null || attr.getName().isEmpty()) && attr.getStartVcn() == 0) {
+                        file.setSize(attr.getDataLength());
+                    }
+                }
+                case AttributeList -> hasAttributeList = true;
+                default -> {}
+                }
+            }
+
+            if (record.getFlags().contains(FileRecordFlags.IsDirectory)) {
+                attributes.add(NtfsFileAttributes.Directory);
+            }
+            file.setAttributes(attributes);
+            result.add(new ScannedEntry(file, isExtension, hasAttributeList));
+        }
+        return result;
+    }
+
+    private static byte[] getContent(AttributeRecord attr) {
+        IBuffer buffer = ((ResidentAttributeRecord) attr).getDataBuffer();
+        byte[] content = new byte[(int) buffer.getCapacity()];
+        buffer.read(0, content, 0, content.length);
+        return content;
+    }
+
+    /** a file found scanning, or the part of it in an extension entry */
+    private static final class ScannedEntry {
+
+        final MasterFileTableFile file;
+
+        final boolean isExtension;
+
+        final boolean hasAttributeList;
+
+        ScannedEntry(MasterFileTableFile file, boolean isExtension, boolean hasAttributeList) {
+            this.file = file;
+            this.isExtension = isExtension;
+            this.hasAttributeList = hasAttributeList;
+        }
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs.internals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+
+/**
+ * A compact view of a file, as found scanning the Master File Table.
+ *
+ * Only the names in the Win32 or Posix namespace are given, the short (DOS)
+ * names of files that have long names are left out.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class MasterFileTableFile {
+
+    private final MasterFileTableReference reference;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<MasterFileTableReference> parents = new ArrayList<>();
+
+    private long size = -1;
+
+    private EnumSet<NtfsFileAttributes> attributes = EnumSet.noneOf(NtfsFileAttributes.class);
+
+    private long creationTime;
+
+    private long modificationTime;
+
+    private long mftChangedTime;
+
+    private long lastAccessTime;
+
+    MasterFileTableFile(MasterFileTableReference reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * Gets the reference to the file's (base) entry.
+     */
+    public MasterFileTableReference getReference() {
+        return reference;
+    }
+
+    /**
+     * Gets the names of the file, without their directory.
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Gets the directories holding the file, one for each name.
+     */
+    public List<MasterFileTableReference> getParentReferences() {
+        return Collections.unmodifiableList(parents);
+    }
+
+    /**
+     * Gets the first name of the file, or {@code null} if it has none.
+     */
+    public String getName() {
+        return names.isEmpty() ? null : names.get(0);
+    }
+
+    /**
+     * Gets the directory holding the file by its first name, or {@code null}
+     * if it has none.
+     */
+    public MasterFileTableReference getParentReference() {
+        return parents.isEmpty() ? null : parents.get(0);
+    }
+
+    /**
+     * Gets the length of the file's unnamed data stream, zero for
+     * directories.
+     */
+    public long getSize() {
+        return Math.max(size, 0);
+    }
+
+    /**
+     * Gets the attributes of the file, as stored by NTFS.
+     */
+    public EnumSet<NtfsFileAttributes> getAttributes() {
+        return EnumSet.copyOf(attributes);
+    }
+
+    /**
+     * Gets whether the file is a directory.
+     */
+    public boolean isDirectory() {
+        return attributes.contains(NtfsFileAttributes.Directory);
+    }
+
+    /**
+     * Gets the creation time of the file.
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Gets the modification time of the file.
+     */
+    public long getModificationTime() {
+        return modificationTime;
+    }
+
+    /**
+     * Gets the last time the Master File Table entry for the file was
+     * changed.
+     */
+    public long getMasterFileTableChangedTime() {
+        return mftChangedTime;
+    }
+
+    /**
+     * Gets the last access time of the file.
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    @Override public String toString() {
+        return reference.getRecordIndex() + ":" + names + " (" + getSize() + ")";
+    }
+
+    void addName(String name, MasterFileTableReference parent) {
+        names.add(name);
+        parents.add(parent);
+    }
+
+    boolean hasSize() {
+        return size >= 0;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    void setAttributes(EnumSet<NtfsFileAttributes> attributes) {
+        this.attributes = attributes;
+    }
+
+    void setTimes(long creationTime, long modificationTime, long mftChangedTime, long lastAccessTime) {
+        this.creationTime = creationTime;
+        this.modificationTime = modificationTime;
+        this.mftChangedTime = mftChangedTime;
+        this.lastAccessTime = lastAccessTime;
+    }
+
+    /** takes the names and size held in an extension entry of the file */
+    void merge(MasterFileTableFile extension) {
+        names.addAll(extension.names);
+        parents.addAll(extension.parents);
+        if (!hasSize() && extension.hasSize()) {
+            size = extension.size;
+        }
+    }
+}
@@ -51,6 +51,8 @@ public final class DiscImageFile extends VirtualDiskLayer {
 
     private Closeable toDispose;
 
+    private Mode2Buffer mode2Buffer;
+
     /**
      * Initializes a new instance of the DiscImageFile class.
      *
@@ -91,11 +93,32 @@ public final class DiscImageFile extends VirtualDiskLayer {
         }
 
         if (this.format == OpticalFormat.Mode2) {
-            Mode2Buffer converter = new Mode2Buffer(new StreamBuffer(getContent(), Ownership.None));
-            setContent(new BufferStream(converter, FileAccess.Read));
+            mode2Buffer = new Mode2Buffer(new StreamBuffer(getContent(), Ownership.None));
+            setContent(new BufferStream(mode2Buffer, FileAccess.Read));
+        }
+    }
+
+    /**
+     * Sets whether the EDC and ECC of the sectors read are checked, in the
+     * background. Only Mode 2 images hold them, for Mode 1 images this does
+     * nothing.
+     */
+    public void setVerifySectors(boolean value) {
+        if (mode2Buffer != null) {
+            mode2Buffer.setVerify(value);
         }
     }
 
+    /**
+     * Gets the sectors read so far that failed their EDC or ECC check,
+     * waiting for the checks in progress.
+     *
+     * @return the sector numbers, in ascending order.
+     */
+    public List<Long> getBadSectors() {
+        return mode2Buffer != null ? mode2Buffer.getBadSectors() : Collections.emptyList();
+    }
+
     @Override public long getCapacity() {
         return getContent().getLength();
     }
@@ -22,30 +22,84 @@
 
 package discUtils.opticalDisk;
 
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+import aaru.checksum.CdChecksums;
+import discUtils.core.internal.Utilities;
 import discUtils.streams.StreamExtent;
 import discUtils.streams.buffer.IBuffer;
 import discUtils.streams.util.StreamUtilities;
 
+import static java.lang.System.getLogger;
+
 
 /**
  * Interprets a Mode 2 image.
  *
  * Effectively just strips the additional header / footer from the Mode 2 sector
- * data - does not attempt to validate the information.
+ * data. Runs of raw sectors are read with one read each. When verifying, the
+ * EDC and ECC of the raw sectors read are checked in the background, and the
+ * sectors failing the check are recorded.
  */
 class Mode2Buffer implements IBuffer {
 
+    private static final Logger logger = getLogger(Mode2Buffer.class.getName());
+
+    /** the most raw sectors read at once */
+    private static final int MaxRunSectors = 64;
+
+    /** the offset of the user data in a raw sector, after the sync, header and subheader */
+    private static final int DataOffset = 24;
+
     private final byte[] iobuffer;
 
     private final IBuffer wrapped;
 
+    private boolean verify;
+
+    /** the checks in progress, oldest first */
+    private final Deque<CompletableFuture<Void>> pending = new ArrayDeque<>();
+
+    private final SortedSet<Long> badSectors = new ConcurrentSkipListSet<>();
+
     public Mode2Buffer(IBuffer toWrap) {
         wrapped = toWrap;
-        iobuffer = new byte[DiscImageFile.Mode2SectorSize];
+        iobuffer = new byte[MaxRunSectors * DiscImageFile.Mode2SectorSize];
+    }
+
+    /**
+     * Sets whether the EDC and ECC of the sectors read are checked.
+     */
+    public void setVerify(boolean value) {
+        verify = value;
+    }
+
+    /**
+     * Gets the sectors read so far that failed their EDC or ECC check, once
+     * the checks in progress are done.
+     */
+    public List<Long> getBadSectors() {
+        while (true) {
+            CompletableFuture<Void> check;
+            synchronized (pending) {
+                check = pending.poll();
+            }
+            if (check == null) {
+                break;
+            }
+            Utilities.join(check);
+        }
+        return new ArrayList<>(badSectors);
     }
 
     @Override
@@ -70,21 +124,61 @@ class Mode2Buffer implements IBuffer {
 
     @Override
     public int read(long pos, byte[] buffer, int offset, int count) {
-        int totalToRead = (int) Math.min(getCapacity() - pos, count);
+        int totalToRead = (int) Math.max(0, Math.min(getCapacity() - pos, count));
         int totalRead = 0;
         while (totalRead < totalToRead) {
             long thisPos = pos + totalRead;
             long sector = thisPos / DiscImageFile.Mode1SectorSize;
             int sectorOffset = (int) (thisPos - sector * DiscImageFile.Mode1SectorSize);
-            StreamUtilities
-                    .readExact(wrapped, sector * DiscImageFile.Mode2SectorSize, iobuffer, 0, DiscImageFile.Mode2SectorSize);
-            int bytesToCopy = Math.min(DiscImageFile.Mode1SectorSize - sectorOffset, totalToRead - totalRead);
-            System.arraycopy(iobuffer, 24 + sectorOffset, buffer, offset + totalRead, bytesToCopy);
-            totalRead += bytesToCopy;
+            long lastSector = (pos + totalToRead - 1) / DiscImageFile.Mode1SectorSize;
+            int numSectors = (int) Math.min(MaxRunSectors, lastSector - sector + 1);
+            StreamUtilities.readExact(wrapped,
+                                      sector * DiscImageFile.Mode2SectorSize,
+                                      iobuffer,
+                                      0,
+                                      numSectors * DiscImageFile.Mode2SectorSize);
+            if (verify) {
+                verify(sector, Arrays.copyOf(iobuffer, numSectors * DiscImageFile.Mode2SectorSize));
+            }
+
+            for (int i = 0; i < numSectors; i++) {
+                int bytesToCopy = Math.min(DiscImageFile.Mode1SectorSize - sectorOffset, totalToRead - totalRead);
+                System.arraycopy(iobuffer,
+                                 i * DiscImageFile.Mode2SectorSize + DataOffset + sectorOffset,
+                                 buffer,
+                                 offset + totalRead,
+                                 bytesToCopy);
+                totalRead += bytesToCopy;
+                sectorOffset = 0;
+            }
         }
         return totalRead;
     }
 
+    /** checks the raw sectors on the common pool, waiting only when too many checks are behind */
+    private void verify(long firstSector, byte[] sectors) {
+        CompletableFuture<Void> oldest = null;
+        synchronized (pending) {
+            pending.removeIf(CompletableFuture::isDone);
+            if (pending.size() >= Runtime.getRuntime().availableProcessors() * 2) {
+                oldest = pending.poll();
+            }
+            pending.add(CompletableFuture.runAsync(() -> {
+                byte[] sector = new byte[DiscImageFile.Mode2SectorSize];
+                for (int i = 0; i < sectors.length / DiscImageFile.Mode2SectorSize; i++) {
+                    System.arraycopy(sectors, i * DiscImageFile.Mode2SectorSize, sector, 0, sector.length);
+                    if (Boolean.FALSE.equals(CdChecksums.checkCdSector(sector))) {
+                        logger.log(Level.WARNING, "bad sector: " + (firstSector + i));
+                        badSectors.add(firstSector + i);
+                    }
+                }
+            }));
+        }
+        if (oldest != null) {
+            Utilities.join(oldest);
+        }
+    }
+
     @Override
     public void write(long pos, byte[] buffer, int offset, int count) {
         throw new UnsupportedOperationException();
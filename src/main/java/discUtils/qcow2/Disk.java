@@ -7,7 +7,7 @@
 package discUtils.qcow2;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 
 import discUtils.core.DiscFileSystem;
@@ -20,10 +20,11 @@ import discUtils.core.VirtualDiskTypeInfo;
 import discUtils.streams.SparseStream;
 import discUtils.streams.util.Ownership;
 import dotnet4j.io.FileAccess;
+import dotnet4j.io.Stream;
 
 
 /**
- * Represents a vavi-nio-file-emu-backed disk.
+ * Represents a QCOW2 disk, with its chain of backing files.
  *
  * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
  * @version 0.00 2025/10/01 umjammer initial version <br>
@@ -36,9 +37,9 @@ public final class Disk extends VirtualDisk {
     private SparseStream content;
 
     /**
-     * The disk.
+     * The files that make up the disk, the top-most first.
      */
-    private DiskImageFile file;
+    private List<DiskImageFile> files = new ArrayList<>();
 
     /**
      * Initializes a new instance of the Disk class. Differencing disks are
@@ -48,7 +49,8 @@ public final class Disk extends VirtualDisk {
      * @param access The access requested to the disk.
      */
     public Disk(String path, FileAccess access) throws IOException {
-        file = new DiskImageFile(path, access);
+        files.add(new DiskImageFile(path, access));
+        resolveFileChain();
     }
 
     /**
@@ -60,14 +62,42 @@ public final class Disk extends VirtualDisk {
      * @param access The access requested to the disk.
      */
     Disk(FileLocator locator, String path, FileAccess access) throws IOException {
-        file = new DiskImageFile(locator, path, access);
+        files.add(new DiskImageFile(locator, path, access));
+        resolveFileChain();
+    }
+
+    /**
+     * Initializes a new instance of the Disk class. Differencing disks are not
+     * supported.
+     *
+     * @param file The file containing the disk.
+     */
+    public Disk(DiskImageFile file) {
+        if (file.needsParent()) {
+            throw new IllegalArgumentException("Differencing disks need their backing file");
+        }
+
+        files.add(file);
+    }
+
+    /**
+     * Initializes a stream as an empty QCOW2 disk.
+     *
+     * @param stream The stream to initialize.
+     * @param ownsStream Indicates if the new instance controls the lifetime of
+     *            the stream.
+     * @param capacity The desired capacity of the new disk.
+     * @return An object that accesses the stream as a disk.
+     */
+    public static Disk initialize(Stream stream, Ownership ownsStream, long capacity) {
+        return new Disk(DiskImageFile.initialize(stream, ownsStream, capacity));
     }
 
     /**
      * Gets the capacity of the disk (in bytes).
      */
     @Override public long getCapacity() {
-        return file.getCapacity();
+        return files.get(0).getCapacity();
     }
 
     /**
@@ -79,9 +109,7 @@ public final class Disk extends VirtualDisk {
      */
     @Override public SparseStream getContent() {
         if (content == null) {
-            SparseStream stream = null;
-            stream = file.openContent(stream, Ownership.Dispose);
-            content = stream;
+            content = openLayerChain(files);
         }
 
         return content;
@@ -100,21 +128,21 @@ public final class Disk extends VirtualDisk {
      * preserved in the disk file.
      */
     @Override public VirtualDiskTypeInfo getDiskTypeInfo() {
-        return DiskFactory.makeDiskTypeInfo(file.isSparse() ? "dynamic" : "fixed");
+        return DiskFactory.makeDiskTypeInfo("qcow2");
     }
 
     /**
      * Gets the geometry of the disk.
      */
     @Override public Geometry getGeometry() {
-        return file.getGeometry();
+        return files.get(0).getGeometry();
     }
 
     /**
      * Gets the layers that make up the disk.
      */
     @Override public List<VirtualDiskLayer> getLayers() {
-        return Collections.singletonList(file);
+        return new ArrayList<>(files);
     }
 
     /**
@@ -138,6 +166,30 @@ public final class Disk extends VirtualDisk {
         throw new UnsupportedOperationException();
     }
 
+    private void resolveFileChain() throws IOException {
+        DiskImageFile file = files.get(files.size() - 1);
+        while (file.needsParent()) {
+            if (file.getBackingFormat() != null && !file.getBackingFormat().equals("qcow2")) {
+                throw new UnsupportedOperationException("Backing files of format '%s' are not supported".formatted(file.getBackingFormat()));
+            }
+
+            FileLocator fileLocator = file.getRelativeFileLocator();
+            boolean found = false;
+            for (String testPath : file.getParentLocations()) {
+                if (fileLocator != null && fileLocator.exists(testPath)) {
+                    file = new DiskImageFile(fileLocator, testPath, FileAccess.Read);
+                    files.add(file);
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) {
+                throw new IOException("Failed to find backing file for disk '%s'".formatted(file.getFullPath()));
+            }
+        }
+    }
+
     /**
      * Disposes of underlying resources.
      */
@@ -148,8 +200,11 @@ public final class Disk extends VirtualDisk {
                 content = null;
             }
 
-            if (file != null) {
-                file = null;
+            if (files != null) {
+                for (DiskImageFile file : files) {
+                    file.close();
+                }
+                files = null;
             }
         } finally {
             super.close();
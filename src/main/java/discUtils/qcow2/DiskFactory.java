@@ -16,7 +16,10 @@ import discUtils.core.VirtualDiskParameters;
 import discUtils.core.VirtualDiskTypeInfo;
 import discUtils.core.internal.VirtualDiskFactory;
 import discUtils.core.internal.VirtualDiskFactoryAttribute;
+import discUtils.streams.util.Ownership;
 import dotnet4j.io.FileAccess;
+import dotnet4j.io.FileMode;
+import dotnet4j.io.FileShare;
 
 
 /**
@@ -48,7 +51,7 @@ public final class DiskFactory implements VirtualDiskFactory {
                                   String variant,
                                   String path,
                                   VirtualDiskParameters diskParameters) throws IOException {
-        throw new UnsupportedOperationException();
+        return Disk.initialize(locator.open(path, FileMode.Create, FileAccess.ReadWrite, FileShare.None), Ownership.Dispose, diskParameters.capacity);
     }
 
     @Override
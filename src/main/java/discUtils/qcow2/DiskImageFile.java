@@ -7,13 +7,10 @@
 package discUtils.qcow2;
 
 import java.io.IOException;
-import java.lang.System.Logger;
-import java.lang.System.Logger.Level;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import com.github.qcow2.Qcow2;
-import com.github.qcow2.Qcow2.Image;
 import discUtils.core.FileLocator;
 import discUtils.core.Geometry;
 import discUtils.core.VirtualDiskExtent;
@@ -21,11 +18,13 @@ import discUtils.core.VirtualDiskLayer;
 import discUtils.core.internal.LocalFileLocator;
 import discUtils.core.internal.Utilities;
 import discUtils.streams.SparseStream;
+import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Ownership;
 import dotnet4j.io.FileAccess;
 import dotnet4j.io.FileMode;
 import dotnet4j.io.FileShare;
 import dotnet4j.io.Stream;
+import vavi.util.ByteUtil;
 
 
 /**
@@ -36,9 +35,10 @@ import dotnet4j.io.Stream;
  */
 public final class DiskImageFile extends VirtualDiskLayer {
 
-    private static final Logger logger = System.getLogger(DiskImageFile.class.getName());
+    /** the cluster size of new images, as a power of two */
+    private static final int DefaultClusterBits = 16;
 
-    private Image disk;
+    private final Header header;
 
     /**
      * The object that can be used to locate relative file paths.
@@ -66,7 +66,7 @@ public final class DiskImageFile extends VirtualDiskLayer {
      * @param stream The stream to interpret.
      */
     public DiskImageFile(Stream stream) {
-        fileStream = stream;
+        this(stream, Ownership.None);
     }
 
     /**
@@ -79,6 +79,7 @@ public final class DiskImageFile extends VirtualDiskLayer {
     public DiskImageFile(Stream stream, Ownership ownership) {
         fileStream = stream;
         this.ownership = ownership;
+        header = Header.read(stream);
     }
 
     /**
@@ -99,25 +100,61 @@ public final class DiskImageFile extends VirtualDiskLayer {
     }
 
     DiskImageFile(FileLocator locator, String path, FileAccess access) {
-        FileShare share = access == FileAccess.Read ? FileShare.Read : FileShare.None;
-
-        try {
-            disk = Qcow2.open(locator.getFullPath(path), true);
-
-            fileStream = locator.open(path, FileMode.Open, access, share);
-            ownership = Ownership.Dispose;
+        this(locator, path, locator.open(path, FileMode.Open, access, access == FileAccess.Read ? FileShare.Read : FileShare.None), Ownership.Dispose);
+    }
 
-            fileLocator = locator.getRelativeLocator(locator.getDirectoryFromPath(path));
-            fileName = locator.getFileFromPath(path);
-        } catch (IOException e) {
-logger.log(Level.ERROR, e.getMessage(), e);
-            throw new dotnet4j.io.IOException(e);
+    /**
+     * Initializes a stream as an empty QCOW2 version 3 image.
+     *
+     * @param stream The stream to initialize.
+     * @param ownsStream Indicates if the new instance controls the lifetime of
+     *            the stream.
+     * @param capacity The desired capacity of the new disk.
+     * @return An object that accesses the stream as a QCOW2 image.
+     */
+    public static DiskImageFile initialize(Stream stream, Ownership ownsStream, long capacity) {
+        Header header = new Header();
+        header.size = capacity;
+        header.clusterBits = DefaultClusterBits;
+        int clusterSize = header.getClusterSize();
+        long l2Span = (long) clusterSize / 8 * clusterSize;
+        header.l1Size = (int) Math.max(1, MathUtilities.ceil(capacity, l2Span));
+
+        // Enough refcount blocks for a fully allocated image
+        long entriesPerBlock = (long) clusterSize * 8 / header.getRefcountBits();
+        long refcountBlocks = MathUtilities.ceil(MathUtilities.ceil(capacity, clusterSize) * 2 + 16, entriesPerBlock);
+        header.refcountTableClusters = (int) MathUtilities.ceil(refcountBlocks * 8, clusterSize);
+        int l1Clusters = (int) MathUtilities.ceil(header.l1Size * 8L, clusterSize);
+
+        // Header, refcount table, the first refcount block, L1 table
+        header.refcountTableOffset = clusterSize;
+        long refcountBlockOffset = header.refcountTableOffset + (long) header.refcountTableClusters * clusterSize;
+        header.l1TableOffset = refcountBlockOffset + clusterSize;
+        int usedClusters = (int) (header.l1TableOffset / clusterSize) + l1Clusters;
+
+        stream.position(0);
+        byte[] headerBytes = header.getBytes();
+        stream.write(headerBytes, 0, headerBytes.length);
+
+        byte[] tableEntry = new byte[8];
+        ByteUtil.writeBeLong(refcountBlockOffset, tableEntry, 0);
+        stream.position(header.refcountTableOffset);
+        stream.write(tableEntry, 0, tableEntry.length);
+
+        byte[] refcountBlock = new byte[clusterSize];
+        for (int i = 0; i < usedClusters; ++i) {
+            ByteUtil.writeBeShort((short) 1, refcountBlock, i * 2);
         }
+        stream.position(refcountBlockOffset);
+        stream.write(refcountBlock, 0, refcountBlock.length);
+
+        stream.setLength((long) usedClusters * clusterSize);
+        return new DiskImageFile(stream, ownsStream);
     }
 
     @Override
     public long getCapacity() {
-        return disk.getSize();
+        return header.size;
     }
 
     /**
@@ -143,25 +180,28 @@ logger.log(Level.ERROR, e.getMessage(), e);
      * Gets the geometry of the virtual disk.
      */
     @Override public Geometry getGeometry() {
-        return new Geometry(
-                0,
-                0,
-                0
-        );
+        return Geometry.fromCapacity(getCapacity());
     }
 
     /**
      * Gets a value indicating if the layer only stores meaningful sectors.
      */
     @Override public boolean isSparse() {
-        return false;
+        return true;
     }
 
     /**
      * Gets a value indicating whether the file is a differencing disk.
      */
     @Override public boolean needsParent() {
-        return false;
+        return header.backingFile != null;
+    }
+
+    /**
+     * Gets the format of the backing file, if recorded.
+     */
+    public String getBackingFormat() {
+        return header.backingFormat;
     }
 
     @Override public FileLocator getRelativeFileLocator() {
@@ -177,17 +217,16 @@ logger.log(Level.ERROR, e.getMessage(), e);
      * @return The new content stream.
      */
     @Override public SparseStream openContent(SparseStream parent, Ownership ownsParent) {
-        if (parent != null && ownsParent == Ownership.Dispose) {
+        if (!needsParent() && parent != null && ownsParent == Ownership.Dispose) {
             try {
-                // Not needed until differencing disks supported.
                 parent.close();
             } catch (IOException e) {
                 throw new dotnet4j.io.IOException(e);
             }
+            parent = null;
         }
 
-        DiskStream stream = new DiskStream(this.fileStream, Ownership.None, disk);
-        return stream;
+        return new DiskStream(fileStream, Ownership.None, header, needsParent() ? parent : null, ownsParent);
     }
 
     /**
@@ -196,7 +235,7 @@ logger.log(Level.ERROR, e.getMessage(), e);
      * @return list of candidate file locations.
      */
     @Override public List<String> getParentLocations() {
-        return null;
+        return needsParent() ? Collections.singletonList(header.backingFile) : Collections.emptyList();
     }
 
     /**
@@ -10,49 +10,173 @@ import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
-import com.github.qcow2.Qcow2.Image;
+import discUtils.streams.LayerExtent;
+import discUtils.streams.LayerStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
+import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Ownership;
+import discUtils.streams.util.Sizes;
+import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.SeekOrigin;
 import dotnet4j.io.Stream;
+import vavi.util.ByteUtil;
 
 import static java.lang.System.getLogger;
 
 
 /**
- * DiskStream.
+ * The content of a QCOW2 image.
+ *
+ * Clusters are looked up through the L1 table and the L2 tables, the L2
+ * tables recently used being kept. Reads are served a run of clusters at a
+ * time, a run being clusters stored one after the other in the file, clusters
+ * reading as zeros, or clusters held by the backing file. Compressed clusters
+ * are inflated a cluster at a time, and recently used ones kept.
+ *
+ * Writes allocate clusters at the end of the file, copying clusters and L2
+ * tables shared with snapshots (those without the COPIED flag) first, and
+ * keep the refcounts up to date as they go.
  *
  * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
  * @version 0.00 2025/10/01 umjammer initial version <br>
  */
-public class DiskStream extends SparseStream {
+public class DiskStream extends SparseStream implements LayerStream {
 
     private static final Logger logger = getLogger(DiskStream.class.getName());
 
+    private static final long OffsetMask = 0x00ff_ffff_ffff_fe00L;
+
+    private static final long RefcountBlockOffsetMask = 0xffff_ffff_ffff_fe00L;
+
+    private static final long CopiedFlag = 1L << 63;
+
+    private static final long CompressedFlag = 1L << 62;
+
+    private static final long ZeroFlag = 1;
+
+    /** the number of L2 tables kept in memory */
+    private static final int MaxCachedL2Tables = 256;
+
+    /** the number of inflated compressed clusters kept in memory */
+    private static final int MaxCachedClusters = 128;
+
+    /** the number of refcount blocks kept in memory */
+    private static final int MaxCachedRefcountBlocks = 64;
+
+    private enum Kind {
+        /** stored in the file, uncompressed */
+        Data,
+        Compressed,
+        Zero,
+        /** not held by this image, read from the backing file */
+        Absent
+    }
+
     private boolean atEof;
 
-    private final Image disk;
+    private final Header header;
 
-    private Stream fileStream;
+    private final int clusterBits;
 
-    private boolean isDisposed;
+    private final int clusterSize;
+
+    /** the number of entries in an L2 table, as a power of two */
+    private final int l2Bits;
+
+    private final long[] l1Table;
+
+    /** recently used L2 tables by L1 index, least recently used first */
+    private final Map<Integer, long[]> l2Tables;
+
+    /** recently inflated compressed clusters by file offset, least recently used first */
+    private final Map<Long, byte[]> clusters;
+
+    /** recently used refcount blocks by file offset, least recently used first */
+    private final Map<Long, byte[]> refcountBlocks;
+
+    /** read on the first allocation */
+    private long[] refcountTable;
+
+    /** where the next cluster is allocated, zero until the first allocation */
+    private long nextFreeCluster;
+
+    private Inflater inflater;
+
+    private Stream fileStream;
 
     private final Ownership ownsStream;
 
+    private SparseStream parentStream;
+
+    private final Ownership ownsParentStream;
+
+    private boolean isDisposed;
+
     private boolean writeNotified;
 
     private long position;
 
-    public DiskStream(Stream fileStream, Ownership ownsStream, Image disk) {
-        this.fileStream = fileStream;
-        this.disk = disk;
+    /**
+     * @param fileStream The image file.
+     * @param ownsStream Whether closing this stream closes the image file.
+     * @param header The header of the image.
+     * @param parentStream The content of the backing file, or {@code null}.
+     * @param ownsParentStream Whether closing this stream closes the parent.
+     */
+    public DiskStream(Stream fileStream, Ownership ownsStream, Header header, SparseStream parentStream, Ownership ownsParentStream) {
+        if (header.cryptMethod != 0) {
+            throw new UnsupportedOperationException("Encrypted QCOW2 images are not supported");
+        }
+        if ((header.incompatibleFeatures & (Header.ExternalDataFileBit | Header.ExtendedL2Bit)) != 0) {
+            throw new UnsupportedOperationException("QCOW2 external data files and extended L2 entries are not supported");
+        }
+        if ((header.incompatibleFeatures & ~0x1fL) != 0) {
+            throw new dotnet4j.io.IOException("Unknown QCOW2 incompatible features: %x".formatted(header.incompatibleFeatures));
+        }
+        if (header.compressionType != Header.CompressionZlib && header.compressionType != Header.CompressionZstd) {
+            throw new dotnet4j.io.IOException("Unknown QCOW2 compression type: " + header.compressionType);
+        }
 
+        this.fileStream = fileStream;
         this.ownsStream = ownsStream;
-        this.position = 0;
+        this.header = header;
+        this.parentStream = parentStream;
+        this.ownsParentStream = ownsParentStream;
+        clusterBits = header.clusterBits;
+        clusterSize = header.getClusterSize();
+        l2Bits = clusterBits - 3;
+
+        fileStream.position(header.l1TableOffset);
+        byte[] l1Bytes = StreamUtilities.readExact(fileStream, header.l1Size * 8);
+        l1Table = new long[header.l1Size];
+        for (int i = 0; i < l1Table.length; ++i) {
+            l1Table[i] = ByteUtil.readBeLong(l1Bytes, i * 8);
+        }
+
+        l2Tables = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+                return size() > MaxCachedL2Tables;
+            }
+        };
+        clusters = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > MaxCachedClusters;
+            }
+        };
+        refcountBlocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > MaxCachedRefcountBlocks;
+            }
+        };
     }
 
     @Override public boolean canRead() {
@@ -71,32 +195,72 @@ public class DiskStream extends SparseStream {
     }
 
     @Override public List<StreamExtent> getExtents() {
-        if (true)
-            throw new UnsupportedOperationException("not implemented yet");
+        return getExtentsInRange(0, getLength());
+    }
 
-        List<StreamExtent> extents = new ArrayList<>();
+    @Override public List<StreamExtent> getExtentsInRange(long start, long count) {
+        checkDisposed();
+        List<StreamExtent> result = new ArrayList<>();
+        long end = Math.min(start + count, header.size);
+        long pos = start;
+        while (pos < end) {
+            Run run = findRun(pos, end);
+            if (run.kind == Kind.Data || run.kind == Kind.Compressed) {
+                addExtent(result, new StreamExtent(pos, run.length));
+            } else if (run.kind == Kind.Absent && parentStream != null) {
+                for (StreamExtent extent : parentStream.getExtentsInRange(pos, run.length)) {
+                    addExtent(result, extent);
+                }
+            }
+            pos += run.length;
+        }
+        return result;
+    }
 
-        long blockSize = -1;
-        int i = 0;
-        extents.add(new StreamExtent(blockSize, i * blockSize));
+    private static void addExtent(List<StreamExtent> extents, StreamExtent extent) {
+        if (!extents.isEmpty()) {
+            StreamExtent last = extents.get(extents.size() - 1);
+            if (last.getStart() + last.getLength() == extent.getStart()) {
+                extents.set(extents.size() - 1, new StreamExtent(last.getStart(), last.getLength() + extent.getLength()));
+                return;
+            }
+        }
+        extents.add(extent);
+    }
 
-        return extents;
+    @Override public List<LayerExtent> mapLayer(long start, long count) {
+        checkDisposed();
+        List<LayerExtent> result = new ArrayList<>();
+        long end = Math.min(start + count, header.size);
+        long pos = start;
+        while (pos < end) {
+            Run run = findRun(pos, end);
+            switch (run.kind) {
+            case Data -> result.add(LayerExtent.present(pos, run.length, fileStream, run.getFileOffset()));
+            case Compressed -> result.add(LayerExtent.present(pos, run.length));
+            case Zero -> result.add(LayerExtent.zero(pos, run.length));
+            case Absent -> result.add(LayerExtent.absent(pos, run.length));
+            }
+            pos += run.length;
+        }
+        if (end < start + count) {
+            result.add(LayerExtent.absent(Math.max(start, end), start + count - Math.max(start, end)));
+        }
+        return result;
     }
 
     @Override public long getLength() {
         checkDisposed();
-        return disk.getSize();
+        return header.size;
     }
 
     @Override public long position() {
         checkDisposed();
-logger.log(Level.TRACE, "get position: %08x".formatted(position));
         return position;
     }
 
     @Override public void position(long value) {
         checkDisposed();
-logger.log(Level.TRACE, "set position: %08x".formatted(value));
         this.position = value;
         atEof = false;
     }
@@ -105,41 +269,64 @@ logger.log(Level.TRACE, "set position: %08x".formatted(value));
 
     @Override public void flush() {
         checkDisposed();
+        fileStream.flush();
     }
 
     @Override public int read(byte[] buffer, int offset, int count) {
         checkDisposed();
-//new Exception().printStackTrace(System.err);
-logger.log(Level.TRACE, "READ: %08x, %d, %d".formatted(position, offset, count));
-        if (atEof || position > disk.getSize()) {
+        if (atEof || position > header.size) {
             atEof = true;
             throw new dotnet4j.io.IOException("Attempt to read beyond end of file");
         }
 
-        if (position == disk.getSize()) {
+        if (position == header.size) {
             atEof = true;
             return 0;
         }
 
-        try {
-            byte[] b = new byte[count];
-            disk.readAt(b, position);
-            System.arraycopy(b, 0, buffer, offset, count);
-            position += count;
-        } catch (IOException e) {
-            throw new dotnet4j.io.IOException(e);
+        int numRead = readAt(position, buffer, offset, (int) Math.min(count, header.size - position));
+        position += numRead;
+        return numRead;
+    }
+
+    private int readAt(long pos, byte[] buffer, int offset, int count) {
+        long end = pos + count;
+        int numRead = 0;
+        while (pos < end) {
+            Run run = findRun(pos, end);
+            int toRead = (int) run.length;
+            switch (run.kind) {
+            case Data -> {
+                fileStream.position(run.getFileOffset());
+                StreamUtilities.readExact(fileStream, buffer, offset + numRead, toRead);
+            }
+            case Compressed -> System.arraycopy(getCluster(run.entry), (int) (pos & (clusterSize - 1)), buffer, offset + numRead, toRead);
+            case Zero -> Arrays.fill(buffer, offset + numRead, offset + numRead + toRead, (byte) 0);
+            case Absent -> readParent(pos, buffer, offset + numRead, toRead);
+            }
+            pos += toRead;
+            numRead += toRead;
         }
+        return numRead;
+    }
 
-        return count;
+    /** the backing file may be shorter than this image, the rest reads as zeros */
+    private void readParent(long pos, byte[] buffer, int offset, int count) {
+        int fromParent = parentStream == null ? 0 : (int) Math.max(0, Math.min(count, parentStream.getLength() - pos));
+        if (fromParent > 0) {
+            parentStream.position(pos);
+            StreamUtilities.readExact(parentStream, buffer, offset, fromParent);
+        }
+        Arrays.fill(buffer, offset + fromParent, offset + count, (byte) 0);
     }
 
     @Override public long seek(long offset, SeekOrigin origin) {
         checkDisposed();
         long effectiveOffset = offset;
-        if (origin == dotnet4j.io.SeekOrigin.Current) {
+        if (origin == SeekOrigin.Current) {
             effectiveOffset += position;
         } else if (origin == SeekOrigin.End) {
-            effectiveOffset += disk.getSize();
+            effectiveOffset += header.size;
         }
 
         atEof = false;
@@ -147,8 +334,8 @@ logger.log(Level.TRACE, "READ: %08x, %d, %d".formatted(position, offset, count))
         if (effectiveOffset < 0) {
             throw new dotnet4j.io.IOException("Attempt to move before beginning of disk");
         }
-        position = offset + effectiveOffset;
-        return position - offset;
+        position = effectiveOffset;
+        return position;
     }
 
     @Override public void setLength(long value) {
@@ -157,9 +344,6 @@ logger.log(Level.TRACE, "READ: %08x, %d, %d".formatted(position, offset, count))
     }
 
     @Override public void write(byte[] buffer, int offset, int count) {
-        if (true)
-            throw new UnsupportedOperationException("not implemented yet");
-
         checkDisposed();
 
         if (!canWrite()) {
@@ -170,11 +354,15 @@ logger.log(Level.TRACE, "READ: %08x, %d, %d".formatted(position, offset, count))
             throw new IndexOutOfBoundsException("Attempt to write negative number of bytes (count)");
         }
 
-        if (atEof || position + count > disk.getSize()) {
+        if (atEof || position + count > header.size) {
             atEof = true;
             throw new dotnet4j.io.IOException("Attempt to write beyond end of file");
         }
 
+        if ((header.incompatibleFeatures & (Header.DirtyBit | Header.CorruptBit)) != 0) {
+            throw new dotnet4j.io.IOException("QCOW2 image is marked dirty or corrupt, it must be repaired before writing");
+        }
+
         // On first write, notify event listeners - they just get to find out that some
         // write occurred, not about each write.
         if (!writeNotified) {
@@ -182,16 +370,75 @@ logger.log(Level.TRACE, "READ: %08x, %d, %d".formatted(position, offset, count))
             writeNotified = true;
         }
 
-        // Existing block, simply overwrite the existing data
-        fileStream.write(buffer, offset,  count);
+        int numWritten = 0;
+        while (numWritten < count) {
+            long cluster = position >>> clusterBits;
+            int l1Index = (int) (cluster >>> l2Bits);
+            int l2Index = (int) (cluster & ((1 << l2Bits) - 1));
+            int inCluster = (int) (position & (clusterSize - 1));
+            int toWrite = Math.min(count - numWritten, clusterSize - inCluster);
+
+            long[] table = getL2TableForWrite(l1Index);
+            long entry = table[l2Index];
+            Kind kind = kindOf(entry);
+            if (kind == Kind.Data && (entry & CopiedFlag) != 0) {
+                // Existing cluster of our own, simply overwrite the existing data
+                fileStream.position((entry & OffsetMask) + inCluster);
+                fileStream.write(buffer, offset + numWritten, toWrite);
+            } else {
+                byte[] data = buffer;
+                int dataOffset = offset + numWritten;
+                if (toWrite != clusterSize) {
+                    // Fill in the rest of the cluster with what it reads as now
+                    data = new byte[clusterSize];
+                    long clusterStart = cluster << clusterBits;
+                    if (kind != Kind.Zero) {
+                        readAt(clusterStart, data, 0, (int) Math.min(clusterSize, header.size - clusterStart));
+                    }
+                    System.arraycopy(buffer, offset + numWritten, data, inCluster, toWrite);
+                    dataOffset = 0;
+                }
+
+                long fileOffset;
+                if (kind == Kind.Zero && (entry & OffsetMask) != 0 && (entry & CopiedFlag) != 0) {
+                    // Preallocated zero cluster
+                    fileOffset = entry & OffsetMask;
+                } else {
+                    fileOffset = allocateCluster();
+                    releaseCluster(entry);
+                }
+
+                fileStream.position(fileOffset);
+                fileStream.write(data, dataOffset, clusterSize);
+                setL2Entry(l1Index, table, l2Index, fileOffset | CopiedFlag);
+            }
+
+            position += toWrite;
+            numWritten += toWrite;
+        }
     }
 
     @Override public void close() throws IOException {
+        if (isDisposed) {
+            return;
+        }
+
         isDisposed = true;
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        if (ownsParentStream == Ownership.Dispose && parentStream != null) {
+            parentStream.close();
+            parentStream = null;
+        }
         if (ownsStream == Ownership.Dispose && fileStream != null) {
             fileStream.close();
             fileStream = null;
         }
+        l2Tables.clear();
+        clusters.clear();
+        refcountBlocks.clear();
     }
 
     protected void onWriteOccurred() {
@@ -200,9 +447,306 @@ logger.log(Level.TRACE, "READ: %08x, %d, %d".formatted(position, offset, count))
         }
     }
 
+    private Kind kindOf(long entry) {
+        if ((entry & CompressedFlag) != 0) {
+            return Kind.Compressed;
+        }
+        if (header.version >= 3 && (entry & ZeroFlag) != 0) {
+            return Kind.Zero;
+        }
+        return (entry & OffsetMask) == 0 ? Kind.Absent : Kind.Data;
+    }
+
+    /**
+     * Finds the run of clusters of the same kind starting at a position, data
+     * clusters only joining the run if they follow on in the file.
+     * Compressed clusters are returned one at a time.
+     */
+    private Run findRun(long pos, long end) {
+        long cluster = pos >>> clusterBits;
+        int l1Index = (int) (cluster >>> l2Bits);
+        if (l1Index >= l1Table.length || (l1Table[l1Index] & OffsetMask) == 0) {
+            // No L2 table, nothing held for its whole span
+            long spanEnd = (long) (l1Index + 1) << (l2Bits + clusterBits);
+            return new Run(Kind.Absent, pos, Math.min(end, spanEnd) - pos, 0);
+        }
+
+        long[] table = getL2Table(l1Index);
+        int index = (int) (cluster & ((1 << l2Bits) - 1));
+        long entry = table[index];
+        Kind kind = kindOf(entry);
+        long runEnd = Math.min(end, (cluster + 1) << clusterBits);
+        if (kind != Kind.Compressed) {
+            long nextOffset = (entry & OffsetMask) + clusterSize;
+            while (runEnd < end && ++index < table.length) {
+                long next = table[index];
+                if (kindOf(next) != kind || (kind == Kind.Data && (next & OffsetMask) != nextOffset)) {
+                    break;
+                }
+                nextOffset += clusterSize;
+                runEnd = Math.min(end, runEnd + clusterSize);
+            }
+        }
+        return new Run(kind, pos, runEnd - pos, entry);
+    }
+
+    private long[] getL2Table(int l1Index) {
+        long[] table = l2Tables.get(l1Index);
+        if (table == null) {
+            fileStream.position(l1Table[l1Index] & OffsetMask);
+            byte[] bytes = StreamUtilities.readExact(fileStream, clusterSize);
+            table = new long[1 << l2Bits];
+            for (int i = 0; i < table.length; ++i) {
+                table[i] = ByteUtil.readBeLong(bytes, i * 8);
+            }
+            l2Tables.put(l1Index, table);
+        }
+        return table;
+    }
+
+    /**
+     * Gets the L2 table for writing, allocating it if there is none and
+     * copying it if it's shared with a snapshot.
+     */
+    private long[] getL2TableForWrite(int l1Index) {
+        if (l1Index >= l1Table.length) {
+            throw new dotnet4j.io.IOException("QCOW2 L1 table too small for the image size");
+        }
+
+        long l1Entry = l1Table[l1Index];
+        long oldOffset = l1Entry & OffsetMask;
+        if (oldOffset != 0 && (l1Entry & CopiedFlag) != 0) {
+            return getL2Table(l1Index);
+        }
+
+        long[] table = oldOffset == 0 ? new long[1 << l2Bits] : getL2Table(l1Index).clone();
+        long newOffset = allocateCluster();
+        byte[] bytes = new byte[clusterSize];
+        for (int i = 0; i < table.length; ++i) {
+            ByteUtil.writeBeLong(table[i], bytes, i * 8);
+        }
+        fileStream.position(newOffset);
+        fileStream.write(bytes, 0, bytes.length);
+
+        if (oldOffset != 0) {
+            updateRefcount(oldOffset, -1);
+        }
+        l1Table[l1Index] = newOffset | CopiedFlag;
+        writeLong(header.l1TableOffset + l1Index * 8L, l1Table[l1Index]);
+        l2Tables.put(l1Index, table);
+        return table;
+    }
+
+    private void setL2Entry(int l1Index, long[] table, int l2Index, long entry) {
+        table[l2Index] = entry;
+        writeLong((l1Table[l1Index] & OffsetMask) + l2Index * 8L, entry);
+    }
+
+    /** drops this image's reference to the clusters of an L2 entry, if any */
+    private void releaseCluster(long entry) {
+        if ((entry & CompressedFlag) != 0) {
+            long fileOffset = compressedOffset(entry);
+            long last = fileOffset + compressedLength(entry) - 1;
+            for (long cluster = fileOffset >>> clusterBits; cluster <= last >>> clusterBits; ++cluster) {
+                updateRefcount(cluster << clusterBits, -1);
+            }
+        } else if ((entry & OffsetMask) != 0) {
+            updateRefcount(entry & OffsetMask, -1);
+        }
+    }
+
+    /**
+     * Allocates a cluster at the end of the file. Freed clusters aren't
+     * reused.
+     */
+    private long allocateCluster() {
+        if (refcountTable == null) {
+            fileStream.position(header.refcountTableOffset);
+            byte[] bytes = StreamUtilities.readExact(fileStream, header.refcountTableClusters * clusterSize);
+            refcountTable = new long[bytes.length / 8];
+            for (int i = 0; i < refcountTable.length; ++i) {
+                refcountTable[i] = ByteUtil.readBeLong(bytes, i * 8);
+            }
+            nextFreeCluster = MathUtilities.roundUp(fileStream.getLength(), clusterSize);
+        }
+
+        long offset = nextFreeCluster;
+        nextFreeCluster += clusterSize;
+        updateRefcount(offset, 1);
+        return offset;
+    }
+
+    private void updateRefcount(long fileOffset, int delta) {
+        long cluster = fileOffset >>> clusterBits;
+        long entriesPerBlock = ((long) clusterSize * 8) >>> header.refcountOrder;
+        long tableIndex = cluster / entriesPerBlock;
+        if (tableIndex >= refcountTable.length) {
+            throw new dotnet4j.io.IOException("QCOW2 refcount table is full");
+        }
+
+        long blockOffset = refcountTable[(int) tableIndex] & RefcountBlockOffsetMask;
+        if (blockOffset == 0) {
+            blockOffset = nextFreeCluster;
+            nextFreeCluster += clusterSize;
+            byte[] block = new byte[clusterSize];
+            fileStream.position(blockOffset);
+            fileStream.write(block, 0, block.length);
+            refcountBlocks.put(blockOffset, block);
+            refcountTable[(int) tableIndex] = blockOffset;
+            writeLong(header.refcountTableOffset + tableIndex * 8, blockOffset);
+            // The new block may well count itself
+            updateRefcount(blockOffset, 1);
+        }
+
+        byte[] block = getRefcountBlock(blockOffset);
+        int index = (int) (cluster % entriesPerBlock);
+        int bits = header.getRefcountBits();
+        long value = getRefcount(block, index, bits) + delta;
+        long max = bits == 64 ? Long.MAX_VALUE : (1L << bits) - 1;
+        if (value < 0 || value > max) {
+            throw new dotnet4j.io.IOException("QCOW2 refcount out of range for cluster at %x: %d".formatted(fileOffset, value));
+        }
+        if (value == 0) {
+logger.log(Level.TRACE, "freed cluster: %x".formatted(fileOffset));
+        }
+
+        int byteIndex = setRefcount(block, index, bits, value);
+        fileStream.position(blockOffset + byteIndex);
+        fileStream.write(block, byteIndex, Math.max(1, bits / 8));
+    }
+
+    private byte[] getRefcountBlock(long blockOffset) {
+        byte[] block = refcountBlocks.get(blockOffset);
+        if (block == null) {
+            fileStream.position(blockOffset);
+            block = StreamUtilities.readExact(fileStream, clusterSize);
+            refcountBlocks.put(blockOffset, block);
+        }
+        return block;
+    }
+
+    private static long getRefcount(byte[] block, int index, int bits) {
+        if (bits < 8) {
+            int perByte = 8 / bits;
+            return ((block[index / perByte] & 0xff) >>> ((index % perByte) * bits)) & ((1 << bits) - 1);
+        }
+
+        long value = 0;
+        int bytes = bits / 8;
+        for (int i = 0; i < bytes; ++i) {
+            value = value << 8 | (block[index * bytes + i] & 0xff);
+        }
+        return value;
+    }
+
+    /** @return the index of the first byte changed */
+    private static int setRefcount(byte[] block, int index, int bits, long value) {
+        if (bits < 8) {
+            int perByte = 8 / bits;
+            int shift = (index % perByte) * bits;
+            int mask = ((1 << bits) - 1) << shift;
+            int i = index / perByte;
+            block[i] = (byte) ((block[i] & ~mask) | ((int) value << shift));
+            return i;
+        }
+
+        int bytes = bits / 8;
+        for (int i = bytes - 1; i >= 0; --i) {
+            block[index * bytes + i] = (byte) value;
+            value >>>= 8;
+        }
+        return index * bytes;
+    }
+
+    private void writeLong(long fileOffset, long value) {
+        byte[] bytes = new byte[8];
+        ByteUtil.writeBeLong(value, bytes, 0);
+        fileStream.position(fileOffset);
+        fileStream.write(bytes, 0, bytes.length);
+    }
+
+    private long compressedOffset(long entry) {
+        return entry & ((1L << (62 - (clusterBits - 8))) - 1);
+    }
+
+    /** the compressed data runs to the end of the sector holding its last byte */
+    private int compressedLength(long entry) {
+        int x = 62 - (clusterBits - 8);
+        long sectors = ((entry >>> x) & ((1L << (clusterBits - 8)) - 1)) + 1;
+        return (int) (sectors * Sizes.Sector - (compressedOffset(entry) & (Sizes.Sector - 1)));
+    }
+
+    private byte[] getCluster(long entry) {
+        long fileOffset = compressedOffset(entry);
+        byte[] cluster = clusters.get(fileOffset);
+        if (cluster == null) {
+            if (header.compressionType == Header.CompressionZstd) {
+                throw new UnsupportedOperationException("zstd compressed QCOW2 clusters are not supported");
+            }
+
+            int length = (int) Math.min(compressedLength(entry), fileStream.getLength() - fileOffset);
+            fileStream.position(fileOffset);
+            byte[] compressed = StreamUtilities.readExact(fileStream, length);
+            cluster = inflate(compressed);
+            clusters.put(fileOffset, cluster);
+        }
+        return cluster;
+    }
+
+    /** compressed clusters are raw deflate streams */
+    private byte[] inflate(byte[] compressed) {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] cluster = new byte[clusterSize];
+        try {
+            int length = 0;
+            while (length < clusterSize && !inflater.finished()) {
+                int n = inflater.inflate(cluster, length, clusterSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length < clusterSize) {
+logger.log(Level.DEBUG, "short compressed cluster: %d".formatted(length));
+            }
+        } catch (DataFormatException e) {
+            throw new dotnet4j.io.IOException("Invalid compressed QCOW2 cluster", e);
+        }
+        return cluster;
+    }
+
     private void checkDisposed() {
         if (isDisposed) {
             throw new dotnet4j.io.IOException("DiskStream: Attempt to use disposed stream");
         }
     }
+
+    /** a run of clusters of the same kind */
+    private final class Run {
+
+        final Kind kind;
+
+        final long start;
+
+        final long length;
+
+        /** the L2 entry of the first cluster */
+        final long entry;
+
+        Run(Kind kind, long start, long length, long entry) {
+            this.kind = kind;
+            this.start = start;
+            this.length = length;
+            this.entry = entry;
+        }
+
+        /** for a data run, where its start is in the file */
+        long getFileOffset() {
+            return (entry & OffsetMask) + (start & (clusterSize - 1));
+        }
+    }
 }
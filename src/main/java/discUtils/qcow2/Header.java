@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.qcow2;
+
+import java.nio.charset.StandardCharsets;
+
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.IOException;
+import dotnet4j.io.Stream;
+import vavi.util.ByteUtil;
+
+
+/**
+ * The header of a QCOW2 (version 2 or 3) image, with the header extensions
+ * this package makes use of.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class Header {
+
+    public static final int Magic = 0x514649fb;
+
+    /** the size of the version 2 header, and of the version 3 header without the compression type */
+    public static final int V2Length = 72;
+
+    public static final int V3Length = 104;
+
+    /** incompatible feature: refcounts may be inconsistent */
+    public static final long DirtyBit = 1;
+
+    /** incompatible feature: the image is known to be corrupt */
+    public static final long CorruptBit = 1 << 1;
+
+    /** incompatible feature: the data is held in an external file */
+    public static final long ExternalDataFileBit = 1 << 2;
+
+    /** incompatible feature: the compression type field is valid */
+    public static final long CompressionTypeBit = 1 << 3;
+
+    /** incompatible feature: L2 entries carry subcluster bitmaps */
+    public static final long ExtendedL2Bit = 1 << 4;
+
+    public static final int CompressionZlib = 0;
+
+    public static final int CompressionZstd = 1;
+
+    private static final int ExtensionEnd = 0;
+
+    private static final int ExtensionBackingFormat = 0xe2792aca;
+
+    public int magic;
+
+    public int version;
+
+    public long backingFileOffset;
+
+    public int backingFileSize;
+
+    public int clusterBits;
+
+    public long size;
+
+    public int cryptMethod;
+
+    public int l1Size;
+
+    public long l1TableOffset;
+
+    public long refcountTableOffset;
+
+    public int refcountTableClusters;
+
+    public int nbSnapshots;
+
+    public long snapshotsOffset;
+
+    public long incompatibleFeatures;
+
+    public long compatibleFeatures;
+
+    public long autoclearFeatures;
+
+    public int refcountOrder;
+
+    public int headerLength;
+
+    public int compressionType;
+
+    /** the name of the backing file, or {@code null} */
+    public String backingFile;
+
+    /** the format of the backing file, or {@code null} if not recorded */
+    public String backingFormat;
+
+    public Header() {
+        magic = Magic;
+        version = 3;
+        clusterBits = 16;
+        refcountOrder = 4;
+        headerLength = V3Length;
+    }
+
+    public int getClusterSize() {
+        return 1 << clusterBits;
+    }
+
+    public int getRefcountBits() {
+        return 1 << refcountOrder;
+    }
+
+    public boolean isValid() {
+        return magic == Magic && (version == 2 || version == 3);
+    }
+
+    /**
+     * Reads the header, its extensions and the backing file name.
+     *
+     * @throws IOException the stream isn't a QCOW2 image
+     */
+    public static Header read(Stream stream) {
+        stream.position(0);
+        byte[] buffer = StreamUtilities.readExact(stream, V3Length + 8);
+        Header header = new Header();
+        header.magic = ByteUtil.readBeInt(buffer, 0);
+        header.version = ByteUtil.readBeInt(buffer, 4);
+        if (!header.isValid()) {
+            throw new IOException("Not a QCOW2 image");
+        }
+
+        header.backingFileOffset = ByteUtil.readBeLong(buffer, 8);
+        header.backingFileSize = ByteUtil.readBeInt(buffer, 16);
+        header.clusterBits = ByteUtil.readBeInt(buffer, 20);
+        header.size = ByteUtil.readBeLong(buffer, 24);
+        header.cryptMethod = ByteUtil.readBeInt(buffer, 32);
+        header.l1Size = ByteUtil.readBeInt(buffer, 36);
+        header.l1TableOffset = ByteUtil.readBeLong(buffer, 40);
+        header.refcountTableOffset = ByteUtil.readBeLong(buffer, 48);
+        header.refcountTableClusters = ByteUtil.readBeInt(buffer, 56);
+        header.nbSnapshots = ByteUtil.readBeInt(buffer, 60);
+        header.snapshotsOffset = ByteUtil.readBeLong(buffer, 64);
+        if (header.version >= 3) {
+            header.incompatibleFeatures = ByteUtil.readBeLong(buffer, 72);
+            header.compatibleFeatures = ByteUtil.readBeLong(buffer, 80);
+            header.autoclearFeatures = ByteUtil.readBeLong(buffer, 88);
+            header.refcountOrder = ByteUtil.readBeInt(buffer, 96);
+            header.headerLength = ByteUtil.readBeInt(buffer, 100);
+            if ((header.incompatibleFeatures & CompressionTypeBit) != 0 && header.headerLength > V3Length) {
+                header.compressionType = buffer[V3Length] & 0xff;
+            }
+        } else {
+            header.refcountOrder = 4;
+            header.headerLength = V2Length;
+        }
+
+        if (header.clusterBits < 9 || header.clusterBits > 21) {
+            throw new IOException("Invalid cluster size: 2^" + header.clusterBits);
+        }
+        if (header.refcountOrder > 6) {
+            throw new IOException("Invalid refcount width: 2^" + header.refcountOrder);
+        }
+
+        readExtensions(stream, header);
+
+        if (header.backingFileOffset != 0) {
+            stream.position(header.backingFileOffset);
+            header.backingFile = new String(StreamUtilities.readExact(stream, header.backingFileSize), StandardCharsets.UTF_8);
+        }
+        return header;
+    }
+
+    private static void readExtensions(Stream stream, Header header) {
+        long pos = header.headerLength;
+        long end = header.backingFileOffset != 0 ? header.backingFileOffset : header.getClusterSize();
+        while (pos + 8 <= end) {
+            stream.position(pos);
+            byte[] extension = StreamUtilities.readExact(stream, 8);
+            int type = ByteUtil.readBeInt(extension, 0);
+            int length = ByteUtil.readBeInt(extension, 4);
+            if (type == ExtensionEnd) {
+                break;
+            }
+
+            if (type == ExtensionBackingFormat) {
+                header.backingFormat = new String(StreamUtilities.readExact(stream, length), StandardCharsets.UTF_8);
+            }
+            pos += 8 + ((length + 7) & ~7L);
+        }
+    }
+
+    /**
+     * Gets the fixed part of the header, followed by the end of the header
+     * extensions.
+     */
+    public byte[] getBytes() {
+        byte[] buffer = new byte[headerLength + 8];
+        ByteUtil.writeBeInt(magic, buffer, 0);
+        ByteUtil.writeBeInt(version, buffer, 4);
+        ByteUtil.writeBeLong(backingFileOffset, buffer, 8);
+        ByteUtil.writeBeInt(backingFileSize, buffer, 16);
+        ByteUtil.writeBeInt(clusterBits, buffer, 20);
+        ByteUtil.writeBeLong(size, buffer, 24);
+        ByteUtil.writeBeInt(cryptMethod, buffer, 32);
+        ByteUtil.writeBeInt(l1Size, buffer, 36);
+        ByteUtil.writeBeLong(l1TableOffset, buffer, 40);
+        ByteUtil.writeBeLong(refcountTableOffset, buffer, 48);
+        ByteUtil.writeBeInt(refcountTableClusters, buffer, 56);
+        ByteUtil.writeBeInt(nbSnapshots, buffer, 60);
+        ByteUtil.writeBeLong(snapshotsOffset, buffer, 64);
+        if (version >= 3) {
+            ByteUtil.writeBeLong(incompatibleFeatures, buffer, 72);
+            ByteUtil.writeBeLong(compatibleFeatures, buffer, 80);
+            ByteUtil.writeBeLong(autoclearFeatures, buffer, 88);
+            ByteUtil.writeBeInt(refcountOrder, buffer, 96);
+            ByteUtil.writeBeInt(headerLength, buffer, 100);
+            if (headerLength > V3Length) {
+                buffer[V3Length] = (byte) compressionType;
+            }
+        }
+        return buffer;
+    }
+}
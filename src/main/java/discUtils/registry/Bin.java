@@ -40,6 +40,8 @@ public final class Bin {
 
     private final byte[] buffer;
 
+    private final int bufferOffset;
+
     private final Stream fileStream;
 
     private final List<Range> freeCells;
@@ -60,31 +62,73 @@ public final class Bin {
         header.readFrom(buffer, 0);
         fileStream.position(streamPos);
         this.buffer = StreamUtilities.readExact(fileStream, header.binSize);
-        // Gather list of all free cells.
+        bufferOffset = 0;
+        freeCells = new ArrayList<>();
+        gatherFreeCells();
+    }
+
+    /**
+     * Creates a bin over an in-memory image of the hive, cells are parsed from
+     * and updated in the image directly.
+     *
+     * @param image the hive image, shared by all bins
+     * @param imageOffset the position of this bin within {@code image}
+     * @param streamPos the position of this bin within {@code stream}
+     */
+    Bin(RegistryHive hive, Stream stream, byte[] image, int imageOffset, long streamPos) {
+        this.hive = hive;
+        fileStream = stream;
+        this.streamPos = streamPos;
+        header = new BinHeader();
+        header.readFrom(image, imageOffset);
+        buffer = image;
+        bufferOffset = imageOffset;
         freeCells = new ArrayList<>();
+        gatherFreeCells();
+    }
+
+    private void gatherFreeCells() {
+        // Gather list of all free cells.
         int pos = 0x20;
-        while (pos < this.buffer.length) {
-            int size = ByteUtil.readLeInt(this.buffer, pos);
+        while (pos < header.binSize) {
+            int size = ByteUtil.readLeInt(buffer, bufferOffset + pos);
             if (size > 0) {
                 freeCells.add(new Range(pos, size));
+            } else if (size == 0) {
+                break;
             }
 
             pos += Math.abs(size);
         }
     }
 
+    BinHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the size of the largest free cell, zero if the bin is full
+     */
+    int getLargestFreeCell() {
+        long result = 0;
+        for (Range freeCell : freeCells) {
+            result = Math.max(result, freeCell.getCount());
+        }
+        return (int) result;
+    }
+
     public Cell tryGetCell(int index) {
-        int size = ByteUtil.readLeInt(buffer, index - header.fileOffset);
+        int size = ByteUtil.readLeInt(buffer, bufferOffset + index - header.fileOffset);
         if (size >= 0) {
             return null;
         }
 
-        return Cell.parse(hive, index, buffer, index + 4 - header.fileOffset);
+        return Cell.parse(hive, index, buffer, bufferOffset + index + 4 - header.fileOffset);
     }
 
     public void freeCell(int index) {
         int freeIndex = index - header.fileOffset;
-        int len = ByteUtil.readLeInt(buffer, freeIndex);
+        int len = ByteUtil.readLeInt(buffer, bufferOffset + freeIndex);
         if (len >= 0) {
             throw new IllegalArgumentException("Attempt to free non-allocated cell");
         }
@@ -110,44 +154,44 @@ public final class Bin {
         // Record the new free cell
         freeCells.add(i, new Range(freeIndex, len));
         // Free cells are indicated by length > 0
-        ByteUtil.writeLeInt(len, buffer, freeIndex);
+        ByteUtil.writeLeInt(len, buffer, bufferOffset + freeIndex);
         fileStream.position(streamPos + freeIndex);
-        fileStream.write(buffer, freeIndex, 4);
+        fileStream.write(buffer, bufferOffset + freeIndex, 4);
     }
 
     public boolean updateCell(Cell cell) {
         int index = cell.getIndex() - header.fileOffset;
-        int allocSize = Math.abs(ByteUtil.readLeInt(buffer, index));
+        int allocSize = Math.abs(ByteUtil.readLeInt(buffer, bufferOffset + index));
         int newSize = cell.size() + 4;
         if (newSize > allocSize) {
             return false;
         }
 
-        cell.writeTo(buffer, index + 4);
+        cell.writeTo(buffer, bufferOffset + index + 4);
         fileStream.position(streamPos + index);
-        fileStream.write(buffer, index, newSize);
+        fileStream.write(buffer, bufferOffset + index, newSize);
         return true;
     }
 
     public byte[] readRawCellData(int cellIndex, int maxBytes) {
         int index = cellIndex - header.fileOffset;
-        int len = Math.abs(ByteUtil.readLeInt(buffer, index));
+        int len = Math.abs(ByteUtil.readLeInt(buffer, bufferOffset + index));
         byte[] result = new byte[Math.min(len - 4, maxBytes)];
-        System.arraycopy(buffer, index + 4, result, 0, result.length);
+        System.arraycopy(buffer, bufferOffset + index + 4, result, 0, result.length);
         return result;
     }
 
     public boolean writeRawCellData(int cellIndex, byte[] data, int offset, int count) {
         int index = cellIndex - header.fileOffset;
-        int allocSize = Math.abs(ByteUtil.readLeInt(buffer, index));
+        int allocSize = Math.abs(ByteUtil.readLeInt(buffer, bufferOffset + index));
         int newSize = count + 4;
         if (newSize > allocSize) {
             return false;
         }
 
-        System.arraycopy(data, offset, buffer, index + 4, count);
+        System.arraycopy(data, offset, buffer, bufferOffset + index + 4, count);
         fileStream.position(streamPos + index);
-        fileStream.write(buffer, index, newSize);
+        fileStream.write(buffer, bufferOffset + index, newSize);
         return true;
     }
 
@@ -158,25 +202,27 @@ public final class Bin {
 
         for (int i = 0; i < freeCells.size(); ++i) {
             // Very inefficient algorithm - will lead to fragmentation
-            int result = (int) (freeCells.get(i).getOffset() + header.fileOffset);
-            if (freeCells.get(i).getCount() > size) {
+            int freeOffset = (int) freeCells.get(i).getOffset();
+            int freeSize = (int) freeCells.get(i).getCount();
+            int result = freeOffset + header.fileOffset;
+            if (freeSize > size) {
                 // Record the newly allocated cell
-                ByteUtil.writeLeInt(-size, buffer, (int) freeCells.get(i).getOffset());
-                fileStream.position(streamPos + freeCells.get(i).getOffset());
-                fileStream.write(buffer, (int) freeCells.get(i).getOffset(), 4);
+                ByteUtil.writeLeInt(-size, buffer, bufferOffset + freeOffset);
+                fileStream.position(streamPos + freeOffset);
+                fileStream.write(buffer, bufferOffset + freeOffset, 4);
                 // Keep the remainder of the free buffer as unallocated
-                freeCells.set(i, new Range(freeCells.get(i).getOffset() + size, freeCells.get(i).getCount() - size));
-                ByteUtil.writeLeLong(freeCells.get(i).getCount(), buffer, (int) freeCells.get(i).getOffset());
-                fileStream.position(streamPos + freeCells.get(i).getOffset());
-                fileStream.write(buffer, (int) freeCells.get(i).getOffset(), 4);
+                freeCells.set(i, new Range(freeOffset + size, freeSize - size));
+                ByteUtil.writeLeInt(freeSize - size, buffer, bufferOffset + freeOffset + size);
+                fileStream.position(streamPos + freeOffset + size);
+                fileStream.write(buffer, bufferOffset + freeOffset + size, 4);
                 return result;
             }
 
-            if (freeCells.get(i).getCount() == size) {
+            if (freeSize == size) {
                 // Record the whole of the free buffer as a newly allocated cell
-                ByteUtil.writeLeInt(-size, buffer, (int) freeCells.get(i).getOffset());
-                fileStream.position(streamPos + freeCells.get(i).getOffset());
-                fileStream.write(buffer, (int) freeCells.get(i).getOffset(), 4);
+                ByteUtil.writeLeInt(-size, buffer, bufferOffset + freeOffset);
+                fileStream.position(streamPos + freeOffset);
+                fileStream.write(buffer, bufferOffset + freeOffset, 4);
                 freeCells.remove(i);
                 return result;
             }
@@ -25,10 +25,16 @@ package discUtils.registry;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 import discUtils.core.internal.LocalFileLocator;
 import discUtils.streams.util.MathUtilities;
@@ -51,8 +57,35 @@ public final class RegistryHive implements Closeable {
 
     private static final long BinStart = 4 * Sizes.OneKiB;
 
+    private static final long DefaultBinCacheSize = 16 * Sizes.OneMiB;
+
+    private static final int DefaultCellCacheSize = 4096;
+
     private final List<BinHeader> bins;
 
+    /** loaded bins by file offset, least recently used first */
+    private final Map<Integer, Bin> binCache;
+
+    private long binCacheSize = DefaultBinCacheSize;
+
+    private long cachedBytes;
+
+    /** decoded key and value cells by cell index, least recently used first */
+    private final Map<Integer, Cell> cellCache;
+
+    private int cellCacheSize = DefaultCellCacheSize;
+
+    /** the whole hive (from the first bin on), when held in memory */
+    private byte[] image;
+
+    /**
+     * free cell index, the largest free cell of each bin keyed as
+     * {@code size << 32 | bin number}. built on the first allocation.
+     */
+    private NavigableSet<Long> freeIndex;
+
+    private List<Integer> largestFreeCells;
+
     private Stream fileStream;
 
     private final HiveHeader header;
@@ -76,6 +109,19 @@ public final class RegistryHive implements Closeable {
      * @param ownership Whether the new object assumes object of the stream.
      */
     public RegistryHive(Stream hive, Ownership ownership) {
+        this(hive, ownership, false);
+    }
+
+    /**
+     * Initializes a new instance of the RegistryHive class.
+     *
+     * @param hive The stream containing the registry hive.
+     * @param ownership Whether the new object assumes object of the stream.
+     * @param inMemory {@code true} to read the whole hive into memory up
+     *            front, cells are then parsed directly from the in-memory
+     *            image. Changes are still written through to the stream.
+     */
+    public RegistryHive(Stream hive, Ownership ownership, boolean inMemory) {
         fileStream = hive;
         fileStream.position(0);
         ownsStream = ownership;
@@ -85,19 +131,59 @@ public final class RegistryHive implements Closeable {
         header = new HiveHeader();
         header.readFrom(buffer, 0);
 
+        binCache = new LinkedHashMap<>(16, 0.75f, true);
+        cellCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, Cell> eldest) {
+                return size() > cellCacheSize;
+            }
+        };
+        if (inMemory) {
+            fileStream.position(BinStart);
+            image = StreamUtilities.readExact(fileStream, header.length);
+        }
+
         bins = new ArrayList<>();
         int pos = 0;
         while (pos < header.length) {
-            fileStream.position(BinStart + pos);
-            byte[] headerBuffer = StreamUtilities.readExact(fileStream, BinHeader.HeaderSize);
+            byte[] headerBuffer;
+            int headerOffset;
+            if (image != null) {
+                headerBuffer = image;
+                headerOffset = pos;
+            } else {
+                fileStream.position(BinStart + pos);
+                headerBuffer = StreamUtilities.readExact(fileStream, BinHeader.HeaderSize);
+                headerOffset = 0;
+            }
             BinHeader header = new BinHeader();
-            header.readFrom(headerBuffer, 0);
+            header.readFrom(headerBuffer, headerOffset);
             bins.add(header);
 
             pos += header.binSize;
         }
     }
 
+    /**
+     * Sets the amount of bin data kept in memory when the hive is not held in
+     * memory as a whole.
+     */
+    public void setBinCacheSize(long value) {
+        binCacheSize = value;
+        evictBins();
+    }
+
+    /**
+     * Sets the number of decoded key and value cells kept in memory.
+     */
+    public void setCellCacheSize(int value) {
+        cellCacheSize = value;
+        Iterator<Integer> it = cellCache.keySet().iterator();
+        while (cellCache.size() > cellCacheSize) {
+            it.next();
+            it.remove();
+        }
+    }
+
     /**
      * Gets the root key in the registry hive.
      */
@@ -111,6 +197,9 @@ public final class RegistryHive implements Closeable {
      * @throws IOException when an io error occurs
      */
     @Override public void close() throws IOException {
+        binCache.clear();
+        cellCache.clear();
+        image = null;
         if (fileStream != null && ownsStream == Ownership.Dispose) {
             fileStream.close();
             fileStream = null;
@@ -208,19 +297,29 @@ public final class RegistryHive implements Closeable {
 
     @SuppressWarnings("unchecked")
     public <K extends Cell> K getCell(int index) {
+        Cell cell = cellCache.get(index);
+        if (cell != null) {
+            return (K) cell;
+        }
+
         Bin bin = getBin(index);
 
         if (bin != null) {
-            return (K) bin.tryGetCell(index);
+            cell = bin.tryGetCell(index);
+            cacheCell(cell);
+            return (K) cell;
         }
         return null;
     }
 
     public void freeCell(int index) {
-        Bin bin = getBin(index);
+        cellCache.remove(index);
+        int binIdx = findBin(index);
 
-        if (bin != null) {
+        if (binIdx >= 0) {
+            Bin bin = loadBin(bins.get(binIdx));
             bin.freeCell(index);
+            updateFreeIndex(binIdx, bin);
         }
     }
 
@@ -232,6 +331,7 @@ public final class RegistryHive implements Closeable {
         Bin bin = getBin(cell.getIndex());
 
         if (bin != null) {
+            cellCache.remove(cell.getIndex());
             if (bin.updateCell(cell)) {
                 return cell.getIndex();
             }
@@ -262,6 +362,7 @@ public final class RegistryHive implements Closeable {
     }
 
     public boolean writeRawCellData(int index, byte[] data, int offset, int count) {
+        cellCache.remove(index);
         Bin bin = getBin(index);
 
         if (bin != null) {
@@ -274,10 +375,17 @@ public final class RegistryHive implements Closeable {
         // Allow for size header and ensure multiple of 8
         int minSize = MathUtilities.roundUp(capacity + 4, 8);
 
-        // Incredibly inefficient algorithm...
-        for (BinHeader binHeader : bins) {
-            Bin bin = loadBin(binHeader);
+        if (freeIndex == null) {
+            buildFreeIndex();
+        }
+
+        // the bin with the smallest sufficient free cell
+        Long candidate = freeIndex.ceiling((long) minSize << 32);
+        if (candidate != null) {
+            int binIdx = (int) (candidate & 0xffff_ffffL);
+            Bin bin = loadBin(bins.get(binIdx));
             int cellIndex = bin.allocateCell(minSize);
+            updateFreeIndex(binIdx, bin);
 
             if (cellIndex >= 0) {
                 return cellIndex;
@@ -286,30 +394,87 @@ public final class RegistryHive implements Closeable {
 
         BinHeader newBinHeader = allocateBin(minSize);
         Bin newBin = loadBin(newBinHeader);
-        return newBin.allocateCell(minSize);
+        int cellIndex = newBin.allocateCell(minSize);
+        largestFreeCells.add(0);
+        updateFreeIndex(bins.size() - 1, newBin);
+        return cellIndex;
     }
 
-    private BinHeader findBin(int index) {
-        int binsIdx = Collections.binarySearch(bins, null, new BinFinder(index));
-        if (binsIdx >= 0) {
-            return bins.get(binsIdx);
+    private void buildFreeIndex() {
+        freeIndex = new TreeSet<>();
+        largestFreeCells = new ArrayList<>(bins.size());
+        for (int i = 0; i < bins.size(); i++) {
+            largestFreeCells.add(0);
+            updateFreeIndex(i, loadBin(bins.get(i)));
         }
+    }
 
-        return null;
+    private void updateFreeIndex(int binIdx, Bin bin) {
+        if (freeIndex == null) {
+            return;
+        }
+
+        int oldSize = largestFreeCells.get(binIdx);
+        if (oldSize > 0) {
+            freeIndex.remove((long) oldSize << 32 | binIdx);
+        }
+        int newSize = bin.getLargestFreeCell();
+        largestFreeCells.set(binIdx, newSize);
+        if (newSize > 0) {
+            freeIndex.add((long) newSize << 32 | binIdx);
+        }
+    }
+
+    private int findBin(int index) {
+        return Collections.binarySearch(bins, null, new BinFinder(index));
+    }
+
+    /**
+     * key and value cells are the ones looked up over and over by path. only
+     * cells as parsed from the hive are kept, written cells are dropped.
+     */
+    private void cacheCell(Cell cell) {
+        if (cell instanceof KeyNodeCell || cell instanceof ValueCell) {
+            cellCache.put(cell.getIndex(), cell);
+        }
     }
 
     private Bin getBin(int cellIndex) {
-        BinHeader binHeader = findBin(cellIndex);
-        if (binHeader != null) {
-            return loadBin(binHeader);
+        int binIdx = findBin(cellIndex);
+        if (binIdx >= 0) {
+            return loadBin(bins.get(binIdx));
         }
 
         return null;
     }
 
     private Bin loadBin(BinHeader binHeader) {
-        fileStream.position(BinStart + binHeader.fileOffset);
-        return new Bin(this, fileStream);
+        Bin bin = binCache.get(binHeader.fileOffset);
+        if (bin == null) {
+            if (image != null) {
+                bin = new Bin(this, fileStream, image, binHeader.fileOffset, BinStart + binHeader.fileOffset);
+            } else {
+                fileStream.position(BinStart + binHeader.fileOffset);
+                bin = new Bin(this, fileStream);
+                cachedBytes += binHeader.binSize;
+            }
+            binCache.put(binHeader.fileOffset, bin);
+            evictBins();
+        }
+        return bin;
+    }
+
+    private void evictBins() {
+        if (image != null) {
+            return;
+        }
+
+        Iterator<Bin> it = binCache.values().iterator();
+        while (cachedBytes > binCacheSize && binCache.size() > 1) {
+            Bin eldest = it.next();
+            it.remove();
+            cachedBytes -= eldest.getHeader().binSize;
+        }
     }
 
     private BinHeader allocateBin(int minSize) {
@@ -328,6 +493,17 @@ public final class RegistryHive implements Closeable {
         ByteUtil.writeLeInt(newBinHeader.binSize - newBinHeader.size(), cellHeader, 0);
         fileStream.write(cellHeader, 0, 4);
 
+        if (image != null) {
+            int newLength = newBinHeader.fileOffset + newBinHeader.binSize;
+            if (newLength > image.length) {
+                // bins are views of the image, so they have to be recreated
+                image = Arrays.copyOf(image, Math.max(newLength, image.length + image.length / 2));
+                binCache.clear();
+            }
+            System.arraycopy(buffer, 0, image, newBinHeader.fileOffset, buffer.length);
+            System.arraycopy(cellHeader, 0, image, newBinHeader.fileOffset + buffer.length, 4);
+        }
+
         // Update hive with new length
         header.length = newBinHeader.fileOffset + newBinHeader.binSize;
         header.timestamp = System.currentTimeMillis();
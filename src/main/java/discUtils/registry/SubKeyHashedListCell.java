@@ -95,25 +95,42 @@ public final class SubKeyHashedListCell extends ListCell {
      * @return The index of the new entry.
      */
     public int add(String name, int cellIndex) {
-        for (int i = 0; i < numElements; ++i) {
-            KeyNodeCell cell = hive.getCell(subKeyIndexes.get(i));
-            if (cell.name.compareTo(name) > 0) {
-                subKeyIndexes.add(i, cellIndex);
-                nameHashes.add(i, calcHash(name));
-                numElements++;
-                return i;
+        // the list is kept sorted, so the insertion point can be searched for
+        int lo = 0;
+        int hi = numElements;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            KeyNodeCell cell = hive.getCell(subKeyIndexes.get(mid));
+            if (StringUtilities.compare(cell.name, name, true) > 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
             }
-
         }
-        subKeyIndexes.add(cellIndex);
-        nameHashes.add(calcHash(name));
-        return numElements++;
+        subKeyIndexes.add(lo, cellIndex);
+        nameHashes.add(lo, calcHash(name));
+        numElements++;
+        return lo;
     }
 
     /**
      * @param cellIndex {@cs out}
      */
     @Override int findKey(String name, int[] cellIndex) {
+        if (subKeyIndexes.isEmpty()) {
+            cellIndex[0] = 0;
+            return -1;
+        }
+
+        // The stored hashes rule out almost every entry without loading it
+        for (int index : find(name, 0)) {
+            KeyNodeCell cell = hive.getCell(subKeyIndexes.get(index));
+            if (cell != null && cell.name.equalsIgnoreCase(name)) {
+                cellIndex[0] = subKeyIndexes.get(index);
+                return 0;
+            }
+        }
+
         // Check first and last, to early abort if the name is outside the range of this list
         int[] found = new int[1];
         int result = findKeyAt(name, 0, found);
@@ -128,6 +145,13 @@ public final class SubKeyHashedListCell extends ListCell {
             return result;
         }
 
+        // hashes of plain ascii names are exact, others may be computed
+        // differently by windows, so fall back to searching by name
+        if (isAscii(name)) {
+            cellIndex[0] = 0;
+            return -1;
+        }
+
         KeyFinder finder = new KeyFinder(hive, name);
         int idx = Collections.binarySearch(subKeyIndexes, -1, finder);
         cellIndex[0] = finder.getCellIndex();
@@ -203,6 +227,15 @@ public final class SubKeyHashedListCell extends ListCell {
         return hash;
     }
 
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (name.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * @param cellIndex {@cs out}
      */
@@ -284,7 +317,6 @@ public final class SubKeyHashedListCell extends ListCell {
         }
 
         @Override public int compare(Integer x, Integer y) {
-            // TODO: Be more efficient at ruling out no-hopes by using the hash values
             KeyNodeCell cell = hive.getCell(x);
             int result = StringUtilities.compare(cell.name, searchName, true);
             if (result == 0) {
@@ -23,6 +23,7 @@
 package discUtils.streams;
 
 import java.util.Arrays;
+import java.util.List;
 
 import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Ownership;
@@ -33,7 +34,7 @@ import dotnet4j.io.SeekOrigin;
  * Aligns I/O to a given block size.
  * Uses the read-modify-write pattern to align I/O.
  */
-public final class AligningStream extends WrappingMappedStream<SparseStream> {
+public final class AligningStream extends WrappingMappedStream<SparseStream> implements LayerStream {
 
     private final byte[] alignmentBuffer;
 
@@ -163,6 +164,13 @@ public final class AligningStream extends WrappingMappedStream<SparseStream> {
         position = unalignedEnd;
     }
 
+    @Override public List<LayerExtent> mapLayer(long start, long count) {
+        if (getWrappedStream() instanceof LayerStream layerStream) {
+            return layerStream.mapLayer(start, count);
+        }
+        return List.of(LayerExtent.present(start, count));
+    }
+
     @FunctionalInterface
     private interface ModifyStream {
 
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.streams;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import discUtils.streams.util.Ownership;
+import discUtils.streams.util.Sizes;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.SeekOrigin;
+
+
+/**
+ * The content of a chain of differencing layers, resolved across all layers
+ * at once.
+ *
+ * Each layer's stream reads what it doesn't hold from its parent, so reading
+ * through the top of a deep chain walks every layer in turn. This stream
+ * instead keeps a flattened map of which layer holds each range, built a
+ * window at a time from the layers' {@link LayerStream#mapLayer} and kept
+ * for recently used windows, so reads go straight to the layer holding the
+ * data. Writes go to the top layer, and the map is patched with the top
+ * layer's new mapping of the written range.
+ *
+ * A stream in the chain that isn't a {@link LayerStream} is taken to hold
+ * all of its content, anything below it is reached through it.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class LayerChainStream extends SparseStream {
+
+    private static final int WindowSize = (int) Sizes.OneMiB;
+
+    private static final int MaxWindows = 1024;
+
+    /** the layer streams, the top-most first */
+    private final List<SparseStream> layers;
+
+    private final Ownership ownsLayers;
+
+    /** resolved windows, least recently used first */
+    private final Map<Long, List<Run>> windows;
+
+    private final long length;
+
+    private long position;
+
+    private boolean disposed;
+
+    /**
+     * @param layers The content streams of the layers, the top-most first.
+     *            Each stream reads its parent from the next.
+     * @param ownsLayers Whether closing this stream closes the top-most
+     *            layer (which in turn closes its parents).
+     */
+    public LayerChainStream(List<SparseStream> layers, Ownership ownsLayers) {
+        if (layers.isEmpty()) {
+            throw new IllegalArgumentException("No layers");
+        }
+
+        this.layers = new ArrayList<>(layers);
+        this.ownsLayers = ownsLayers;
+        length = layers.get(0).getLength();
+        windows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, List<Run>> eldest) {
+                return size() > MaxWindows;
+            }
+        };
+    }
+
+    /**
+     * Gets the content stream of the top-most layer.
+     */
+    public SparseStream getTop() {
+        return layers.get(0);
+    }
+
+    @Override public boolean canRead() {
+        checkDisposed();
+        return true;
+    }
+
+    @Override public boolean canSeek() {
+        checkDisposed();
+        return true;
+    }
+
+    @Override public boolean canWrite() {
+        checkDisposed();
+        return getTop().canWrite();
+    }
+
+    @Override public List<StreamExtent> getExtents() {
+        checkDisposed();
+        return getTop().getExtents();
+    }
+
+    @Override public List<StreamExtent> getExtentsInRange(long start, long count) {
+        checkDisposed();
+        return getTop().getExtentsInRange(start, count);
+    }
+
+    @Override public long getLength() {
+        checkDisposed();
+        return length;
+    }
+
+    @Override public long position() {
+        checkDisposed();
+        return position;
+    }
+
+    @Override public void position(long value) {
+        checkDisposed();
+        position = value;
+    }
+
+    @Override public void flush() {
+        checkDisposed();
+        getTop().flush();
+    }
+
+    @Override public int read(byte[] buffer, int offset, int count) {
+        checkDisposed();
+        if (position >= length) {
+            return 0;
+        }
+
+        int maxToRead = (int) Math.min(count, length - position);
+        int numRead = 0;
+        while (numRead < maxToRead) {
+            Run run = findRun(position);
+            int toRead = (int) Math.min(maxToRead - numRead, run.extent.getEnd() - position);
+            LayerExtent extent = run.extent;
+            if (extent.getType() == LayerExtent.Type.Zero) {
+                Arrays.fill(buffer, offset + numRead, offset + numRead + toRead, (byte) 0);
+            } else if (extent.getData() != null) {
+                extent.getData().position(extent.getDataOffset() + position - extent.getStart());
+                StreamUtilities.readExact(extent.getData(), buffer, offset + numRead, toRead);
+            } else {
+                run.layer.position(position);
+                StreamUtilities.readExact(run.layer, buffer, offset + numRead, toRead);
+            }
+
+            position += toRead;
+            numRead += toRead;
+        }
+        return numRead;
+    }
+
+    @Override public long seek(long offset, SeekOrigin origin) {
+        checkDisposed();
+        long effectiveOffset = offset;
+        if (origin == SeekOrigin.Current) {
+            effectiveOffset += position;
+        } else if (origin == SeekOrigin.End) {
+            effectiveOffset += length;
+        }
+
+        if (effectiveOffset < 0) {
+            throw new dotnet4j.io.IOException("Attempt to move before beginning of disk");
+        }
+
+        position = effectiveOffset;
+        return position;
+    }
+
+    @Override public void setLength(long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override public void write(byte[] buffer, int offset, int count) {
+        checkDisposed();
+        SparseStream top = getTop();
+        top.position(position);
+        top.write(buffer, offset, count);
+        updateWindows(position, count);
+        position += count;
+    }
+
+    @Override public void close() throws IOException {
+        if (!disposed && ownsLayers == Ownership.Dispose) {
+            getTop().close();
+        }
+        windows.clear();
+        disposed = true;
+    }
+
+    private Run findRun(long pos) {
+        long window = pos / WindowSize;
+        List<Run> runs = windows.get(window);
+        if (runs == null) {
+            runs = resolveWindow(window);
+            windows.put(window, runs);
+        }
+
+        int lo = 0;
+        int hi = runs.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (runs.get(mid).extent.getStart() <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return runs.get(lo);
+    }
+
+    /**
+     * Walks the layers top down, asking each only about the ranges the layers
+     * above don't hold.
+     */
+    private List<Run> resolveWindow(long window) {
+        long start = window * WindowSize;
+        long end = Math.min(start + WindowSize, length);
+        List<Run> result = new ArrayList<>();
+        List<LayerExtent> gaps = List.of(LayerExtent.absent(start, end - start));
+        for (SparseStream layer : layers) {
+            List<LayerExtent> remaining = new ArrayList<>();
+            for (LayerExtent gap : gaps) {
+                for (LayerExtent extent : mapLayer(layer, gap.getStart(), gap.getLength())) {
+                    if (extent.getType() == LayerExtent.Type.Absent) {
+                        remaining.add(extent);
+                    } else {
+                        result.add(new Run(extent, layer));
+                    }
+                }
+            }
+
+            gaps = remaining;
+            if (gaps.isEmpty()) {
+                break;
+            }
+        }
+
+        // Nothing below the last layer
+        for (LayerExtent gap : gaps) {
+            result.add(new Run(LayerExtent.zero(gap.getStart(), gap.getLength()), null));
+        }
+
+        result.sort(Comparator.comparingLong(r -> r.extent.getStart()));
+        return result;
+    }
+
+    /**
+     * Patches the resolved windows after a write. The top layer only gains
+     * content by being written, so the ranges it still doesn't hold keep
+     * their previous mapping. Content the top layer copied from its parent
+     * around the written range is left mapped to the parent, it's the same.
+     */
+    private void updateWindows(long start, long count) {
+        SparseStream top = getTop();
+        long end = start + count;
+        for (long window = start / WindowSize; window * WindowSize < end; ++window) {
+            List<Run> runs = windows.get(window);
+            if (runs == null) {
+                continue;
+            }
+
+            long from = Math.max(start, window * WindowSize);
+            long to = Math.min(end, (window + 1) * WindowSize);
+            List<Run> result = new ArrayList<>(runs.size() + 2);
+            clip(runs, Long.MIN_VALUE, from, result);
+            for (LayerExtent extent : mapLayer(top, from, to - from)) {
+                if (extent.getType() == LayerExtent.Type.Absent) {
+                    clip(runs, extent.getStart(), extent.getEnd(), result);
+                } else {
+                    result.add(new Run(extent, top));
+                }
+            }
+            clip(runs, to, Long.MAX_VALUE, result);
+            windows.put(window, result);
+        }
+    }
+
+    private static void clip(List<Run> runs, long from, long to, List<Run> result) {
+        for (Run run : runs) {
+            if (run.extent.getEnd() > from && run.extent.getStart() < to) {
+                result.add(new Run(run.extent.slice(from, to), run.layer));
+            }
+        }
+    }
+
+    private static List<LayerExtent> mapLayer(SparseStream layer, long start, long count) {
+        if (layer instanceof LayerStream layerStream) {
+            return layerStream.mapLayer(start, count);
+        }
+
+        return List.of(LayerExtent.present(start, count));
+    }
+
+    private void checkDisposed() {
+        if (disposed) {
+            throw new dotnet4j.io.IOException("LayerChainStream: Attempt to use closed stream");
+        }
+    }
+
+    /** a range of the content, and the layer holding it */
+    private static final class Run {
+
+        final LayerExtent extent;
+
+        final SparseStream layer;
+
+        Run(LayerExtent extent, SparseStream layer) {
+            this.extent = extent;
+            this.layer = layer;
+        }
+    }
+}
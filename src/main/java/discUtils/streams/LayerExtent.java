@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.streams;
+
+import dotnet4j.io.Stream;
+
+
+/**
+ * Describes how a range of content is held by one layer of a differencing
+ * chain.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class LayerExtent {
+
+    public enum Type {
+        /** the layer holds the content */
+        Present,
+        /** the content reads as zeros, whatever the parent holds */
+        Zero,
+        /** the layer doesn't hold the content, the parent's shows through */
+        Absent
+    }
+
+    private final Type type;
+
+    private final long start;
+
+    private final long length;
+
+    private final Stream data;
+
+    private final long dataOffset;
+
+    private LayerExtent(Type type, long start, long length, Stream data, long dataOffset) {
+        this.type = type;
+        this.start = start;
+        this.length = length;
+        this.data = data;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Content held by the layer, stored as-is in {@code data}.
+     *
+     * @param data The stream holding the layer's data.
+     * @param dataOffset The position of {@code start} within {@code data}.
+     */
+    public static LayerExtent present(long start, long length, Stream data, long dataOffset) {
+        return new LayerExtent(Type.Present, start, length, data, dataOffset);
+    }
+
+    /**
+     * Content held by the layer, that has to be read through the layer (for
+     * example, because it's compressed).
+     */
+    public static LayerExtent present(long start, long length) {
+        return new LayerExtent(Type.Present, start, length, null, 0);
+    }
+
+    public static LayerExtent zero(long start, long length) {
+        return new LayerExtent(Type.Zero, start, length, null, 0);
+    }
+
+    public static LayerExtent absent(long start, long length) {
+        return new LayerExtent(Type.Absent, start, length, null, 0);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getEnd() {
+        return start + length;
+    }
+
+    /**
+     * Gets the stream holding the data, or {@code null} if the content isn't
+     * directly addressable.
+     */
+    public Stream getData() {
+        return data;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Gets the part of this extent within a range.
+     */
+    public LayerExtent slice(long from, long to) {
+        long newStart = Math.max(start, from);
+        long newEnd = Math.min(getEnd(), to);
+        return new LayerExtent(type, newStart, newEnd - newStart, data, data == null ? 0 : dataOffset + newStart - start);
+    }
+
+    @Override public String toString() {
+        return type + "[" + start + ":+" + length + (data != null ? " @" + dataOffset : "") + "]";
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.streams;
+
+import java.util.List;
+
+
+/**
+ * Implemented by the content streams of differencing disk layers, which can
+ * tell which parts of the content they hold themselves.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ * @see LayerChainStream
+ */
+public interface LayerStream {
+
+    /**
+     * Maps a range of the content onto this layer, without consulting the
+     * parent.
+     *
+     * @param start The start of the range.
+     * @param count The length of the range.
+     * @return Extents covering the range, in order.
+     */
+    List<LayerExtent> mapLayer(long start, long count);
+}
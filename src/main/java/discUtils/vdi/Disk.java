@@ -23,6 +23,7 @@
 package discUtils.vdi;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import discUtils.core.DiscFileSystem;
@@ -50,6 +51,9 @@ public final class Disk extends VirtualDisk {
 
     private final DiskImageFile diskImage;
 
+    /** the images of the disk, the newest first */
+    private final List<DiskImageFile> chain;
+
     /**
      * Initializes a new instance of the Disk class.
      *
@@ -60,6 +64,7 @@ public final class Disk extends VirtualDisk {
         FileShare share = access == FileAccess.Read ? FileShare.Read : FileShare.None;
         FileLocator locator = new LocalFileLocator("");
         diskImage = new DiskImageFile(locator.open(path, FileMode.Open, access, share), Ownership.Dispose);
+        chain = List.of(diskImage);
     }
 
     /**
@@ -69,6 +74,34 @@ public final class Disk extends VirtualDisk {
      */
     public Disk(DiskImageFile file) {
         diskImage = file;
+        chain = List.of(diskImage);
+    }
+
+    /**
+     * Initializes a new instance of the Disk class, from a differencing chain.
+     *
+     * VirtualBox records snapshot trees in its own registry rather than in the
+     * disk files, so the caller supplies the branch to open. Each image must
+     * name the next as its parent.
+     *
+     * @param chain The images of the disk, the newest first.
+     */
+    public Disk(List<DiskImageFile> chain) {
+        if (chain.isEmpty()) {
+            throw new IllegalArgumentException("No disk images");
+        }
+
+        for (int i = 0; i < chain.size() - 1; ++i) {
+            if (!chain.get(i).needsParent()) {
+                throw new IllegalArgumentException("Disk image " + i + " is not a differencing disk");
+            }
+            if (!chain.get(i).getParentUniqueId().equals(chain.get(i + 1).getUniqueId())) {
+                throw new IllegalArgumentException("Disk image " + (i + 1) + " is not the parent of disk image " + i);
+            }
+        }
+
+        diskImage = chain.get(0);
+        this.chain = new ArrayList<>(chain);
     }
 
     /**
@@ -79,6 +112,7 @@ public final class Disk extends VirtualDisk {
      */
     public Disk(Stream stream) {
         diskImage = new DiskImageFile(stream);
+        chain = List.of(diskImage);
     }
 
     /**
@@ -91,6 +125,7 @@ public final class Disk extends VirtualDisk {
      */
     public Disk(Stream stream, Ownership ownsStream) {
         diskImage = new DiskImageFile(stream, ownsStream);
+        chain = List.of(diskImage);
     }
 
     /**
@@ -113,7 +148,7 @@ public final class Disk extends VirtualDisk {
     @Override
     public SparseStream getContent() {
         if (content == null) {
-            content = diskImage.openContent(null, Ownership.None);
+            content = openLayerChain(chain);
         }
 
         return content;
@@ -150,7 +185,7 @@ public final class Disk extends VirtualDisk {
      */
     @Override
     public List<VirtualDiskLayer> getLayers() {
-        return null;
+        return new ArrayList<>(chain);
     }
 
     /**
@@ -213,8 +248,8 @@ public final class Disk extends VirtualDisk {
                 content = null;
             }
 
-            if (diskImage != null) {
-                diskImage.close();
+            for (DiskImageFile image : chain) {
+                image.close();
             }
         } finally {
             super.close();
@@ -117,7 +117,22 @@ public final class DiskImageFile extends VirtualDiskLayer {
         return header.imageType == ImageType.Differencing || header.imageType == ImageType.Undo;
     }
 
-    // Differencing disks not yet supported.
+    /**
+     * Gets the unique id of this disk, differencing disks refer to their
+     * parent by it.
+     */
+    public UUID getUniqueId() {
+        return header.uniqueId;
+    }
+
+    /**
+     * Gets the unique id of the parent disk, for differencing disks.
+     */
+    public UUID getParentUniqueId() {
+        return header.parentId;
+    }
+
+    // VirtualBox keeps parents in its registry, not in the file.
     @Override public FileLocator getRelativeFileLocator() {
         return null;
     }
@@ -188,16 +203,17 @@ public final class DiskImageFile extends VirtualDiskLayer {
      * @return The new content stream.
      */
     @Override public SparseStream openContent(SparseStream parent, Ownership ownsParent) {
-        if (parent != null && ownsParent == Ownership.Dispose) {
+        if (!needsParent() && parent != null && ownsParent == Ownership.Dispose) {
             try {
-                // Not needed until differencing disks supported.
+                // Not needed, this disk holds all of its content.
                 parent.close();
             } catch (IOException e) {
                 throw new dotnet4j.io.IOException(e);
             }
         }
 
-        DiskStream stream = new DiskStream(this.stream, Ownership.None, header);
+        DiskStream stream = needsParent() ? new DiskStream(this.stream, Ownership.None, header, parent, ownsParent)
+                                          : new DiskStream(this.stream, Ownership.None, header);
         stream.writeOccurred = onWriteOccurred;
         return stream;
     }
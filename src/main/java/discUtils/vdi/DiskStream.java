@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.function.BiConsumer;
 
 import discUtils.core.internal.Utilities;
+import discUtils.streams.LayerExtent;
+import discUtils.streams.LayerStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
 import discUtils.streams.util.Ownership;
@@ -38,7 +40,7 @@ import dotnet4j.io.Stream;
 import vavi.util.ByteUtil;
 
 
-public class DiskStream extends SparseStream {
+public class DiskStream extends SparseStream implements LayerStream {
 
     private static final int BlockFree = 0xffffffff;
     private static final int BlockZero = 0xfffffffe;
@@ -55,15 +57,34 @@ public class DiskStream extends SparseStream {
 
     private final Ownership ownsStream;
 
+    private SparseStream parentStream;
+
+    private final Ownership ownsParentStream;
+
     private long position;
 
     private boolean writeNotified;
 
     public DiskStream(Stream fileStream, Ownership ownsStream, HeaderRecord fileHeader) {
+        this(fileStream, ownsStream, fileHeader, null, Ownership.None);
+    }
+
+    /**
+     * @param parentStream The content of the parent disk, read for blocks not
+     *            held in this disk (may be {@code null}).
+     * @param ownsParentStream Whether closing this stream closes the parent.
+     */
+    public DiskStream(Stream fileStream,
+            Ownership ownsStream,
+            HeaderRecord fileHeader,
+            SparseStream parentStream,
+            Ownership ownsParentStream) {
         this.fileStream = fileStream;
         this.fileHeader = fileHeader;
 
         this.ownsStream = ownsStream;
+        this.parentStream = parentStream;
+        this.ownsParentStream = ownsParentStream;
 
         readBlockTable();
     }
@@ -153,8 +174,10 @@ public class DiskStream extends SparseStream {
 
             int toRead = Math.min(maxToRead - numRead, fileHeader.blockSize - offsetInBlock);
 
-            if (blockTable[block] == BlockFree) {
-                // TODO: Use parent
+            if (blockTable[block] == BlockFree && parentStream != null) {
+                parentStream.position(position);
+                StreamUtilities.readExact(parentStream, buffer, offset + numRead, toRead);
+            } else if (blockTable[block] == BlockFree) {
                 Arrays.fill(buffer, offset + numRead, offset + numRead + toRead, (byte) 0);
             } else if (blockTable[block] == BlockZero) {
                 Arrays.fill(buffer, offset + numRead, offset + numRead + toRead, (byte) 0);
@@ -226,7 +249,8 @@ public class DiskStream extends SparseStream {
             int toWrite = Math.min(count - numWritten, fileHeader.blockSize - offsetInBlock);
 
             // Optimize away zero-writes
-            if (blockTable[block] == BlockZero || (blockTable[block] == BlockFree && toWrite == fileHeader.blockSize)) {
+            if (blockTable[block] == BlockZero ||
+                (blockTable[block] == BlockFree && toWrite == fileHeader.blockSize && parentStream == null)) {
                 if (Utilities.isAllZeros(buffer, offset + numWritten, toWrite)) {
                     numWritten += toWrite;
                     position += toWrite;
@@ -240,8 +264,13 @@ public class DiskStream extends SparseStream {
 
                 if (toWrite != fileHeader.blockSize) {
                     writeBuffer = new byte[fileHeader.blockSize];
-                    if (blockTable[block] == BlockFree) {
-                        // TODO: Use parent stream data...
+                    if (blockTable[block] == BlockFree && parentStream != null) {
+                        parentStream.position((long) block * fileHeader.blockSize);
+                        StreamUtilities.readExact(parentStream,
+                                                  writeBuffer,
+                                                  0,
+                                                  (int) Math.min(fileHeader.blockSize,
+                                                                 fileHeader.diskSize - (long) block * fileHeader.blockSize));
                     }
 
                     // Copy actual data into temporary buffer, then this is a full block write.
@@ -277,12 +306,46 @@ public class DiskStream extends SparseStream {
         }
     }
 
+    @Override public List<LayerExtent> mapLayer(long start, long count) {
+        checkDisposed();
+
+        List<LayerExtent> result = new ArrayList<>();
+        long end = Math.min(start + count, fileHeader.diskSize);
+        long pos = start;
+        while (pos < end) {
+            int block = (int) (pos / fileHeader.blockSize);
+            int offsetInBlock = (int) (pos % fileHeader.blockSize);
+            int toMap = (int) Math.min(end - pos, fileHeader.blockSize - offsetInBlock);
+
+            if (blockTable[block] == BlockFree) {
+                result.add(LayerExtent.absent(pos, toMap));
+            } else if (blockTable[block] == BlockZero) {
+                result.add(LayerExtent.zero(pos, toMap));
+            } else {
+                long blockOffset = (blockTable[block] & 0xffff_ffffL) * (fileHeader.blockSize + fileHeader.blockExtraSize);
+                long filePos = fileHeader.dataOffset + fileHeader.blockExtraSize + blockOffset + offsetInBlock;
+                result.add(LayerExtent.present(pos, toMap, fileStream, filePos));
+            }
+
+            pos += toMap;
+        }
+
+        if (end < start + count) {
+            result.add(LayerExtent.absent(Math.max(start, end), start + count - Math.max(start, end)));
+        }
+        return result;
+    }
+
     @Override public void close() throws IOException {
         isDisposed = true;
         if (ownsStream == Ownership.Dispose && fileStream != null) {
             fileStream.close();
             fileStream = null;
         }
+        if (ownsParentStream == Ownership.Dispose && parentStream != null) {
+            parentStream.close();
+            parentStream = null;
+        }
     }
 
     protected void onWriteOccurred() {
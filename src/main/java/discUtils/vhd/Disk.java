@@ -39,6 +39,7 @@ import discUtils.core.VirtualDiskLayer;
 import discUtils.core.VirtualDiskTypeInfo;
 import discUtils.core.internal.LocalFileLocator;
 import discUtils.core.internal.Utilities;
+import discUtils.streams.LayerChainStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.util.Ownership;
 import dotnet4j.io.FileAccess;
@@ -242,7 +243,7 @@ public final class Disk extends VirtualDisk {
      * is not called on this class.
      */
     public boolean getAutoCommitFooter() {
-        DynamicStream dynContent = getContent() instanceof DynamicStream ? (DynamicStream) getContent() : null;
+        DynamicStream dynContent = getTopContent() instanceof DynamicStream ? (DynamicStream) getTopContent() : null;
         if (dynContent == null) {
             return true;
         }
@@ -251,12 +252,42 @@ public final class Disk extends VirtualDisk {
     }
 
     public void setAutoCommitFooter(boolean value) {
-        DynamicStream dynContent = getContent() instanceof DynamicStream ? (DynamicStream) getContent() : null;
+        DynamicStream dynContent = getTopContent() instanceof DynamicStream ? (DynamicStream) getTopContent() : null;
         if (dynContent != null) {
             dynContent.setAutoCommitFooter(value);
         }
     }
 
+    /**
+     * Gets or sets a value indicating whether changes to the block allocation
+     * table, sector bitmaps and footer are held back and written together on
+     * flush or close.
+     *
+     * This is disabled by default, enabling it makes filling a new dynamic
+     * disk much faster - however, blocks written since the last flush are
+     * lost if the process stops before it.
+     */
+    public boolean getBatchCommit() {
+        DynamicStream dynContent = getTopContent() instanceof DynamicStream ? (DynamicStream) getTopContent() : null;
+        if (dynContent == null) {
+            return false;
+        }
+
+        return dynContent.getBatchCommit();
+    }
+
+    public void setBatchCommit(boolean value) {
+        DynamicStream dynContent = getTopContent() instanceof DynamicStream ? (DynamicStream) getTopContent() : null;
+        if (dynContent != null) {
+            dynContent.setBatchCommit(value);
+        }
+    }
+
+    /** the content of the top-most layer, through any layer chain */
+    private SparseStream getTopContent() {
+        return getContent() instanceof LayerChainStream chain ? chain.getTop() : getContent();
+    }
+
     /**
      * Gets the capacity of the disk (in bytes).
      */
@@ -275,11 +306,7 @@ public final class Disk extends VirtualDisk {
     @Override
     public SparseStream getContent() {
         if (content == null) {
-            SparseStream stream = null;
-            for (int i = files.size() - 1; i >= 0; --i) {
-                stream = files.get(i).getItem1().openContent(stream, Ownership.Dispose);
-            }
-            content = stream;
+            content = openLayerChain(files.stream().map(Tuple::getItem1).collect(Collectors.toList()));
         }
 
         return content;
@@ -24,9 +24,15 @@ package discUtils.vhd;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import discUtils.streams.LayerExtent;
+import discUtils.streams.LayerStream;
 import discUtils.streams.MappedStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
@@ -39,7 +45,13 @@ import dotnet4j.io.Stream;
 import vavi.util.ByteUtil;
 
 
-public class DynamicStream extends MappedStream {
+public class DynamicStream extends MappedStream implements LayerStream {
+
+    /** the number of block bitmaps kept in memory */
+    private static final int MaxCachedBitmaps = 4096;
+
+    /** the number of changed block bitmaps held back before a commit is forced */
+    private static final int MaxDirtyBitmaps = 1024;
 
     private boolean atEof;
 
@@ -47,7 +59,16 @@ public class DynamicStream extends MappedStream {
 
     private int[] blockAllocationTable;
 
-    private final byte[][] blockBitmaps;
+    /** recently used block bitmaps, least recently used first */
+    private final Map<Long, byte[]> blockBitmaps;
+
+    /** block bitmaps changed but not yet written, when batching */
+    private final Map<Long, byte[]> dirtyBitmaps = new TreeMap<>();
+
+    /** block allocation table entries changed but not yet written, when batching */
+    private final BitSet dirtyTableEntries = new BitSet();
+
+    private boolean batchCommit;
 
     private final int blockBitmapSize;
 
@@ -95,7 +116,11 @@ public class DynamicStream extends MappedStream {
         this.length = length;
         this.parentStream = parentStream;
         this.ownsParentStream = ownsParentStream;
-        blockBitmaps = new byte[this.dynamicHeader.maxTableEntries][];
+        blockBitmaps = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > MaxCachedBitmaps;
+            }
+        };
         blockBitmapSize = MathUtilities.roundUp(MathUtilities.ceil(this.dynamicHeader.blockSize, Sizes.Sector * 8), Sizes.Sector);
         readBlockAllocationTable();
         // Detect where next block should go (cope if the footer is missing)
@@ -116,6 +141,29 @@ public class DynamicStream extends MappedStream {
         }
     }
 
+    /**
+     * Gets whether metadata changes are held back and written together.
+     */
+    public boolean getBatchCommit() {
+        return batchCommit;
+    }
+
+    /**
+     * Sets whether metadata changes are held back and written together.
+     *
+     * When batching, allocating a block or changing its sector bitmap doesn't
+     * write the block allocation table, the bitmap or the footer straight
+     * away. They are written on {@link #flush()} or {@link #close()}, data
+     * first, then the bitmaps, then the table, then the footer, so a table
+     * entry never points at a block whose bitmap isn't on disk yet.
+     */
+    public void setBatchCommit(boolean value) {
+        if (batchCommit && !value) {
+            commit();
+        }
+        batchCommit = value;
+    }
+
     @Override
     public boolean canRead() {
         checkDisposed();
@@ -161,6 +209,8 @@ public class DynamicStream extends MappedStream {
     @Override
     public void flush() {
         checkDisposed();
+        commit();
+        fileStream.flush();
     }
 
     @Override
@@ -174,7 +224,8 @@ public class DynamicStream extends MappedStream {
             long block = position / dynamicHeader.blockSize;
             int offsetInBlock = (int) (position % dynamicHeader.blockSize);
 
-            if (populateBlockBitmap(block)) {
+            byte[] bitmap = getBlockBitmap(block);
+            if (bitmap != null) {
                 int sectorInBlock = offsetInBlock / Sizes.Sector;
                 int offsetInSector = offsetInBlock % Sizes.Sector;
                 int toRead = Math.min(maxToRead - numRead, dynamicHeader.blockSize - offsetInBlock);
@@ -183,7 +234,7 @@ public class DynamicStream extends MappedStream {
 
                 if (offsetInSector != 0 || toRead < Sizes.Sector) {
                     byte mask = (byte) (1 << (7 - sectorInBlock % 8));
-                    if ((blockBitmaps[(int) block][sectorInBlock / 8] & mask) != 0) {
+                    if ((bitmap[sectorInBlock / 8] & mask) != 0) {
                         long extentStart = (long) (blockAllocationTable[(int) block] + sectorInBlock) * Sizes.Sector +
                                 blockBitmapSize + offsetInSector;
                         result.add(new StreamExtent(extentStart, toRead));
@@ -196,12 +247,12 @@ public class DynamicStream extends MappedStream {
                     int toReadSectors = toRead / Sizes.Sector;
 
                     byte mask = (byte) (1 << (7 - sectorInBlock % 8));
-                    boolean readFromParent = (blockBitmaps[(int) block][sectorInBlock / 8] & mask) == 0;
+                    boolean readFromParent = (bitmap[sectorInBlock / 8] & mask) == 0;
 
                     int numSectors = 1;
                     while (numSectors < toReadSectors) {
                         mask = (byte) (1 << (7 - (sectorInBlock + numSectors) % 8));
-                        if ((blockBitmaps[(int) block][(sectorInBlock + numSectors) / 8] & mask) == 0 != readFromParent) {
+                        if ((bitmap[(sectorInBlock + numSectors) / 8] & mask) == 0 != readFromParent) {
                             break;
                         }
 
@@ -228,6 +279,48 @@ public class DynamicStream extends MappedStream {
         return result;
     }
 
+    @Override
+    public List<LayerExtent> mapLayer(long start, long count) {
+        checkDisposed();
+        List<LayerExtent> result = new ArrayList<>();
+        long end = Math.min(start + count, length);
+        long pos = start;
+        while (pos < end) {
+            long block = pos / dynamicHeader.blockSize;
+            long blockStart = block * dynamicHeader.blockSize;
+            long blockEnd = Math.min(end, blockStart + dynamicHeader.blockSize);
+            byte[] bitmap = getBlockBitmap(block);
+            if (bitmap == null) {
+                result.add(LayerExtent.absent(pos, blockEnd - pos));
+                pos = blockEnd;
+                continue;
+            }
+
+            // Runs of sectors present in (or absent from) this layer
+            int sectorInBlock = (int) ((pos - blockStart) / Sizes.Sector);
+            boolean present = (bitmap[sectorInBlock / 8] & (1 << (7 - sectorInBlock % 8))) != 0;
+            int numSectors = 1;
+            while (blockStart + (long) (sectorInBlock + numSectors) * Sizes.Sector < blockEnd &&
+                   ((bitmap[(sectorInBlock + numSectors) / 8] & (1 << (7 - (sectorInBlock + numSectors) % 8))) != 0) == present) {
+                ++numSectors;
+            }
+
+            long runEnd = Math.min(blockEnd, blockStart + (long) (sectorInBlock + numSectors) * Sizes.Sector);
+            if (present) {
+                long filePos = (long) (blockAllocationTable[(int) block] + sectorInBlock) * Sizes.Sector + blockBitmapSize +
+                               (pos - blockStart) % Sizes.Sector;
+                result.add(LayerExtent.present(pos, runEnd - pos, fileStream, filePos));
+            } else {
+                result.add(LayerExtent.absent(pos, runEnd - pos));
+            }
+            pos = runEnd;
+        }
+        if (end < start + count) {
+            result.add(LayerExtent.absent(Math.max(start, end), start + count - Math.max(start, end)));
+        }
+        return result;
+    }
+
     @Override
     public int read(byte[] buffer, int offset, int count) {
         checkDisposed();
@@ -246,14 +339,15 @@ public class DynamicStream extends MappedStream {
         while (numRead < maxToRead) {
             long block = position / dynamicHeader.blockSize;
             int offsetInBlock = (int) (position % dynamicHeader.blockSize);
-            if (populateBlockBitmap(block)) {
+            byte[] bitmap = getBlockBitmap(block);
+            if (bitmap != null) {
                 int sectorInBlock = offsetInBlock / Sizes.Sector;
                 int offsetInSector = offsetInBlock % Sizes.Sector;
                 int toRead = Math.min(maxToRead - numRead, dynamicHeader.blockSize - offsetInBlock);
                 // 512 - offsetInSector);
                 if (offsetInSector != 0 || toRead < Sizes.Sector) {
                     byte mask = (byte) (1 << (7 - sectorInBlock % 8));
-                    if ((blockBitmaps[(int) block][sectorInBlock / 8] & mask) != 0) {
+                    if ((bitmap[sectorInBlock / 8] & mask) != 0) {
                         fileStream.position((long) (blockAllocationTable[(int) block] + sectorInBlock) * Sizes.Sector +
                                 blockBitmapSize + offsetInSector);
                         StreamUtilities.readExact(fileStream, buffer, offset + numRead, toRead);
@@ -267,11 +361,11 @@ public class DynamicStream extends MappedStream {
                     // Processing at least one whole sector, read as many as possible
                     int toReadSectors = toRead / Sizes.Sector;
                     byte mask = (byte) (1 << (7 - sectorInBlock % 8));
-                    boolean readFromParent = (blockBitmaps[(int) block][sectorInBlock / 8] & mask) == 0;
+                    boolean readFromParent = (bitmap[sectorInBlock / 8] & mask) == 0;
                     int numSectors = 1;
                     while (numSectors < toReadSectors) {
                         mask = (byte) (1 << (7 - (sectorInBlock + numSectors) % 8));
-                        if ((blockBitmaps[(int) block][(sectorInBlock + numSectors) / 8] & mask) == 0 != readFromParent) {
+                        if ((bitmap[(sectorInBlock + numSectors) / 8] & mask) == 0 != readFromParent) {
                             break;
                         }
 
@@ -339,8 +433,9 @@ public class DynamicStream extends MappedStream {
         while (numWritten < count) {
             long block = position / dynamicHeader.blockSize;
             int offsetInBlock = (int) (position % dynamicHeader.blockSize);
-            if (!populateBlockBitmap(block)) {
-                allocateBlock(block);
+            byte[] bitmap = getBlockBitmap(block);
+            if (bitmap == null) {
+                bitmap = allocateBlock(block);
             }
 
             int sectorInBlock = offsetInBlock / Sizes.Sector;
@@ -355,7 +450,7 @@ public class DynamicStream extends MappedStream {
                 long sectorStart = (long) (blockAllocationTable[(int) block] + sectorInBlock) * Sizes.Sector + blockBitmapSize;
                 // Get the existing sector data (if any), or otherwise the parent's content
                 byte[] sectorBuffer;
-                if ((blockBitmaps[(int) block][sectorInBlock / 8] & sectorMask) != 0) {
+                if ((bitmap[sectorInBlock / 8] & sectorMask) != 0) {
                     fileStream.position(sectorStart);
                     sectorBuffer = StreamUtilities.readExact(fileStream, Sizes.Sector);
                 } else {
@@ -368,8 +463,8 @@ public class DynamicStream extends MappedStream {
                 fileStream.position(sectorStart);
                 fileStream.write(sectorBuffer, 0, Sizes.Sector);
                 // Update the in-memory block bitmap
-                if ((blockBitmaps[(int) block][sectorInBlock / 8] & sectorMask) == 0) {
-                    blockBitmaps[(int) block][sectorInBlock / 8] = (byte) (blockBitmaps[(int) block][sectorInBlock / 8] | sectorMask);
+                if ((bitmap[sectorInBlock / 8] & sectorMask) == 0) {
+                    bitmap[sectorInBlock / 8] = (byte) (bitmap[sectorInBlock / 8] | sectorMask);
                     blockBitmapDirty = true;
                 }
 
@@ -381,8 +476,8 @@ public class DynamicStream extends MappedStream {
                 for (int i = offset; i < offset + toWrite; i += Sizes.Sector) {
                     // Update all of the bits in the block bitmap
                     byte sectorMask = (byte) (1 << (7 - sectorInBlock % 8));
-                    if ((blockBitmaps[(int) block][sectorInBlock / 8] & sectorMask) == 0) {
-                        blockBitmaps[(int) block][sectorInBlock / 8] = (byte) (blockBitmaps[(int) block][sectorInBlock / 8] | sectorMask);
+                    if ((bitmap[sectorInBlock / 8] & sectorMask) == 0) {
+                        bitmap[sectorInBlock / 8] = (byte) (bitmap[sectorInBlock / 8] | sectorMask);
                         blockBitmapDirty = true;
                     }
 
@@ -390,7 +485,7 @@ public class DynamicStream extends MappedStream {
                 }
             }
             if (blockBitmapDirty) {
-                writeBlockBitmap(block);
+                writeBlockBitmap(block, bitmap);
             }
 
             numWritten += toWrite;
@@ -415,6 +510,7 @@ public class DynamicStream extends MappedStream {
 
     @Override
     public void close() throws IOException {
+        commit();
         updateFooter();
         if (ownsParentStream == Ownership.Dispose && parentStream != null) {
             parentStream.close();
@@ -439,16 +535,17 @@ public class DynamicStream extends MappedStream {
         boolean foundStart = false;
         while (pos < maxPos && !foundStart) {
             long block = pos / dynamicHeader.blockSize;
-            if (!populateBlockBitmap(block)) {
+            byte[] bitmap = getBlockBitmap(block);
+            if (bitmap == null) {
                 pos += dynamicHeader.blockSize;
             } else {
                 int offsetInBlock = (int) (pos % dynamicHeader.blockSize);
                 int sectorInBlock = offsetInBlock / Sizes.Sector;
-                if (blockBitmaps[(int) block][sectorInBlock / 8] == 0) {
+                if (bitmap[sectorInBlock / 8] == 0) {
                     pos += (8 - sectorInBlock % 8) * Sizes.Sector;
                 } else {
                     byte mask = (byte) (1 << (7 - sectorInBlock % 8));
-                    if ((blockBitmaps[(int) block][sectorInBlock / 8] & mask) != 0) {
+                    if ((bitmap[sectorInBlock / 8] & mask) != 0) {
                         foundStart = true;
                     } else {
                         pos += Sizes.Sector;
@@ -463,16 +560,17 @@ public class DynamicStream extends MappedStream {
         boolean foundEnd = false;
         while (pos < maxPos && !foundEnd) {
             long block = pos / dynamicHeader.blockSize;
-            if (!populateBlockBitmap(block)) {
+            byte[] bitmap = getBlockBitmap(block);
+            if (bitmap == null) {
                 foundEnd = true;
             } else {
                 int offsetInBlock = (int) (pos % dynamicHeader.blockSize);
                 int sectorInBlock = offsetInBlock / Sizes.Sector;
-                if ((blockBitmaps[(int) block][sectorInBlock / 8] & 0xff) == 0xFF) {
+                if ((bitmap[sectorInBlock / 8] & 0xff) == 0xFF) {
                     pos += (8 - sectorInBlock % 8) * Sizes.Sector;
                 } else {
                     byte mask = (byte) (1 << (7 - sectorInBlock % 8));
-                    if ((blockBitmaps[(int) block][sectorInBlock / 8] & mask) == 0) {
+                    if ((bitmap[sectorInBlock / 8] & mask) == 0) {
                         foundEnd = true;
                     } else {
                         pos += Sizes.Sector;
@@ -493,36 +591,55 @@ public class DynamicStream extends MappedStream {
         blockAllocationTable = bat;
     }
 
-    private boolean populateBlockBitmap(long block) {
-        if (blockBitmaps[(int) block] != null) {
-            return true;
+    /**
+     * @return the sector bitmap of the block, or {@code null} if the block
+     *         isn't stored
+     */
+    private byte[] getBlockBitmap(long block) {
+        byte[] bitmap = dirtyBitmaps.get(block);
+        if (bitmap == null) {
+            bitmap = blockBitmaps.get(block);
+        }
+        if (bitmap != null) {
+            return bitmap;
         }
 
-        // Nothing to do...
+        // No such block stored...
         if (blockAllocationTable[(int) block] == 0xffff_ffff) { // uint.MAX_VALUE
-            return false;
+            return null;
         }
 
-        // No such block stored...
         // Read in bitmap
         fileStream.position((long) blockAllocationTable[(int) block] * Sizes.Sector);
-        blockBitmaps[(int) block] = StreamUtilities.readExact(fileStream, blockBitmapSize);
-        return true;
+        bitmap = StreamUtilities.readExact(fileStream, blockBitmapSize);
+        blockBitmaps.put(block, bitmap);
+        return bitmap;
     }
 
-    private void allocateBlock(long block) {
+    private byte[] allocateBlock(long block) {
         if (blockAllocationTable[(int) block] != 0xffff_ffff) { // uint.MAX_VALUE
             throw new IllegalArgumentException("Attempt to allocate existing block");
         }
 
         newBlocksAllocated = true;
         long newBlockStart = nextBlockStart;
-        // Create and write new sector bitmap
         byte[] bitmap = new byte[blockBitmapSize];
+        blockBitmaps.put(block, bitmap);
+        nextBlockStart += blockBitmapSize + dynamicHeader.blockSize;
+        blockAllocationTable[(int) block] = (int) (newBlockStart / 512);
+
+        if (batchCommit) {
+            if (fileStream.getLength() < nextBlockStart) {
+                fileStream.setLength(nextBlockStart);
+            }
+            dirtyBitmaps.put(block, bitmap);
+            dirtyTableEntries.set((int) block);
+            return bitmap;
+        }
+
+        // Write new sector bitmap
         fileStream.position(newBlockStart);
         fileStream.write(bitmap, 0, blockBitmapSize);
-        blockBitmaps[(int) block] = bitmap;
-        nextBlockStart += blockBitmapSize + dynamicHeader.blockSize;
         if (fileStream.getLength() < nextBlockStart) {
             fileStream.setLength(nextBlockStart);
         }
@@ -532,15 +649,61 @@ public class DynamicStream extends MappedStream {
         ByteUtil.writeBeInt((int) (newBlockStart / 512), entryBuffer, 0);
         fileStream.position(dynamicHeader.tableOffset + block * 4);
         fileStream.write(entryBuffer, 0, 4);
-        blockAllocationTable[(int) block] = (int) (newBlockStart / 512);
         if (autoCommitFooter) {
             updateFooter();
         }
+        return bitmap;
     }
 
-    private void writeBlockBitmap(long block) {
+    private void writeBlockBitmap(long block, byte[] bitmap) {
+        if (batchCommit) {
+            dirtyBitmaps.put(block, bitmap);
+            if (dirtyBitmaps.size() >= MaxDirtyBitmaps) {
+                commit();
+            }
+            return;
+        }
+
         fileStream.position((long) blockAllocationTable[(int) block] * Sizes.Sector);
-        fileStream.write(blockBitmaps[(int) block], 0, blockBitmapSize);
+        fileStream.write(bitmap, 0, blockBitmapSize);
+    }
+
+    /**
+     * Writes the metadata held back while batching. The data is already
+     * written, the bitmaps go next, then the table entries (in runs), then
+     * the footer, with the file flushed in between.
+     */
+    private void commit() {
+        if (dirtyBitmaps.isEmpty() && dirtyTableEntries.isEmpty()) {
+            return;
+        }
+
+        fileStream.flush();
+        for (Map.Entry<Long, byte[]> entry : dirtyBitmaps.entrySet()) {
+            fileStream.position((long) blockAllocationTable[entry.getKey().intValue()] * Sizes.Sector);
+            fileStream.write(entry.getValue(), 0, blockBitmapSize);
+        }
+        dirtyBitmaps.clear();
+
+        if (!dirtyTableEntries.isEmpty()) {
+            fileStream.flush();
+            for (int start = dirtyTableEntries.nextSetBit(0); start >= 0; start = dirtyTableEntries.nextSetBit(start)) {
+                int end = dirtyTableEntries.nextClearBit(start);
+                byte[] buffer = new byte[(end - start) * 4];
+                for (int i = start; i < end; ++i) {
+                    ByteUtil.writeBeInt(blockAllocationTable[i], buffer, (i - start) * 4);
+                }
+                fileStream.position(dynamicHeader.tableOffset + start * 4L);
+                fileStream.write(buffer, 0, buffer.length);
+                start = end;
+            }
+            dirtyTableEntries.clear();
+        }
+
+        if (autoCommitFooter) {
+            fileStream.flush();
+            updateFooter();
+        }
     }
 
     private void checkDisposed() {
@@ -28,6 +28,8 @@ import java.util.Arrays;
 import java.util.List;
 
 import discUtils.core.internal.ObjectCache;
+import discUtils.streams.LayerExtent;
+import discUtils.streams.LayerStream;
 import discUtils.streams.MappedStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
@@ -38,7 +40,7 @@ import dotnet4j.io.SeekOrigin;
 import dotnet4j.io.Stream;
 
 
-public final class ContentStream extends MappedStream {
+public final class ContentStream extends MappedStream implements LayerStream {
 
     private boolean atEof;
 
@@ -146,6 +148,55 @@ public final class ContentStream extends MappedStream {
                            new StreamExtent(start, count));
     }
 
+    @Override public List<LayerExtent> mapLayer(long start, long count) {
+        checkDisposed();
+
+        List<LayerExtent> result = new ArrayList<>();
+        long end = Math.min(start + count, length);
+        long pos = start;
+        while (pos < end) {
+            int[] chunkIndex = new int[1];
+            int[] blockIndex = new int[1];
+            int[] sectorIndex = new int[1];
+            Chunk chunk = getChunk(pos, chunkIndex, blockIndex, sectorIndex);
+
+            long blockStart = pos - pos % fileParameters.blockSize;
+            long blockEnd = Math.min(end, blockStart + fileParameters.blockSize);
+            long blockOffset = pos - blockStart;
+
+            PayloadBlockStatus blockStatus = chunk.getBlockStatus(blockIndex[0]);
+            if (blockStatus == PayloadBlockStatus.FullyPresent) {
+                result.add(LayerExtent.present(pos, blockEnd - pos, fileStream, chunk.getBlockPosition(blockIndex[0]) + blockOffset));
+                pos = blockEnd;
+            } else if (blockStatus == PayloadBlockStatus.PartiallyPresent) {
+                BlockBitmap bitmap = chunk.getBlockBitmap(blockIndex[0]);
+                boolean[] present = new boolean[1];
+                int numSectors = bitmap.contiguousSectors(sectorIndex[0], present);
+                long runEnd = Math.min(blockEnd,
+                                       blockStart + (long) (sectorIndex[0] + numSectors) * metadata.getLogicalSectorSize());
+                if (runEnd <= pos) {
+                    runEnd = blockEnd;
+                }
+                if (present[0]) {
+                    result.add(LayerExtent.present(pos, runEnd - pos, fileStream, chunk.getBlockPosition(blockIndex[0]) + blockOffset));
+                } else {
+                    result.add(LayerExtent.absent(pos, runEnd - pos));
+                }
+                pos = runEnd;
+            } else if (blockStatus == PayloadBlockStatus.NotPresent) {
+                result.add(LayerExtent.absent(pos, blockEnd - pos));
+                pos = blockEnd;
+            } else {
+                result.add(LayerExtent.zero(pos, blockEnd - pos));
+                pos = blockEnd;
+            }
+        }
+        if (end < start + count) {
+            result.add(LayerExtent.absent(Math.max(start, end), start + count - Math.max(start, end)));
+        }
+        return result;
+    }
+
     @Override public int read(byte[] buffer, int offset, int count) {
         checkDisposed();
 
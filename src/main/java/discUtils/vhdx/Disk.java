@@ -252,12 +252,7 @@ public final class Disk extends VirtualDisk {
     @Override
     public SparseStream getContent() {
         if (content == null) {
-            SparseStream stream = null;
-            for (int i = files.size() - 1; i >= 0; --i) {
-                stream = files.get(i).getItem1().openContent(stream, Ownership.Dispose);
-            }
-
-            content = stream;
+            content = openLayerChain(files.stream().map(Tuple::getItem1).collect(Collectors.toList()));
         }
 
         return content;
@@ -28,6 +28,8 @@ import java.util.Collections;
 import java.util.List;
 
 import discUtils.core.internal.ObjectCache;
+import discUtils.streams.LayerExtent;
+import discUtils.streams.LayerStream;
 import discUtils.streams.MappedStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
@@ -40,7 +42,7 @@ import dotnet4j.io.Stream;
 import vavi.util.ByteUtil;
 
 
-public abstract class CommonSparseExtentStream extends MappedStream {
+public abstract class CommonSparseExtentStream extends MappedStream implements LayerStream {
 
     /**
      * Indicator to whether end-of-stream has been reached.
@@ -280,6 +282,49 @@ public abstract class CommonSparseExtentStream extends MappedStream {
         return result;
     }
 
+    /**
+     * Positions are relative to this extent, the mapping only makes sense to
+     * the chain when the extent is the whole layer.
+     */
+    @Override public List<LayerExtent> mapLayer(long start, long count) {
+        checkDisposed();
+
+        List<LayerExtent> result = new ArrayList<>();
+        long end = Math.min(start + count, getLength());
+        long pos = start;
+        while (pos < end) {
+            int grainTable = (int) (pos / gtCoverage);
+            int grainTableOffset = (int) (pos - grainTable * gtCoverage);
+
+            if (!loadGrainTable(grainTable)) {
+                long next = Math.min(end, (grainTable + 1) * gtCoverage);
+                result.add(LayerExtent.absent(pos, next - pos));
+                pos = next;
+                continue;
+            }
+
+            int grainSize = (int) (header.grainSize * Sizes.Sector);
+            int grain = grainTableOffset / grainSize;
+            int grainOffset = grainTableOffset - grain * grainSize;
+            int numToRead = (int) Math.min(end - pos, grainSize - grainOffset);
+
+            int entry = getGrainTableEntry(grain);
+            if (entry == 0) {
+                result.add(LayerExtent.absent(pos, numToRead));
+            } else if (isGrainDirect()) {
+                result.add(LayerExtent.present(pos, numToRead, fileStream, (long) entry * Sizes.Sector + grainOffset));
+            } else {
+                result.add(LayerExtent.present(pos, numToRead));
+            }
+            pos += numToRead;
+        }
+
+        if (end < start + count) {
+            result.add(LayerExtent.absent(Math.max(start, end), start + count - Math.max(start, end)));
+        }
+        return result;
+    }
+
     @Override public void close() throws IOException {
         if (ownsFileStream == Ownership.Dispose && fileStream != null) {
             fileStream.close();
@@ -310,6 +355,14 @@ public abstract class CommonSparseExtentStream extends MappedStream {
         return fileStream.read(buffer, bufferOffset, numToRead);
     }
 
+    /**
+     * Whether grains are stored as is, so their content can be read straight
+     * from the file.
+     */
+    protected boolean isGrainDirect() {
+        return true;
+    }
+
     protected StreamExtent mapGrain(long grainStart, int grainOffset, int numToRead) {
         return new StreamExtent(grainStart + grainOffset, numToRead);
     }
@@ -30,7 +30,10 @@ import discUtils.core.DiskImageFileSpecification;
 import discUtils.core.GenericDiskAdapterType;
 import discUtils.core.Geometry;
 import discUtils.streams.builder.PassthroughStreamBuilder;
+import discUtils.streams.util.MathUtilities;
+import discUtils.streams.util.Sizes;
 import dotnet4j.io.MemoryStream;
+import dotnet4j.io.Stream;
 
 
 /**
@@ -122,7 +125,8 @@ public final class DiskBuilder extends DiskImageBuilder {
 
         if (diskType != DiskCreateType.Vmfs && diskType != DiskCreateType.VmfsSparse &&
             diskType != DiskCreateType.MonolithicSparse) {
-            throw new UnsupportedOperationException("Only MonolithicSparse, Vmfs and VmfsSparse disks implemented");
+            throw new UnsupportedOperationException("Only MonolithicSparse, Vmfs and VmfsSparse disks implemented" +
+                                                    ", use writeStreamOptimized for StreamOptimized disks");
         }
 
         List<DiskImageFileSpecification> fileSpecs = new ArrayList<>();
@@ -166,4 +170,34 @@ public final class DiskBuilder extends DiskImageBuilder {
 
         return fileSpecs;
     }
+
+    /**
+     * Writes the disk as a single streamOptimized VMDK, as used in OVF
+     * packages. The disk type setting is ignored.
+     *
+     * @param baseName The base name for the VMDK, for example 'foo' to create
+     *            'foo.vmdk'.
+     * @param output The stream to write to, only written sequentially.
+     */
+    public void writeStreamOptimized(String baseName, Stream output) {
+        if (baseName == null || baseName.isEmpty()) {
+            throw new IllegalArgumentException("Invalid base file name");
+        }
+
+        if (getContent() == null) {
+            throw new UnsupportedOperationException("No content stream specified");
+        }
+
+        Geometry geometry = getGeometry() != null ? getGeometry() : DiskImageFile.defaultGeometry(getContent().getLength());
+        Geometry biosGeometry = getBiosGeometry() != null ? getBiosGeometry()
+                                                          : Geometry.lbaAssistedBiosGeometry(getContent().getLength());
+        DescriptorFile descriptor = DiskImageFile
+                .createSimpleDiskDescriptor(geometry, biosGeometry, DiskCreateType.StreamOptimized, getAdapterType());
+        descriptor.getExtents().add(new ExtentDescriptor(ExtentAccess.ReadWrite,
+                                                         MathUtilities.ceil(getContent().getLength(), Sizes.Sector),
+                                                         ExtentType.Sparse,
+                                                         baseName + ".vmdk",
+                                                         0));
+        new StreamOptimizedExtentBuilder(getContent(), descriptor).build(output);
+    }
 }
@@ -22,19 +22,28 @@
 
 package discUtils.vmdk;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
-
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import discUtils.core.internal.Utilities;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
 import discUtils.streams.util.MathUtilities;
 import discUtils.streams.util.Ownership;
 import discUtils.streams.util.Sizes;
 import discUtils.streams.util.StreamUtilities;
-import dotnet4j.io.MemoryStream;
 import dotnet4j.io.Stream;
-import dotnet4j.io.compression.CompressionMode;
-import dotnet4j.io.compression.DeflateStream;
 import vavi.util.ByteUtil;
 
 
@@ -45,8 +54,27 @@ import vavi.util.ByteUtil;
  */
 public final class HostedSparseExtentStream extends CommonSparseExtentStream {
 
+    /** the number of decompressed grains kept */
+    private static final int MaxCachedGrains = 64;
+
+    /** the most grains read ahead together */
+    private static final int MaxBatchGrains = MaxCachedGrains / 2;
+
+    /** the largest gap between grains read together, room for a grain table and its marker */
+    private static final int MaxBatchGap = 16 * Sizes.Sector;
+
     private HostedSparseExtentHeader hostedHeader;
 
+    /** decompressed grains by their position in the file, least recently used first */
+    private final Map<Long, byte[]> grainCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > MaxCachedGrains;
+        }
+    };
+
+    /** idle inflaters, shared by parallel decoding */
+    private final Deque<Inflater> inflaters = new ArrayDeque<>();
+
     public HostedSparseExtentStream(Stream file,
             Ownership ownsFile,
             long diskOffset,
@@ -91,6 +119,15 @@ public final class HostedSparseExtentStream extends CommonSparseExtentStream {
                                     EnumSet.of(HostedSparseExtentFlags.CompressedGrains, HostedSparseExtentFlags.MarkersInUse));
     }
 
+    @Override public int read(byte[] buffer, int offset, int count) {
+        checkDisposed();
+
+        if (hostedHeader.flags.contains(HostedSparseExtentFlags.CompressedGrains) && position < getLength()) {
+            prefetchGrains(position, Math.min(count, getLength() - position));
+        }
+        return super.read(buffer, offset, count);
+    }
+
     @Override public void write(byte[] buffer, int offset, int count) {
         checkDisposed();
 
@@ -125,42 +162,29 @@ public final class HostedSparseExtentStream extends CommonSparseExtentStream {
 
     @Override protected int readGrain(byte[] buffer, int bufferOffset, long grainStart, int grainOffset, int numToRead) {
         if (hostedHeader.flags.contains(HostedSparseExtentFlags.CompressedGrains)) {
-            fileStream.position(grainStart);
-
-            byte[] readBuffer = StreamUtilities.readExact(fileStream, CompressedGrainHeader.Size);
-            CompressedGrainHeader hdr = new CompressedGrainHeader();
-            hdr.read(readBuffer, 0);
-
-            readBuffer = StreamUtilities.readExact(fileStream, hdr.dataSize);
-
-            // This is really a zlib stream, so has header and footer. We ignore
-            // this right now, but we sanity check against expected header values...
-            short header = ByteUtil.readBeShort(readBuffer, 0);
-
-            if (header % 31 != 0) {
-                throw new dotnet4j.io.IOException("Invalid ZLib header found");
-            }
+            byte[] grain = grainCache.get(grainStart);
+            if (grain == null) {
+                fileStream.position(grainStart);
 
-            if ((header & 0x0F00) != 8 << 8) {
-                throw new UnsupportedOperationException("ZLib compression not using DEFLATE algorithm");
-            }
+                byte[] readBuffer = StreamUtilities.readExact(fileStream, CompressedGrainHeader.Size);
+                CompressedGrainHeader hdr = new CompressedGrainHeader();
+                hdr.read(readBuffer, 0);
 
-            if ((header & 0x0020) != 0) {
-                throw new UnsupportedOperationException("ZLib compression using preset dictionary");
+                readBuffer = StreamUtilities.readExact(fileStream, hdr.dataSize);
+                grain = inflateGrain(readBuffer, 0, hdr.dataSize);
+                grainCache.put(grainStart, grain);
             }
 
-            Stream readStream = new MemoryStream(readBuffer, 2, hdr.dataSize - 2, false);
-            DeflateStream deflateStream = new DeflateStream(readStream, CompressionMode.Decompress);
-
-            // Need to skip some bytes, but DefaultStream doesn't support
-            // seeking...
-            StreamUtilities.readExact(deflateStream, grainOffset);
-
-            return deflateStream.read(buffer, bufferOffset, numToRead);
+            System.arraycopy(grain, grainOffset, buffer, bufferOffset, numToRead);
+            return numToRead;
         }
         return super.readGrain(buffer, bufferOffset, grainStart, grainOffset, numToRead);
     }
 
+    @Override protected boolean isGrainDirect() {
+        return !hostedHeader.flags.contains(HostedSparseExtentFlags.CompressedGrains);
+    }
+
     @Override protected StreamExtent mapGrain(long grainStart, int grainOffset, int numToRead) {
         if (hostedHeader.flags.contains(HostedSparseExtentFlags.CompressedGrains)) {
             fileStream.position(grainStart);
@@ -188,6 +212,136 @@ public final class HostedSparseExtentStream extends CommonSparseExtentStream {
         }
     }
 
+    @Override public void close() throws IOException {
+        super.close();
+
+        grainCache.clear();
+        synchronized (inflaters) {
+            inflaters.forEach(Inflater::end);
+            inflaters.clear();
+        }
+    }
+
+    /**
+     * Reads the compressed grains of a range that aren't cached yet, those
+     * laid out close together with one read each run, and decodes them in
+     * parallel.
+     */
+    private void prefetchGrains(long start, long count) {
+        int grainSize = (int) (header.grainSize * Sizes.Sector);
+        long end = Math.min(start + count, start + (long) MaxBatchGrains * grainSize);
+        List<Long> starts = new ArrayList<>();
+        for (long pos = MathUtilities.roundDown(start, grainSize); pos < end; pos += grainSize) {
+            int grainTable = (int) (pos / gtCoverage);
+            if (!loadGrainTable(grainTable)) {
+                continue;
+            }
+
+            int grain = (int) ((pos - grainTable * gtCoverage) / grainSize);
+            long grainStart = (long) getGrainTableEntry(grain) * Sizes.Sector;
+            if (grainStart != 0 && !grainCache.containsKey(grainStart) && !starts.contains(grainStart)) {
+                starts.add(grainStart);
+            }
+        }
+        if (starts.size() < 2) {
+            return;
+        }
+
+        Collections.sort(starts);
+        int first = 0;
+        for (int i = 1; i <= starts.size(); ++i) {
+            if (i == starts.size() || starts.get(i) - starts.get(i - 1) > grainSize + MaxBatchGap) {
+                if (i - first > 1) {
+                    readGrains(starts.subList(first, i));
+                }
+                first = i;
+            }
+        }
+    }
+
+    private void readGrains(List<Long> starts) {
+        long spanStart = starts.get(0);
+        int lastOffset = (int) (starts.get(starts.size() - 1) - spanStart);
+
+        // Read up to the header of the last grain, then the rest of it once its size is known
+        fileStream.position(spanStart);
+        byte[] span = StreamUtilities.readExact(fileStream, lastOffset + CompressedGrainHeader.Size);
+        int spanLength = lastOffset + CompressedGrainHeader.Size + ByteUtil.readLeInt(span, lastOffset + 8);
+        if (spanLength > span.length) {
+            int read = span.length;
+            span = Arrays.copyOf(span, spanLength);
+            StreamUtilities.readExact(fileStream, span, read, spanLength - read);
+        }
+
+        byte[] data = span;
+        List<CompletableFuture<byte[]>> grains = new ArrayList<>(starts.size());
+        for (long grainStart : starts) {
+            CompressedGrainHeader hdr = new CompressedGrainHeader();
+            hdr.read(data, (int) (grainStart - spanStart));
+            int dataOffset = (int) (grainStart - spanStart) + CompressedGrainHeader.Size;
+            if (hdr.dataSize < 0 || dataOffset + hdr.dataSize > data.length) {
+                throw new dotnet4j.io.IOException("Invalid compressed grain at " + grainStart);
+            }
+            grains.add(CompletableFuture.supplyAsync(() -> inflateGrain(data, dataOffset, hdr.dataSize)));
+        }
+
+        for (int i = 0; i < starts.size(); ++i) {
+            grainCache.put(starts.get(i), Utilities.join(grains.get(i)));
+        }
+    }
+
+    /**
+     * Decompresses a grain, this is really a zlib stream, so has header and
+     * footer. The footer is ignored, but the header is sanity checked. A
+     * stream that ends early leaves the rest of the grain zero, as the last
+     * grain of a disk may be short, but one that runs out of input is
+     * truncated.
+     */
+    private byte[] inflateGrain(byte[] data, int offset, int length) {
+        short header = ByteUtil.readBeShort(data, offset);
+
+        if (header % 31 != 0) {
+            throw new dotnet4j.io.IOException("Invalid ZLib header found");
+        }
+
+        if ((header & 0x0F00) != 8 << 8) {
+            throw new UnsupportedOperationException("ZLib compression not using DEFLATE algorithm");
+        }
+
+        if ((header & 0x0020) != 0) {
+            throw new UnsupportedOperationException("ZLib compression using preset dictionary");
+        }
+
+        Inflater inflater;
+        synchronized (inflaters) {
+            inflater = inflaters.poll();
+        }
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            inflater.setInput(data, offset + 2, length - 2);
+            byte[] grain = new byte[(int) (this.header.grainSize * Sizes.Sector)];
+            int numRead = 0;
+            while (numRead < grain.length && !inflater.finished()) {
+                int n = inflater.inflate(grain, numRead, grain.length - numRead);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new dotnet4j.io.IOException("Truncated compressed grain, " + numRead + " of " + grain.length + " bytes");
+                }
+                numRead += n;
+            }
+            return grain;
+        } catch (DataFormatException e) {
+            throw new dotnet4j.io.IOException(e);
+        } finally {
+            inflater.reset();
+            synchronized (inflaters) {
+                inflaters.push(inflater);
+            }
+        }
+    }
+
     private void allocateGrain(int grainTable, int grain) {
         // Calculate start pos for new grain
         long grainStartPos = MathUtilities.roundUp(fileStream.getLength(), header.grainSize * Sizes.Sector);
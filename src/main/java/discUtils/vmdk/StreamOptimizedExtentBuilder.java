@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.vmdk;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+
+import discUtils.core.internal.Utilities;
+import discUtils.streams.SparseStream;
+import discUtils.streams.StreamExtent;
+import discUtils.streams.util.MathUtilities;
+import discUtils.streams.util.Range;
+import discUtils.streams.util.Sizes;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.MemoryStream;
+import dotnet4j.io.Stream;
+import vavi.util.ByteUtil;
+
+
+/**
+ * Writes a streamOptimized VMDK, the compressed, append only format used
+ * in OVF packages.
+ *
+ * Only the present extents of the content are read, and grains that are all
+ * zeros are left out. Grains are deflated in parallel, but written in order,
+ * each grain table following its grains and the grain directory following
+ * all of them, so the output is written front to back and needn't support
+ * seeking.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class StreamOptimizedExtentBuilder {
+
+    private static final int GtesPerGt = 512;
+
+    private static final long GrainSize = 128;
+
+    private static final int GrainBytes = (int) (GrainSize * Sizes.Sector);
+
+    private static final int MarkerEndOfStream = 0;
+
+    private static final int MarkerGrainTable = 1;
+
+    private static final int MarkerGrainDirectory = 2;
+
+    private static final int MarkerFooter = 3;
+
+    private final SparseStream content;
+
+    private final DescriptorFile descriptor;
+
+    private Stream output;
+
+    /** the number of sectors written so far */
+    private long outputSector;
+
+    /** the grain table being filled */
+    private byte[] grainTable;
+
+    private byte[] grainDirectory;
+
+    /**
+     * @param content The content of the disk.
+     * @param descriptor The descriptor to embed, its create type should be
+     *            {@link DiskCreateType#StreamOptimized}.
+     */
+    public StreamOptimizedExtentBuilder(SparseStream content, DescriptorFile descriptor) {
+        this.content = content;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Writes the VMDK file.
+     *
+     * @param output The stream to write to, only written sequentially.
+     */
+    public void build(Stream output) {
+        if (!output.canWrite()) {
+            throw new IllegalArgumentException("Output stream must be writable: " + output.getClass());
+        }
+
+        this.output = output;
+        outputSector = 0;
+
+        long capacity = MathUtilities.ceil(content.getLength(), Sizes.Sector);
+        long gtSpan = GtesPerGt * GrainSize * Sizes.Sector;
+        int numGrainTables = (int) MathUtilities.ceil(capacity * Sizes.Sector, gtSpan);
+        grainDirectory = new byte[numGrainTables * 4];
+
+        MemoryStream descriptorStream = new MemoryStream();
+        descriptor.write(descriptorStream);
+        byte[] descriptorBytes = descriptorStream.toArray();
+        long descriptorSize = MathUtilities.ceil(descriptorBytes.length, Sizes.Sector);
+
+        HostedSparseExtentHeader header = new HostedSparseExtentHeader();
+        header.version = 3;
+        header.flags = EnumSet.of(HostedSparseExtentFlags.ValidLineDetectionTest,
+                                  HostedSparseExtentFlags.CompressedGrains,
+                                  HostedSparseExtentFlags.MarkersInUse);
+        header.capacity = capacity;
+        header.grainSize = GrainSize;
+        header.descriptorOffset = 1;
+        header.descriptorSize = descriptorSize;
+        header.numGTEsPerGT = GtesPerGt;
+        header.rgdOffset = 0;
+        // The grain directory is only known at the end, it's given by the footer
+        header.gdOffset = -1;
+        header.overhead = 1 + descriptorSize;
+        header.compressAlgorithm = 1;
+        writeSectors(header.getBytes());
+        writeSectors(descriptorBytes);
+
+        int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        Deque<Pending> pending = new ArrayDeque<>();
+        byte[] buffer = new byte[GrainBytes];
+        for (Range gtRange : StreamExtent.blocks(content.getExtents(), gtSpan)) {
+            for (long i = 0; i < gtRange.getCount(); ++i) {
+                int gt = (int) (gtRange.getOffset() + i);
+                long gtStart = gt * gtSpan;
+                long gtLength = Math.min(gtSpan, content.getLength() - gtStart);
+                for (Range grainRange : StreamExtent.blocks(content.getExtentsInRange(gtStart, gtLength), GrainBytes)) {
+                    for (long j = 0; j < grainRange.getCount(); ++j) {
+                        long grainStart = (grainRange.getOffset() + j) * GrainBytes;
+                        int toRead = (int) Math.min(GrainBytes, content.getLength() - grainStart);
+                        content.position(grainStart);
+                        StreamUtilities.readExact(content, buffer, 0, toRead);
+                        if (Utilities.isAllZeros(buffer, 0, toRead)) {
+                            continue;
+                        }
+
+                        byte[] grain = Arrays.copyOf(buffer, toRead);
+                        pending.add(new Pending(grainStart / Sizes.Sector, CompletableFuture.supplyAsync(() -> deflate(grain))));
+                        while (pending.size() >= maxPending) {
+                            writePending(pending.remove());
+                        }
+                    }
+                }
+                pending.add(new Pending(gt));
+            }
+        }
+        while (!pending.isEmpty()) {
+            writePending(pending.remove());
+        }
+
+        writeMarker(MathUtilities.ceil(grainDirectory.length, Sizes.Sector), MarkerGrainDirectory);
+        header.gdOffset = outputSector;
+        writeSectors(grainDirectory);
+
+        writeMarker(1, MarkerFooter);
+        writeSectors(header.getBytes());
+        writeMarker(0, MarkerEndOfStream);
+    }
+
+    private void writePending(Pending item) {
+        if (item.data == null) {
+            writeGrainTable(item.grainTable);
+            return;
+        }
+
+        byte[] data = Utilities.join(item.data);
+        if (grainTable == null) {
+            grainTable = new byte[GtesPerGt * 4];
+        }
+        int grain = (int) (item.lba / GrainSize % GtesPerGt);
+        ByteUtil.writeLeInt((int) outputSector, grainTable, grain * 4);
+
+        byte[] grainHeader = new byte[CompressedGrainHeader.Size];
+        ByteUtil.writeLeLong(item.lba, grainHeader, 0);
+        ByteUtil.writeLeInt(data.length, grainHeader, 8);
+        output.write(grainHeader, 0, grainHeader.length);
+        output.write(data, 0, data.length);
+        pad(grainHeader.length + data.length);
+    }
+
+    /** writes the grain table, if any of its grains were written */
+    private void writeGrainTable(int index) {
+        if (grainTable == null) {
+            return;
+        }
+
+        writeMarker(MathUtilities.ceil(grainTable.length, Sizes.Sector), MarkerGrainTable);
+        ByteUtil.writeLeInt((int) outputSector, grainDirectory, index * 4);
+        writeSectors(grainTable);
+        grainTable = null;
+    }
+
+    private void writeMarker(long value, int type) {
+        byte[] marker = new byte[Sizes.Sector];
+        ByteUtil.writeLeLong(value, marker, 0);
+        ByteUtil.writeLeInt(type, marker, 12);
+        writeSectors(marker);
+    }
+
+    private void writeSectors(byte[] data) {
+        output.write(data, 0, data.length);
+        pad(data.length);
+    }
+
+    /** pads what was just written to a whole number of sectors */
+    private void pad(int length) {
+        int padding = (int) (MathUtilities.roundUp(length, Sizes.Sector) - length);
+        if (padding > 0) {
+            output.write(new byte[padding], 0, padding);
+        }
+        outputSector += MathUtilities.ceil(length, Sizes.Sector);
+    }
+
+    /** @return the grain as a zlib stream */
+    private static byte[] deflate(byte[] grain) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(grain);
+            deflater.finish();
+            byte[] buffer = new byte[grain.length + grain.length / 1000 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** a grain being compressed, or the end of a grain table */
+    private static final class Pending {
+
+        final long lba;
+
+        final CompletableFuture<byte[]> data;
+
+        final int grainTable;
+
+        Pending(long lba, CompletableFuture<byte[]> data) {
+            this.lba = lba;
+            this.data = data;
+            grainTable = -1;
+        }
+
+        Pending(int grainTable) {
+            lba = -1;
+            data = null;
+            this.grainTable = grainTable;
+        }
+    }
+}
@@ -23,6 +23,7 @@
 package discUtils.wim;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -30,7 +31,9 @@ import java.util.Map;
 import discUtils.core.coreCompat.FileAttributes;
 import discUtils.core.internal.Utilities;
 import discUtils.streams.readerWriter.DataReader;
+import discUtils.streams.util.MathUtilities;
 import dotnet4j.io.FileNotFoundException;
+import vavi.util.ByteUtil;
 
 
 public class DirectoryEntry {
@@ -125,6 +128,50 @@ public class DirectoryEntry {
         return result;
     }
 
+    /**
+     * Gets the size of this entry as written by {@link #writeTo}, alternate
+     * streams aren't written.
+     */
+    public int size() {
+        int size = 102;
+        if (!fileName.isEmpty()) {
+            size += fileName.length() * 2 + 2;
+        }
+        if (shortName != null && !shortName.isEmpty()) {
+            size += shortName.length() * 2 + 2;
+        }
+        return (int) MathUtilities.roundUp(size, 8);
+    }
+
+    public void writeTo(byte[] buffer, int offset) {
+        int size = size();
+        Arrays.fill(buffer, offset, offset + size, (byte) 0);
+        ByteUtil.writeLeLong(size, buffer, offset);
+        ByteUtil.writeLeInt((int) FileAttributes.valueOf(attributes), buffer, offset + 8);
+        ByteUtil.writeLeInt(securityId, buffer, offset + 12);
+        ByteUtil.writeLeLong(subdirOffset, buffer, offset + 16);
+        ByteUtil.writeLeLong(creationTime, buffer, offset + 40);
+        ByteUtil.writeLeLong(lastAccessTime, buffer, offset + 48);
+        ByteUtil.writeLeLong(lastWriteTime, buffer, offset + 56);
+        if (hash != null) {
+            System.arraycopy(hash, 0, buffer, offset + 64, 20);
+        }
+        ByteUtil.writeLeInt(reparseTag, buffer, offset + 88);
+        ByteUtil.writeLeInt(hardLink, buffer, offset + 92);
+        int pos = offset + 102;
+        if (!fileName.isEmpty()) {
+            byte[] name = fileName.getBytes(StandardCharsets.UTF_16LE);
+            ByteUtil.writeLeShort((short) name.length, buffer, offset + 100);
+            System.arraycopy(name, 0, buffer, pos, name.length);
+            pos += name.length + 2;
+        }
+        if (shortName != null && !shortName.isEmpty()) {
+            byte[] name = shortName.getBytes(StandardCharsets.UTF_16LE);
+            ByteUtil.writeLeShort((short) name.length, buffer, offset + 98);
+            System.arraycopy(name, 0, buffer, pos, name.length);
+        }
+    }
+
     public byte[] getStreamHash(String streamName) {
         if (streamName != null && streamName.isEmpty()) {
             if (!Utilities.isAllZeros(hash, 0, 20)) {
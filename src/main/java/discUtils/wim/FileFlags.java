@@ -26,7 +26,8 @@ enum FileFlags {
     _dummy_00008000,
     _dummy_00010000,
     XpressCompression,
-    LzxCompression;
+    LzxCompression,
+    LzmsCompression;
 
     private final int value = 1 << ordinal();
 
@@ -80,6 +80,23 @@ public class FileHeader {
         integrityHeader.read(buffer, 124);
     }
 
+    public void writeTo(byte[] buffer, int offset) {
+        System.arraycopy(tag.getBytes(StandardCharsets.US_ASCII), 0, buffer, offset, 8);
+        ByteUtil.writeLeInt(headerSize, buffer, offset + 8);
+        ByteUtil.writeLeInt(version, buffer, offset + 12);
+        ByteUtil.writeLeInt(flags.stream().mapToInt(f -> f.supplier().get()).reduce(0, (a, b) -> a | b), buffer, offset + 16);
+        ByteUtil.writeLeInt(compressionSize, buffer, offset + 20);
+        ByteUtil.writeLeUUID(wimGuid, buffer, offset + 24);
+        ByteUtil.writeLeShort(partNumber, buffer, offset + 40);
+        ByteUtil.writeLeShort(totalParts, buffer, offset + 42);
+        ByteUtil.writeLeInt(imageCount, buffer, offset + 44);
+        offsetTableHeader.writeTo(buffer, offset + 48);
+        xmlDataHeader.writeTo(buffer, offset + 72);
+        bootMetaData.writeTo(buffer, offset + 96);
+        ByteUtil.writeLeInt(bootIndex, buffer, offset + 120);
+        integrityHeader.writeTo(buffer, offset + 124);
+    }
+
     public boolean isValid() {
         return tag.equals("MSWIM\0\0\0") && headerSize >= 148;
     }
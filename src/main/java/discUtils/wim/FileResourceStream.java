@@ -24,13 +24,19 @@ package discUtils.wim;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import discUtils.core.internal.Utilities;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
-import discUtils.streams.SubStream;
 import discUtils.streams.util.MathUtilities;
+import discUtils.streams.util.Sizes;
 import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.MemoryStream;
 import dotnet4j.io.SeekOrigin;
 import dotnet4j.io.Stream;
 import vavi.util.ByteUtil;
@@ -38,12 +44,18 @@ import vavi.util.ByteUtil;
 
 /**
  * Provides access to a (compressed) resource within the WIM file.
- * Stream access must be strictly sequential.
+ * Decoded chunks are cached, and when reading sequentially the following
+ * chunks are decoded ahead in parallel.
  */
 public class FileResourceStream extends SparseStream {
 
     private static final int E8DecodeFileSize = 12000000;
 
+    /** bound on the decoded chunks kept, including those decoded ahead */
+    private static final long MaxCachedBytes = 256 * Sizes.OneMiB;
+
+    private static final int MaxCachedChunks = 16;
+
     private final Stream baseStream;
 
     private final long[] chunkLength;
@@ -52,37 +64,124 @@ public class FileResourceStream extends SparseStream {
 
     private final int chunkSize;
 
-    private int currentChunk;
+    /** decoded chunks, least recently used first */
+    private final Map<Integer, CompletableFuture<byte[]>> chunks;
+
+    private final int maxCachedChunks;
 
-    private Stream currentChunkStream;
+    private final boolean compressed;
 
-    private final ShortResourceHeader header;
+    private final FileFlags compression;
 
-    private final boolean lzxCompression;
+    private final long length;
 
     private final long offsetDelta;
 
     private long position;
 
+    private final int readAhead;
+
+    /** the chunk read last, read ahead follows on from it */
+    private int lastChunk = -1;
+
     public FileResourceStream(Stream baseStream, ShortResourceHeader header, boolean lzxCompression, int chunkSize) {
+        this(baseStream, header, lzxCompression ? FileFlags.LzxCompression : FileFlags.XpressCompression, chunkSize, true);
+    }
+
+    /**
+     * @param compression one of {@link FileFlags#XpressCompression},
+     *            {@link FileFlags#LzxCompression} or
+     *            {@link FileFlags#LzmsCompression}
+     * @param parallel decode chunks ahead on other threads
+     */
+    public FileResourceStream(Stream baseStream, ShortResourceHeader header, FileFlags compression, int chunkSize, boolean parallel) {
         this.baseStream = baseStream;
-        this.header = header;
-        this.lzxCompression = lzxCompression;
+        length = header.originalSize;
+        compressed = header.flags.contains(ResourceFlags.Compressed);
+        this.compression = compression;
         this.chunkSize = chunkSize;
-        if (baseStream.getLength() > 0xffff_ffffL) {
-            throw new UnsupportedOperationException("Large files >4GB");
-        }
 
-        int numChunks = (int) MathUtilities.ceil(header.originalSize, this.chunkSize);
+        // The table holds the offsets of all but the first chunk, relative to the end of the table
+        int numChunks = (int) MathUtilities.ceil(length, chunkSize);
+        int entrySize = length > 0xffff_ffffL ? 8 : 4;
         chunkOffsets = new long[numChunks];
         chunkLength = new long[numChunks];
-        for (int i = 1; i < numChunks; ++i) {
-            chunkOffsets[i] = ByteUtil.readLeInt(StreamUtilities.readExact(this.baseStream, 4), 0);
-            chunkLength[i - 1] = chunkOffsets[i] - chunkOffsets[i - 1];
+        if (numChunks > 0) {
+            byte[] table = StreamUtilities.readExact(this.baseStream, (numChunks - 1) * entrySize);
+            for (int i = 1; i < numChunks; ++i) {
+                chunkOffsets[i] = entrySize == 8 ? ByteUtil.readLeLong(table, (i - 1) * 8)
+                                                 : ByteUtil.readLeInt(table, (i - 1) * 4) & 0xffff_ffffL;
+                chunkLength[i - 1] = chunkOffsets[i] - chunkOffsets[i - 1];
+            }
+            chunkLength[numChunks - 1] = this.baseStream.getLength() - this.baseStream.position() - chunkOffsets[numChunks - 1];
         }
-        chunkLength[numChunks - 1] = this.baseStream.getLength() - this.baseStream.position() - chunkOffsets[numChunks - 1];
         offsetDelta = this.baseStream.position();
-        currentChunk = -1;
+
+        chunks = new LinkedHashMap<>(16, 0.75f, true);
+        maxCachedChunks = (int) Math.max(2, Math.min(MaxCachedChunks, MaxCachedBytes / chunkSize));
+        readAhead = parallel ? Math.max(0, Math.min(Runtime.getRuntime().availableProcessors() - 1, maxCachedChunks - 2)) : 0;
+    }
+
+    /**
+     * Opens a solid resource, which starts with its own header giving the
+     * uncompressed size, chunk size and compression format, followed by the
+     * compressed size of every chunk.
+     *
+     * @param baseStream the resource, as stored in the WIM file
+     * @param parallel decode chunks ahead on other threads
+     */
+    public static FileResourceStream openSolid(Stream baseStream, boolean parallel) {
+        baseStream.position(0);
+        byte[] header = StreamUtilities.readExact(baseStream, 16);
+        long length = ByteUtil.readLeLong(header, 0);
+        int chunkSize = ByteUtil.readLeInt(header, 8);
+        int format = ByteUtil.readLeInt(header, 12);
+        FileFlags compression = switch (format) {
+            case 0 -> null;
+            case 1 -> FileFlags.XpressCompression;
+            case 2 -> FileFlags.LzxCompression;
+            case 3 -> FileFlags.LzmsCompression;
+            default -> throw new dotnet4j.io.IOException("Unknown solid resource compression: " + format);
+        };
+        if (chunkSize <= 0) {
+            throw new dotnet4j.io.IOException("Invalid solid resource chunk size: " + chunkSize);
+        }
+
+        int numChunks = (int) MathUtilities.ceil(length, chunkSize);
+        byte[] table = StreamUtilities.readExact(baseStream, numChunks * 4);
+        long[] chunkOffsets = new long[numChunks];
+        long[] chunkLength = new long[numChunks];
+        long offset = 0;
+        for (int i = 0; i < numChunks; ++i) {
+            chunkOffsets[i] = offset;
+            chunkLength[i] = ByteUtil.readLeInt(table, i * 4) & 0xffff_ffffL;
+            offset += chunkLength[i];
+        }
+
+        return new FileResourceStream(baseStream, length, compression != null, compression, chunkSize, chunkOffsets, chunkLength, baseStream.position(), parallel);
+    }
+
+    private FileResourceStream(Stream baseStream,
+                               long length,
+                               boolean compressed,
+                               FileFlags compression,
+                               int chunkSize,
+                               long[] chunkOffsets,
+                               long[] chunkLength,
+                               long offsetDelta,
+                               boolean parallel) {
+        this.baseStream = baseStream;
+        this.length = length;
+        this.compressed = compressed;
+        this.compression = compression;
+        this.chunkSize = chunkSize;
+        this.chunkOffsets = chunkOffsets;
+        this.chunkLength = chunkLength;
+        this.offsetDelta = offsetDelta;
+
+        chunks = new LinkedHashMap<>(16, 0.75f, true);
+        maxCachedChunks = (int) Math.max(2, Math.min(MaxCachedChunks, MaxCachedBytes / chunkSize));
+        readAhead = parallel ? Math.max(0, Math.min(Runtime.getRuntime().availableProcessors() - 1, maxCachedChunks - 2)) : 0;
     }
 
     @Override public boolean canRead() {
@@ -102,7 +201,7 @@ public class FileResourceStream extends SparseStream {
     }
 
     @Override public long getLength() {
-        return header.originalSize;
+        return length;
     }
 
     @Override public long position() {
@@ -126,18 +225,13 @@ public class FileResourceStream extends SparseStream {
         while (totalRead < maxToRead) {
             int chunk = (int) (position / chunkSize);
             int chunkOffset = (int) (position % chunkSize);
-            int numToRead = Math.min(maxToRead - totalRead, chunkSize - chunkOffset);
-            if (currentChunk != chunk) {
-                currentChunkStream = openChunkStream(chunk);
-                currentChunk = chunk;
-            }
-
-            currentChunkStream.position(chunkOffset);
-            int numRead = currentChunkStream.read(buffer, offset + totalRead, numToRead);
-            if (numRead == 0) {
+            byte[] chunkData = getChunk(chunk);
+            int numRead = Math.min(maxToRead - totalRead, chunkData.length - chunkOffset);
+            if (numRead <= 0) {
                 return totalRead;
             }
 
+            System.arraycopy(chunkData, chunkOffset, buffer, offset + totalRead, numRead);
             position += numRead;
             totalRead += numRead;
         }
@@ -156,26 +250,79 @@ public class FileResourceStream extends SparseStream {
         throw new UnsupportedOperationException();
     }
 
-    private Stream openChunkStream(int chunk) {
+    private byte[] getChunk(int chunk) {
+        CompletableFuture<byte[]> result = chunks.get(chunk);
+        byte[] raw = null;
+        if (result == null) {
+            raw = readRawChunk(chunk);
+        }
+
+        // Only reading on from the previous chunk is taken as sequential, a
+        // random read would otherwise read and decode chunks never used.
+        // The raw data has to be read here, the base stream isn't shared with other threads
+        if (chunk == lastChunk + 1) {
+            for (int i = chunk + 1; i <= chunk + readAhead && i < chunkOffsets.length; ++i) {
+                if (!chunks.containsKey(i)) {
+                    int next = i;
+                    byte[] nextRaw = readRawChunk(next);
+                    chunks.put(next, CompletableFuture.supplyAsync(() -> decodeChunk(next, nextRaw)));
+                }
+            }
+        }
+        lastChunk = chunk;
+
+        if (result == null) {
+            result = CompletableFuture.completedFuture(decodeChunk(chunk, raw));
+            chunks.put(chunk, result);
+        }
+
+        Iterator<Integer> it = chunks.keySet().iterator();
+        while (chunks.size() > maxCachedChunks) {
+            it.next();
+            it.remove();
+        }
+
+        try {
+            return Utilities.join(result);
+        } catch (RuntimeException e) {
+            chunks.remove(chunk);
+            throw e;
+        }
+    }
+
+    private byte[] readRawChunk(int chunk) {
+        baseStream.position(offsetDelta + chunkOffsets[chunk]);
+        return StreamUtilities.readExact(baseStream, (int) chunkLength[chunk]);
+    }
+
+    private byte[] decodeChunk(int chunk, byte[] raw) {
         int targetUncompressed = chunkSize;
         if (chunk == chunkLength.length - 1) {
-            targetUncompressed = (int) (getLength() - position);
+            targetUncompressed = (int) (getLength() - (long) chunk * chunkSize);
         }
 
-        Stream rawChunkStream = new SubStream(baseStream, offsetDelta + chunkOffsets[chunk], chunkLength[chunk]);
-        if (header.flags.contains(ResourceFlags.Compressed) && chunkLength[chunk] != targetUncompressed) {
-            if (lzxCompression) {
-                return new LzxStream(rawChunkStream, 15, E8DecodeFileSize);
-            }
+        if (!compressed || raw.length == targetUncompressed) {
+            return raw;
+        }
+
+        if (compression == FileFlags.LzmsCompression) {
+            byte[] result = new byte[targetUncompressed];
+            LzmsDecoder.decompress(raw, result);
+            return result;
+        }
 
-            return new XpressStream(rawChunkStream, targetUncompressed);
+        Stream chunkStream;
+        if (compression == FileFlags.LzxCompression) {
+            chunkStream = new LzxStream(new MemoryStream(raw), 15, E8DecodeFileSize);
+        } else {
+            chunkStream = new XpressStream(new MemoryStream(raw), targetUncompressed);
         }
 
-        return rawChunkStream;
+        return StreamUtilities.readExact(chunkStream, targetUncompressed);
     }
 
     @Override
     public void close() throws IOException {
-        currentChunkStream.close();
+        chunks.clear();
     }
 }
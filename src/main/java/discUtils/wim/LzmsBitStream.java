@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.wim;
+
+import discUtils.core.compression.BitStream;
+import vavi.util.ByteUtil;
+
+
+/**
+ * Converts the tail of an LZMS chunk into a bit stream.
+ * LZMS reads its Huffman coded symbols backwards, 16-bit little endian words
+ * from the end of the chunk towards the start, most significant bit first.
+ * Once the words are consumed, an infinite sequence of zero's is emulated.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class LzmsBitStream extends BitStream {
+
+    private long buffer;
+
+    private int bufferAvailable;
+
+    private final byte[] data;
+
+    private final int begin;
+
+    /** offset of the last word read */
+    private int next;
+
+    /**
+     * @param data the compressed chunk
+     * @param offset the start of the chunk
+     * @param count the length of the chunk, words are read from its end
+     */
+    public LzmsBitStream(byte[] data, int offset, int count) {
+        this.data = data;
+        begin = offset;
+        next = offset + (count & ~1);
+    }
+
+    @Override
+    public int getMaxReadAhead() {
+        return 32;
+    }
+
+    @Override
+    public int read(int count) {
+        if (count > 32) {
+            throw new IndexOutOfBoundsException("Maximum 32 bits can be read");
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        int result = peek(count);
+        consume(count);
+        return result;
+    }
+
+    @Override
+    public int peek(int count) {
+        if (count == 0) {
+            return 0;
+        }
+
+        if (bufferAvailable < count) {
+            need(count);
+        }
+
+        return (int) (buffer >>> (64 - count));
+    }
+
+    @Override
+    public void consume(int count) {
+        if (bufferAvailable < count) {
+            need(count);
+        }
+
+        buffer <<= count;
+        bufferAvailable -= count;
+    }
+
+    private void need(int count) {
+        while (bufferAvailable < count) {
+            if (next != begin) {
+                next -= 2;
+                buffer |= (ByteUtil.readLeShort(data, next) & 0xffffL) << (48 - bufferAvailable);
+            }
+            bufferAvailable += 16;
+        }
+    }
+}
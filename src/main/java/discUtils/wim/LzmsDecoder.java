@@ -0,0 +1,519 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.wim;
+
+import java.util.Arrays;
+
+import discUtils.core.compression.HuffmanTree;
+import vavi.util.ByteUtil;
+
+
+/**
+ * Implements the LZMS decompression algorithm.
+ * LZMS mixes an adaptive range coder, which decides the kind of each item,
+ * with adaptive Huffman codes for the item values. The range coded bits are
+ * read forwards from the start of the chunk, the Huffman coded bits backwards
+ * from its end. Finally an x86 call/jump translation is undone.
+ * Chunks are decoded whole, straight into the caller's buffer.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+final class LzmsDecoder {
+
+    private static final int NumLzReps = 3;
+
+    private static final int NumDeltaReps = 3;
+
+    private static final int NumMainProbs = 16;
+
+    private static final int NumMatchProbs = 32;
+
+    private static final int NumLzProbs = 64;
+
+    private static final int NumLzRepProbs = 64;
+
+    private static final int NumDeltaProbs = 64;
+
+    private static final int NumDeltaRepProbs = 64;
+
+    private static final int NumLiteralSyms = 256;
+
+    private static final int NumLengthSyms = 54;
+
+    private static final int NumDeltaPowerSyms = 8;
+
+    private static final int MaxNumOffsetSyms = 799;
+
+    private static final int MaxCodewordLength = 15;
+
+    private static final int LiteralCodeRebuildFreq = 1024;
+
+    private static final int LzOffsetCodeRebuildFreq = 1024;
+
+    private static final int LengthCodeRebuildFreq = 512;
+
+    private static final int DeltaOffsetCodeRebuildFreq = 1024;
+
+    private static final int DeltaPowerCodeRebuildFreq = 512;
+
+    private static final int X86IdWindowSize = 65535;
+
+    private static final int X86MaxTranslationOffset = 1023;
+
+    private static final int[] offsetSlotBase = new int[MaxNumOffsetSyms + 1];
+
+    private static final int[] extraOffsetBits = new int[MaxNumOffsetSyms];
+
+    private static final int[] lengthSlotBase = new int[NumLengthSyms + 1];
+
+    private static final int[] extraLengthBits = new int[NumLengthSyms];
+
+    static {
+        // slot bases are stored as run lengths of slots sharing the number of extra bits
+        decodeSlotBases(offsetSlotBase, extraOffsetBits, new int[] {
+            9, 0, 9, 7, 10, 15, 15, 20, 20, 30, 33, 40, 42, 45, 60, 73, 80, 85, 95, 105, 6
+        }, 0x7fff_ffff);
+        decodeSlotBases(lengthSlotBase, extraLengthBits, new int[] {
+            27, 4, 6, 4, 5, 2, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 1
+        }, 0x4001_08ab);
+    }
+
+    private static void decodeSlotBases(int[] slotBases, int[] extraBits, int[] runLengths, int last) {
+        int order = 0;
+        int delta = 1;
+        int base = 0;
+        int slot = 0;
+        for (int runLength : runLengths) {
+            for (int i = 0; i < runLength; ++i) {
+                base += delta;
+                if (slot > 0) {
+                    extraBits[slot - 1] = order;
+                }
+
+                slotBases[slot] = base;
+                slot++;
+            }
+
+            delta <<= 1;
+            order++;
+        }
+
+        slotBases[slot] = last;
+        extraBits[slot - 1] = 31 - Integer.numberOfLeadingZeros(slotBases[slot] - slotBases[slot - 1]);
+    }
+
+    private LzmsDecoder() {
+    }
+
+    /**
+     * Decompresses a whole LZMS chunk.
+     *
+     * @param input the compressed chunk
+     * @param output receives the uncompressed data, sized to the uncompressed length
+     */
+    static void decompress(byte[] input, byte[] output) {
+        if (input.length < 4) {
+            throw new IllegalStateException("Truncated stream");
+        }
+
+        RangeDecoder rd = new RangeDecoder(input);
+        LzmsBitStream bs = new LzmsBitStream(input, 0, input.length);
+
+        int numOffsetSlots = numOffsetSlots(output.length);
+        AdaptiveCode literalCode = new AdaptiveCode(NumLiteralSyms, LiteralCodeRebuildFreq);
+        AdaptiveCode lzOffsetCode = new AdaptiveCode(numOffsetSlots, LzOffsetCodeRebuildFreq);
+        AdaptiveCode lengthCode = new AdaptiveCode(NumLengthSyms, LengthCodeRebuildFreq);
+        AdaptiveCode deltaOffsetCode = new AdaptiveCode(numOffsetSlots, DeltaOffsetCodeRebuildFreq);
+        AdaptiveCode deltaPowerCode = new AdaptiveCode(NumDeltaPowerSyms, DeltaPowerCodeRebuildFreq);
+
+        AdaptiveBit mainBit = new AdaptiveBit(NumMainProbs);
+        AdaptiveBit matchBit = new AdaptiveBit(NumMatchProbs);
+        AdaptiveBit lzBit = new AdaptiveBit(NumLzProbs);
+        AdaptiveBit[] lzRepBits = new AdaptiveBit[NumLzReps - 1];
+        for (int i = 0; i < lzRepBits.length; ++i) {
+            lzRepBits[i] = new AdaptiveBit(NumLzRepProbs);
+        }
+        AdaptiveBit deltaBit = new AdaptiveBit(NumDeltaProbs);
+        AdaptiveBit[] deltaRepBits = new AdaptiveBit[NumDeltaReps - 1];
+        for (int i = 0; i < deltaRepBits.length; ++i) {
+            deltaRepBits[i] = new AdaptiveBit(NumDeltaRepProbs);
+        }
+
+        // the most recently used item is only entered into the queue once the next item is decoded
+        int[] recentLzOffsets = new int[NumLzReps + 1];
+        long[] recentDeltaPairs = new long[NumDeltaReps + 1];
+        for (int i = 0; i < NumLzReps + 1; ++i) {
+            recentLzOffsets[i] = i + 1;
+        }
+        for (int i = 0; i < NumDeltaReps + 1; ++i) {
+            recentDeltaPairs[i] = i + 1;
+        }
+        int pendingLzOffset = 0;
+        int lzOffsetStillPending = -1;
+        long pendingDeltaPair = 0;
+        int deltaPairStillPending = -1;
+
+        int pos = 0;
+        int end = output.length;
+        while (pos < end) {
+            if (rd.decodeBit(mainBit) == 0) {
+                // Literal
+                output[pos++] = (byte) literalCode.decode(bs);
+            } else if (rd.decodeBit(matchBit) == 0) {
+                // LZ match
+                if (pendingLzOffset != 0 && pos != lzOffsetStillPending) {
+                    System.arraycopy(recentLzOffsets, 0, recentLzOffsets, 1, NumLzReps);
+                    recentLzOffsets[0] = pendingLzOffset;
+                    pendingLzOffset = 0;
+                }
+
+                int offset;
+                if (rd.decodeBit(lzBit) == 0) {
+                    int slot = lzOffsetCode.decode(bs);
+                    offset = offsetSlotBase[slot] + bs.read(extraOffsetBits[slot]);
+                } else {
+                    int rep = 0;
+                    while (rep < NumLzReps - 1 && rd.decodeBit(lzRepBits[rep]) != 0) {
+                        rep++;
+                    }
+                    offset = recentLzOffsets[rep];
+                    System.arraycopy(recentLzOffsets, rep + 1, recentLzOffsets, rep, NumLzReps - rep);
+                }
+
+                if (pendingLzOffset != 0) {
+                    System.arraycopy(recentLzOffsets, 0, recentLzOffsets, 1, NumLzReps);
+                    recentLzOffsets[0] = pendingLzOffset;
+                }
+                pendingLzOffset = offset;
+
+                int length = decodeLength(lengthCode, bs);
+                if (length > end - pos || offset <= 0 || offset > pos) {
+                    throw new IllegalStateException("Invalid LZMS match");
+                }
+
+                for (int i = 0; i < length; ++i) {
+                    output[pos] = output[pos - offset];
+                    pos++;
+                }
+
+                lzOffsetStillPending = pos;
+            } else {
+                // Delta match
+                if (pendingDeltaPair != 0 && pos != deltaPairStillPending) {
+                    System.arraycopy(recentDeltaPairs, 0, recentDeltaPairs, 1, NumDeltaReps);
+                    recentDeltaPairs[0] = pendingDeltaPair;
+                    pendingDeltaPair = 0;
+                }
+
+                int power;
+                int rawOffset;
+                if (rd.decodeBit(deltaBit) == 0) {
+                    power = deltaPowerCode.decode(bs);
+                    int slot = deltaOffsetCode.decode(bs);
+                    rawOffset = offsetSlotBase[slot] + bs.read(extraOffsetBits[slot]);
+                } else {
+                    int rep = 0;
+                    while (rep < NumDeltaReps - 1 && rd.decodeBit(deltaRepBits[rep]) != 0) {
+                        rep++;
+                    }
+                    long pair = recentDeltaPairs[rep];
+                    System.arraycopy(recentDeltaPairs, rep + 1, recentDeltaPairs, rep, NumDeltaReps - rep);
+                    power = (int) (pair >>> 32);
+                    rawOffset = (int) pair;
+                }
+
+                if (pendingDeltaPair != 0) {
+                    System.arraycopy(recentDeltaPairs, 0, recentDeltaPairs, 1, NumDeltaReps);
+                    recentDeltaPairs[0] = pendingDeltaPair;
+                }
+                pendingDeltaPair = (rawOffset & 0xffff_ffffL) | (long) power << 32;
+
+                int length = decodeLength(lengthCode, bs);
+
+                long offset1 = 1L << power;
+                long offset2 = (rawOffset & 0xffff_ffffL) << power;
+                long offset = offset1 + offset2;
+                if (length > end - pos || offset > pos) {
+                    throw new IllegalStateException("Invalid LZMS delta match");
+                }
+
+                for (int i = 0; i < length; ++i) {
+                    output[pos] = (byte) (output[(int) (pos - offset1)] + output[(int) (pos - offset2)] - output[(int) (pos - offset)]);
+                    pos++;
+                }
+
+                deltaPairStillPending = pos;
+            }
+        }
+
+        x86Filter(output);
+    }
+
+    private static int decodeLength(AdaptiveCode lengthCode, LzmsBitStream bs) {
+        int slot = lengthCode.decode(bs);
+        int length = lengthSlotBase[slot];
+        int numExtraBits = extraLengthBits[slot];
+        if (numExtraBits != 0) {
+            length += bs.read(numExtraBits);
+        }
+        return length;
+    }
+
+    /** the number of offset slots that can occur in a chunk of the given size */
+    static int numOffsetSlots(int size) {
+        if (size < 2) {
+            return 0;
+        }
+
+        int index = Arrays.binarySearch(offsetSlotBase, size - 1);
+        return 1 + (index >= 0 ? index : -index - 2);
+    }
+
+    /**
+     * Undoes the translation of relative x86 call, jump and load addresses
+     * into absolute ones. Code regions are detected by two references to the
+     * same target close to each other.
+     */
+    private static void x86Filter(byte[] data) {
+        int size = data.length;
+        if (size <= 17) {
+            return;
+        }
+
+        int[] lastTargetUsages = new int[65536];
+        Arrays.fill(lastTargetUsages, -X86IdWindowSize - 1);
+
+        int tailIdx = size - 16;
+        int lastX86Pos = -X86MaxTranslationOffset - 1;
+
+        // Note: the very first byte is ignored completely
+        int i = 0;
+        while (true) {
+            do {
+                ++i;
+            } while (i < tailIdx && !isPotentialOpcode(data[i]));
+
+            if (i >= tailIdx) {
+                break;
+            }
+
+            int maxTransOffset = X86MaxTranslationOffset;
+            int opcodeBytes = 0;
+            switch (data[i] & 0xff) {
+            case 0x48:
+                if ((data[i + 1] & 0xff) == 0x8b) {
+                    if (data[i + 2] == 0x05 || data[i + 2] == 0x0d) {
+                        // Load relative (x86_64)
+                        opcodeBytes = 3;
+                    }
+                } else if ((data[i + 1] & 0xff) == 0x8d) {
+                    if ((data[i + 2] & 0x7) == 0x5) {
+                        // Load effective address relative (x86_64)
+                        opcodeBytes = 3;
+                    }
+                }
+                break;
+            case 0x4c:
+                if ((data[i + 1] & 0xff) == 0x8d) {
+                    if ((data[i + 2] & 0x7) == 0x5) {
+                        // Load effective address relative (x86_64)
+                        opcodeBytes = 3;
+                    }
+                }
+                break;
+            case 0xe8:
+                // Call relative, needs more confidence that this is code
+                opcodeBytes = 1;
+                maxTransOffset /= 2;
+                break;
+            case 0xe9:
+                // Jump relative, skipped
+                i += 4;
+                break;
+            case 0xf0:
+                if ((data[i + 1] & 0xff) == 0x83 && data[i + 2] == 0x05) {
+                    // Lock add relative
+                    opcodeBytes = 3;
+                }
+                break;
+            case 0xff:
+                if (data[i + 1] == 0x15) {
+                    // Call indirect relative
+                    opcodeBytes = 2;
+                }
+                break;
+            }
+
+            if (opcodeBytes == 0) {
+                continue;
+            }
+
+            int p = i + opcodeBytes;
+            if (i - lastX86Pos <= maxTransOffset) {
+                ByteUtil.writeLeInt(ByteUtil.readLeInt(data, p) - i, data, p);
+            }
+            int target16 = (i + (ByteUtil.readLeShort(data, p) & 0xffff)) & 0xffff;
+
+            i += opcodeBytes + 4 - 1;
+
+            if (i - lastTargetUsages[target16] <= X86IdWindowSize) {
+                lastX86Pos = i;
+            }
+
+            lastTargetUsages[target16] = i;
+        }
+    }
+
+    private static boolean isPotentialOpcode(byte b) {
+        return switch (b & 0xff) {
+            case 0x48, 0x4c, 0xe8, 0xe9, 0xf0, 0xff -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * A Huffman code rebuilt from the symbol frequencies every so many symbols.
+     */
+    private static final class AdaptiveCode {
+
+        private final int[] freqs;
+
+        private final int rebuildFreq;
+
+        private int numSymsUntilRebuild;
+
+        private HuffmanTree tree;
+
+        AdaptiveCode(int numSyms, int rebuildFreq) {
+            freqs = new int[numSyms];
+            Arrays.fill(freqs, 1);
+            this.rebuildFreq = rebuildFreq;
+            if (numSyms > 0) {
+                build();
+            }
+        }
+
+        int decode(LzmsBitStream bs) {
+            if (tree == null) {
+                throw new IllegalStateException("Invalid LZMS symbol");
+            }
+
+            int symbol = tree.nextSymbol(bs);
+            freqs[symbol]++;
+            if (--numSymsUntilRebuild == 0) {
+                build();
+                // dilute the frequencies, so the code follows the data
+                for (int i = 0; i < freqs.length; ++i) {
+                    freqs[i] = (freqs[i] >>> 1) + 1;
+                }
+            }
+            return symbol;
+        }
+
+        private void build() {
+            tree = new HuffmanTree(HuffmanTree.buildLengths(freqs, MaxCodewordLength));
+            numSymsUntilRebuild = rebuildFreq;
+        }
+    }
+
+    /**
+     * A binary decision with a state made of the most recent decisions, each
+     * state has its own probability.
+     */
+    private static final class AdaptiveBit {
+
+        private static final int InitialProbability = 48;
+
+        private static final long InitialRecentBits = 0x0000_0000_5555_5555L;
+
+        private final int numStates;
+
+        private int state;
+
+        /** the number of zeros within the recent 64 bits, per state */
+        private final int[] numRecentZeroBits;
+
+        private final long[] recentBits;
+
+        AdaptiveBit(int numStates) {
+            this.numStates = numStates;
+            numRecentZeroBits = new int[numStates];
+            recentBits = new long[numStates];
+            Arrays.fill(numRecentZeroBits, InitialProbability);
+            Arrays.fill(recentBits, InitialRecentBits);
+        }
+
+        /** @return the probability of a zero, out of 64 */
+        int probability() {
+            int prob = numRecentZeroBits[state];
+            if (prob == 0) {
+                return 1;
+            }
+            if (prob == 64) {
+                return 63;
+            }
+            return prob;
+        }
+
+        void update(int bit) {
+            numRecentZeroBits[state] += (int) (recentBits[state] >>> 63) - bit;
+            recentBits[state] = (recentBits[state] << 1) | bit;
+            state = ((state << 1) | bit) & (numStates - 1);
+        }
+    }
+
+    /**
+     * The range decoder, reading 16-bit little endian words from the start of
+     * the chunk.
+     */
+    private static final class RangeDecoder {
+
+        private final byte[] data;
+
+        private final int end;
+
+        private int next;
+
+        private int range = 0xffff_ffff;
+
+        private int code;
+
+        RangeDecoder(byte[] data) {
+            this.data = data;
+            end = data.length & ~1;
+            code = (ByteUtil.readLeShort(data, 0) & 0xffff) << 16 | (ByteUtil.readLeShort(data, 2) & 0xffff);
+            next = 4;
+        }
+
+        int decodeBit(AdaptiveBit bit) {
+            int prob = bit.probability();
+
+            // Normalize
+            if ((range & 0xffff_0000) == 0) {
+                range <<= 16;
+                code <<= 16;
+                if (next != end) {
+                    code |= ByteUtil.readLeShort(data, next) & 0xffff;
+                    next += 2;
+                }
+            }
+
+            int bound = (range >>> 6) * prob;
+            if (Integer.compareUnsigned(code, bound) < 0) {
+                range = bound;
+                bit.update(0);
+                return 0;
+            } else {
+                range -= bound;
+                code -= bound;
+                bit.update(1);
+                return 1;
+            }
+        }
+    }
+}
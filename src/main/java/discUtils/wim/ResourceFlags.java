@@ -12,7 +12,8 @@ enum ResourceFlags {
     Free,
     MetaData,
     Compressed,
-    Spanned;
+    Spanned,
+    Solid;
 
     private final int value = 1 << ordinal();
 
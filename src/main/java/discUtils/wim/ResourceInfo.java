@@ -45,4 +45,11 @@ public class ResourceInfo {
         hash = new byte[20];
         System.arraycopy(buffer, offset + ShortResourceHeader.Size + 6, hash, 0, 20);
     }
+
+    public void writeTo(byte[] buffer, int offset) {
+        header.writeTo(buffer, offset);
+        ByteUtil.writeLeShort(partNumber, buffer, offset + ShortResourceHeader.Size);
+        ByteUtil.writeLeInt(refCount, buffer, offset + ShortResourceHeader.Size + 2);
+        System.arraycopy(hash, 0, buffer, offset + ShortResourceHeader.Size + 6, 20);
+    }
 }
@@ -39,6 +39,12 @@ public class ShortResourceHeader {
 
     public long originalSize;
 
+    /**
+     * the solid resource holding this one, {@link #fileOffset} is then the
+     * offset within its uncompressed data.
+     */
+    public ShortResourceHeader solidResource;
+
     public void read(byte[] buffer, int offset) {
         compressedSize = ByteUtil.readLeLong(buffer, offset);
         flags = ResourceFlags.valueOf((int) (compressedSize >>> 56) & 0xFF);
@@ -46,4 +52,11 @@ public class ShortResourceHeader {
         fileOffset = ByteUtil.readLeLong(buffer, offset + 8);
         originalSize = ByteUtil.readLeLong(buffer, offset + 16);
     }
+
+    public void writeTo(byte[] buffer, int offset) {
+        long flagsValue = flags.stream().mapToInt(f -> f.supplier().get()).reduce(0, (a, b) -> a | b);
+        ByteUtil.writeLeLong(flagsValue << 56 | compressedSize, buffer, offset);
+        ByteUtil.writeLeLong(fileOffset, buffer, offset + 8);
+        ByteUtil.writeLeLong(originalSize, buffer, offset + 16);
+    }
 }
@@ -0,0 +1,681 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.wim;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import discUtils.core.DiscFileSystem;
+import discUtils.core.compression.CompressionResult;
+import discUtils.core.coreCompat.FileAttributes;
+import discUtils.core.internal.LocalFileLocator;
+import discUtils.core.internal.Utilities;
+import discUtils.streams.SubStream;
+import discUtils.streams.util.MathUtilities;
+import discUtils.streams.util.Ownership;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.FileMode;
+import dotnet4j.io.FileNotFoundException;
+import dotnet4j.io.FileOptions;
+import dotnet4j.io.FileShare;
+import dotnet4j.io.FileStream;
+import dotnet4j.io.MemoryStream;
+import dotnet4j.io.Stream;
+import dotnet4j.util.compat.StringUtilities;
+import vavi.util.ByteUtil;
+import vavi.util.win32.DateUtil;
+
+import static java.lang.System.getLogger;
+
+
+/**
+ * Creates WIM files holding a single image.
+ *
+ * File contents are stored once per distinct SHA-1 hash, the hashes are
+ * computed in parallel before anything is written. Resources are then
+ * compressed chunk by chunk on the common fork-join pool, while the chunks
+ * are written out in order, so file contents are never held in memory as a
+ * whole. File contents are read twice, once for the hash and once for the
+ * data.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class WimBuilder {
+
+    private static final Logger logger = getLogger(WimBuilder.class.getName());
+
+    private static final int ChunkSize = 32768;
+
+    private static final int HeaderSize = 208;
+
+    private static final int WimVersion = 0x10d00;
+
+    private final BuilderDirectory root = new BuilderDirectory(System.currentTimeMillis());
+
+    private boolean compressed = true;
+
+    private final XpressCompressor compressor = new XpressCompressor();
+
+    /**
+     * Gets whether the resources are XPRESS compressed, the default.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean value) {
+        compressed = value;
+    }
+
+    /**
+     * Adds a file to the image.
+     *
+     * Any missing parent directories will be created. The stream is read from
+     * its start, twice, so it must support seeking.
+     *
+     * @param path The full path to the file.
+     * @param content The content of the file.
+     */
+    public void addFile(String path, Stream content) {
+        if (!content.canSeek()) {
+            throw new IllegalArgumentException("Content stream must support seeking: " + content.getClass());
+        }
+
+        BuilderFile file = new BuilderFile(System.currentTimeMillis(), content, content.getLength());
+        createDirectory(Utilities.getDirectoryFromPath(path)).addChild(Utilities.getFileFromPath(path), file);
+    }
+
+    /**
+     * Adds a file to the image.
+     *
+     * Any missing parent directories will be created.
+     *
+     * @param path The full path to the file.
+     * @param contentPath Local file system path to the file to add.
+     */
+    public void addFile(String path, String contentPath) {
+        File local = new File(contentPath);
+        if (!local.isFile()) {
+            throw new FileNotFoundException("No such file " + contentPath);
+        }
+
+        BuilderFile file = new BuilderFile(local.lastModified(), contentPath, local.length());
+        createDirectory(Utilities.getDirectoryFromPath(path)).addChild(Utilities.getFileFromPath(path), file);
+    }
+
+    /**
+     * Adds a directory to the image.
+     *
+     * Any missing parent directories will be created.
+     *
+     * @param path The full path to the directory.
+     */
+    public void addDirectory(String path) {
+        createDirectory(path);
+    }
+
+    /**
+     * Adds the contents of another file system to the root of the image,
+     * keeping attributes and times. A local directory tree can be added
+     * through {@link discUtils.core.NativeFileSystem}.
+     *
+     * The file system is read when the image is built, reads are serialized
+     * unless it is thread-safe.
+     *
+     * @param source The file system to copy.
+     */
+    public void addFileSystem(DiscFileSystem source) {
+        try {
+            addFileSystem(source, "", root);
+        } catch (IOException e) {
+            throw new dotnet4j.io.IOException(e);
+        }
+    }
+
+    private void addFileSystem(DiscFileSystem source, String path, BuilderDirectory dir) throws IOException {
+        Object lock = source.isThreadSafe() ? null : source;
+        for (String dirPath : source.getDirectories(path)) {
+            BuilderDirectory child = new BuilderDirectory(0);
+            copyInfo(source, dirPath, child);
+            child.attributes.add(FileAttributes.Directory);
+            dir.addChild(Utilities.getFileFromPath(dirPath), child);
+            addFileSystem(source, dirPath, child);
+        }
+        for (String filePath : source.getFiles(path)) {
+            BuilderFile child = new BuilderFile(0, source, filePath, lock);
+            copyInfo(source, filePath, child);
+            dir.addChild(Utilities.getFileFromPath(filePath), child);
+        }
+    }
+
+    private static void copyInfo(DiscFileSystem source, String path, BuilderNode node) throws IOException {
+        node.attributes = FileAttributes.toEnumSet(source.getAttributes(path));
+        node.creationTime = DateUtil.toFileTime(source.getCreationTimeUtc(path));
+        node.lastAccessTime = DateUtil.toFileTime(source.getLastAccessTimeUtc(path));
+        node.lastWriteTime = DateUtil.toFileTime(source.getLastWriteTimeUtc(path));
+    }
+
+    private static final Random random = new Random();
+
+    /**
+     * Builds the WIM file, returning a new stream.
+     *
+     * This method uses a temporary file to construct the WIM file, use of the
+     * {@code build(Stream)} or {@code build(String)} variant is recommended
+     * when the WIM file will be written to a file.
+     *
+     * @return The stream containing the WIM file.
+     */
+    public Stream build() {
+        Stream stream = new FileStream(getClass().getSimpleName() + random.nextInt(),
+                                       FileMode.CreateNew,
+                                       FileAccess.ReadWrite,
+                                       FileShare.None,
+                                       1024 * 1024,
+                                       FileOptions.DeleteOnClose);
+        try {
+            build(stream);
+
+            Stream tempStream = stream;
+            stream = null;
+            return tempStream;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    logger.log(Level.DEBUG, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the WIM file to a file.
+     *
+     * @param outputFile The file to write to.
+     */
+    public void build(String outputFile) {
+        LocalFileLocator locator = new LocalFileLocator("");
+        try (Stream destStream = locator.open(outputFile, FileMode.Create, FileAccess.ReadWrite, FileShare.None)) {
+            build(destStream);
+        } catch (IOException e) {
+            throw new dotnet4j.io.IOException(e);
+        }
+    }
+
+    /**
+     * Writes the WIM file to an existing stream.
+     *
+     * The {@code output} stream must support seeking and writing.
+     *
+     * @param output The stream to write to.
+     */
+    public void build(Stream output) {
+        if (output == null) {
+            throw new NullPointerException("output");
+        }
+
+        if (!output.canWrite()) {
+            throw new IllegalArgumentException("Output stream must be writable: " + output.getClass());
+        }
+
+        if (!output.canSeek()) {
+            throw new IllegalArgumentException("Output stream must support seeking: " + output.getClass());
+        }
+
+        List<BuilderDirectory> dirs = new ArrayList<>();
+        List<BuilderFile> files = new ArrayList<>();
+        collect(root, dirs, files);
+
+        // Hash everything first, identical contents are then stored once
+        Utilities.join(CompletableFuture.allOf(files.stream()
+                .filter(f -> f.length > 0)
+                .map(f -> CompletableFuture.runAsync(f::computeHash))
+                .toArray(CompletableFuture[]::new)));
+
+        Map<ByteBuffer, ResourceInfo> resources = new LinkedHashMap<>();
+        Map<ByteBuffer, BuilderFile> sources = new LinkedHashMap<>();
+        long totalBytes = 0;
+        for (BuilderFile file : files) {
+            totalBytes += file.length;
+            if (file.length == 0) {
+                continue;
+            }
+
+            ByteBuffer key = ByteBuffer.wrap(file.hash);
+            ResourceInfo info = resources.get(key);
+            if (info == null) {
+                info = new ResourceInfo();
+                info.hash = file.hash;
+                info.partNumber = 1;
+                resources.put(key, info);
+                sources.put(key, file);
+            }
+            info.refCount++;
+        }
+
+        output.position(HeaderSize);
+        EnumSet<ResourceFlags> dataFlags = compressed ? EnumSet.of(ResourceFlags.Compressed) : EnumSet.noneOf(ResourceFlags.class);
+        for (Map.Entry<ByteBuffer, ResourceInfo> entry : resources.entrySet()) {
+            BuilderFile file = sources.get(entry.getKey());
+            try (Stream content = file.open()) {
+                entry.getValue().header = writeResource(output, content, file.lock, file.length, dataFlags);
+            } catch (IOException e) {
+                throw new dotnet4j.io.IOException(e);
+            }
+        }
+
+        byte[] metaData = buildMetaData(dirs);
+        ResourceInfo metaDataInfo = new ResourceInfo();
+        metaDataInfo.hash = sha1(metaData);
+        metaDataInfo.partNumber = 1;
+        metaDataInfo.refCount = 1;
+        EnumSet<ResourceFlags> metaDataFlags = EnumSet.copyOf(dataFlags);
+        metaDataFlags.add(ResourceFlags.MetaData);
+        metaDataInfo.header = writeResource(output, new MemoryStream(metaData), null, metaData.length, metaDataFlags);
+
+        byte[] table = new byte[(resources.size() + 1) * ResourceInfo.Size];
+        metaDataInfo.writeTo(table, 0);
+        int pos = ResourceInfo.Size;
+        for (ResourceInfo info : resources.values()) {
+            info.writeTo(table, pos);
+            pos += ResourceInfo.Size;
+        }
+        ShortResourceHeader tableHeader = writeRaw(output, table);
+
+        String xml = "\ufeff<WIM><TOTALBYTES>" + output.position() + "</TOTALBYTES><IMAGE INDEX=\"1\">" +
+                     "<DIRCOUNT>" + (dirs.size() - 1) + "</DIRCOUNT>" +
+                     "<FILECOUNT>" + files.size() + "</FILECOUNT>" +
+                     "<TOTALBYTES>" + totalBytes + "</TOTALBYTES>" +
+                     "<CREATIONTIME>" + xmlTime(root.creationTime) + "</CREATIONTIME>" +
+                     "<LASTMODIFICATIONTIME>" + xmlTime(root.creationTime) + "</LASTMODIFICATIONTIME>" +
+                     "</IMAGE></WIM>";
+        ShortResourceHeader xmlHeader = writeRaw(output, xml.getBytes(StandardCharsets.UTF_16LE));
+        long end = output.position();
+
+        FileHeader header = new FileHeader();
+        header.tag = "MSWIM\0\0\0";
+        header.headerSize = HeaderSize;
+        header.version = WimVersion;
+        header.flags = compressed ? EnumSet.of(FileFlags.Compression, FileFlags.XpressCompression) : EnumSet.noneOf(FileFlags.class);
+        header.compressionSize = compressed ? ChunkSize : 0;
+        header.wimGuid = UUID.randomUUID();
+        header.partNumber = 1;
+        header.totalParts = 1;
+        header.imageCount = 1;
+        header.offsetTableHeader = tableHeader;
+        header.xmlDataHeader = xmlHeader;
+        header.bootMetaData = emptyHeader();
+        header.integrityHeader = emptyHeader();
+
+        byte[] buffer = new byte[HeaderSize];
+        header.writeTo(buffer, 0);
+        output.position(0);
+        output.write(buffer, 0, buffer.length);
+        output.position(end);
+    }
+
+    private static void collect(BuilderDirectory dir, List<BuilderDirectory> dirs, List<BuilderFile> files) {
+        dirs.add(dir);
+        for (BuilderNode child : dir.children.values()) {
+            if (child instanceof BuilderDirectory childDir) {
+                collect(childDir, dirs, files);
+            } else {
+                files.add((BuilderFile) child);
+            }
+        }
+    }
+
+    /**
+     * Writes a resource, compressing its chunks in parallel. The chunk table
+     * is reserved first and filled in once the chunk sizes are known.
+     */
+    private ShortResourceHeader writeResource(Stream output, Stream content, Object lock, long length, EnumSet<ResourceFlags> flags) {
+        ShortResourceHeader header = new ShortResourceHeader();
+        header.flags = flags;
+        header.fileOffset = output.position();
+        header.originalSize = length;
+
+        int numChunks = (int) MathUtilities.ceil(length, ChunkSize);
+        if (!flags.contains(ResourceFlags.Compressed)) {
+            for (int i = 0; i < numChunks; ++i) {
+                byte[] chunk = readChunk(content, lock, (int) Math.min(ChunkSize, length - (long) i * ChunkSize));
+                output.write(chunk, 0, chunk.length);
+            }
+            header.compressedSize = output.position() - header.fileOffset;
+            return header;
+        }
+
+        int entrySize = length > 0xffff_ffffL ? 8 : 4;
+        byte[] table = new byte[Math.max(0, numChunks - 1) * entrySize];
+        output.write(table, 0, table.length);
+        long dataStart = output.position();
+
+        int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        int nextWrite = 0;
+        for (int i = 0; i < numChunks; ++i) {
+            byte[] chunk = readChunk(content, lock, (int) Math.min(ChunkSize, length - (long) i * ChunkSize));
+            pending.add(CompletableFuture.supplyAsync(() -> compressChunk(chunk)));
+            while (pending.size() >= maxPending || (i == numChunks - 1 && !pending.isEmpty())) {
+                writeChunk(output, Utilities.join(pending.remove()), table, nextWrite++, entrySize, dataStart);
+            }
+        }
+
+        long end = output.position();
+        output.position(dataStart - table.length);
+        output.write(table, 0, table.length);
+        output.position(end);
+
+        header.compressedSize = end - header.fileOffset;
+        return header;
+    }
+
+    private static void writeChunk(Stream output, byte[] chunk, byte[] table, int index, int entrySize, long dataStart) {
+        // The table holds the offsets of all but the first chunk, relative to the end of the table
+        if (index > 0) {
+            long offset = output.position() - dataStart;
+            if (entrySize == 8) {
+                ByteUtil.writeLeLong(offset, table, (index - 1) * 8);
+            } else {
+                ByteUtil.writeLeInt((int) offset, table, (index - 1) * 4);
+            }
+        }
+        output.write(chunk, 0, chunk.length);
+    }
+
+    /**
+     * @return the compressed chunk, or the chunk itself if it doesn't compress
+     */
+    private byte[] compressChunk(byte[] chunk) {
+        byte[] buffer = new byte[chunk.length];
+        int[] compressedLength = { buffer.length };
+        if (compressor.compress(chunk, 0, chunk.length, buffer, 0, compressedLength) == CompressionResult.Compressed) {
+            return Arrays.copyOf(buffer, compressedLength[0]);
+        }
+        return chunk;
+    }
+
+    private static byte[] readChunk(Stream content, Object lock, int count) {
+        byte[] chunk = new byte[count];
+        int numRead;
+        if (lock != null) {
+            synchronized (lock) {
+                numRead = StreamUtilities.readMaximum(content, chunk, 0, count);
+            }
+        } else {
+            numRead = StreamUtilities.readMaximum(content, chunk, 0, count);
+        }
+        if (numRead != count) {
+            throw new dotnet4j.io.IOException("Content changed while building the image");
+        }
+        return chunk;
+    }
+
+    private static ShortResourceHeader writeRaw(Stream output, byte[] data) {
+        ShortResourceHeader header = new ShortResourceHeader();
+        header.flags = EnumSet.noneOf(ResourceFlags.class);
+        header.fileOffset = output.position();
+        header.compressedSize = data.length;
+        header.originalSize = data.length;
+        output.write(data, 0, data.length);
+        return header;
+    }
+
+    private static ShortResourceHeader emptyHeader() {
+        ShortResourceHeader header = new ShortResourceHeader();
+        header.flags = EnumSet.noneOf(ResourceFlags.class);
+        return header;
+    }
+
+    /**
+     * Lays out the metadata resource: an empty security data block, the root
+     * entry, then the entries of each directory, each list terminated by an
+     * empty entry.
+     */
+    private static byte[] buildMetaData(List<BuilderDirectory> dirs) {
+        long pos = 8 + entrySize("") + 8;
+        for (BuilderDirectory dir : dirs) {
+            dir.childrenOffset = pos;
+            for (Map.Entry<String, BuilderNode> child : dir.children.entrySet()) {
+                pos += entrySize(child.getKey());
+            }
+            pos += 8;
+        }
+        if (pos > Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException("Too many entries for one image");
+        }
+
+        byte[] buffer = new byte[(int) pos];
+        ByteUtil.writeLeInt(8, buffer, 0);
+        DirectoryEntry rootEntry = dirs.get(0).toEntry("");
+        rootEntry.writeTo(buffer, 8);
+        for (BuilderDirectory dir : dirs) {
+            int offset = (int) dir.childrenOffset;
+            for (Map.Entry<String, BuilderNode> child : dir.children.entrySet()) {
+                DirectoryEntry entry = child.getValue().toEntry(child.getKey());
+                entry.writeTo(buffer, offset);
+                offset += entry.size();
+            }
+        }
+        return buffer;
+    }
+
+    private static int entrySize(String name) {
+        DirectoryEntry entry = new DirectoryEntry();
+        entry.fileName = name;
+        return entry.size();
+    }
+
+    private static String xmlTime(long fileTime) {
+        return "<HIGHPART>0x%08X</HIGHPART><LOWPART>0x%08X</LOWPART>".formatted(fileTime >>> 32, fileTime & 0xffff_ffffL);
+    }
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private BuilderDirectory createDirectory(String path) {
+        BuilderDirectory currentDir = root;
+        String[] elems = Arrays.stream(path.split(StringUtilities.escapeForRegex(File.separator)))
+                .filter(e -> !e.isEmpty())
+                .toArray(String[]::new);
+
+        for (int i = 0; i < elems.length; ++i) {
+            BuilderNode nextNode = currentDir.children.get(elems[i]);
+            if (nextNode == null) {
+                BuilderDirectory nextDir = new BuilderDirectory(System.currentTimeMillis());
+                currentDir.addChild(elems[i], nextDir);
+                currentDir = nextDir;
+            } else if (nextNode instanceof BuilderDirectory nextDir) {
+                currentDir = nextDir;
+            } else {
+                throw new FileNotFoundException("Found file, expecting Directory " +
+                                                String.join(File.separator, Arrays.copyOfRange(elems, 0, i + 1)));
+            }
+        }
+        return currentDir;
+    }
+
+    private abstract static class BuilderNode {
+
+        EnumSet<FileAttributes> attributes;
+
+        /** FILETIME raw data */
+        long creationTime;
+
+        /** FILETIME raw data */
+        long lastAccessTime;
+
+        /** FILETIME raw data */
+        long lastWriteTime;
+
+        BuilderNode(EnumSet<FileAttributes> attributes, long time) {
+            this.attributes = attributes;
+            creationTime = DateUtil.toFileTime(time);
+            lastAccessTime = creationTime;
+            lastWriteTime = creationTime;
+        }
+
+        DirectoryEntry toEntry(String name) {
+            DirectoryEntry entry = new DirectoryEntry();
+            entry.fileName = name;
+            entry.attributes = attributes;
+            entry.securityId = -1;
+            entry.creationTime = creationTime;
+            entry.lastAccessTime = lastAccessTime;
+            entry.lastWriteTime = lastWriteTime;
+            entry.hash = new byte[20];
+            return entry;
+        }
+    }
+
+    private static final class BuilderDirectory extends BuilderNode {
+
+        /** names are case-insensitive, as on Windows */
+        final Map<String, BuilderNode> children = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        /** offset of the child entries within the metadata resource */
+        long childrenOffset;
+
+        BuilderDirectory(long time) {
+            super(EnumSet.of(FileAttributes.Directory), time);
+        }
+
+        void addChild(String name, BuilderNode node) {
+            children.put(name, node);
+        }
+
+        @Override DirectoryEntry toEntry(String name) {
+            DirectoryEntry entry = super.toEntry(name);
+            entry.subdirOffset = childrenOffset;
+            return entry;
+        }
+    }
+
+    private static final class BuilderFile extends BuilderNode {
+
+        private final Stream stream;
+
+        private final String localPath;
+
+        private final DiscFileSystem fileSystem;
+
+        private final String path;
+
+        /** serializes reads sharing an underlying stream, or null */
+        final Object lock;
+
+        long length;
+
+        byte[] hash;
+
+        BuilderFile(long time, Stream stream, long length) {
+            super(EnumSet.of(FileAttributes.Normal), time);
+            this.stream = stream;
+            localPath = null;
+            fileSystem = null;
+            path = null;
+            lock = stream;
+            this.length = length;
+        }
+
+        BuilderFile(long time, String localPath, long length) {
+            super(EnumSet.of(FileAttributes.Normal), time);
+            stream = null;
+            this.localPath = localPath;
+            fileSystem = null;
+            path = null;
+            lock = null;
+            this.length = length;
+        }
+
+        BuilderFile(long time, DiscFileSystem fileSystem, String path, Object lock) {
+            super(EnumSet.of(FileAttributes.Normal), time);
+            stream = null;
+            localPath = null;
+            this.fileSystem = fileSystem;
+            this.path = path;
+            this.lock = lock;
+            try {
+                length = fileSystem.getFileLength(path);
+            } catch (IOException e) {
+                throw new dotnet4j.io.IOException(e);
+            }
+        }
+
+        /**
+         * Opens the content, positioned at its start. Closing the returned
+         * stream leaves a caller supplied stream open.
+         */
+        Stream open() throws IOException {
+            if (stream != null) {
+                stream.position(0);
+                return new SubStream(stream, Ownership.None, 0, length);
+            }
+            if (localPath != null) {
+                return new LocalFileLocator("").open(localPath, FileMode.Open, FileAccess.Read, FileShare.Read);
+            }
+            if (lock != null) {
+                synchronized (lock) {
+                    return fileSystem.openFile(path, FileMode.Open, FileAccess.Read);
+                }
+            }
+            return fileSystem.openFile(path, FileMode.Open, FileAccess.Read);
+        }
+
+        void computeHash() {
+            try (Stream content = open()) {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                long remaining = length;
+                while (remaining > 0) {
+                    byte[] chunk = readChunk(content, lock, (int) Math.min(ChunkSize * 32, remaining));
+                    digest.update(chunk);
+                    remaining -= chunk.length;
+                }
+                hash = digest.digest();
+            } catch (IOException e) {
+                throw new dotnet4j.io.IOException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override DirectoryEntry toEntry(String name) {
+            DirectoryEntry entry = super.toEntry(name);
+            if (length > 0) {
+                entry.hash = hash;
+            }
+            return entry;
+        }
+    }
+}
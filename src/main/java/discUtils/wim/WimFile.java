@@ -44,12 +44,22 @@ import vavi.util.ByteUtil;
  */
 public class WimFile {
 
+    /** solid resource entries carry this instead of their size */
+    private static final long SolidResourceMagic = 0x1_0000_0000L;
+
     private final FileHeader fileHeader;
 
     private final Stream fileStream;
 
     private Map<Integer, List<ResourceInfo>> resources;
 
+    private boolean parallelDecoding = true;
+
+    /** the most recently opened solid resource, shared by the streams within */
+    private ShortResourceHeader solidHeader;
+
+    private FileResourceStream solidStream;
+
     /**
      * Initializes a new instance of the WimFile class.
      *
@@ -92,6 +102,13 @@ public class WimFile {
         return fileHeader.wimGuid;
     }
 
+    /**
+     * Sets whether compressed chunks are decoded ahead on other threads.
+     */
+    public void setParallelDecoding(boolean value) {
+        parallelDecoding = value;
+    }
+
     /**
      * Gets the number of disk images within this file.
      */
@@ -161,19 +178,43 @@ public class WimFile {
     }
 
     public SparseStream openResourceStream(ShortResourceHeader hdr) {
+        if (hdr.solidResource != null) {
+            return new SubStream(openSolidResource(hdr.solidResource), Ownership.None, hdr.fileOffset, hdr.originalSize);
+        }
+
         SparseStream fileSectionStream = new SubStream(fileStream, Ownership.None, hdr.fileOffset, hdr.compressedSize);
         if (!hdr.flags.contains(ResourceFlags.Compressed)) {
             return fileSectionStream;
         }
 
-        return new FileResourceStream(fileSectionStream,
-                                      hdr,
-                                      fileHeader.flags.contains(FileFlags.LzxCompression),
-                                      fileHeader.compressionSize);
+        return new FileResourceStream(fileSectionStream, hdr, getCompression(), fileHeader.compressionSize, parallelDecoding);
+    }
+
+    private FileFlags getCompression() {
+        if (fileHeader.flags.contains(FileFlags.LzmsCompression)) {
+            return FileFlags.LzmsCompression;
+        }
+        if (fileHeader.flags.contains(FileFlags.LzxCompression)) {
+            return FileFlags.LzxCompression;
+        }
+        return FileFlags.XpressCompression;
+    }
+
+    private Stream openSolidResource(ShortResourceHeader hdr) {
+        if (hdr != solidHeader) {
+            solidStream = FileResourceStream.openSolid(new SubStream(fileStream, Ownership.None, hdr.fileOffset, hdr.compressedSize),
+                                                       parallelDecoding);
+            solidHeader = hdr;
+        }
+        return solidStream;
     }
 
     private void readResourceTable() {
         resources = new HashMap<>();
+        // Streams within solid resources follow the run of solid resources they belong to
+        List<ShortResourceHeader> solidRun = new ArrayList<>();
+        List<ShortResourceHeader> solidStreams = new ArrayList<>();
+        boolean inSolidRun = false;
         try (Stream s = openResourceStream(fileHeader.offsetTableHeader)) {
             long numRead = 0;
             while (numRead < s.getLength()) {
@@ -181,6 +222,23 @@ public class WimFile {
                 numRead += ResourceInfo.Size;
                 ResourceInfo info = new ResourceInfo();
                 info.read(resBuffer, 0);
+                if (info.header.flags.contains(ResourceFlags.Solid)) {
+                    if (info.header.originalSize == SolidResourceMagic) {
+                        if (!inSolidRun) {
+                            assignSolidStreams(solidStreams, solidRun);
+                            solidRun = new ArrayList<>();
+                            inSolidRun = true;
+                        }
+
+                        info.header.originalSize = readSolidResourceSize(info.header);
+                        solidRun.add(info.header);
+                        continue;
+                    }
+
+                    solidStreams.add(info.header);
+                }
+
+                inSolidRun = false;
                 int hashHash = ByteUtil.readLeInt(info.hash, 0);
                 if (!resources.containsKey(hashHash)) {
                     resources.put(hashHash, new ArrayList<>(1));
@@ -191,5 +249,42 @@ public class WimFile {
         } catch (IOException e) {
             throw new dotnet4j.io.IOException(e);
         }
+        assignSolidStreams(solidStreams, solidRun);
+        if (!solidStreams.isEmpty()) {
+            throw new dotnet4j.io.IOException("Stream in solid resource without a solid resource");
+        }
+    }
+
+    private long readSolidResourceSize(ShortResourceHeader hdr) {
+        fileStream.position(hdr.fileOffset);
+        return ByteUtil.readLeLong(StreamUtilities.readExact(fileStream, 8), 0);
+    }
+
+    /**
+     * Locates streams within a run of solid resources. The stream offsets are
+     * relative to the concatenated contents of the run.
+     */
+    private static void assignSolidStreams(List<ShortResourceHeader> streams, List<ShortResourceHeader> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+
+        for (ShortResourceHeader stream : streams) {
+            long offset = stream.fileOffset;
+            for (ShortResourceHeader solid : run) {
+                if (offset + stream.originalSize <= solid.originalSize) {
+                    stream.solidResource = solid;
+                    stream.fileOffset = offset;
+                    break;
+                }
+
+                offset -= solid.originalSize;
+            }
+
+            if (stream.solidResource == null) {
+                throw new dotnet4j.io.IOException("Stream outside of its solid resources");
+            }
+        }
+        streams.clear();
     }
 }
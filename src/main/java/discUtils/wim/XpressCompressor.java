@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.wim;
+
+import java.util.Arrays;
+
+import discUtils.core.compression.BlockCompressor;
+import discUtils.core.compression.CompressionResult;
+import discUtils.core.compression.HuffmanTree;
+import dotnet4j.io.MemoryStream;
+
+
+/**
+ * Implements the XPRESS (LZ77 + Huffman) compression algorithm, as read by
+ * {@link XpressStream}.
+ * Matches are found with hash chains, the symbols are then Huffman coded with
+ * a code built for the block.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+public final class XpressCompressor extends BlockCompressor {
+
+    private static final int NumSymbols = 512;
+
+    private static final int EndOfData = 256;
+
+    private static final int MaxCodewordLength = 15;
+
+    private static final int MinMatch = 3;
+
+    private static final int MaxMatch = 0xffff + MinMatch;
+
+    private static final int MaxOffset = 0xffff;
+
+    private static final int HashBits = 15;
+
+    private static final int MaxChainLength = 32;
+
+    public XpressCompressor() {
+        setBlockSize(32768);
+    }
+
+    @Override
+    public CompressionResult compress(byte[] source,
+                                      int sourceOffset,
+                                      int sourceLength,
+                                      byte[] compressed,
+                                      int compressedOffset,
+                                      int[] compressedLength) {
+        // Items: literal byte values, or (length << 16 | offset) for matches,
+        // a long as the length may take 17 bits
+        long[] items = new long[sourceLength + 1];
+        int numItems = findMatches(source, sourceOffset, sourceLength, items);
+
+        int[] freqs = new int[NumSymbols];
+        for (int i = 0; i < numItems; ++i) {
+            freqs[symbolOf(items[i])]++;
+        }
+        freqs[EndOfData]++;
+        int[] lengths = HuffmanTree.buildLengths(freqs, MaxCodewordLength);
+        int[] codewords = canonicalCodewords(lengths);
+
+        Output out = new Output(compressed, compressedOffset, compressedLength[0]);
+        if (!out.reserve(NumSymbols / 2)) {
+            return CompressionResult.Incompressible;
+        }
+        for (int i = 0; i < NumSymbols; i += 2) {
+            compressed[compressedOffset + i / 2] = (byte) (lengths[i] | lengths[i + 1] << 4);
+        }
+
+        for (int i = 0; i < numItems; ++i) {
+            long item = items[i];
+            int symbol = symbolOf(item);
+            out.writeBits(codewords[symbol], lengths[symbol]);
+            if (symbol >= 256) {
+                int length = (int) (item >>> 16) - MinMatch;
+                int offset = (int) item & 0xffff;
+                int offsetBits = 31 - Integer.numberOfLeadingZeros(offset);
+
+                // The extra length is stored in bytes, after the symbol but before the offset bits
+                if (length >= 15) {
+                    if (length - 15 < 0xff) {
+                        out.writeByte(length - 15);
+                    } else {
+                        out.writeByte(0xff);
+                        out.writeByte(length & 0xff);
+                        out.writeByte(length >>> 8);
+                    }
+                }
+
+                out.writeBits(offset - (1 << offsetBits), offsetBits);
+            }
+        }
+        out.writeBits(codewords[EndOfData], lengths[EndOfData]);
+
+        int size = out.flush();
+        if (size < 0 || size >= sourceLength) {
+            return CompressionResult.Incompressible;
+        }
+
+        compressedLength[0] = size;
+        return CompressionResult.Compressed;
+    }
+
+    @Override
+    public int decompress(byte[] source, int sourceOffset, int sourceLength, byte[] decompressed, int decompressedOffset) {
+        int count = Math.min(getBlockSize(), decompressed.length - decompressedOffset);
+        XpressStream stream = new XpressStream(new MemoryStream(Arrays.copyOfRange(source, sourceOffset, sourceOffset + sourceLength)),
+                                               count);
+        return stream.read(decompressed, decompressedOffset, count);
+    }
+
+    private static int symbolOf(long item) {
+        if (item < 256) {
+            return (int) item;
+        }
+
+        int length = (int) (item >>> 16) - MinMatch;
+        int offset = (int) item & 0xffff;
+        int offsetBits = 31 - Integer.numberOfLeadingZeros(offset);
+        return 256 + (offsetBits << 4) + Math.min(length, 15);
+    }
+
+    /**
+     * Greedy parse with hash chains.
+     *
+     * @return the number of items
+     */
+    private static int findMatches(byte[] data, int start, int count, long[] items) {
+        int[] head = new int[1 << HashBits];
+        Arrays.fill(head, -1);
+        int[] prev = new int[count];
+
+        int numItems = 0;
+        int pos = 0;
+        while (pos < count) {
+            int bestLength = 0;
+            int bestOffset = 0;
+            if (pos + MinMatch <= count) {
+                int hash = hash(data, start + pos);
+                int candidate = head[hash];
+                int maxLength = Math.min(MaxMatch, count - pos);
+                for (int chain = 0; candidate >= 0 && pos - candidate <= MaxOffset && chain < MaxChainLength; ++chain) {
+                    if (data[start + candidate + bestLength] == data[start + pos + bestLength]) {
+                        int length = 0;
+                        while (length < maxLength && data[start + candidate + length] == data[start + pos + length]) {
+                            length++;
+                        }
+                        if (length > bestLength) {
+                            bestLength = length;
+                            bestOffset = pos - candidate;
+                            if (length == maxLength) {
+                                break;
+                            }
+                        }
+                    }
+                    candidate = prev[candidate];
+                }
+            }
+
+            int advance;
+            if (bestLength >= MinMatch) {
+                items[numItems++] = (long) bestLength << 16 | bestOffset;
+                advance = bestLength;
+            } else {
+                items[numItems++] = data[start + pos] & 0xff;
+                advance = 1;
+            }
+
+            for (int end = pos + advance; pos < end; ++pos) {
+                if (pos + MinMatch <= count) {
+                    int hash = hash(data, start + pos);
+                    prev[pos] = head[hash];
+                    head[hash] = pos;
+                }
+            }
+        }
+        return numItems;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        int v = (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff) << 16;
+        return (v * 0x9e37_79b1) >>> (32 - HashBits);
+    }
+
+    private static int[] canonicalCodewords(int[] lengths) {
+        int[] codewords = new int[lengths.length];
+        int code = 0;
+        for (int length = 1; length <= MaxCodewordLength; ++length) {
+            for (int symbol = 0; symbol < lengths.length; ++symbol) {
+                if (lengths[symbol] == length) {
+                    codewords[symbol] = code++;
+                }
+            }
+            code <<= 1;
+        }
+        return codewords;
+    }
+
+    /**
+     * Bits are written in 16-bit little endian units, most significant bit
+     * first. Two units are reserved ahead, so bytes written in between land
+     * where the decoder, which reads bits a unit ahead, expects them.
+     */
+    private static final class Output {
+
+        private final byte[] buffer;
+
+        private final int start;
+
+        private final int end;
+
+        private int bitBuffer;
+
+        private int bitCount;
+
+        private int nextBits;
+
+        private int nextBits2;
+
+        private int nextByte;
+
+        private boolean overflow;
+
+        Output(byte[] buffer, int offset, int count) {
+            this.buffer = buffer;
+            start = offset;
+            end = offset + count;
+            nextByte = offset;
+        }
+
+        /** reserves the leading bytes, then the first two bit units */
+        boolean reserve(int count) {
+            nextBits = start + count;
+            nextBits2 = nextBits + 2;
+            nextByte = nextBits2 + 2;
+            return nextByte <= end;
+        }
+
+        void writeBits(int bits, int count) {
+            bitBuffer = (bitBuffer << count) | bits;
+            bitCount += count;
+            if (bitCount > 16) {
+                bitCount -= 16;
+                if (nextByte + 2 > end) {
+                    overflow = true;
+                    return;
+                }
+                putShort(nextBits, bitBuffer >>> bitCount);
+                nextBits = nextBits2;
+                nextBits2 = nextByte;
+                nextByte += 2;
+            }
+        }
+
+        void writeByte(int value) {
+            if (nextByte >= end) {
+                overflow = true;
+                return;
+            }
+            buffer[nextByte++] = (byte) value;
+        }
+
+        /** @return the number of bytes written, or -1 if they didn't fit */
+        int flush() {
+            if (overflow) {
+                return -1;
+            }
+            putShort(nextBits, bitBuffer << (16 - bitCount));
+            putShort(nextBits2, 0);
+            return nextByte - start;
+        }
+
+        private void putShort(int pos, int value) {
+            buffer[pos] = (byte) value;
+            buffer[pos + 1] = (byte) (value >>> 8);
+        }
+    }
+}
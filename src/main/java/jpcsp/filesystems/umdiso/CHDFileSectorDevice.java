@@ -20,14 +20,25 @@ package jpcsp.filesystems.umdiso;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import discUtils.core.internal.Utilities;
 import dotnet4j.io.FileAccess;
 import libchdr.Chd;
 import libchdr.Chd.ChdFile;
+import libchdr.Chd.HunkDecoder;
 import libchdr.ChdHeader;
 import libchdr.ChdHeader.ChdError;
 
@@ -40,17 +51,39 @@ import static libchdr.ChdHeader.ChdError.CHDERR_NONE;
 import static libchdr.ChdHeader.ChdError.CHDERR_REQUIRES_PARENT;
 
 
+/**
+ * Sectors of a CD CHD image.
+ * <p>
+ * Decoded hunks are kept in a bounded LRU, so readers alternating between
+ * hunks don't decode them again. Each thread decoding takes a decoder of its
+ * own, so any number of readers can be served at once, and when a reader goes
+ * through the hunks in order, the next hunks are decoded ahead of it in
+ * parallel.
+ */
 public class CHDFileSectorDevice extends AbstractFileSectorDevice {
 
     private static final Logger logger = getLogger(CHDFileSectorDevice.class.getName());
 
+    /** the number of decoded hunks kept */
+    private static final int MaxCachedHunks = 256;
+
+    /** the number of hunks decoded ahead of a sequential reader */
+    private static final int ReadAheadHunks = Runtime.getRuntime().availableProcessors() * 2;
+
     private final Chd chd;
     private final ChdFile chdFile;
     private final ChdHeader header;
     private int numberFrames;
     private int frameSize;
-    private final byte[] buffer;
-    private int hunkNumberInBuffer;
+
+    /** decoded hunks, or hunks being decoded, least recently used first */
+    private final Map<Integer, CompletableFuture<byte[]>> hunks;
+
+    /** decoders not in use */
+    private final Deque<HunkDecoder> decoders = new ArrayDeque<>();
+
+    /** the hunk read last, to detect sequential reads */
+    private int lastHunkNumber = -1;
 
     public CHDFileSectorDevice(RandomAccessFile fileAccess, String fileName) throws IOException {
         super(fileAccess);
@@ -106,8 +139,11 @@ public class CHDFileSectorDevice extends AbstractFileSectorDevice {
             throw new IOException("Unsupported CHD file format having frameSize=%d, only %d is currently supported".formatted(frameSize, sectorLength));
         }
 
-        buffer = new byte[header.hunkbytes];
-        hunkNumberInBuffer = -1;
+        hunks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<byte[]>> eldest) {
+                return size() > MaxCachedHunks;
+            }
+        };
     }
 
     private ChdError openChdFile(String fileName, ChdFile[] res) throws IOException {
@@ -250,19 +286,125 @@ public class CHDFileSectorDevice extends AbstractFileSectorDevice {
 
     @Override
     public void readSector(int sectorNumber, byte[] data, int offset) throws IOException {
-        int hunkNumber = sectorNumber / CD_FRAMES_PER_HUNK;
+        byte[] hunk = getHunk(sectorNumber / CD_FRAMES_PER_HUNK);
+
+        int frameIndex = sectorNumber % CD_FRAMES_PER_HUNK;
+        System.arraycopy(hunk, frameIndex * (CD_MAX_SECTOR_DATA + CD_MAX_SUBCODE_DATA), data, offset, sectorLength);
+    }
+
+    @Override
+    public int readSectors(int sectorNumber, int numberSectors, byte[] buffer, int offset) throws IOException {
+        if (numberSectors > 0) {
+            // Have all the hunks of the range decoded at once
+            int firstHunk = sectorNumber / CD_FRAMES_PER_HUNK;
+            int lastHunk = (sectorNumber + numberSectors - 1) / CD_FRAMES_PER_HUNK;
+            synchronized (hunks) {
+                decodeAhead(firstHunk + 1, Math.min(lastHunk + 1, firstHunk + 1 + MaxCachedHunks / 2));
+            }
+        }
+
+        return super.readSectors(sectorNumber, numberSectors, buffer, offset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<CompletableFuture<byte[]>> pending;
+        synchronized (hunks) {
+            pending = new ArrayList<>(hunks.values());
+            hunks.clear();
+        }
+        // Let the decoding in progress finish before the file goes
+        for (CompletableFuture<byte[]> hunk : pending) {
+            try {
+                hunk.join();
+            } catch (CompletionException e) {
+                logger.log(Level.DEBUG, e.getMessage());
+            }
+        }
+
+        synchronized (decoders) {
+            for (HunkDecoder decoder : decoders) {
+                Chd.chd_free_decoder(decoder);
+            }
+            decoders.clear();
+        }
+        Chd.chd_close(chdFile);
 
-        // Reading the same hunk as the one already available in the buffer?
-        if (hunkNumberInBuffer != hunkNumber) {
-            ChdError err = chd.chd_read(chdFile, hunkNumber, buffer, 0);
+        super.close();
+    }
+
+    private byte[] getHunk(int hunkNumber) throws IOException {
+        CompletableFuture<byte[]> hunk;
+        boolean decode = false;
+        synchronized (hunks) {
+            hunk = hunks.get(hunkNumber);
+            if (hunk == null) {
+                hunk = new CompletableFuture<>();
+                hunks.put(hunkNumber, hunk);
+                decode = true;
+            }
+
+            // Reading in order, decode the next hunks in the background
+            if (hunkNumber == lastHunkNumber + 1) {
+                decodeAhead(hunkNumber + 1, hunkNumber + 1 + ReadAheadHunks);
+            }
+            lastHunkNumber = hunkNumber;
+        }
+
+        if (decode) {
+            try {
+                hunk.complete(decode(hunkNumber));
+            } catch (RuntimeException e) {
+                hunk.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return Utilities.joinIO(hunk);
+        } catch (IOException | RuntimeException e) {
+            // Don't keep the failure, the next read tries again
+            synchronized (hunks) {
+                hunks.remove(hunkNumber, hunk);
+            }
+            throw e;
+        }
+    }
+
+    /** starts decoding the hunks of the range not decoded yet, called holding the lock on hunks */
+    private void decodeAhead(int from, int to) {
+        for (int i = Math.max(from, 0); i < Math.min(to, header.totalhunks); i++) {
+            if (!hunks.containsKey(i)) {
+                int hunkNumber = i;
+                hunks.put(hunkNumber, CompletableFuture.supplyAsync(() -> decode(hunkNumber)));
+            }
+        }
+    }
+
+    private byte[] decode(int hunkNumber) {
+        HunkDecoder decoder;
+        synchronized (decoders) {
+            decoder = decoders.poll();
+        }
+        if (decoder == null) {
+            HunkDecoder[] res = new HunkDecoder[1];
+            ChdError err = Chd.chd_create_decoder(chdFile, res);
             if (err != CHDERR_NONE) {
-                throw new IOException("Error reading CHD file sectorNumber=%d: %s".formatted(sectorNumber, err));
+                throw new UncheckedIOException(new IOException("Could not create a CHD decoder: %s".formatted(err)));
             }
-            // Remember which hunk we currently have stored in the buffer
-            hunkNumberInBuffer = hunkNumber;
+            decoder = res[0];
         }
 
-        int frameIndex = sectorNumber % CD_FRAMES_PER_HUNK;
-        System.arraycopy(buffer, frameIndex * (CD_MAX_SECTOR_DATA + CD_MAX_SUBCODE_DATA), data, offset, sectorLength);
+        try {
+            byte[] hunk = new byte[header.hunkbytes];
+            ChdError err = Chd.chd_read(chdFile, decoder, hunkNumber, hunk, 0);
+            if (err != CHDERR_NONE) {
+                throw new UncheckedIOException(new IOException("Error reading CHD file hunkNumber=%d: %s".formatted(hunkNumber, err)));
+            }
+            return hunk;
+        } finally {
+            synchronized (decoders) {
+                decoders.push(decoder);
+            }
+        }
     }
 }
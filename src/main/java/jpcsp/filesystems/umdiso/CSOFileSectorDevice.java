@@ -17,17 +17,23 @@ along with Jpcsp.  If not, see <http://www.gnu.org/licenses/>.
 
 package jpcsp.filesystems.umdiso;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+
+import discUtils.core.internal.Utilities;
 
 import static java.lang.System.getLogger;
 
@@ -41,6 +47,15 @@ public class CSOFileSectorDevice extends AbstractFileSectorDevice {
     protected final long[] sectorOffsets;
     private static final long sectorOffsetMask = 0x7fff_ffffL;
 
+    /** the most sectors read with one file read */
+    private static final int MaxBatchSectors = 256;
+
+    /** the number of sectors inflated by one thread */
+    private static final int ParallelSectors = 32;
+
+    /** idle raw deflate inflaters, shared by parallel decoding and ended on close */
+    private final Deque<Inflater> inflaters = new ArrayDeque<>();
+
     public CSOFileSectorDevice(RandomAccessFile fileAccess, byte[] header) throws IOException {
         super(fileAccess);
         ByteBuffer byteBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
@@ -88,34 +103,137 @@ public class CSOFileSectorDevice extends AbstractFileSectorDevice {
 
     @Override
     public void readSector(int sectorNumber, byte[] buffer, int offset) throws IOException {
-        long sectorOffset = sectorOffsets[sectorNumber];
-        long sectorEnd = sectorOffsets[sectorNumber + 1];
-
-        if ((sectorOffset & 0x8000_0000L) != 0) {
-            long realOffset = (sectorOffset & sectorOffsetMask) << offsetShift;
-            fileAccess.seek(realOffset);
-            fileAccess.read(buffer, offset, sectorLength);
-        } else {
-            sectorEnd = (sectorEnd & sectorOffsetMask) << offsetShift;
-            sectorOffset = (sectorOffset & sectorOffsetMask) << offsetShift;
-
-            int compressedLength = (int) (sectorEnd - sectorOffset);
-            if (compressedLength < 0) {
-                Arrays.fill(buffer, offset, offset + sectorLength, (byte) 0);
-            } else {
-                byte[] compressedData = new byte[compressedLength];
-                fileAccess.seek(sectorOffset);
-                fileAccess.read(compressedData);
+        readSectors(sectorNumber, 1, buffer, offset);
+    }
+
+    /**
+     * Reads the compressed data of the sectors in spans of at most
+     * {@link #MaxBatchSectors} sectors, one file read per span, and inflates
+     * them straight into the buffer. The sectors of a span are inflated in
+     * parallel, in chunks of {@link #ParallelSectors}.
+     */
+    @Override
+    public int readSectors(int sectorNumber, int numberSectors, byte[] buffer, int offset) throws IOException {
+        for (int i = 0; i < numberSectors; i += MaxBatchSectors) {
+            int count = Math.min(MaxBatchSectors, numberSectors - i);
+            readBatch(sectorNumber + i, count, buffer, offset + i * sectorLength);
+        }
+
+        return numberSectors;
+    }
+
+    private void readBatch(int sectorNumber, int numberSectors, byte[] buffer, int offset) throws IOException {
+        long spanStart = getSectorStart(sectorNumber);
+        long spanEnd = spanStart;
+        for (int i = sectorNumber; i < sectorNumber + numberSectors; i++) {
+            spanEnd = Math.max(spanEnd, getSectorEnd(i));
+        }
+
+        // Past the end of the file, the sectors read as zeros
+        byte[] span = new byte[(int) (spanEnd - spanStart)];
+        int length = (int) Math.max(0, Math.min(span.length, fileAccess.length() - spanStart));
+        fileAccess.seek(spanStart);
+        fileAccess.readFully(span, 0, length);
+
+        if (numberSectors <= ParallelSectors) {
+            decodeSectors(span, spanStart, sectorNumber, numberSectors, buffer, offset);
+            return;
+        }
 
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int i = ParallelSectors; i < numberSectors; i += ParallelSectors) {
+            int first = sectorNumber + i;
+            int count = Math.min(ParallelSectors, numberSectors - i);
+            int chunkOffset = offset + i * sectorLength;
+            chunks.add(CompletableFuture.runAsync(() -> {
                 try {
-                    Inflater inf = new Inflater(true);
-                    try (InputStream s = new InflaterInputStream(new ByteArrayInputStream(compressedData), inf)) {
-                        System.arraycopy(s.readAllBytes(), 0, buffer, offset, sectorLength);
-                    }
+                    decodeSectors(span, spanStart, first, count, buffer, chunkOffset);
                 } catch (IOException e) {
-                    throw new IOException("Exception while uncompressing sector %d".formatted(sectorNumber));
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        decodeSectors(span, spanStart, sectorNumber, ParallelSectors, buffer, offset);
+
+        for (CompletableFuture<Void> chunk : chunks) {
+            Utilities.joinIO(chunk);
+        }
+    }
+
+    private void decodeSectors(byte[] span, long spanStart, int sectorNumber, int numberSectors, byte[] buffer, int offset) throws IOException {
+        Inflater inflater;
+        synchronized (inflaters) {
+            inflater = inflaters.poll();
+        }
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            decodeSectors(inflater, span, spanStart, sectorNumber, numberSectors, buffer, offset);
+        } finally {
+            synchronized (inflaters) {
+                inflaters.push(inflater);
+            }
+        }
+    }
+
+    private void decodeSectors(Inflater inflater, byte[] span, long spanStart, int sectorNumber, int numberSectors, byte[] buffer, int offset) throws IOException {
+        for (int i = 0; i < numberSectors; i++) {
+            int sector = sectorNumber + i;
+            int sectorOffset = offset + i * sectorLength;
+            int dataOffset = (int) (getSectorStart(sector) - spanStart);
+            int dataLength = (int) (getSectorEnd(sector) - spanStart) - dataOffset;
+
+            if (isUncompressed(sector)) {
+                System.arraycopy(span, dataOffset, buffer, sectorOffset, sectorLength);
+            } else {
+                inflater.reset();
+                inflater.setInput(span, dataOffset, dataLength);
+                try {
+                    int length = 0;
+                    while (length < sectorLength && !inflater.finished()) {
+                        int n = inflater.inflate(buffer, sectorOffset + length, sectorLength - length);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        length += n;
+                    }
+                    if (length < sectorLength) {
+                        Arrays.fill(buffer, sectorOffset + length, sectorOffset + sectorLength, (byte) 0);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Exception while uncompressing sector %d".formatted(sector), e);
                 }
             }
         }
     }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        synchronized (inflaters) {
+            inflaters.forEach(Inflater::end);
+            inflaters.clear();
+        }
+    }
+
+    private boolean isUncompressed(int sectorNumber) {
+        return (sectorOffsets[sectorNumber] & 0x8000_0000L) != 0;
+    }
+
+    /** @return the file offset of the data of the sector */
+    private long getSectorStart(int sectorNumber) {
+        return (sectorOffsets[sectorNumber] & sectorOffsetMask) << offsetShift;
+    }
+
+    /** @return the file offset after the data of the sector */
+    private long getSectorEnd(int sectorNumber) {
+        if (isUncompressed(sectorNumber)) {
+            return getSectorStart(sectorNumber) + sectorLength;
+        }
+        // A corrupted offset gives a negative length, read as zeros
+        return Math.max(getSectorStart(sectorNumber), (sectorOffsets[sectorNumber + 1] & sectorOffsetMask) << offsetShift);
+    }
 }
@@ -35,9 +35,9 @@ public class ISOFileSectorDevice extends AbstractFileSectorDevice {
         }
 
         fileAccess.seek(((long) sectorLength) * sectorNumber);
-        int length = fileAccess.read(buffer, offset, sectorLength);
+        int length = Math.max(fileAccess.read(buffer, offset, sectorLength), 0);
         if (length < sectorLength) {
-            Arrays.fill(buffer, length, sectorLength, (byte) 0);
+            Arrays.fill(buffer, offset + length, offset + sectorLength, (byte) 0);
         }
     }
 
@@ -48,10 +48,11 @@ public class ISOFileSectorDevice extends AbstractFileSectorDevice {
         }
 
         fileAccess.seek(((long) sectorLength) * sectorNumber);
-        int length = fileAccess.read(buffer, offset, numberSectors * sectorLength);
-        int lastSectorGap = length % sectorLength;
+        int length = Math.max(fileAccess.read(buffer, offset, numberSectors * sectorLength), 0);
+        // A last sector only partially available is padded with zeros
+        int lastSectorGap = (sectorLength - length % sectorLength) % sectorLength;
         if (lastSectorGap > 0) {
-            Arrays.fill(buffer, length, length + lastSectorGap, (byte) 0);
+            Arrays.fill(buffer, offset + length, offset + length + lastSectorGap, (byte) 0);
             length += lastSectorGap;
         }
 
@@ -34,6 +34,7 @@ package libchdr;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -219,13 +220,14 @@ public class Chd {
         public final String compname;
         /** is this a lossy algorithm? */
         public final boolean lossy;
-        public final ICodecInterface codec;
+        /** creates an instance of the codec, each decoder has its own */
+        public final Supplier<ICodecInterface> factory;
 
-        public CodecInterface(int compression, String compname, ICodecInterface codec) {
+        public CodecInterface(int compression, String compname, Supplier<ICodecInterface> factory) {
             this.compression = compression;
             this.compname = compname;
             this.lossy = false;
-            this.codec = codec;
+            this.factory = factory;
         }
 
         @Override
@@ -277,28 +279,32 @@ public class Chd {
         public ChdFile parent;
         /** array of map entries */
         public MapEntry[] map;
-        /** pointer to buffer for compressed data */
-        public byte[] compressed;
         /** interface to the codec */
         public final CodecInterface[] codecintf = new CodecInterface[4];
-        /** zlib codec data */
-        public final ZlibCodecData zlibCodecData = new ZlibCodecData();
-        /** lzma codec data */
-        public final LzmaCodecData lzmaCodecData = new LzmaCodecData();
-        /** flac codec data */
-        public final FlacCodecData flacCodecData = new FlacCodecData();
-        /** cdzl codec data */
-        public final CdzlCodecData cdzlCodecData = new CdzlCodecData();
-        /** cdlz codec data */
-        public final CdlzCodecData cdlzCodecData = new CdlzCodecData();
-        /** cdfl codec data */
-        public final CdflCodecData cdflCodecData = new CdflCodecData();
+        /** decoder used by chd_read without a decoder of its own */
+        public HunkDecoder decoder;
 
         @Override
         public String toString() {
             return "ChdFile[file=%s, header=%s, parent=%s]".formatted(file, header, parent);
         }
     }
+
+    /**
+     * The codecs and buffers needed to decode hunks. A decoder is used by one
+     * thread at a time, threads decoding in parallel each need their own.
+     */
+    public static class HunkDecoder {
+
+        /** buffer for compressed data */
+        public byte[] compressed;
+        /** codec instances, by compression index */
+        public final ICodecInterface[] codecs = new ICodecInterface[4];
+        /** codec data, by compression index */
+        public final CodecData[] codecData = new CodecData[4];
+        /** decoder for the parent, or NULL */
+        public HunkDecoder parent;
+    }
 //#endregion
 
 //#region GLOBAL VARIABLES
@@ -315,21 +321,21 @@ public class Chd {
             // "none" or no compression
             new CodecInterface(ChdHeader.CHDCOMPRESSION_NONE, "none", null),
             // standard zlib compression
-            new CodecInterface(ChdHeader.CHDCOMPRESSION_ZLIB, "zlib", new Zlib()),
+            new CodecInterface(ChdHeader.CHDCOMPRESSION_ZLIB, "zlib", Zlib::new),
             // zlib+ compression
-            new CodecInterface(ChdHeader.CHDCOMPRESSION_ZLIB_PLUS, "zlib+", new Zlib()),
+            new CodecInterface(ChdHeader.CHDCOMPRESSION_ZLIB_PLUS, "zlib+", Zlib::new),
             // V5 zlib compression
-            new CodecInterface(ChdHeader.CHD_CODEC_ZLIB, "zlib (Deflate)", new Zlib()),
+            new CodecInterface(ChdHeader.CHD_CODEC_ZLIB, "zlib (Deflate)", Zlib::new),
             // V5 lzma compression
-            new CodecInterface(ChdHeader.CHD_CODEC_LZMA, "lzma (LZMA)", new Lzma()),
+            new CodecInterface(ChdHeader.CHD_CODEC_LZMA, "lzma (LZMA)", Lzma::new),
             // V5 flac compression
-            new CodecInterface(ChdHeader.CHD_CODEC_FLAC, "flac (FLAC)", new Flac()),
+            new CodecInterface(ChdHeader.CHD_CODEC_FLAC, "flac (FLAC)", Flac::new),
             // V5 CD zlib compression
-            new CodecInterface(ChdHeader.CHD_CODEC_CD_ZLIB, "cdzl (CD Deflate)", new CdZlib()),
+            new CodecInterface(ChdHeader.CHD_CODEC_CD_ZLIB, "cdzl (CD Deflate)", CdZlib::new),
             // V5 CD lzma compression
-            new CodecInterface(ChdHeader.CHD_CODEC_CD_LZMA, "cdlz (CD LZMA)", new CdLzma()),
+            new CodecInterface(ChdHeader.CHD_CODEC_CD_LZMA, "cdlz (CD LZMA)", CdLzma::new),
             // V5 CD flac compression
-            new CodecInterface(ChdHeader.CHD_CODEC_CD_FLAC, "cdfl (CD FLAC)", new CdFlac())
+            new CodecInterface(ChdHeader.CHD_CODEC_CD_FLAC, "cdfl (CD FLAC)", CdFlac::new)
     };
 
 //#endregion
@@ -708,49 +714,15 @@ public class Chd {
             return;
         }
 
-        // deinit the codec
-        if (chd.header.version < 5) {
-            if (chd.codecintf[0] != null && chd.codecintf[0].codec != null) {
-                chd.codecintf[0].codec.free(chd.zlibCodecData);
-            }
-        } else {
-            // Free the codecs
-            for (int i = 0; i < chd.codecintf.length; i++) {
-                CodecData codec = null;
-
-                if (chd.codecintf[i] == null) {
-                    continue;
-                }
-
-                int compression = chd.codecintf[i].compression;
-                if (compression == CHD_CODEC_ZLIB) {
-                    codec = chd.zlibCodecData;
-                } else if (compression == CHD_CODEC_LZMA) {
-                    codec = chd.lzmaCodecData;
-                } else if (compression == CHD_CODEC_FLAC) {
-                    codec = chd.flacCodecData;
-                } else if (compression == CHD_CODEC_CD_ZLIB) {
-                    codec = chd.cdzlCodecData;
-                } else if (compression == CHD_CODEC_CD_LZMA) {
-                    codec = chd.cdlzCodecData;
-                } else if (compression == CHD_CODEC_CD_FLAC) {
-                    codec = chd.cdflCodecData;
-                }
-
-                if (codec != null && chd.codecintf[i].codec != null) {
-                    chd.codecintf[i].codec.free(codec);
-                }
-            }
-
-            // Free the raw map
-            if (chd.header.rawmap != null) {
-                chd.header.rawmap = null;
-            }
+        // deinit the codecs
+        if (chd.decoder != null) {
+            chd_free_decoder(chd.decoder);
+            chd.decoder = null;
         }
 
-        // free the compressed data buffer
-        if (chd.compressed != null) {
-            chd.compressed = null;
+        // Free the raw map
+        if (chd.header.rawmap != null) {
+            chd.header.rawmap = null;
         }
 
         // free the hunk map
@@ -805,7 +777,116 @@ public class Chd {
         }
 
         // perform the read
-        return hunk_read_into_memory(chd, hunknum, buffer, bufferOffset);
+        synchronized (chd.decoder) {
+            return hunk_read_into_memory(chd, chd.decoder, hunknum, buffer, bufferOffset);
+        }
+    }
+
+    /**
+     * read a single hunk from the CHD
+     * file with the given decoder, threads
+     * each having their own decoder can read
+     * in parallel
+     */
+    public static ChdError chd_read(ChdFile chd, HunkDecoder decoder, int hunknum, byte[] buffer, int bufferOffset) {
+        // punt if NULL or invalid
+        if (chd == null || chd.cookie != COOKIE_VALUE || decoder == null) {
+            return CHDERR_INVALID_PARAMETER;
+        }
+
+        // if we're past the end, fail
+        if (hunknum >= chd.header.totalhunks) {
+            return CHDERR_HUNK_OUT_OF_RANGE;
+        }
+
+        // perform the read
+        return hunk_read_into_memory(chd, decoder, hunknum, buffer, bufferOffset);
+    }
+
+    /**
+     * create a decoder for the hunks of
+     * the CHD and of its parents
+     */
+    public static ChdError chd_create_decoder(ChdFile chd, HunkDecoder[] decoder) {
+        // punt if NULL or invalid
+        if (chd == null || chd.cookie != COOKIE_VALUE) {
+            return CHDERR_INVALID_PARAMETER;
+        }
+
+        HunkDecoder newDecoder = new HunkDecoder();
+        newDecoder.compressed = new byte[chd.header.hunkbytes];
+
+        // initialize the codecs
+        int count = chd.header.version < 5 ? 1 : chd.codecintf.length;
+        for (int i = 0; i < count; i++) {
+            if (chd.codecintf[i] == null || chd.codecintf[i].factory == null) {
+                continue;
+            }
+
+            CodecData codec = chd.header.version < 5 ? new ZlibCodecData() : codec_data_create(chd.codecintf[i].compression);
+            if (codec == null) {
+                return CHDERR_UNSUPPORTED_FORMAT;
+            }
+
+            newDecoder.codecs[i] = chd.codecintf[i].factory.get();
+            newDecoder.codecData[i] = codec;
+            ChdError err = newDecoder.codecs[i].init(codec, chd.header.hunkbytes);
+            if (err != CHDERR_NONE) {
+                return err;
+            }
+        }
+
+        if (chd.parent != null) {
+            HunkDecoder[] parent = new HunkDecoder[1];
+            ChdError err = chd_create_decoder(chd.parent, parent);
+            if (err != CHDERR_NONE) {
+                return err;
+            }
+            newDecoder.parent = parent[0];
+        }
+
+        decoder[0] = newDecoder;
+        return CHDERR_NONE;
+    }
+
+    /**
+     * free a decoder created by
+     * chd_create_decoder
+     */
+    public static void chd_free_decoder(HunkDecoder decoder) {
+        for (int i = 0; i < decoder.codecs.length; i++) {
+            if (decoder.codecs[i] != null) {
+                decoder.codecs[i].free(decoder.codecData[i]);
+                decoder.codecs[i] = null;
+            }
+        }
+        decoder.compressed = null;
+
+        if (decoder.parent != null) {
+            chd_free_decoder(decoder.parent);
+            decoder.parent = null;
+        }
+    }
+
+    /**
+     * codec data for a V5 compression
+     * type
+     */
+    private static CodecData codec_data_create(int compression) {
+        if (compression == CHD_CODEC_ZLIB) {
+            return new ZlibCodecData();
+        } else if (compression == CHD_CODEC_LZMA) {
+            return new LzmaCodecData();
+        } else if (compression == CHD_CODEC_FLAC) {
+            return new FlacCodecData();
+        } else if (compression == CHD_CODEC_CD_ZLIB) {
+            return new CdzlCodecData();
+        } else if (compression == CHD_CODEC_CD_LZMA) {
+            return new CdlzCodecData();
+        } else if (compression == CHD_CODEC_CD_FLAC) {
+            return new CdflCodecData();
+        }
+        return null;
     }
 
     private ChdError chd_open_core_file(Stream file, int mode, ChdFile parent, ChdFile[] chd) {
@@ -894,9 +975,6 @@ public class Chd {
         }
 
 
-        // allocate the temporary compressed buffer
-        newChd.compressed = new byte[newChd.header.hunkbytes];
-
         // find the codec interface
         if (newChd.header.version < 5) {
             for (intfnum = 0; intfnum < codecInterfaces.length; intfnum++) {
@@ -909,17 +987,9 @@ public class Chd {
             if (intfnum == codecInterfaces.length) {
                 return CHDERR_UNSUPPORTED_FORMAT;
             }
-
-            // initialize the codec
-            if (newChd.codecintf[0].codec != null) {
-                err = newChd.codecintf[0].codec.init(newChd.zlibCodecData, newChd.header.hunkbytes);
-                if (err != CHDERR_NONE) {
-                    return err;
-                }
-            }
         } else {
             int decompnum;
-            // verify the compression types and initialize the codecs
+            // verify the compression types
             for (decompnum = 0; decompnum < newChd.header.compression.length; decompnum++) {
                 int i;
                 for (i = 0; i < codecInterfaces.length; i++) {
@@ -932,37 +1002,17 @@ public class Chd {
                 if (newChd.codecintf[decompnum] == null && newChd.header.compression[decompnum] != 0) {
                     return CHDERR_UNSUPPORTED_FORMAT;
                 }
-
-                // initialize the codec
-                if (newChd.codecintf[decompnum].codec != null) {
-                    CodecData codec = null;
-                    int compression = newChd.header.compression[decompnum];
-                    if (compression == CHD_CODEC_ZLIB) {
-                        codec = newChd.zlibCodecData;
-                    } else if (compression == CHD_CODEC_LZMA) {
-                        codec = newChd.lzmaCodecData;
-                    } else if (compression == CHD_CODEC_FLAC) {
-                        codec = newChd.flacCodecData;
-                    } else if (compression == CHD_CODEC_CD_ZLIB) {
-                        codec = newChd.cdzlCodecData;
-                    } else if (compression == CHD_CODEC_CD_LZMA) {
-                        codec = newChd.cdlzCodecData;
-                    } else if (compression == CHD_CODEC_CD_FLAC) {
-                        codec = newChd.cdflCodecData;
-                    }
-
-                    if (codec == null) {
-                        return CHDERR_UNSUPPORTED_FORMAT;
-                    }
-
-                    err = newChd.codecintf[decompnum].codec.init(codec, newChd.header.hunkbytes);
-                    if (err != CHDERR_NONE) {
-                        return err;
-                    }
-                }
             }
         }
 
+        // initialize the codecs
+        HunkDecoder[] decoder = new HunkDecoder[1];
+        err = chd_create_decoder(newChd, decoder);
+        if (err != CHDERR_NONE) {
+            return err;
+        }
+        newChd.decoder = decoder[0];
+
         // all done
         chd[0] = newChd;
 
@@ -1208,14 +1258,16 @@ public class Chd {
      * hunk_read_compressed - read a compressed
      * hunk
      */
-    private static byte[] hunk_read_compressed(ChdFile chd, long offset, int size) {
+    private static byte[] hunk_read_compressed(ChdFile chd, HunkDecoder decoder, long offset, int size) {
         int bytes;
-        chd.file.position(offset);
-        bytes = chd.file.read(chd.compressed, 0, size);
+        synchronized (chd.file) {
+            chd.file.position(offset);
+            bytes = chd.file.read(decoder.compressed, 0, size);
+        }
         if (bytes != size) {
             return null;
         }
-        return chd.compressed;
+        return decoder.compressed;
     }
 
     /**
@@ -1225,8 +1277,10 @@ public class Chd {
 
     private static ChdError hunk_read_uncompressed(ChdFile chd, long offset, int size, byte[] dest, int destOffset) {
         int bytes;
-        chd.file.position(offset);
-        bytes = chd.file.read(dest, destOffset, size);
+        synchronized (chd.file) {
+            chd.file.position(offset);
+            bytes = chd.file.read(dest, destOffset, size);
+        }
         if (bytes != size) {
             return CHDERR_READ_ERROR;
         }
@@ -1238,7 +1292,7 @@ public class Chd {
      * memory at the given location
      */
 
-    private static ChdError hunk_read_into_memory(ChdFile chd, int hunknum, byte[] dest, int destOffset) {
+    private static ChdError hunk_read_into_memory(ChdFile chd, HunkDecoder decoder, int hunknum, byte[] dest, int destOffset) {
         ChdError err;
 
         // punt if no file
@@ -1264,19 +1318,16 @@ public class Chd {
             switch (V34MapEntryType.values()[entry.flags & MAP_ENTRY_FLAG_TYPE_MASK]) {
                 // compressed data
                 case V34_MAP_ENTRY_TYPE_COMPRESSED: {
-                    CodecData codec = null;
-
                     // read it into the decompression buffer
-                    compressed_bytes = hunk_read_compressed(chd, entry.offset, entry.length);
+                    compressed_bytes = hunk_read_compressed(chd, decoder, entry.offset, entry.length);
                     if (compressed_bytes == null) {
                         return CHDERR_READ_ERROR;
                     }
 
                     // now decompress using the codec
                     err = CHDERR_NONE;
-                    codec = chd.zlibCodecData;
-                    if (chd.codecintf[0].codec != null) {
-                        err = chd.codecintf[0].codec.decompress(codec, compressed_bytes, 0, entry.length, dest, destOffset, chd.header.hunkbytes);
+                    if (decoder.codecs[0] != null) {
+                        err = decoder.codecs[0].decompress(decoder.codecData[0], compressed_bytes, 0, entry.length, dest, destOffset, chd.header.hunkbytes);
                     }
                     if (err != CHDERR_NONE) {
                         return err;
@@ -1302,11 +1353,11 @@ public class Chd {
 
                 // self-referenced data
                 case V34_MAP_ENTRY_TYPE_SELF_HUNK:
-                    return hunk_read_into_memory(chd, (int) entry.offset, dest, destOffset);
+                    return hunk_read_into_memory(chd, decoder, (int) entry.offset, dest, destOffset);
 
                 // parent-referenced data
                 case V34_MAP_ENTRY_TYPE_PARENT_HUNK:
-                    err = hunk_read_into_memory(chd.parent, (int) entry.offset, dest, destOffset);
+                    err = hunk_read_into_memory(chd.parent, decoder.parent, (int) entry.offset, dest, destOffset);
                     if (err != CHDERR_NONE) {
                         return err;
                     }
@@ -1317,7 +1368,6 @@ public class Chd {
             }
             return CHDERR_NONE;
         } else {
-            CodecData codec = null;
             // get a pointer to the map entry
             long blockoffs;
             int blocklen;
@@ -1330,13 +1380,16 @@ public class Chd {
             if (!chd_compressed(chd.header)) {
                 blockoffs = (get_bigendian_uint32(rawmap, rawmapOffset) & 0xFFFFFFFFL) * (long) chd.header.hunkbytes;
                 if (blockoffs != 0) {
-                    chd.file.position(blockoffs);
-                    int result = chd.file.read(dest, destOffset, chd.header.hunkbytes);
+                    int result;
+                    synchronized (chd.file) {
+                        chd.file.position(blockoffs);
+                        result = chd.file.read(dest, destOffset, chd.header.hunkbytes);
+                    }
                     if (result != chd.header.hunkbytes) {
                         return CHDERR_READ_ERROR;
                     }
                 } else if (chd.parent != null) {
-                    err = hunk_read_into_memory(chd.parent, hunknum, dest, destOffset);
+                    err = hunk_read_into_memory(chd.parent, decoder.parent, hunknum, dest, destOffset);
                     if (err != CHDERR_NONE) {
                         return err;
                     }
@@ -1357,29 +1410,15 @@ public class Chd {
                 case COMPRESSION_TYPE_1:
                 case COMPRESSION_TYPE_2:
                 case COMPRESSION_TYPE_3:
-                    compressed_bytes = hunk_read_compressed(chd, blockoffs, blocklen);
+                    compressed_bytes = hunk_read_compressed(chd, decoder, blockoffs, blocklen);
                     if (compressed_bytes == null) {
                         return CHDERR_READ_ERROR;
                     }
-                    int compression = chd.codecintf[compressionType].compression;
-                    if (compression == CHD_CODEC_ZLIB) {
-                        codec = chd.zlibCodecData;
-                    } else if (compression == CHD_CODEC_LZMA) {
-                        codec = chd.lzmaCodecData;
-                    } else if (compression == CHD_CODEC_FLAC) {
-                        codec = chd.flacCodecData;
-                    } else if (compression == CHD_CODEC_CD_ZLIB) {
-                        codec = chd.cdzlCodecData;
-                    } else if (compression == CHD_CODEC_CD_LZMA) {
-                        codec = chd.cdlzCodecData;
-                    } else if (compression == CHD_CODEC_CD_FLAC) {
-                        codec = chd.cdflCodecData;
-                    }
-                    if (codec == null) {
+                    if (decoder.codecs[compressionType] == null) {
                         return CHDERR_CODEC_ERROR;
                     }
                     log.finer("V5 hunk#%d compressed with %s at 0x%X, size=0x%X, decompressed size=0x%X%s".formatted(hunknum, chd.codecintf[compressionType], blockoffs, blocklen, chd.header.hunkbytes, chd.parent != null ? ", from child" : ""));
-                    err = chd.codecintf[compressionType].codec.decompress(codec, compressed_bytes, 0, blocklen, dest, destOffset, chd.header.hunkbytes);
+                    err = decoder.codecs[compressionType].decompress(decoder.codecData[compressionType], compressed_bytes, 0, blocklen, dest, destOffset, chd.header.hunkbytes);
                     if (err != CHDERR_NONE) {
                         return err;
                     }
@@ -1401,7 +1440,7 @@ public class Chd {
 
                 case COMPRESSION_SELF:
                     log.finer("V5 hunk#%d compression self #%d".formatted(hunknum, blockoffs));
-                    return hunk_read_into_memory(chd, (int) blockoffs, dest, destOffset);
+                    return hunk_read_into_memory(chd, decoder, (int) blockoffs, dest, destOffset);
 
                 case COMPRESSION_PARENT:
                     if (chd.parent == null) {
@@ -1413,19 +1452,19 @@ public class Chd {
 
                     // blockoffs is aligned to units_in_hunk
                     if (blockoffs % units_in_hunk == 0) {
-                        return hunk_read_into_memory(chd.parent, (int) (blockoffs / units_in_hunk), dest, destOffset);
+                        return hunk_read_into_memory(chd.parent, decoder.parent, (int) (blockoffs / units_in_hunk), dest, destOffset);
                         // blockoffs is not aligned to units_in_hunk
                     } else {
                         int unit_in_hunk = (int) (blockoffs % units_in_hunk);
                         byte[] buf = new byte[chd.header.hunkbytes];
                         // Read first half of hunk which contains blockoffs
-                        err = hunk_read_into_memory(chd.parent, (int) (blockoffs / units_in_hunk), buf, 0);
+                        err = hunk_read_into_memory(chd.parent, decoder.parent, (int) (blockoffs / units_in_hunk), buf, 0);
                         if (err != CHDERR_NONE) {
                             return err;
                         }
                         System.arraycopy(buf, unit_in_hunk * chd.header.unitbytes, dest, destOffset, (units_in_hunk - unit_in_hunk) * chd.header.unitbytes);
                         // Read second half of hunk which contains blockoffs
-                        err = hunk_read_into_memory(chd.parent, (int) ((blockoffs / units_in_hunk) + 1), buf, 0);
+                        err = hunk_read_into_memory(chd.parent, decoder.parent, (int) ((blockoffs / units_in_hunk) + 1), buf, 0);
                         if (err != CHDERR_NONE) {
                             return err;
                         }
@@ -1483,8 +1522,10 @@ public class Chd {
 
         // read the metadata
         outputlen = Math.min(outputlen, metaentry.length);
-        chd.file.position(metaentry.offset + METADATA_HEADER_SIZE);
-        count = chd.file.read(output, 0, outputlen);
+        synchronized (chd.file) {
+            chd.file.position(metaentry.offset + METADATA_HEADER_SIZE);
+            count = chd.file.read(output, 0, outputlen);
+        }
         if (count != outputlen) {
             return CHDERR_READ_ERROR;
         }
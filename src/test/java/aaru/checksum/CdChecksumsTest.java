@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package aaru.checksum;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import discUtils.opticalDisk.Disc;
+import discUtils.opticalDisk.DiscImageFile;
+import discUtils.opticalDisk.OpticalFormat;
+import discUtils.streams.util.Ownership;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.MemoryStream;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * CdChecksumsTest.
+ *
+ * The sectors are made here as ECMA-130 lays them out. The EDC is checked
+ * against the published check value of its CRC, and the ECC of the sectors
+ * made by their Reed-Solomon syndromes, so neither relies on the code tested.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class CdChecksumsTest {
+
+    private static final int SectorSize = 2352;
+
+    /** multiplies in GF(2^8) with the polynomial of the CD ECC, x^8 + x^4 + x^3 + x^2 + 1 */
+    private static int gfMul(int a, int b) {
+        int result = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                result ^= a;
+            }
+            a <<= 1;
+            if ((a & 0x100) != 0) {
+                a ^= 0x11d;
+            }
+            b >>>= 1;
+        }
+        return result;
+    }
+
+    /** the CRC of the EDC, bit by bit, reflected polynomial 0xd8018001 */
+    private static int edc(byte[] data, int offset, int length) {
+        int edc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            edc ^= data[i] & 0xff;
+            for (int j = 0; j < 8; j++) {
+                edc = (edc >>> 1) ^ ((edc & 1) != 0 ? 0xd801_8001 : 0);
+            }
+        }
+        return edc;
+    }
+
+    /**
+     * Computes the P or Q parity of the 2064 bytes from the header on, each
+     * vector of {@code minorCount} bytes getting the two bytes making its
+     * syndromes for 1 and alpha zero.
+     */
+    private static void parity(byte[] sector, int majorCount, int minorCount, int majorMult, int minorInc, int eccOffset) {
+        int size = majorCount * minorCount;
+        for (int major = 0; major < majorCount; major++) {
+            int index = (major >> 1) * majorMult + (major & 1);
+            int s0 = 0;
+            int s1 = 0;
+            for (int minor = 0; minor < minorCount; minor++) {
+                int b = sector[0x0c + index] & 0xff;
+                s0 ^= b;
+                s1 = gfMul(s1, 2) ^ b;
+                index += minorInc;
+                if (index >= size) {
+                    index -= size;
+                }
+            }
+            // p0 * alpha + p1 = s1 * alpha^2, p0 + p1 = s0, so p0 = (s1 * alpha^2 + s0) / (alpha + 1)
+            int p0 = gfDiv(gfMul(s1, 4) ^ s0, 3);
+            int p1 = p0 ^ s0;
+            sector[eccOffset + major] = (byte) p0;
+            sector[eccOffset + major + majorCount] = (byte) p1;
+        }
+    }
+
+    private static int gfDiv(int a, int b) {
+        for (int x = 0; x < 256; x++) {
+            if (gfMul(x, b) == a) {
+                return x;
+            }
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /** @return a Mode 2 Form 1 sector holding the data, the ECC made with the header taken as zero */
+    static byte[] mode2Form1Sector(int lba, byte[] data) {
+        byte[] sector = new byte[SectorSize];
+        Arrays.fill(sector, 1, 11, (byte) 0xff);
+        byte[] subheader = {0, 0, 0x08, 0};
+        System.arraycopy(subheader, 0, sector, 0x10, 4);
+        System.arraycopy(subheader, 0, sector, 0x14, 4);
+        System.arraycopy(data, 0, sector, 0x18, 2048);
+        ByteUtil.writeLeInt(edc(sector, 0x10, 0x808), sector, 0x818);
+        parity(sector, 86, 24, 2, 86, 0x81c);
+        parity(sector, 52, 43, 86, 88, 0x8c8);
+
+        int frames = lba + 150;
+        sector[0x0c] = bcd(frames / 75 / 60);
+        sector[0x0d] = bcd(frames / 75 % 60);
+        sector[0x0e] = bcd(frames % 75);
+        sector[0x0f] = 2;
+        return sector;
+    }
+
+    private static byte bcd(int value) {
+        return (byte) ((value / 10) << 4 | (value % 10));
+    }
+
+    private static byte[] userData(int lba) {
+        byte[] data = new byte[2048];
+        byte[] text = ("sector " + lba + ", the quick brown fox jumps over the lazy dog. ").getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (text[i % text.length] ^ i);
+        }
+        return data;
+    }
+
+    @Test
+    void edcCheckValue() throws Exception {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x6ec2_edc4, edc(check, 0, check.length));
+        assertEquals(0x6ec2_edc4, CdChecksums.computeEdc(0, check, check.length));
+    }
+
+    @Test
+    void mode2Form1() throws Exception {
+        byte[] sector = mode2Form1Sector(16, userData(16));
+
+        Boolean[] eccP = new Boolean[1];
+        Boolean[] eccQ = new Boolean[1];
+        Boolean[] edc = new Boolean[1];
+        assertEquals(Boolean.TRUE, CdChecksums.checkCdSector(sector, eccP, eccQ, edc));
+        assertEquals(Boolean.TRUE, eccP[0]);
+        assertEquals(Boolean.TRUE, eccQ[0]);
+        assertEquals(Boolean.TRUE, edc[0]);
+
+        // a byte of user data changed breaks everything
+        byte[] bad = sector.clone();
+        bad[0x100] ^= 0x01;
+        assertEquals(Boolean.FALSE, CdChecksums.checkCdSector(bad, eccP, eccQ, edc));
+        assertEquals(Boolean.FALSE, edc[0]);
+
+        // and a byte of the Q parity only that
+        bad = sector.clone();
+        bad[0x8c8 + 7] ^= (byte) 0x80;
+        assertEquals(Boolean.FALSE, CdChecksums.checkCdSector(bad, eccP, eccQ, edc));
+        assertEquals(Boolean.TRUE, eccP[0]);
+        assertEquals(Boolean.FALSE, eccQ[0]);
+        assertEquals(Boolean.TRUE, edc[0]);
+
+        // a form 2 sector without an EDC is taken as it is
+        byte[] form2 = sector.clone();
+        form2[0x12] = form2[0x16] = 0x20;
+        ByteUtil.writeLeInt(0, form2, 0x92c);
+        assertEquals(Boolean.TRUE, CdChecksums.checkCdSector(form2));
+    }
+
+    @Test
+    void mode2BufferVerifiesRun() throws Exception {
+        int numSectors = 64;
+        MemoryStream image = new MemoryStream();
+        byte[] expected = new byte[numSectors * 2048];
+        for (int i = 0; i < numSectors; i++) {
+            byte[] data = userData(i);
+            System.arraycopy(data, 0, expected, i * 2048, 2048);
+            byte[] sector = mode2Form1Sector(i, data);
+            if (i == 5 || i == 40) {
+                sector[0x400] ^= 0x10;
+            }
+            if (i == 63) {
+                sector[0x818] ^= 0x01;
+            }
+            image.write(sector, 0, sector.length);
+        }
+        image.position(0);
+
+        try (Disc disc = new Disc(image, Ownership.None, OpticalFormat.Mode2)) {
+            DiscImageFile file = (DiscImageFile) disc.getLayers().get(0);
+            file.setVerifySectors(true);
+
+            // one run of raw sectors, read together
+            disc.getContent().position(0);
+            byte[] read = StreamUtilities.readExact(disc.getContent(), expected.length);
+            // the user data is what was stored, good or not
+            byte[] stored = expected.clone();
+            stored[5 * 2048 + 0x400 - 0x18] ^= 0x10;
+            stored[40 * 2048 + 0x400 - 0x18] ^= 0x10;
+            assertArrayEquals(stored, read);
+
+            List<Long> badSectors = file.getBadSectors();
+            assertEquals(List.of(5L, 40L, 63L), badSectors);
+
+            // read again, off the sector boundaries, and nothing else is found
+            disc.getContent().position(1000);
+            StreamUtilities.readExact(disc.getContent(), 30 * 2048);
+            assertEquals(badSectors, file.getBadSectors());
+        }
+    }
+}
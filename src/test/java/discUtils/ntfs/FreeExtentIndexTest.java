@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.util.List;
+
+import discUtils.core.Geometry;
+import discUtils.streams.SparseMemoryStream;
+import discUtils.streams.util.Range;
+import dotnet4j.io.MemoryStream;
+import dotnet4j.util.compat.Tuple;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+/**
+ * FreeExtentIndexTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class FreeExtentIndexTest {
+
+    private static FreeExtentIndex scan(byte[] bits, long size) {
+        return FreeExtentIndex.scan(new Bitmap(new MemoryStream(bits), size), size);
+    }
+
+    private static void assertRange(long offset, long count, Range range) {
+        assertNotNull(range);
+        assertEquals(offset, range.getOffset());
+        assertEquals(count, range.getCount());
+    }
+
+    @Test
+    void markUsedSplits() throws Exception {
+        FreeExtentIndex index = scan(new byte[128], 1000);
+        assertRange(0, 1000, index.getFreeAt(0, 1000));
+
+        index.markUsed(100, 50);
+        assertRange(0, 100, index.getFreeAt(0, 1000));
+        assertNull(index.getFreeAt(120, 1000));
+        assertRange(150, 850, index.findNext(100, 1000));
+        assertEquals(950, index.getFreeCount());
+        assertEquals(50, index.getUsedCount());
+
+        // across both ends of the gap, and partly in use already
+        index.markUsed(90, 70);
+        assertRange(0, 90, index.getFreeAt(0, 1000));
+        assertRange(160, 840, index.findNext(90, 1000));
+        assertEquals(930, index.getFreeCount());
+
+        // spanning several runs
+        index.markUsed(200, 10);
+        index.markUsed(300, 10);
+        index.markUsed(50, 500);
+        assertRange(0, 50, index.getFreeAt(0, 1000));
+        assertRange(550, 450, index.findNext(50, 1000));
+        assertEquals(500, index.getFreeCount());
+    }
+
+    @Test
+    void markFreeMerges() throws Exception {
+        FreeExtentIndex index = scan(new byte[128], 1000);
+        index.markUsed(100, 50);
+        index.markUsed(200, 10);
+
+        // adjoining the run before only
+        index.markFree(100, 5);
+        assertRange(0, 105, index.getFreeAt(0, 1000));
+        assertNull(index.getFreeAt(105, 1000));
+
+        // adjoining the run after only
+        index.markFree(145, 5);
+        assertRange(145, 55, index.getFreeAt(145, 1000));
+
+        // bridging two runs, overlapping both
+        index.markFree(95, 60);
+        assertRange(0, 200, index.getFreeAt(0, 1000));
+        assertRange(210, 790, index.findNext(200, 1000));
+
+        index.markFree(200, 10);
+        assertRange(0, 1000, index.getFreeAt(0, 1000));
+        assertEquals(1000, index.getFreeCount());
+    }
+
+    @Test
+    void scanMixedWords() throws Exception {
+        byte[] bits = new byte[32];
+        bits[0] = (byte) 0xff; // 0-7 used
+        bits[1] = 0x0f; // 8-11 used, 12-15 free
+        for (int i = 8; i < 16; ++i) {
+            bits[i] = (byte) 0xff; // 64-127 used
+        }
+        bits[16] = 0x01; // 128 used
+        bits[23] = (byte) 0x80; // 191 used
+        // 192-255 free, and beyond the bitmap up to 300
+
+        FreeExtentIndex index = scan(bits, 300);
+        assertRange(12, 52, index.findNext(0, 300));
+        assertRange(129, 62, index.findNext(64, 300));
+        assertRange(192, 108, index.findNext(191, 300));
+        assertNull(index.getFreeAt(128, 300));
+        assertEquals(52 + 62 + 108, index.getFreeCount());
+        assertEquals(300 - index.getFreeCount(), index.getUsedCount());
+    }
+
+    @Test
+    void scanPartialWord() throws Exception {
+        FreeExtentIndex index = scan(new byte[] {(byte) 0xff, 0, (byte) 0xf0}, 24);
+        assertRange(8, 12, index.findNext(0, 24));
+        assertNull(index.findNext(20, 24));
+        assertEquals(12, index.getFreeCount());
+    }
+
+    @Test
+    void bestFit() throws Exception {
+        FreeExtentIndex index = scan(new byte[128], 1000);
+        index.markUsed(0, 1000);
+        index.markFree(100, 10);
+        index.markFree(300, 5);
+        index.markFree(500, 20);
+
+        assertRange(300, 5, index.findBestFit(5, 0, 1000));
+        assertRange(100, 6, index.findBestFit(6, 0, 1000));
+        assertRange(500, 11, index.findBestFit(11, 0, 1000));
+        assertNull(index.findBestFit(21, 0, 1000));
+
+        // only the part of a run in the range counts
+        assertRange(500, 5, index.findBestFit(5, 400, 1000));
+        assertRange(500, 8, index.findBestFit(8, 103, 1000));
+        assertRange(103, 7, index.findBestFit(7, 103, 1000));
+        assertNull(index.findBestFit(5, 0, 100));
+    }
+
+    @Test
+    void bestFitManyRuns() throws Exception {
+        FreeExtentIndex index = scan(new byte[4096], 32768);
+        index.markUsed(0, 32768);
+        // more short runs outside the range than are tried by length
+        for (int i = 0; i < 1000; ++i) {
+            index.markFree(i * 4L, 2);
+        }
+        index.markFree(30000, 3);
+        index.markFree(31000, 2);
+
+        assertRange(31000, 2, index.findBestFit(2, 20000, 32768));
+        assertRange(30000, 3, index.findBestFit(3, 20000, 32768));
+        assertNull(index.findBestFit(4, 20000, 32768));
+        assertRange(0, 2, index.findBestFit(2, 0, 32768));
+    }
+
+    @Test
+    void rotorWraps() throws Exception {
+        long size = 30 * 1024 * 1024;
+        SparseMemoryStream partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            ClusterBitmap bitmap = ntfs.getContext().getClusterBitmap();
+            long totalClusters = ntfs.getTotalClusters();
+
+            // only two free runs left, the second far ahead of the first
+            bitmap.markAllocated(totalClusters / 8, totalClusters - totalClusters / 8);
+            long first = totalClusters / 4;
+            long second = totalClusters - 100;
+            bitmap.freeClusters(new Range(first, 10), new Range(second, 5));
+
+            // a total of 0 asks for no headroom, so the best fit is exact
+            List<Tuple<Long, Long>> runs = bitmap.allocateClusters(5, -1, false, 0);
+            assertEquals(1, runs.size());
+            assertEquals(second, (long) runs.get(0).getItem1());
+
+            // nothing fits ahead of the rotor any more, so it wraps around
+            runs = bitmap.allocateClusters(8, -1, false, 0);
+            assertEquals(1, runs.size());
+            assertEquals(first, (long) runs.get(0).getItem1());
+            assertEquals(8, (long) runs.get(0).getItem2());
+        }
+    }
+}
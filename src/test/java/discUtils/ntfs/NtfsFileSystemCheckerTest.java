@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.EnumSet;
+import java.util.List;
+
+import discUtils.core.Geometry;
+import discUtils.core.ReportLevels;
+import discUtils.streams.SparseMemoryStream;
+import discUtils.streams.util.Range;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.FileMode;
+import dotnet4j.io.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * NtfsFileSystemCheckerTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class NtfsFileSystemCheckerTest {
+
+    /** enough in-use files for the clusters to be claimed by several tasks */
+    private static final int NumFiles = 2200;
+
+    private SparseMemoryStream partStream;
+
+    /** a volume with many files, two of them sharing their clusters */
+    @BeforeEach
+    void before() throws Exception {
+        long size = 40 * 1024 * 1024;
+        partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            byte[] content = new byte[64 * 1024];
+            try (Stream s = ntfs.openFile("a", FileMode.Create, FileAccess.ReadWrite)) {
+                s.write(content, 0, content.length);
+            }
+
+            ntfs.beginBulkIngest();
+            ntfs.createDirectory("dir");
+            for (int i = 0; i < NumFiles; ++i) {
+                ntfs.openFile("dir/file" + i, FileMode.Create, FileAccess.ReadWrite).close();
+            }
+            ntfs.endBulkIngest();
+
+            // leave only the clusters of a free, without telling a, so b is given them too
+            List<Range> clustersOfA = ntfs.pathToClusters("a");
+            ClusterBitmap bitmap = ntfs.getContext().getClusterBitmap();
+            bitmap.markAllocated(0, ntfs.getTotalClusters());
+            bitmap.freeClusters(clustersOfA.toArray(new Range[0]));
+            try (Stream s = ntfs.openFile("b", FileMode.Create, FileAccess.ReadWrite)) {
+                s.write(content, 0, content.length);
+            }
+            assertEquals(clustersOfA.get(0).getOffset(), ntfs.pathToClusters("b").get(0).getOffset());
+        }
+    }
+
+    private String check(EnumSet<ReportLevels> levels, boolean[] result) {
+        StringWriter report = new StringWriter();
+        result[0] = new NtfsFileSystemChecker(partStream).check(new PrintWriter(report), levels);
+        return report.toString();
+    }
+
+    @Test
+    void doubleAllocation() throws Exception {
+        boolean[] result = new boolean[1];
+        String report = check(EnumSet.of(ReportLevels.Errors), result);
+        assertFalse(result[0]);
+        assertTrue(report.contains("Two attributes referencing cluster"), report);
+
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(report, check(EnumSet.of(ReportLevels.Errors), result));
+            assertFalse(result[0]);
+        }
+    }
+
+    @Test
+    void errorsBeforeInformation() throws Exception {
+        boolean[] result = new boolean[1];
+        String report = check(ReportLevels.All, result);
+        int error = report.indexOf("ERROR: ");
+        assertTrue(error >= 0, report);
+        // the phase summary and the dump at the end are reported after the errors
+        assertTrue(report.indexOf("INFO: ", error) > error, report);
+        assertFalse(result[0]);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.ntfs;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import discUtils.core.Geometry;
+import discUtils.streams.SparseMemoryStream;
+import discUtils.streams.SparseStream;
+import discUtils.streams.StreamExtent;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.FileMode;
+import dotnet4j.io.Stream;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * UsnJournalTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class UsnJournalTest {
+
+    /** the start of the journal Windows has already freed */
+    private static final int Released = 0x10000;
+
+    /** where the journal goes on after a hole far too large to read through */
+    private static final long Far = 1L << 40;
+
+    /** a journal as Windows leaves it: sparse, its start freed, version 3 records after version 2 ones */
+    @Test
+    void sparseJournal() throws Exception {
+        long size = 40 * 1024 * 1024;
+        SparseMemoryStream partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            ntfs.createDirectory("dir");
+            ntfs.openFile("dir/file.txt", FileMode.Create, FileAccess.ReadWrite).close();
+            long dirId = ntfs.getFileId("dir");
+            long fileId = ntfs.getFileId("dir/file.txt");
+
+            ntfs.openFile("$Extend/$UsnJrnl", FileMode.Create, FileAccess.ReadWrite).close();
+            try (Stream s = ntfs.openFile("$Extend/$UsnJrnl:$Max", FileMode.Create, FileAccess.ReadWrite)) {
+                byte[] max = new byte[0x20];
+                ByteUtil.writeLeLong(0x1234, max, 0x10);
+                s.write(max, 0, max.length);
+            }
+            try (Stream s = ntfs.openFile("$Extend/$UsnJrnl:$J", FileMode.Create, FileAccess.ReadWrite)) {
+                for (int usn = 0; usn < Released; usn += 0x1000) {
+                    writeUsnRecord(s, 2, usn, fileId, dirId, "gone.txt");
+                }
+            }
+            markSparse(ntfs, "$Extend/$UsnJrnl", "$J");
+
+            int v2Length;
+            try (SparseStream s = ntfs.openFile("$Extend/$UsnJrnl:$J", FileMode.Open, FileAccess.ReadWrite)) {
+                s.position(0);
+                s.clear(Released);
+                v2Length = writeUsnRecord(s, 2, Released, fileId, dirId, "file.txt");
+                writeUsnRecord(s, 3, Released + v2Length, fileId, dirId, "file.txt");
+                writeUsnRecord(s, 3, Far, fileId, dirId, "file.txt");
+
+                List<StreamExtent> extents = s.getExtents();
+                assertEquals(2, extents.size());
+                assertEquals(Released, extents.get(0).getStart());
+                assertEquals(Far & ~0xfffL, extents.get(1).getStart());
+            }
+
+            UsnJournal journal = ntfs.getUsnJournal();
+            assertEquals(0, journal.getLowestValidUsn());
+            // only the allocated extents are read, the hole would take hours
+            List<UsnRecord> records = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                List<UsnRecord> result = new ArrayList<>();
+                journal.getRecords(0).forEach(result::add);
+                return result;
+            });
+            assertEquals(3, records.size());
+            assertEquals(Released, records.get(0).getUsn());
+            assertEquals(2, records.get(0).getMajorVersion());
+            assertEquals(Released + v2Length, records.get(1).getUsn());
+            assertEquals(Far, records.get(2).getUsn());
+            for (UsnRecord record : records.subList(1, 3)) {
+                assertEquals(3, record.getMajorVersion());
+                assertEquals(fileId, record.getFileReference().getValue());
+                assertEquals(dirId, record.getParentFileReference().getValue());
+                assertEquals("dir/file.txt", journal.getPath(record));
+            }
+
+            // from a USN in the freed range, and from one in the hole
+            assertEquals(List.of((long) Released, (long) Released + v2Length, Far), usns(journal, 0x800));
+            assertEquals(List.of(Far), usns(journal, Released + 0x1000));
+            assertTrue(journal.getNextUsn() > Far);
+        }
+    }
+
+    private static List<Long> usns(UsnJournal journal, long startUsn) {
+        return assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            List<Long> result = new ArrayList<>();
+            journal.getRecords(startUsn).forEach(r -> result.add(r.getUsn()));
+            return result;
+        });
+    }
+
+    /** as Windows' FSCTL_SET_SPARSE does for a named stream */
+    private static void markSparse(NtfsFileSystem ntfs, String path, String streamName) {
+        try (NtfsTransaction c = new NtfsTransaction()) {
+            File file = ntfs.getFile(ntfs.getDirectoryEntry(path).getReference());
+            NtfsAttribute attr = file.getStream(AttributeType.Data, streamName).getAttribute();
+            assertTrue(attr.isNonResident());
+            attr.addFlag(AttributeFlags.Sparse);
+            attr.setCompressedDataSize(attr.getPrimaryRecord().getAllocatedLength());
+            attr.setCompressionUnitSize(16);
+            ((NonResidentAttributeBuffer) attr.getRawBuffer()).alignVirtualClusterCount();
+            file.updateRecordInMft();
+        }
+    }
+
+    /** @return the length of the record */
+    private static int writeUsnRecord(Stream s, int version, long usn, long fileId, long parentId, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_16LE);
+        // version 3 has 128 bit file ids
+        int ids = version == 2 ? 0 : 0x10;
+        int nameOffset = 0x3c + ids;
+        byte[] buffer = new byte[(nameOffset + nameBytes.length + 7) & ~7];
+        ByteUtil.writeLeInt(buffer.length, buffer, 0x00);
+        ByteUtil.writeLeShort((short) version, buffer, 0x04);
+        ByteUtil.writeLeLong(fileId, buffer, 0x08);
+        ByteUtil.writeLeLong(parentId, buffer, 0x10 + ids / 2);
+        ByteUtil.writeLeLong(usn, buffer, 0x18 + ids);
+        ByteUtil.writeLeInt(0x80000100, buffer, 0x28 + ids);
+        ByteUtil.writeLeShort((short) nameBytes.length, buffer, 0x38 + ids);
+        ByteUtil.writeLeShort((short) nameOffset, buffer, 0x3a + ids);
+        System.arraycopy(nameBytes, 0, buffer, nameOffset, nameBytes.length);
+        s.position(usn);
+        s.write(buffer, 0, buffer.length);
+        return buffer.length;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.wim;
+
+import java.util.Arrays;
+
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.MemoryStream;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * FileResourceStreamTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class FileResourceStreamTest {
+
+    /** counts the reads from the base stream */
+    private static final class CountingStream extends MemoryStream {
+
+        int numReads;
+
+        @Override public int read(byte[] buffer, int offset, int count) {
+            numReads++;
+            return super.read(buffer, offset, count);
+        }
+    }
+
+    @Test
+    void readAheadOnlyWhenSequential() throws Exception {
+        int chunkSize = 16;
+        int numChunks = 32;
+        CountingStream resource = new CountingStream();
+        byte[] header = new byte[16 + numChunks * 4];
+        ByteUtil.writeLeLong((long) numChunks * chunkSize, header, 0);
+        ByteUtil.writeLeInt(chunkSize, header, 8);
+        for (int i = 0; i < numChunks; ++i) {
+            ByteUtil.writeLeInt(chunkSize, header, 16 + i * 4);
+        }
+        resource.write(header, 0, header.length);
+        byte[] data = new byte[numChunks * chunkSize];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        resource.write(data, 0, data.length);
+
+        try (FileResourceStream s = FileResourceStream.openSolid(resource, true)) {
+            // a random read reads the one chunk
+            resource.numReads = 0;
+            s.position(20L * chunkSize + 3);
+            assertEquals((byte) (20 * chunkSize + 3), (byte) s.readByte());
+            assertEquals(1, resource.numReads);
+
+            resource.numReads = 0;
+            s.position(5L * chunkSize);
+            assertEquals((byte) (5 * chunkSize), (byte) s.readByte());
+            assertEquals(1, resource.numReads);
+
+            // reading on from it may read ahead, and gives the same data
+            byte[] buffer = StreamUtilities.readExact(s, 10 * chunkSize);
+            assertArrayEquals(Arrays.copyOfRange(data, 5 * chunkSize + 1, 15 * chunkSize + 1), buffer);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package discUtils.wim;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import discUtils.core.compression.HuffmanTree;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.MemoryStream;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * LzmsDecoderTest.
+ *
+ * The chunks are made by a minimal LZMS encoder (literals, and LZ matches
+ * with offsets and lengths that need no extra bits), written here from the
+ * format rather than from the decoder.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class LzmsDecoderTest {
+
+    /** a binary decision, modelled as the format does */
+    private static final class Bit {
+
+        final int numStates;
+
+        int state;
+
+        final int[] numZeros;
+
+        final long[] recent;
+
+        Bit(int numStates) {
+            this.numStates = numStates;
+            numZeros = new int[numStates];
+            recent = new long[numStates];
+            Arrays.fill(numZeros, 48);
+            Arrays.fill(recent, 0x5555_5555L);
+        }
+
+        int probability() {
+            return Math.max(1, Math.min(63, numZeros[state]));
+        }
+
+        void update(int bit) {
+            numZeros[state] += (int) (recent[state] >>> 63) - bit;
+            recent[state] = (recent[state] << 1) | bit;
+            state = ((state << 1) | bit) & (numStates - 1);
+        }
+    }
+
+    /** a Huffman code rebuilt from the symbol frequencies */
+    private static final class Code {
+
+        final int[] freqs;
+
+        final int rebuildFreq;
+
+        int untilRebuild;
+
+        int[] lengths;
+
+        int[] codewords;
+
+        Code(int numSyms, int rebuildFreq) {
+            freqs = new int[numSyms];
+            Arrays.fill(freqs, 1);
+            this.rebuildFreq = rebuildFreq;
+            build();
+        }
+
+        void encode(Encoder out, int symbol) {
+            out.writeBits(codewords[symbol], lengths[symbol]);
+            freqs[symbol]++;
+            if (--untilRebuild == 0) {
+                build();
+                for (int i = 0; i < freqs.length; ++i) {
+                    freqs[i] = (freqs[i] >>> 1) + 1;
+                }
+            }
+        }
+
+        private void build() {
+            lengths = HuffmanTree.buildLengths(freqs, 15);
+            codewords = new int[lengths.length];
+            int code = 0;
+            for (int length = 1; length <= 15; ++length) {
+                for (int symbol = 0; symbol < lengths.length; ++symbol) {
+                    if (lengths[symbol] == length) {
+                        codewords[symbol] = code++;
+                    }
+                }
+                code <<= 1;
+            }
+            untilRebuild = rebuildFreq;
+        }
+    }
+
+    /** range coded words forwards, Huffman coded words backwards */
+    private static final class Encoder {
+
+        final List<Integer> rangeWords = new ArrayList<>();
+
+        final List<Integer> bitWords = new ArrayList<>();
+
+        long low;
+
+        long range = 0xffff_ffffL;
+
+        int cache;
+
+        int cacheSize = 1;
+
+        boolean skipFirst = true;
+
+        long bitBuffer;
+
+        int bitCount;
+
+        final Bit mainBit = new Bit(16);
+
+        final Bit matchBit = new Bit(32);
+
+        final Bit lzBit = new Bit(64);
+
+        final Bit lzRepBit0 = new Bit(64);
+
+        final Code literalCode = new Code(256, 1024);
+
+        final Code offsetCode;
+
+        final Code lengthCode = new Code(54, 512);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        Encoder(int size) {
+            offsetCode = new Code(LzmsDecoder.numOffsetSlots(size), 1024);
+        }
+
+        void encodeBit(Bit bit, int value) {
+            long bound = (range >>> 6) * bit.probability();
+            if (value == 0) {
+                range = bound;
+            } else {
+                low += bound;
+                range -= bound;
+            }
+            bit.update(value);
+            while (range <= 0xffff) {
+                range <<= 16;
+                shiftLow();
+            }
+        }
+
+        void shiftLow() {
+            if ((low & 0xffff_ffffL) < 0xffff_0000L || (low >>> 32) != 0) {
+                int word = cache;
+                do {
+                    if (skipFirst) {
+                        skipFirst = false;
+                    } else {
+                        rangeWords.add((word + (int) (low >>> 32)) & 0xffff);
+                    }
+                    word = 0xffff;
+                } while (--cacheSize != 0);
+                cache = (int) ((low >>> 16) & 0xffff);
+            }
+            cacheSize++;
+            low = (low & 0xffff) << 16;
+        }
+
+        void writeBits(int value, int count) {
+            bitBuffer = (bitBuffer << count) | value;
+            bitCount += count;
+            while (bitCount >= 16) {
+                bitCount -= 16;
+                bitWords.add((int) (bitBuffer >>> bitCount) & 0xffff);
+            }
+        }
+
+        void literals(String text) {
+            for (byte b : text.getBytes(StandardCharsets.US_ASCII)) {
+                encodeBit(mainBit, 0);
+                literalCode.encode(this, b & 0xff);
+                expected.write(b);
+            }
+        }
+
+        /** offsets 1 to 8 and lengths 1 to 26 need no extra bits */
+        void match(int offset, int length) {
+            encodeBit(mainBit, 1);
+            encodeBit(matchBit, 0);
+            encodeBit(lzBit, 0);
+            offsetCode.encode(this, offset - 1);
+            lengthCode.encode(this, length - 1);
+            copy(offset, length);
+        }
+
+        /** the offset of the match before, only after literals */
+        void repeatMatch(int offset, int length) {
+            encodeBit(mainBit, 1);
+            encodeBit(matchBit, 0);
+            encodeBit(lzBit, 1);
+            encodeBit(lzRepBit0, 0);
+            lengthCode.encode(this, length - 1);
+            copy(offset, length);
+        }
+
+        private void copy(int offset, int length) {
+            byte[] data = expected.toByteArray();
+            for (int i = 0; i < length; ++i) {
+                expected.write(i < offset ? data[data.length - offset + i] : expected.toByteArray()[data.length + i - offset]);
+            }
+        }
+
+        byte[] finish() {
+            for (int i = 0; i < 4; ++i) {
+                shiftLow();
+            }
+            if (bitCount > 0) {
+                bitWords.add((int) (bitBuffer << (16 - bitCount)) & 0xffff);
+            }
+
+            byte[] result = new byte[(rangeWords.size() + bitWords.size()) * 2];
+            int pos = 0;
+            for (int word : rangeWords) {
+                ByteUtil.writeLeShort((short) word, result, pos);
+                pos += 2;
+            }
+            for (int i = bitWords.size() - 1; i >= 0; --i) {
+                ByteUtil.writeLeShort((short) bitWords.get(i).intValue(), result, pos);
+                pos += 2;
+            }
+            return result;
+        }
+    }
+
+    private static final int Chunk0Size = 1024;
+
+    /** literals and matches, no x86 opcodes */
+    private static Encoder encodeChunk() {
+        Encoder encoder = new Encoder(Chunk0Size);
+        encoder.literals("the quick brown fox ");
+        encoder.match(3, 20);
+        encoder.literals("jumps over the lazy dog. ");
+        encoder.repeatMatch(3, 10);
+        while (encoder.expected.size() + 60 < Chunk0Size) {
+            encoder.literals("abcdefg");
+            encoder.match(7, 26);
+            encoder.literals("xyz");
+            encoder.match(1, 9);
+        }
+        encoder.literals("zz");
+        while (encoder.expected.size() < Chunk0Size) {
+            encoder.match(2, Math.min(26, Chunk0Size - encoder.expected.size()));
+        }
+        return encoder;
+    }
+
+    @Test
+    void literals() throws Exception {
+        String text = "the quick brown fox jumps over the lazy dog";
+        Encoder encoder = new Encoder(text.length());
+        encoder.literals(text);
+        byte[] output = new byte[text.length()];
+        LzmsDecoder.decompress(encoder.finish(), output);
+        assertEquals(text, new String(output, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void matches() throws Exception {
+        Encoder encoder = encodeChunk();
+        byte[] compressed = encoder.finish();
+        byte[] output = new byte[Chunk0Size];
+        LzmsDecoder.decompress(compressed, output);
+        assertArrayEquals(encoder.expected.toByteArray(), output);
+        assertEquals("the quick brown fox ox ox ox ox ox ox oxjumps over the lazy dog. g. g. g. gabcde",
+                     new String(output, 0, 80, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void solidResource() throws Exception {
+        byte[] chunk0 = encodeChunk().finish();
+        byte[] expected0 = encodeChunk().expected.toByteArray();
+        // the last chunk is short, and stored as it is
+        byte[] chunk1 = "stored as it is".getBytes(StandardCharsets.US_ASCII);
+
+        byte[] header = new byte[16 + 8];
+        ByteUtil.writeLeLong(Chunk0Size + chunk1.length, header, 0);
+        ByteUtil.writeLeInt(Chunk0Size, header, 8);
+        ByteUtil.writeLeInt(3, header, 12);
+        ByteUtil.writeLeInt(chunk0.length, header, 16);
+        ByteUtil.writeLeInt(chunk1.length, header, 20);
+        MemoryStream resource = new MemoryStream();
+        resource.write(header, 0, header.length);
+        resource.write(chunk0, 0, chunk0.length);
+        resource.write(chunk1, 0, chunk1.length);
+
+        byte[] expected = new byte[Chunk0Size + chunk1.length];
+        System.arraycopy(expected0, 0, expected, 0, Chunk0Size);
+        System.arraycopy(chunk1, 0, expected, Chunk0Size, chunk1.length);
+        for (boolean parallel : new boolean[] {false, true}) {
+            try (FileResourceStream s = FileResourceStream.openSolid(resource, parallel)) {
+                assertEquals(expected.length, s.getLength());
+                assertArrayEquals(expected, StreamUtilities.readExact(s, expected.length));
+
+                s.position(Chunk0Size - 5);
+                assertArrayEquals(Arrays.copyOfRange(expected, Chunk0Size - 5, Chunk0Size + 5), StreamUtilities.readExact(s, 10));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package jpcsp.filesystems.umdiso;
+
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dotnet4j.io.FileAccess;
+import libchdr.Chd;
+import libchdr.Chd.ChdFile;
+import libchdr.ChdHeader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static libchdr.Cdrom.CD_FRAMES_PER_HUNK;
+import static libchdr.Cdrom.CD_MAX_SECTOR_DATA;
+import static libchdr.Cdrom.CD_MAX_SUBCODE_DATA;
+import static libchdr.ChdHeader.ChdError.CHDERR_NONE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * CHDFileSectorDeviceTest.
+ *
+ * The sectors read through the device, whatever the order, are compared with
+ * the hunks of the file decoded one after another by {@link Chd} itself.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class CHDFileSectorDeviceTest {
+
+    private static final String ChdFileName = "src/test/resources/test.chd";
+
+    private static final int SectorLength = ISectorDevice.sectorLength;
+
+    private static final int FrameSize = CD_MAX_SECTOR_DATA + CD_MAX_SUBCODE_DATA;
+
+    /** the user data of every hunk, decoded in order */
+    private byte[] expected;
+
+    private int numHunks;
+
+    @BeforeEach
+    void before() throws Exception {
+        Chd chd = new Chd();
+        ChdFile[] res = new ChdFile[1];
+        assertEquals(CHDERR_NONE, chd.chd_open_file(ChdFileName, FileAccess.Read, null, res));
+        try {
+            ChdHeader header = Chd.chd_get_header(res[0]);
+            numHunks = header.totalhunks;
+            expected = new byte[numHunks * CD_FRAMES_PER_HUNK * SectorLength];
+            byte[] hunk = new byte[header.hunkbytes];
+            for (int h = 0; h < numHunks; h++) {
+                assertEquals(CHDERR_NONE, chd.chd_read(res[0], h, hunk, 0));
+                for (int f = 0; f < CD_FRAMES_PER_HUNK; f++) {
+                    System.arraycopy(hunk, f * FrameSize, expected, (h * CD_FRAMES_PER_HUNK + f) * SectorLength, SectorLength);
+                }
+            }
+        } finally {
+            Chd.chd_close(res[0]);
+        }
+    }
+
+    private static CHDFileSectorDevice open() throws Exception {
+        return new CHDFileSectorDevice(new RandomAccessFile(ChdFileName, "r"), ChdFileName);
+    }
+
+    private void assertSector(byte[] actual, int offset, int sector) {
+        assertArrayEquals(Arrays.copyOfRange(expected, sector * SectorLength, (sector + 1) * SectorLength),
+                          Arrays.copyOfRange(actual, offset, offset + SectorLength),
+                          "sector " + sector);
+    }
+
+    @Test
+    void alternatingHunks() throws Exception {
+        CHDFileSectorDevice device = open();
+        try {
+            int numSectors = device.getNumSectors();
+            assertTrue(numSectors <= numHunks * CD_FRAMES_PER_HUNK);
+
+            // first and last hunks in turn, working inwards, each read twice
+            byte[] sector = new byte[SectorLength];
+            for (int h = 0; h < (numHunks + 1) / 2; h++) {
+                for (int hunk : new int[] {h, numHunks - 1 - h, h, numHunks - 1 - h}) {
+                    int s = Math.min(numSectors - 1, hunk * CD_FRAMES_PER_HUNK + h % CD_FRAMES_PER_HUNK);
+                    device.readSector(s, sector, 0);
+                    assertSector(sector, 0, s);
+                }
+            }
+
+            // and then in order, with the read ahead
+            for (int s = 0; s < numSectors; s++) {
+                device.readSector(s, sector, 0);
+                assertSector(sector, 0, s);
+            }
+        } finally {
+            device.close();
+        }
+    }
+
+    @Test
+    void parallelReaders() throws Exception {
+        CHDFileSectorDevice device = open();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int numSectors = device.getNumSectors();
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int reader = t;
+                readers.add(executor.submit(() -> {
+                    byte[] sector = new byte[SectorLength];
+                    for (int i = 0; i < numSectors; i++) {
+                        // each reader in an order of its own, forwards, backwards or striding
+                        int s = switch (reader) {
+                            case 0 -> i;
+                            case 1 -> numSectors - 1 - i;
+                            case 2 -> (int) ((long) i * 37 % numSectors);
+                            default -> (i % 2 == 0 ? i / 2 : numSectors - 1 - i / 2);
+                        };
+                        device.readSector(s, sector, 0);
+                        assertSector(sector, 0, s);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+
+            // one read of the whole range, decoded together
+            byte[] all = new byte[numSectors * SectorLength];
+            assertEquals(numSectors, device.readSectors(0, numSectors, all, 0));
+            assertArrayEquals(Arrays.copyOf(expected, all.length), all);
+        } finally {
+            executor.shutdown();
+            device.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package jpcsp.filesystems.umdiso;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * CSOFileSectorDeviceTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class CSOFileSectorDeviceTest {
+
+    private static final int SectorLength = ISectorDevice.sectorLength;
+
+    /** more than one batch, and a partial one after */
+    private static final int NumSectors = 300;
+
+    private static final int HeaderSize = 24;
+
+    /**
+     * Writes a CSO of the image, random sectors stored and the others
+     * deflated, with the data aligned to {@code 1 << offsetShift}.
+     */
+    private static byte[] createCso(byte[] image, int offsetShift) throws Exception {
+        int numSectors = image.length / SectorLength;
+        int align = 1 << offsetShift;
+        ByteBuffer index = ByteBuffer.allocate((numSectors + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int dataStart = HeaderSize + index.capacity();
+        dataStart = (dataStart + align - 1) / align * align;
+        for (int i = 0; i < numSectors; i++) {
+            int pos = dataStart + data.size();
+            byte[] deflated = deflate(Arrays.copyOfRange(image, i * SectorLength, (i + 1) * SectorLength));
+            if (deflated.length < SectorLength) {
+                index.putInt(i * 4, pos >> offsetShift);
+                data.write(deflated);
+            } else {
+                index.putInt(i * 4, (pos >> offsetShift) | 0x8000_0000);
+                data.write(image, i * SectorLength, SectorLength);
+            }
+            while (data.size() % align != 0) {
+                data.write(0);
+            }
+        }
+        index.putInt(numSectors * 4, (dataStart + data.size()) >> offsetShift);
+
+        ByteBuffer header = ByteBuffer.allocate(dataStart).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("CISO".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(HeaderSize);
+        header.putLong(image.length);
+        header.putInt(SectorLength);
+        header.put((byte) 1);
+        header.put((byte) offsetShift);
+        header.put(HeaderSize, index.array());
+
+        ByteArrayOutputStream cso = new ByteArrayOutputStream();
+        cso.write(header.array());
+        cso.write(data.toByteArray());
+        return cso.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] sector) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(sector);
+            deflater.finish();
+            byte[] buffer = new byte[sector.length * 2];
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] createImage() {
+        byte[] image = new byte[NumSectors * SectorLength];
+        Random random = new Random(1234);
+        byte[] text = "the quick brown fox jumps over the lazy dog. ".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < NumSectors; i++) {
+            if (i % 7 == 3) {
+                byte[] noise = new byte[SectorLength];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, image, i * SectorLength, SectorLength);
+            } else if (i % 7 != 5) {
+                for (int j = 0; j < SectorLength; j++) {
+                    image[i * SectorLength + j] = (byte) (text[(i + j) % text.length] + i);
+                }
+            }
+        }
+        return image;
+    }
+
+    private static CSOFileSectorDevice open(byte[] cso) throws Exception {
+        File file = File.createTempFile("test", ".cso");
+        file.deleteOnExit();
+        Files.write(file.toPath(), cso);
+        RandomAccessFile fileAccess = new RandomAccessFile(file, "r");
+        byte[] header = new byte[HeaderSize];
+        fileAccess.readFully(header);
+        return new CSOFileSectorDevice(fileAccess, header);
+    }
+
+    @Test
+    void batchMatchesSingleSectors() throws Exception {
+        byte[] image = createImage();
+        for (int offsetShift : new int[] {0, 2}) {
+            CSOFileSectorDevice device = open(createCso(image, offsetShift));
+            try {
+                assertEquals(NumSectors, device.getNumSectors());
+
+                byte[] single = new byte[image.length];
+                for (int i = 0; i < NumSectors; i++) {
+                    device.readSector(i, single, i * SectorLength);
+                }
+                assertArrayEquals(image, single);
+
+                byte[] batch = new byte[image.length];
+                assertEquals(NumSectors, device.readSectors(0, NumSectors, batch, 0));
+                assertArrayEquals(single, batch);
+
+                // unaligned runs, some within one parallel chunk
+                for (int[] run : new int[][] {{1, 5}, {31, 34}, {100, 199}, {250, 50}}) {
+                    byte[] part = new byte[run[1] * SectorLength + 3];
+                    device.readSectors(run[0], run[1], part, 3);
+                    assertArrayEquals(Arrays.copyOfRange(single, run[0] * SectorLength, (run[0] + run[1]) * SectorLength),
+                                      Arrays.copyOfRange(part, 3, part.length));
+                }
+            } finally {
+                device.close();
+            }
+        }
+    }
+
+    @Test
+    void truncatedFileReadsZeros() throws Exception {
+        byte[] image = createImage();
+        // the last sector is random, so stored, cut it short
+        Random random = new Random(99);
+        byte[] noise = new byte[SectorLength];
+        random.nextBytes(noise);
+        System.arraycopy(noise, 0, image, (NumSectors - 1) * SectorLength, SectorLength);
+        byte[] cso = createCso(image, 0);
+
+        CSOFileSectorDevice device = open(Arrays.copyOf(cso, cso.length - 1000));
+        try {
+            byte[] expected = Arrays.copyOf(image, image.length);
+            Arrays.fill(expected, image.length - 1000, image.length, (byte) 0);
+
+            byte[] batch = new byte[image.length];
+            device.readSectors(0, NumSectors, batch, 0);
+            assertArrayEquals(expected, batch);
+
+            byte[] last = new byte[SectorLength];
+            device.readSector(NumSectors - 1, last, 0);
+            assertArrayEquals(Arrays.copyOfRange(expected, image.length - SectorLength, image.length), last);
+        } finally {
+            device.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import discUtils.core.ClusterMap;
+import discUtils.core.ClusterRoles;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * ClusterMapTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class ClusterMapTest {
+
+    @Test
+    void runs() {
+        long total = 1L << 40;
+        Map<Object, String[]> paths = new HashMap<>();
+        paths.put("a", new String[] {"a"});
+        paths.put("b", new String[] {"b", "c"});
+        paths.put("d", new String[] {"d"});
+        paths.put("e", new String[] {"e"});
+
+        ClusterMap.Builder first = new ClusterMap.Builder(total);
+        first.addRun(0x1_0000_0010L, 16, EnumSet.of(ClusterRoles.DataFile), "a");
+        first.addRun(0, 4, EnumSet.of(ClusterRoles.SystemFile, ClusterRoles.BootArea), "boot");
+        first.addRun(0x2_0000_0008L, 8, EnumSet.of(ClusterRoles.DataFile), "d");
+        first.addRun(0x2_0000_0020L, 8, EnumSet.of(ClusterRoles.DataFile), "d");
+        ClusterMap.Builder second = new ClusterMap.Builder(total);
+        second.addRun(0x1_0000_0000L, 16, EnumSet.of(ClusterRoles.DataFile), "a");
+        second.addRun(0x1_0000_0018L, 16, EnumSet.of(ClusterRoles.DataFile), "b");
+        second.addRun(total - 2, 10, EnumSet.of(ClusterRoles.DataFile), "b");
+        second.addRun(0x2_0000_0000L, 16, EnumSet.of(ClusterRoles.DataFile), "e");
+        second.addRun(0x2_0000_0020L, 8, EnumSet.of(ClusterRoles.DataFile), "e");
+        first.addAll(second);
+        ClusterMap map = first.build(paths);
+
+        // the two runs of "a" merge, "b" loses the overlap to "a"
+        assertEquals(6, map.getRunCount());
+        assertEquals(EnumSet.of(ClusterRoles.SystemFile, ClusterRoles.BootArea), map.getRole(3));
+        assertEquals(EnumSet.of(ClusterRoles.Free), map.getRole(4));
+        assertArrayEquals(new String[] {"a"}, map.clusterToPaths(0x1_0000_0000L));
+        assertArrayEquals(new String[] {"a"}, map.clusterToPaths(0x1_0000_001fL));
+        assertArrayEquals(new String[] {"b", "c"}, map.clusterToPaths(0x1_0000_0020L));
+        assertArrayEquals(new String[0], map.clusterToPaths(0x1_0000_0028L));
+        // "d" added first loses to "e" starting first, but not when both start together
+        assertArrayEquals(new String[] {"e"}, map.clusterToPaths(0x2_0000_0008L));
+        assertArrayEquals(new String[] {"e"}, map.clusterToPaths(0x2_0000_000fL));
+        assertArrayEquals(new String[] {"d"}, map.clusterToPaths(0x2_0000_0020L));
+        assertEquals(EnumSet.of(ClusterRoles.DataFile), map.getRole(total - 1));
+        assertEquals(EnumSet.noneOf(ClusterRoles.class), map.getRole(total));
+    }
+}
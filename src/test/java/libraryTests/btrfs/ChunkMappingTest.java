@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.btrfs;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.UUID;
+
+import discUtils.btrfs.BtrfsFileSystemOptions;
+import discUtils.btrfs.Context;
+import discUtils.btrfs.SuperBlock;
+import discUtils.btrfs.base.BlockGroupFlag;
+import discUtils.btrfs.base.ItemType;
+import discUtils.btrfs.base.Key;
+import discUtils.btrfs.base.ReservedObjectId;
+import discUtils.btrfs.base.Stripe;
+import discUtils.btrfs.base.items.ChunkItem;
+import dotnet4j.io.IOException;
+import dotnet4j.io.MemoryStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * ChunkMappingTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (nsano)
+ * @version 0.00 2026-10-19 nsano initial version <br>
+ */
+class ChunkMappingTest {
+
+    private static final long ChunkStart = 0x100000;
+
+    private static final int StripeLength = 0x1000;
+
+    private static final UUID Dev1 = UUID.randomUUID();
+
+    private static final UUID Dev2 = UUID.randomUUID();
+
+    private static Context createContext(EnumSet<BlockGroupFlag> type, long chunkSize, boolean parallel) {
+        return createContext(parallel, createChunk(ChunkStart, type, chunkSize, 0x1000, 0x2000));
+    }
+
+    private static ChunkItem createChunk(long start, EnumSet<BlockGroupFlag> type, long chunkSize, long offset1, long offset2) {
+        Stripe stripe1 = new Stripe();
+        stripe1.setDeviceId(1);
+        stripe1.setDeviceUuid(Dev1);
+        stripe1.setOffset(offset1);
+        Stripe stripe2 = new Stripe();
+        stripe2.setDeviceId(2);
+        stripe2.setDeviceUuid(Dev2);
+        stripe2.setOffset(offset2);
+
+        ChunkItem chunk = new ChunkItem(new Key(ReservedObjectId.FirstChunkTree.getValue(), ItemType.ChunkItem, start));
+        chunk.setChunkSize(chunkSize);
+        chunk.setStripeLength(StripeLength);
+        chunk.setType(type);
+        chunk.setStripeCount((short) 2);
+        chunk.setSubStripes((short) 1);
+        chunk.setStripes(new Stripe[] {stripe1, stripe2});
+        return chunk;
+    }
+
+    private static Context createContext(boolean parallel, ChunkItem... chunks) {
+        SuperBlock superBlock = new SuperBlock();
+        superBlock.setSystemChunkArray(chunks);
+
+        BtrfsFileSystemOptions options = new BtrfsFileSystemOptions();
+        options.setParallelDeviceReads(parallel);
+        Context context = new Context(options);
+        context.setSuperBlock(superBlock);
+        return context;
+    }
+
+    private static byte[] device(int fill, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (fill + i / StripeLength);
+        }
+        return data;
+    }
+
+    @Test
+    void raid0() throws Exception {
+        for (boolean parallel : new boolean[] {false, true}) {
+            Context context = createContext(EnumSet.of(BlockGroupFlag.Data, BlockGroupFlag.Raid0), 4 * StripeLength, parallel);
+            context.addDevice(Dev1, new MemoryStream(device(0x10, 0x4000)));
+            context.addDevice(Dev2, new MemoryStream(device(0x20, 0x5000)));
+
+            byte[] buffer = new byte[4 * StripeLength];
+            assertEquals(buffer.length, context.read(ChunkStart, buffer, 0, buffer.length));
+            // stripes alternate between the devices, starting at their stripe offsets
+            assertEquals(0x11, buffer[0]);
+            assertEquals(0x22, buffer[StripeLength]);
+            assertEquals(0x12, buffer[2 * StripeLength]);
+            assertEquals(0x23, buffer[3 * StripeLength + StripeLength - 1]);
+            assertEquals(0x1000 + StripeLength + 10, context.mapToPhysical(ChunkStart + 2 * StripeLength + 10));
+        }
+    }
+
+    @Test
+    void raid1MissingMirror() throws Exception {
+        Context context = createContext(EnumSet.of(BlockGroupFlag.Data, BlockGroupFlag.Raid1), 2 * StripeLength, true);
+        context.addDevice(Dev2, new MemoryStream(device(0x20, 0x4000)));
+
+        byte[] buffer = new byte[2 * StripeLength];
+        assertEquals(buffer.length, context.read(ChunkStart, buffer, 0, buffer.length));
+        byte[] expected = new byte[2 * StripeLength];
+        System.arraycopy(device(0x20, 0x4000), 0x2000, expected, 0, expected.length);
+        assertArrayEquals(expected, buffer);
+    }
+
+    @Test
+    void raid0MissingDevice() throws Exception {
+        Context context = createContext(EnumSet.of(BlockGroupFlag.Data, BlockGroupFlag.Raid0), 4 * StripeLength, false);
+        context.addDevice(Dev1, new MemoryStream(device(0x10, 0x4000)));
+
+        byte[] buffer = new byte[2 * StripeLength];
+        assertThrows(IOException.class, () -> context.read(ChunkStart + StripeLength, buffer, 0, buffer.length));
+    }
+
+    @Test
+    void raid0MissingDeviceMidRead() throws Exception {
+        Context context = createContext(EnumSet.of(BlockGroupFlag.Data, BlockGroupFlag.Raid0), 4 * StripeLength, false);
+        context.addDevice(Dev1, new MemoryStream(device(0x10, 0x4000)));
+
+        // the first stripe is there, the second isn't: not a short read
+        byte[] buffer = new byte[2 * StripeLength];
+        assertThrows(IOException.class, () -> context.read(ChunkStart, buffer, 0, buffer.length));
+    }
+
+    @Test
+    void multiDeviceAcrossChunks() throws Exception {
+        byte[] dev1 = device(0x10, 0x8000);
+        byte[] dev2 = device(0x20, 0x8000);
+        // the mirrors hold the same data
+        System.arraycopy(dev1, 0x4000, dev2, 0x5000, 3 * StripeLength);
+        // RAID0 then RAID1, back to back in the logical address space
+        long raid1Start = ChunkStart + 4 * StripeLength;
+        ChunkItem raid0 = createChunk(ChunkStart, EnumSet.of(BlockGroupFlag.Data, BlockGroupFlag.Raid0), 4 * StripeLength, 0x1000, 0x2000);
+        ChunkItem raid1 = createChunk(raid1Start, EnumSet.of(BlockGroupFlag.Data, BlockGroupFlag.Raid1), 3 * StripeLength, 0x4000, 0x5000);
+
+        byte[] expected = new byte[7 * StripeLength];
+        System.arraycopy(dev1, 0x1000, expected, 0, StripeLength);
+        System.arraycopy(dev2, 0x2000, expected, StripeLength, StripeLength);
+        System.arraycopy(dev1, 0x2000, expected, 2 * StripeLength, StripeLength);
+        System.arraycopy(dev2, 0x3000, expected, 3 * StripeLength, StripeLength);
+        System.arraycopy(dev1, 0x4000, expected, 4 * StripeLength, 3 * StripeLength);
+
+        for (boolean parallel : new boolean[] {false, true}) {
+            Context context = createContext(parallel, raid0, raid1);
+            context.addDevice(Dev1, new MemoryStream(dev1));
+            context.addDevice(Dev2, new MemoryStream(dev2));
+
+            byte[] buffer = new byte[expected.length];
+            assertEquals(buffer.length, context.read(ChunkStart, buffer, 0, buffer.length));
+            assertArrayEquals(expected, buffer);
+
+            // unaligned, across the chunk boundary
+            buffer = new byte[2 * StripeLength];
+            assertEquals(buffer.length, context.read(raid1Start - 100, buffer, 0, buffer.length));
+            assertArrayEquals(Arrays.copyOfRange(expected, 4 * StripeLength - 100, 6 * StripeLength - 100), buffer);
+
+            // only the end of the address space makes a read short
+            buffer = new byte[2 * StripeLength];
+            assertEquals(StripeLength, context.read(ChunkStart + 6 * StripeLength, buffer, 0, buffer.length));
+            assertArrayEquals(Arrays.copyOfRange(expected, 6 * StripeLength, 7 * StripeLength), Arrays.copyOf(buffer, StripeLength));
+        }
+    }
+}
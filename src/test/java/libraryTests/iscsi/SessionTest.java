@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.iscsi;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import discUtils.iscsi.DiskStream;
+import discUtils.iscsi.Initiator;
+import discUtils.iscsi.ScsiCommandException;
+import discUtils.iscsi.ScsiReadCommand;
+import discUtils.iscsi.ScsiWriteCommand;
+import discUtils.iscsi.Session;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.FileAccess;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * SessionTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class SessionTest {
+
+    @Test
+    void readWrite() throws Exception {
+        try (Target target = new Target(8 * 1024 * 1024, 512, 4)) {
+            Session session = new Initiator().connectTo("iqn.2026-10.test:disk", "127.0.0.1:" + target.getPort());
+            byte[] expected = new byte[target.disk.length];
+            Random random = new Random(1);
+
+            try (DiskStream stream = new DiskStream(session, 0, FileAccess.ReadWrite)) {
+                assertEquals(expected.length, stream.getLength());
+
+                // whole blocks, more than one command's worth
+                byte[] data = new byte[3 * 1024 * 1024 + 512];
+                random.nextBytes(data);
+                stream.position(5 * 512);
+                stream.write(data, 0, data.length);
+                System.arraycopy(data, 0, expected, 5 * 512, data.length);
+
+                // partial blocks
+                data = new byte[1000];
+                random.nextBytes(data);
+                stream.position(4 * 1024 * 1024 + 100);
+                stream.write(data, 0, data.length);
+                System.arraycopy(data, 0, expected, 4 * 1024 * 1024 + 100, data.length);
+
+                assertArrayEquals(expected, target.disk);
+
+                byte[] actual = new byte[expected.length];
+                stream.position(0);
+                StreamUtilities.readExact(stream, actual, 0, actual.length);
+                assertArrayEquals(expected, actual);
+
+                actual = new byte[12345];
+                stream.position(777);
+                StreamUtilities.readExact(stream, actual, 0, actual.length);
+                assertArrayEquals(Arrays.copyOfRange(expected, 777, 777 + actual.length), actual);
+            }
+
+            // commands were pipelined, within the target's window
+            assertTrue(target.maxOutstanding > 1, "max outstanding: " + target.maxOutstanding);
+            assertTrue(target.maxOutstanding <= 4, "max outstanding: " + target.maxOutstanding);
+        }
+    }
+
+    @Test
+    void failureMidBatch() throws Exception {
+        try (Target target = new Target(8 * 1024 * 1024, 512, 4)) {
+            Session session = new Initiator().connectTo("iqn.2026-10.test:disk", "127.0.0.1:" + target.getPort());
+            new Random(2).nextBytes(target.disk);
+
+            // four commands, the second fails
+            target.failLba = 2048;
+            byte[] buffer = new byte[4 * 1024 * 1024];
+            assertThrows(ScsiCommandException.class, () -> session.read(0, 0, 8192, 512, buffer, 0));
+            // the commands after it were waited for too
+            assertArrayEquals(Arrays.copyOfRange(target.disk, 3 * 1024 * 1024, 4 * 1024 * 1024),
+                              Arrays.copyOfRange(buffer, 3 * 1024 * 1024, 4 * 1024 * 1024));
+
+            // nothing is left in flight to get in the way of the next commands
+            target.failLba = -1;
+            Arrays.fill(buffer, (byte) 0);
+            assertEquals(buffer.length, session.read(0, 0, 8192, 512, buffer, 0));
+            assertArrayEquals(Arrays.copyOf(target.disk, buffer.length), buffer);
+        }
+    }
+
+    @Test
+    void longCommands() {
+        byte[] cdb = new byte[16];
+        new ScsiReadCommand(0, 0xffff_0000L, 0x100).writeTo(cdb, 0);
+        assertEquals(0x28, cdb[0] & 0xff);
+
+        new ScsiReadCommand(0, 0x1_0000_0000L, 8).writeTo(cdb, 0);
+        assertEquals(0x88, cdb[0] & 0xff);
+        assertEquals(0x1_0000_0000L, ByteUtil.readBeLong(cdb, 2));
+        assertEquals(8, ByteUtil.readBeInt(cdb, 10));
+
+        new ScsiWriteCommand(0, 0, 0x10000).writeTo(cdb, 0);
+        assertEquals(0x8a, cdb[0] & 0xff);
+        assertEquals(0x10000, ByteUtil.readBeInt(cdb, 10));
+    }
+
+    /**
+     * A minimal target for one connection, serving a disk in memory. It
+     * answers reads with several Data-In PDUs and a separate response,
+     * and asks for the data of writes not sent unsolicited with R2Ts.
+     */
+    private static class Target implements AutoCloseable {
+
+        static final int MaxBurstLength = 256 * 1024;
+
+        static final int FirstBurstLength = 64 * 1024;
+
+        static final int MaxRecvDataSegmentLength = 16 * 1024;
+
+        final ServerSocket server;
+
+        final byte[] disk;
+
+        final int blockSize;
+
+        final int window;
+
+        final Thread thread;
+
+        int statSN = 1;
+
+        int received;
+
+        int completed;
+
+        int maxOutstanding;
+
+        /** a read starting here fails */
+        volatile long failLba = -1;
+
+        /** the data of writes being received, by initiator task tag */
+        final Map<Integer, Write> writes = new HashMap<>();
+
+        Target(int size, int blockSize, int window) throws IOException {
+            server = new ServerSocket(0);
+            disk = new byte[size];
+            this.blockSize = blockSize;
+            this.window = window;
+            thread = new Thread(this::serve);
+            thread.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override public void close() throws Exception {
+            server.close();
+            thread.join(10000);
+        }
+
+        void serve() {
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    byte[] header = new byte[48];
+                    in.readFully(header);
+                    int length = ByteUtil.readBeInt(header, 4) & 0xff_ffff;
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    in.readFully(new byte[(4 - length % 4) % 4]);
+
+                    int opCode = header[0] & 0x3f;
+                    int tag = ByteUtil.readBeInt(header, 16);
+                    switch (opCode) {
+                    case 0x03 -> login(out, header, data);
+                    case 0x01 -> command(out, header, data);
+                    case 0x05 -> dataOut(out, header, data);
+                    case 0x06 -> {
+                        byte[] response = pdu(0x26, 0x80, tag, 0);
+                        ByteUtil.writeBeInt(statSN++, response, 24);
+                        out.write(response);
+                        return;
+                    }
+                    default -> throw new IllegalStateException("opcode: " + opCode);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void login(OutputStream out, byte[] header, byte[] data) throws IOException {
+            int currentStage = (header[1] >> 2) & 0x3;
+            String text;
+            int nextStage;
+            if (currentStage == 0) {
+                text = "AuthMethod=None\0";
+                nextStage = 1;
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (String pair : new String(data, StandardCharsets.US_ASCII).split("\0")) {
+                    String key = pair.substring(0, pair.indexOf('='));
+                    String value = pair.substring(pair.indexOf('=') + 1);
+                    switch (key) {
+                    case "InitialR2T" -> sb.append(key).append('=').append(value).append('\0');
+                    case "MaxBurstLength" -> sb.append(key).append('=').append(Math.min(Integer.parseInt(value), MaxBurstLength)).append('\0');
+                    case "FirstBurstLength" -> sb.append(key).append('=').append(Math.min(Integer.parseInt(value), FirstBurstLength)).append('\0');
+                    default -> {}
+                    }
+                }
+                sb.append("MaxRecvDataSegmentLength=").append(MaxRecvDataSegmentLength).append('\0');
+                text = sb.toString();
+                nextStage = 3;
+            }
+
+            byte[] body = text.getBytes(StandardCharsets.US_ASCII);
+            byte[] response = pdu(0x23, 0x80 | (currentStage << 2) | nextStage, ByteUtil.readBeInt(header, 16), body.length);
+            ByteUtil.writeBeInt(statSN++, response, 24);
+            out.write(response);
+            out.write(body);
+            out.write(new byte[(4 - body.length % 4) % 4]);
+        }
+
+        void command(OutputStream out, byte[] header, byte[] data) throws IOException {
+            received++;
+            maxOutstanding = Math.max(maxOutstanding, received - completed);
+            if (received - completed > window) {
+                throw new IllegalStateException("command beyond MaxCmdSN");
+            }
+
+            int tag = ByteUtil.readBeInt(header, 16);
+            byte[] cdb = Arrays.copyOfRange(header, 32, 48);
+            switch (cdb[0] & 0xff) {
+            case 0x25 -> {
+                byte[] capacity = new byte[8];
+                ByteUtil.writeBeInt(disk.length / blockSize, capacity, 0);
+                ByteUtil.writeBeInt(blockSize, capacity, 4);
+                completed++;
+                byte[] response = pdu(0x25, 0x81, tag, capacity.length);
+                ByteUtil.writeBeInt(statSN++, response, 24);
+                out.write(response);
+                out.write(capacity);
+            }
+            case 0x28, 0x88 -> {
+                long lba = (cdb[0] & 0xff) == 0x28 ? ByteUtil.readBeInt(cdb, 2) & 0xffff_ffffL : ByteUtil.readBeLong(cdb, 2);
+                int count = (cdb[0] & 0xff) == 0x28 ? ByteUtil.readBeShort(cdb, 7) & 0xffff : ByteUtil.readBeInt(cdb, 10);
+                if (lba == failLba) {
+                    completed++;
+                    byte[] response = pdu(0x21, 0x80, tag, 0);
+                    response[3] = 0x02; // CHECK CONDITION
+                    ByteUtil.writeBeInt(statSN++, response, 24);
+                    out.write(response);
+                    return;
+                }
+                int start = (int) (lba * blockSize);
+                int length = count * blockSize;
+                for (int offset = 0; offset < length; offset += 32 * 1024) {
+                    int n = Math.min(32 * 1024, length - offset);
+                    byte[] dataIn = pdu(0x25, offset + n == length ? 0x80 : 0, tag, n);
+                    ByteUtil.writeBeInt(offset, dataIn, 40);
+                    out.write(dataIn);
+                    out.write(disk, start + offset, n);
+                }
+                respond(out, tag);
+            }
+            case 0x2a, 0x8a -> {
+                long lba = (cdb[0] & 0xff) == 0x2a ? ByteUtil.readBeInt(cdb, 2) & 0xffff_ffffL : ByteUtil.readBeLong(cdb, 2);
+                int count = (cdb[0] & 0xff) == 0x2a ? ByteUtil.readBeShort(cdb, 7) & 0xffff : ByteUtil.readBeInt(cdb, 10);
+                Write write = new Write((int) (lba * blockSize), count * blockSize);
+                System.arraycopy(data, 0, disk, write.start, data.length);
+                write.received = data.length;
+                writes.put(tag, write);
+                // F set: no unsolicited Data-Out follows
+                if ((header[1] & 0x80) != 0) {
+                    nextBurst(out, tag, write);
+                }
+            }
+            default -> throw new IllegalStateException("cdb: " + (cdb[0] & 0xff));
+            }
+        }
+
+        void dataOut(OutputStream out, byte[] header, byte[] data) throws IOException {
+            int tag = ByteUtil.readBeInt(header, 16);
+            Write write = writes.get(tag);
+            int offset = ByteUtil.readBeInt(header, 40);
+            System.arraycopy(data, 0, disk, write.start + offset, data.length);
+            write.received += data.length;
+            if ((header[1] & 0x80) != 0) {
+                nextBurst(out, tag, write);
+            }
+        }
+
+        void nextBurst(OutputStream out, int tag, Write write) throws IOException {
+            if (write.received == write.length) {
+                writes.remove(tag);
+                respond(out, tag);
+                return;
+            }
+
+            byte[] r2t = pdu(0x31, 0x80, tag, 0);
+            ByteUtil.writeBeInt(tag + 0x1000, r2t, 20);
+            ByteUtil.writeBeInt(statSN, r2t, 24);
+            ByteUtil.writeBeInt(write.r2tSN++, r2t, 36);
+            ByteUtil.writeBeInt(write.received, r2t, 40);
+            ByteUtil.writeBeInt(Math.min(MaxBurstLength, write.length - write.received), r2t, 44);
+            out.write(r2t);
+        }
+
+        void respond(OutputStream out, int tag) throws IOException {
+            completed++;
+            byte[] response = pdu(0x21, 0x80, tag, 0);
+            ByteUtil.writeBeInt(statSN++, response, 24);
+            out.write(response);
+        }
+
+        byte[] pdu(int opCode, int flags, int tag, int length) {
+            byte[] pdu = new byte[48];
+            pdu[0] = (byte) opCode;
+            pdu[1] = (byte) flags;
+            ByteUtil.writeBeInt(length, pdu, 4);
+            ByteUtil.writeBeInt(tag, pdu, 16);
+            ByteUtil.writeBeInt(0xffff_ffff, pdu, 20);
+            ByteUtil.writeBeInt(received + 1, pdu, 28);
+            ByteUtil.writeBeInt(completed + window, pdu, 32);
+            return pdu;
+        }
+
+        /** a write being received */
+        static class Write {
+
+            final int start;
+
+            final int length;
+
+            int received;
+
+            int r2tSN;
+
+            Write(int start, int length) {
+                this.start = start;
+                this.length = length;
+            }
+        }
+    }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.nfs;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import discUtils.nfs.IRpcClient;
+import discUtils.nfs.IRpcTransport;
+import discUtils.nfs.Nfs3Client;
+import discUtils.nfs.Nfs3DirectoryEntry;
+import discUtils.nfs.Nfs3FileAttributes;
+import discUtils.nfs.Nfs3FileHandle;
+import discUtils.nfs.Nfs3FileStream;
+import discUtils.nfs.Nfs3FileSystemInfo;
+import discUtils.nfs.Nfs3FileSystemInfoResult;
+import discUtils.nfs.Nfs3FileSystemProperties;
+import discUtils.nfs.Nfs3FileTime;
+import discUtils.nfs.Nfs3FileType;
+import discUtils.nfs.Nfs3GetAttributesResult;
+import discUtils.nfs.Nfs3Exception;
+import discUtils.nfs.Nfs3LookupResult;
+import discUtils.nfs.Nfs3ModifyResult;
+import discUtils.nfs.Nfs3MountResult;
+import discUtils.nfs.Nfs3ReadDirPlusResult;
+import discUtils.nfs.Nfs3ReadResult;
+import discUtils.nfs.Nfs3StableHow;
+import discUtils.nfs.Nfs3Status;
+import discUtils.nfs.Nfs3WeakCacheConsistency;
+import discUtils.nfs.Nfs3WriteResult;
+import discUtils.nfs.NfsProc3;
+import discUtils.nfs.RpcAuthFlavour;
+import discUtils.nfs.RpcCallHeader;
+import discUtils.nfs.RpcCredentials;
+import discUtils.nfs.RpcIdentifiers;
+import discUtils.nfs.RpcMessageHeader;
+import discUtils.nfs.RpcTcpTransport;
+import discUtils.nfs.RpcUnixCredential;
+import discUtils.nfs.XdrDataReader;
+import discUtils.nfs.XdrDataWriter;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.MemoryStream;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Nfs3FileStreamTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class Nfs3FileStreamTest {
+
+    @Test
+    void readWrite() throws Exception {
+        try (Server server = new Server();
+             Nfs3Client client = new Nfs3Client(new Client(server.getPort()), "/export")) {
+            Nfs3FileHandle handle = client.lookup(client.getRootHandle(), "file.bin");
+            byte[] expected = new byte[1024 * 1024 + 1000];
+            new Random(1).nextBytes(expected);
+
+            try (Nfs3FileStream stream = new Nfs3FileStream(client, handle, FileAccess.ReadWrite, 4)) {
+                for (int pos = 0; pos < expected.length; pos += 100000) {
+                    stream.write(expected, pos, Math.min(100000, expected.length - pos));
+                }
+                stream.flush();
+                assertArrayEquals(expected, server.file.data);
+                assertTrue(server.maxOutstanding > 1, "max outstanding: " + server.maxOutstanding);
+                assertTrue(server.maxOutstanding <= 4, "max outstanding: " + server.maxOutstanding);
+
+                server.maxOutstanding = 0;
+                byte[] actual = new byte[expected.length];
+                stream.position(0);
+                for (int pos = 0; pos < actual.length; pos += 50000) {
+                    StreamUtilities.readExact(stream, actual, pos, Math.min(50000, actual.length - pos));
+                }
+                assertArrayEquals(expected, actual);
+                assertEquals(0, stream.read(actual, 0, 1));
+                assertTrue(server.maxOutstanding > 1, "max outstanding: " + server.maxOutstanding);
+                assertTrue(server.maxOutstanding <= 4, "max outstanding: " + server.maxOutstanding);
+
+                // out of sequence
+                Random random = new Random(2);
+                for (int i = 0; i < 20; ++i) {
+                    int pos = random.nextInt(expected.length);
+                    actual = new byte[Math.min(1 + random.nextInt(200000), expected.length - pos)];
+                    stream.position(pos);
+                    StreamUtilities.readExact(stream, actual, 0, actual.length);
+                    assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + actual.length), actual);
+                }
+
+                // reads see what was written before them
+                byte[] data = new byte[5000];
+                random.nextBytes(data);
+                stream.position(200000);
+                stream.write(data, 0, data.length);
+                actual = new byte[data.length];
+                stream.position(200000);
+                StreamUtilities.readExact(stream, actual, 0, actual.length);
+                assertArrayEquals(data, actual);
+            }
+        }
+    }
+
+    @Test
+    void failedRead() throws Exception {
+        try (Server server = new Server();
+             Nfs3Client client = new Nfs3Client(new Client(server.getPort()), "/export")) {
+            byte[] expected = new byte[10 * Server.ReadMax + 1000];
+            new Random(3).nextBytes(expected);
+            server.file.data = expected;
+            // a READ sent ahead fails once
+            server.failReadAt = 3 * Server.ReadMax;
+            Nfs3FileHandle handle = client.lookup(client.getRootHandle(), "file.bin");
+
+            try (Nfs3FileStream stream = new Nfs3FileStream(client, handle, FileAccess.Read, 4)) {
+                byte[] actual = new byte[expected.length];
+                for (int pos = 0; pos < 3 * Server.ReadMax; pos += Server.ReadMax) {
+                    StreamUtilities.readExact(stream, actual, pos, Server.ReadMax);
+                }
+                Nfs3Exception e = assertThrows(Nfs3Exception.class, () -> stream.read(actual, 3 * Server.ReadMax, Server.ReadMax));
+                assertEquals(Nfs3Status.IOError, e.getNfs3Status());
+                assertEquals(3 * Server.ReadMax, stream.position());
+
+                // read again, and on to the end
+                StreamUtilities.readExact(stream, actual, 3 * Server.ReadMax, expected.length - 3 * Server.ReadMax);
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void readDirectoryPrefetch() throws Exception {
+        try (Server server = new Server();
+             Nfs3Client client = new Nfs3Client(new Client(server.getPort()), "/export")) {
+            List<Nfs3DirectoryEntry> entries = client.readDirectory(client.getRootHandle(), false);
+            assertEquals(4, entries.size());
+
+            Nfs3FileHandle handle = client.lookup(client.getRootHandle(), "sub");
+            assertEquals(Nfs3FileType.Directory, client.getAttributes(handle).type);
+            handle = client.lookup(client.getRootHandle(), "file.bin");
+            assertEquals(0, client.getAttributes(handle).size);
+            assertEquals(0, server.lookups);
+
+            // not listed, asks the server
+            client.lookup(client.getRootHandle(), "missing");
+            assertEquals(1, server.lookups);
+        }
+    }
+
+    @Test
+    void handleCache() throws Exception {
+        try (Server server = new Server();
+             Nfs3Client client = new Nfs3Client(new Client(server.getPort()), "/export")) {
+            Nfs3FileHandle root = client.getRootHandle();
+            client.readDirectory(root, false);
+            assertNotNull(client.lookup(root, "file.bin"));
+            assertEquals(0, server.lookups);
+
+            // removing an entry drops the listing of its directory
+            client.remove(root, "sub");
+            assertNotNull(client.lookup(root, "file.bin"));
+            assertEquals(1, server.lookups);
+            assertNull(client.lookup(root, "sub"));
+            assertEquals(2, server.lookups);
+
+            // a handle the server no longer knows isn't given out again
+            client.readDirectory(root, false);
+            Nfs3FileHandle handle = client.lookup(root, "file.bin");
+            server.root.children.remove("file.bin");
+            server.nodes.remove(server.file);
+            Nfs3Exception e = assertThrows(Nfs3Exception.class, () -> client.read(handle, 0, 1));
+            assertEquals(Nfs3Status.StaleFileHandle, e.getNfs3Status());
+            assertNull(client.lookup(root, "file.bin"));
+            assertEquals(3, server.lookups);
+
+            // listings expire
+            server.root.children.put("file.bin", server.file);
+            server.nodes.add(server.file);
+            client.setHandleCacheMillis(0);
+            client.readDirectory(root, false);
+            assertNotNull(client.lookup(root, "file.bin"));
+            assertEquals(4, server.lookups);
+
+            // and only so many directories are kept, the least recently used going first
+            client.setHandleCacheMillis(60000);
+            List<Nfs3FileHandle> dirs = new ArrayList<>();
+            for (int i = 0; i < 300; ++i) {
+                Server.Node dir = new Server.Node(100 + i, Nfs3FileType.Directory);
+                dir.children.put("x", server.file);
+                server.nodes.add(dir);
+                dirs.add(dir.getHandle());
+                client.readDirectory(dir.getHandle(), false);
+                // the first is kept in use
+                client.lookup(dirs.get(0), "x");
+            }
+            assertEquals(4, server.lookups);
+            client.lookup(dirs.get(299), "x");
+            assertEquals(4, server.lookups);
+            client.lookup(dirs.get(1), "x");
+            assertEquals(5, server.lookups);
+        }
+    }
+
+    /** a client talking to the server for all programs on one connection */
+    private static class Client implements IRpcClient {
+
+        final RpcTcpTransport transport;
+
+        int nextTransaction = 0x1000;
+
+        Client(int port) {
+            transport = new RpcTcpTransport("127.0.0.1", port);
+        }
+
+        @Override public RpcCredentials getCredentials() {
+            return RpcUnixCredential.Default;
+        }
+
+        @Override public IRpcTransport getTransport(int program, int version) {
+            return transport;
+        }
+
+        @Override public int nextTransactionId() {
+            return nextTransaction++;
+        }
+
+        @Override public void close() throws IOException {
+            transport.close();
+        }
+    }
+
+    /**
+     * A minimal MOUNT and NFS server for one connection, serving a directory
+     * in memory. Calls arriving together are answered in reverse order, so
+     * replies have to be matched to the calls.
+     */
+    private static class Server implements AutoCloseable {
+
+        static final int ReadMax = 64 * 1024;
+
+        static final int WriteMax = 32 * 1024;
+
+        /** a WRITE takes no more than this */
+        static final int WriteTaken = 20000;
+
+        final ServerSocket server;
+
+        final Thread thread;
+
+        final Node root = new Node(1, Nfs3FileType.Directory);
+
+        final Node file = new Node(2, Nfs3FileType.File);
+
+        final List<Node> nodes = new ArrayList<>();
+
+        int maxOutstanding;
+
+        int lookups;
+
+        /** the offset of a READ to fail once, or -1 */
+        long failReadAt = -1;
+
+        Server() throws IOException {
+            nodes.add(root);
+            nodes.add(file);
+            Node sub = new Node(3, Nfs3FileType.Directory);
+            nodes.add(sub);
+            root.children.put("file.bin", file);
+            root.children.put("sub", sub);
+            server = new ServerSocket(0);
+            thread = new Thread(this::serve);
+            thread.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override public void close() throws Exception {
+            server.close();
+            thread.join(10000);
+        }
+
+        void serve() {
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    List<byte[]> calls = new ArrayList<>();
+                    calls.add(readRecord(in));
+                    // some latency, for the calls sent meanwhile to pile up
+                    Thread.sleep(20);
+                    while (in.available() > 0) {
+                        calls.add(readRecord(in));
+                    }
+                    maxOutstanding = Math.max(maxOutstanding, calls.size());
+
+                    Collections.reverse(calls);
+                    for (byte[] call : calls) {
+                        byte[] reply = dispatch(call);
+                        byte[] header = new byte[4];
+                        ByteUtil.writeBeInt(0x80000000 | reply.length, header, 0);
+                        out.write(header);
+                        out.write(reply);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // closed by the client
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static byte[] readRecord(DataInputStream in) throws IOException {
+            int header = in.readInt();
+            if ((header & 0x80000000) == 0) {
+                throw new IllegalStateException("fragmented call");
+            }
+            byte[] record = new byte[header & 0x7fffffff];
+            in.readFully(record);
+            return record;
+        }
+
+        byte[] dispatch(byte[] call) {
+            XdrDataReader reader = new XdrDataReader(new MemoryStream(call));
+            int xid = reader.readUInt32();
+            reader.readInt32();
+            RpcCallHeader header = new RpcCallHeader(reader);
+
+            MemoryStream ms = new MemoryStream();
+            XdrDataWriter writer = new XdrDataWriter(ms);
+            RpcMessageHeader.accepted(xid).write(writer);
+            if (header.getProgram() == RpcIdentifiers.Nfs3MountProgramIdentifier) {
+                reader.readString();
+                Nfs3MountResult result = new Nfs3MountResult();
+                result.setStatus(Nfs3Status.Ok);
+                result.setFileHandle(root.getHandle());
+                result.setAuthFlavours(List.of(RpcAuthFlavour.Null));
+                result.write(writer);
+                return ms.toArray();
+            }
+
+            switch (NfsProc3.values()[header.getProc()]) {
+            case Fsinfo -> {
+                Nfs3FileSystemInfo info = new Nfs3FileSystemInfo();
+                info.setReadMaxBytes(ReadMax);
+                info.setReadPreferredBytes(ReadMax);
+                info.setReadMultipleSize(512);
+                info.setWriteMaxBytes(WriteMax);
+                info.setWritePreferredBytes(WriteMax);
+                info.setWriteMultipleSize(512);
+                info.setDirectoryPreferredBytes(8192);
+                info.setMaxFileSize(Long.MAX_VALUE);
+                info.setTimePrecision(new Nfs3FileTime(0, 1));
+                info.setFileSystemProperties(Nfs3FileSystemProperties.HardLinks);
+                Nfs3FileSystemInfoResult result = new Nfs3FileSystemInfoResult();
+                result.setStatus(Nfs3Status.Ok);
+                result.setPostOpAttributes(getNode(reader).getAttributes());
+                result.setFileSystemInfo(info);
+                result.write(writer);
+            }
+            case GetAttr -> {
+                Node node = getNode(reader);
+                Nfs3GetAttributesResult result = new Nfs3GetAttributesResult();
+                result.setStatus(node != null ? Nfs3Status.Ok : Nfs3Status.StaleFileHandle);
+                if (node != null) {
+                    result.setAttributes(node.getAttributes());
+                }
+                result.write(writer);
+            }
+            case Lookup -> {
+                lookups++;
+                Node dir = getNode(reader);
+                Node node = dir.children.get(reader.readString());
+                Nfs3LookupResult result = new Nfs3LookupResult();
+                result.setStatus(node != null ? Nfs3Status.Ok : Nfs3Status.NoSuchEntity);
+                if (node != null) {
+                    result.setObjectHandle(node.getHandle());
+                    result.setObjectAttributes(node.getAttributes());
+                }
+                result.setDirAttributes(dir.getAttributes());
+                result.write(writer);
+            }
+            case Read -> {
+                Node node = getNode(reader);
+                long offset = reader.readInt64();
+                int count = reader.readInt32();
+                if (node == null) {
+                    Nfs3ReadResult result = new Nfs3ReadResult();
+                    result.setStatus(Nfs3Status.StaleFileHandle);
+                    result.write(writer);
+                    break;
+                }
+                if (offset == failReadAt) {
+                    failReadAt = -1;
+                    Nfs3ReadResult result = new Nfs3ReadResult();
+                    result.setStatus(Nfs3Status.IOError);
+                    result.write(writer);
+                    break;
+                }
+                int start = (int) Math.min(offset, node.data.length);
+                int end = (int) Math.min(offset + count, node.data.length);
+                Nfs3ReadResult result = new Nfs3ReadResult();
+                result.setStatus(Nfs3Status.Ok);
+                result.setFileAttributes(node.getAttributes());
+                result.setCount(end - start);
+                result.setEof(end == node.data.length);
+                result.setData(Arrays.copyOfRange(node.data, start, end));
+                result.write(writer);
+            }
+            case Write -> {
+                Node node = getNode(reader);
+                long offset = reader.readInt64();
+                reader.readInt32();
+                reader.readInt32();
+                byte[] data = reader.readBuffer();
+                int count = Math.min(data.length, WriteTaken);
+                if (offset + count > node.data.length) {
+                    node.data = Arrays.copyOf(node.data, (int) offset + count);
+                }
+                System.arraycopy(data, 0, node.data, (int) offset, count);
+                Nfs3WeakCacheConsistency consistency = new Nfs3WeakCacheConsistency();
+                consistency.setAfter(node.getAttributes());
+                Nfs3WriteResult result = new Nfs3WriteResult();
+                result.setStatus(Nfs3Status.Ok);
+                result.setCacheConsistency(consistency);
+                result.setCount(count);
+                result.setHowCommitted(Nfs3StableHow.Unstable);
+                result.write(writer);
+            }
+            case Remove -> {
+                Node dir = getNode(reader);
+                Node node = dir.children.remove(reader.readString());
+                nodes.remove(node);
+                Nfs3WeakCacheConsistency consistency = new Nfs3WeakCacheConsistency();
+                consistency.setAfter(dir.getAttributes());
+                Nfs3ModifyResult result = new Nfs3ModifyResult();
+                result.setStatus(node != null ? Nfs3Status.Ok : Nfs3Status.NoSuchEntity);
+                result.setCacheConsistency(consistency);
+                result.write(writer);
+            }
+            case ReadDirPlus -> {
+                Node dir = getNode(reader);
+                Map<String, Node> entries = new LinkedHashMap<>();
+                entries.put(".", dir);
+                entries.put("..", root);
+                entries.putAll(dir.children);
+                List<Nfs3DirectoryEntry> dirEntries = new ArrayList<>();
+                for (Map.Entry<String, Node> e : entries.entrySet()) {
+                    Nfs3DirectoryEntry entry = new Nfs3DirectoryEntry();
+                    entry.setFileId(e.getValue().id);
+                    entry.setName(e.getKey());
+                    entry.setCookie(dirEntries.size() + 1);
+                    entry.setFileAttributes(e.getValue().getAttributes());
+                    entry.setFileHandle(e.getValue().getHandle());
+                    dirEntries.add(entry);
+                }
+                Nfs3ReadDirPlusResult result = new Nfs3ReadDirPlusResult();
+                result.setStatus(Nfs3Status.Ok);
+                result.setDirAttributes(dir.getAttributes());
+                result.setDirEntries(dirEntries);
+                result.setEof(true);
+                result.write(writer);
+            }
+            default -> throw new IllegalStateException("procedure: " + header.getProc());
+            }
+            return ms.toArray();
+        }
+
+        /** @return the node of the handle, or null if it's stale */
+        Node getNode(XdrDataReader reader) {
+            int id = ByteUtil.readBeInt(new Nfs3FileHandle(reader).getValue(), 0);
+            return nodes.stream().filter(n -> n.id == id).findFirst().orElse(null);
+        }
+
+        /** a file or directory */
+        static class Node {
+
+            final int id;
+
+            final Nfs3FileType type;
+
+            byte[] data = new byte[0];
+
+            final Map<String, Node> children = new LinkedHashMap<>();
+
+            Node(int id, Nfs3FileType type) {
+                this.id = id;
+                this.type = type;
+            }
+
+            Nfs3FileHandle getHandle() {
+                Nfs3FileHandle handle = new Nfs3FileHandle();
+                byte[] value = new byte[4];
+                ByteUtil.writeBeInt(id, value, 0);
+                handle.setValue(value);
+                return handle;
+            }
+
+            Nfs3FileAttributes getAttributes() {
+                Nfs3FileAttributes attributes = new Nfs3FileAttributes();
+                attributes.type = type;
+                attributes.fileId = id;
+                attributes.size = data.length;
+                attributes.bytesUsed = data.length;
+                attributes.accessTime = new Nfs3FileTime(0, 0);
+                attributes.modifyTime = new Nfs3FileTime(0, 0);
+                attributes.changeTime = new Nfs3FileTime(0, 0);
+                return attributes;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.ntfs;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import discUtils.core.compression.CompressionResult;
+import discUtils.ntfs.LZNT1;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * LZNT1RoundTripTest.
+ *
+ * Compresses and decompresses with {@link LZNT1} alone, unlike
+ * {@link LZNT1Test} which needs the native implementation to compare with.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class LZNT1RoundTripTest {
+
+    private static final int ChunkSize = 4096;
+
+    /**
+     * Chunks of zeros with random runs near their start, each copied near
+     * the end of the chunk. Over 2048 bytes into a chunk the offset of a
+     * back-reference has 12 bits, so a copy from over 2048 bytes back sets
+     * the top bit of the token.
+     *
+     * @param copy whether the runs are copied, or made random again
+     */
+    private static byte[] farMatches(int numChunks, boolean copy) {
+        Random random = new Random(1234);
+        byte[] data = new byte[numChunks * ChunkSize];
+        for (int chunk = 0; chunk < numChunks; ++chunk) {
+            int base = chunk * ChunkSize;
+            byte[] head = new byte[20];
+            byte[] run = new byte[100];
+            random.nextBytes(head);
+            random.nextBytes(run);
+            System.arraycopy(head, 0, data, base + 10, head.length);
+            System.arraycopy(run, 0, data, base + 200, run.length);
+            if (!copy) {
+                random.nextBytes(head);
+                random.nextBytes(run);
+            }
+            // 3700 bytes back
+            System.arraycopy(run, 0, data, base + 3900, run.length);
+            // the last bytes of the chunk, 4066 bytes back
+            System.arraycopy(head, 0, data, base + ChunkSize - head.length, head.length);
+        }
+        return data;
+    }
+
+    /** runs of letters, compressible, but better the harder matches are looked for */
+    private static byte[] letterRuns() {
+        Random random = new Random(3425);
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < 16 * 4096; ++i) {
+            byte b = (byte) (random.nextInt(26) + 'A');
+            int start = random.nextInt(data.length);
+            int len = random.nextInt(20);
+            for (int j = start; j < data.length && j < start + len; j++) {
+                data[j] = b;
+            }
+        }
+        return data;
+    }
+
+    private static byte[] compress(LZNT1 lznt1, byte[] data) {
+        byte[] compressed = new byte[data.length];
+        int[] compressedLength = {compressed.length};
+        assertEquals(CompressionResult.Compressed, lznt1.compress(data, 0, data.length, compressed, 0, compressedLength));
+        return Arrays.copyOf(compressed, compressedLength[0]);
+    }
+
+    private static void assertRoundTrip(LZNT1 lznt1, byte[] data, byte[] compressed) {
+        byte[] decompressed = new byte[data.length];
+        assertEquals(data.length, lznt1.decompress(compressed, 0, compressed.length, decompressed, 0));
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    void farBackReferences() throws Exception {
+        LZNT1 lznt1 = new LZNT1();
+        byte[] data = farMatches(4, true);
+        byte[] compressed = compress(lznt1, data);
+        assertRoundTrip(lznt1, data, compressed);
+
+        // the copies are only smaller than random runs as back-references
+        byte[] unmatched = compress(lznt1, farMatches(4, false));
+        assertTrue(compressed.length + 4 * 90 < unmatched.length, compressed.length + " vs " + unmatched.length);
+    }
+
+    @Test
+    void effort() throws Exception {
+        LZNT1 lznt1 = new LZNT1();
+        byte[] data = letterRuns();
+        byte[] compressed = compress(lznt1, data);
+        assertRoundTrip(lznt1, data, compressed);
+
+        lznt1.setEffort(1);
+        assertEquals(1, lznt1.getEffort());
+        byte[] fast = compress(lznt1, data);
+        assertRoundTrip(lznt1, data, fast);
+        assertTrue(fast.length > compressed.length, fast.length + " vs " + compressed.length);
+
+        // far matches are found even trying only the latest
+        byte[] far = farMatches(4, true);
+        assertRoundTrip(lznt1, far, compress(lznt1, far));
+
+        assertThrows(IllegalArgumentException.class, () -> lznt1.setEffort(0));
+    }
+}
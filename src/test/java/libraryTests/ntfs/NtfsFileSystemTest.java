@@ -22,35 +22,54 @@
 
 package libraryTests.ntfs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
 
 import discUtils.core.Geometry;
 import discUtils.core.ReparsePoint;
+import discUtils.core.ReportLevels;
 import discUtils.core.coreCompat.FileAttributes;
 import discUtils.ntfs.AttributeType;
+import discUtils.ntfs.NewFileOptions;
 import discUtils.ntfs.NtfsFileSystem;
+import discUtils.ntfs.NtfsFileSystemChecker;
+import discUtils.ntfs.UsnJournal;
+import discUtils.ntfs.UsnReasons;
+import discUtils.ntfs.UsnRecord;
+import discUtils.ntfs.internals.MasterFileTableFile;
 import discUtils.streams.SparseMemoryStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.StreamExtent;
 import discUtils.streams.util.Range;
+import discUtils.streams.util.StreamUtilities;
 import dotnet4j.io.FileAccess;
 import dotnet4j.io.FileMode;
+import dotnet4j.io.FileNotFoundException;
 import dotnet4j.io.Stream;
 import dotnet4j.security.accessControl.AccessControlSections;
 import dotnet4j.security.accessControl.RawSecurityDescriptor;
 import libraryTests.FileSystemSource;
 import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
@@ -444,4 +463,370 @@ class NtfsFileSystemTest {
             assertArrayEquals(data, readBuffer);
         }
     }
+
+    @Test
+    void sparse_ZerosNotStored() throws Exception {
+        int unitSize = 64 * 1024;
+        NtfsFileSystem ntfs = FileSystemSource.ntfsFileSystem();
+        byte[] data = new byte[16 * unitSize];
+        Arrays.fill(data, 0, unitSize, (byte) 1);
+        Arrays.fill(data, 5 * unitSize, 7 * unitSize, (byte) 2);
+        data[10 * unitSize + 1] = 3;
+
+        ntfs.openFile("file.bin", FileMode.CreateNew).close();
+        Map<String, Object> attrs = ntfs.getAttributes("file.bin");
+        attrs.put(FileAttributes.SparseFile.name(), true);
+        ntfs.setAttributes("file.bin", attrs);
+        long available = ntfs.getAvailableSpace();
+        try (SparseStream s = ntfs.openFile("file.bin", FileMode.Open)) {
+            s.write(data, 0, data.length);
+            // only the start of the file is written
+            s.setLength(20 * unitSize);
+        }
+        assertEquals(4 * unitSize, available - ntfs.getAvailableSpace());
+
+        try (SparseStream s = ntfs.openFile("file.bin", FileMode.Open)) {
+            List<StreamExtent> extents = s.getExtents();
+            assertEquals(3, extents.size());
+            assertEquals(new StreamExtent(0, unitSize), extents.get(0));
+            assertEquals(new StreamExtent(5 * unitSize, 2 * unitSize), extents.get(1));
+            assertEquals(new StreamExtent(10 * unitSize, unitSize), extents.get(2));
+            assertEquals(List.of(new StreamExtent(6 * unitSize, unitSize)), s.getExtentsInRange(6 * unitSize, 3 * unitSize));
+
+            byte[] expected = Arrays.copyOf(data, 20 * unitSize);
+            assertArrayEquals(expected, StreamUtilities.readExact(s, expected.length));
+
+            // zeros over a stored unit release it
+            s.position(5 * unitSize);
+            s.write(new byte[unitSize], 0, unitSize);
+        }
+        assertEquals(3 * unitSize, available - ntfs.getAvailableSpace());
+    }
+
+    @Test
+    void scanMasterFileTable() throws Exception {
+        NtfsFileSystem ntfs = FileSystemSource.ntfsFileSystem();
+        ntfs.createDirectory("dir");
+        for (int i = 0; i < 100; ++i) {
+            try (Stream s = ntfs.openFile("dir/a long file name " + i + ".txt", FileMode.Create, FileAccess.ReadWrite)) {
+                s.write(new byte[i * 100], 0, i * 100);
+            }
+        }
+        ntfs.createHardLink("dir/a long file name 1.txt", "link");
+
+        List<MasterFileTableFile> files = new ArrayList<>();
+        ntfs.getMasterFileTable().scan(files::add);
+
+        MasterFileTableFile dir = files.stream().filter(f -> "dir".equals(f.getName())).findFirst().get();
+        assertTrue(dir.isDirectory());
+        assertEquals(ntfs.getFileId("dir"), dir.getReference().getRecordIndex() |
+                                            ((long) dir.getReference().getRecordSequenceNumber() << 48));
+        List<MasterFileTableFile> children = files.stream()
+                .filter(f -> f.getParentReference() != null &&
+                             f.getParentReference().getRecordIndex() == dir.getReference().getRecordIndex())
+                .collect(Collectors.toList());
+        assertEquals(100, children.size());
+        for (MasterFileTableFile f : children) {
+            assertFalse(f.isDirectory());
+            assertEquals(ntfs.getFileLength("dir/" + f.getName()), f.getSize());
+            assertEquals(ntfs.getCreationTimeUtc("dir/" + f.getName()), f.getCreationTime());
+        }
+
+        MasterFileTableFile linked = children.stream().filter(f -> f.getName().equals("a long file name 1.txt")).findFirst().get();
+        assertEquals(Arrays.asList("a long file name 1.txt", "link"), linked.getNames());
+    }
+
+    @Test
+    void fragmentedRead() throws Exception {
+        NtfsFileSystem ntfs = FileSystemSource.ntfsFileSystem();
+        Random random = new Random(1);
+        byte[][] contents = new byte[4][];
+        ByteArrayOutputStream[] written = new ByteArrayOutputStream[contents.length];
+        for (int i = 0; i < contents.length; ++i) {
+            written[i] = new ByteArrayOutputStream();
+            ntfs.openFile("file" + i, FileMode.Create, FileAccess.ReadWrite).close();
+        }
+
+        // interleaved appends leave the files in many runs
+        for (int i = 0; i < 100; ++i) {
+            int file = random.nextInt(contents.length);
+            byte[] data = new byte[4096 * (1 + random.nextInt(3))];
+            random.nextBytes(data);
+            try (Stream s = ntfs.openFile("file" + file, FileMode.Open, FileAccess.Write)) {
+                s.position(s.getLength());
+                s.write(data, 0, data.length);
+            }
+            written[file].write(data);
+        }
+
+        for (int i = 0; i < contents.length; ++i) {
+            byte[] expected = written[i].toByteArray();
+            try (Stream s = ntfs.openFile("file" + i, FileMode.Open, FileAccess.Read)) {
+                assertArrayEquals(expected, StreamUtilities.readExact(s, expected.length));
+
+                int pos = random.nextInt(expected.length);
+                int length = random.nextInt(expected.length - pos);
+                s.position(pos);
+                assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + length), StreamUtilities.readExact(s, length));
+            }
+        }
+    }
+
+    @Test
+    void compressedFile() throws Exception {
+        NtfsFileSystem ntfs = FileSystemSource.ntfsFileSystem();
+        NewFileOptions options = new NewFileOptions();
+        options.setCompressed(true);
+        ntfs.createDirectory("dir", options);
+
+        Random random = new Random(1);
+        byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        // one unit that won't compress, and one of zeros
+        for (int i = 0x20000; i < 0x30000; ++i) {
+            content[i] = (byte) random.nextInt();
+        }
+        Arrays.fill(content, 0x40000, 0x50000, (byte) 0);
+
+        try (Stream s = ntfs.openFile("dir/file", FileMode.Create, FileAccess.ReadWrite)) {
+            s.write(content, 0, content.length);
+        }
+
+        assertEquals(true, ntfs.getAttributes("dir/file").get(FileAttributes.Compressed.name()));
+        try (Stream s = ntfs.openFile("dir/file", FileMode.Open, FileAccess.Read)) {
+            assertArrayEquals(content, StreamUtilities.readExact(s, content.length));
+        }
+    }
+
+    @Test
+    void bulkIngest() throws Exception {
+        long size = 30 * 1024 * 1024;
+        SparseMemoryStream partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            ntfs.beginBulkIngest();
+            ntfs.createDirectory("dir");
+            for (int i = 0; i < 600; ++i) {
+                try (Stream s = ntfs.openFile("dir/file" + i, FileMode.Create, FileAccess.ReadWrite)) {
+                    byte[] content = new byte[i % 5 * 1000];
+                    Arrays.fill(content, (byte) i);
+                    s.write(content, 0, content.length);
+                }
+                if (i == 300) {
+                    ntfs.flushBulkIngest();
+                }
+            }
+            for (int i = 0; i < 600; i += 50) {
+                ntfs.deleteFile("dir/file" + i);
+            }
+            // closing the file system ends the ingest
+            ntfs.openFile("dir/last", FileMode.Create, FileAccess.ReadWrite).close();
+        }
+
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            assertEquals(600 - 12 + 1, ntfs.getFiles("dir").size());
+            assertFalse(ntfs.fileExists("dir/file50"));
+            for (int i = 1; i < 600; i += 7) {
+                if (i % 50 == 0) {
+                    continue;
+                }
+                try (Stream s = ntfs.openFile("dir/file" + i, FileMode.Open, FileAccess.Read)) {
+                    byte[] expected = new byte[i % 5 * 1000];
+                    Arrays.fill(expected, (byte) i);
+                    assertArrayEquals(expected, StreamUtilities.readExact(s, (int) s.getLength()));
+                }
+            }
+        }
+
+        assertTrue(new NtfsFileSystemChecker(partStream).check(new PrintWriter(new NullWriter()), EnumSet.of(ReportLevels.Errors)));
+    }
+
+    @Test
+    void bulkIngest_RecreateGetsNewSequenceNumber() throws Exception {
+        long size = 30 * 1024 * 1024;
+        SparseMemoryStream partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            ntfs.beginBulkIngest();
+            ntfs.openFile("file", FileMode.Create, FileAccess.ReadWrite).close();
+            for (int i = 0; i < 50; ++i) {
+                ntfs.openFile("other" + i, FileMode.Create, FileAccess.ReadWrite).close();
+            }
+            long oldId = ntfs.getFileId("file");
+            ntfs.deleteFile("file");
+            // push the freed record out of the recently used records
+            for (int i = 0; i < 50; ++i) {
+                ntfs.openFile("other" + i, FileMode.Open, FileAccess.Read).close();
+            }
+            ntfs.openFile("file", FileMode.Create, FileAccess.ReadWrite).close();
+            long newId = ntfs.getFileId("file");
+
+            assertEquals(oldId & 0xffff_ffff_ffffL, newId & 0xffff_ffff_ffffL);
+            assertTrue((newId >>> 48) > (oldId >>> 48));
+        }
+    }
+
+    @Test
+    void bulkIngest_Checkpoints() throws Exception {
+        long size = 30 * 1024 * 1024;
+        SparseMemoryStream partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        Random random = new Random(1);
+        Map<String, Integer> files = new HashMap<>();
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            // a checkpoint every few operations, many in all
+            ntfs.beginBulkIngest(16);
+            for (int d = 0; d < 4; ++d) {
+                ntfs.createDirectory("dir" + d);
+            }
+            for (int i = 0; i < 1500; ++i) {
+                String path = "dir" + random.nextInt(4) + "/file" + i;
+                int length = random.nextInt(3) * 700;
+                try (Stream s = ntfs.openFile(path, FileMode.Create, FileAccess.ReadWrite)) {
+                    byte[] content = new byte[length];
+                    Arrays.fill(content, (byte) i);
+                    s.write(content, 0, content.length);
+                }
+                files.put(path, i);
+                if (i % 7 == 3) {
+                    String victim = "dir" + (i % 4) + "/file" + (i - 3);
+                    if (files.remove(victim) != null) {
+                        ntfs.deleteFile(victim);
+                    }
+                }
+                if (i % 11 == 5) {
+                    String moved = "dir" + ((i + 1) % 4) + "/moved" + i;
+                    ntfs.moveFile(path, moved);
+                    files.put(moved, files.remove(path));
+                }
+            }
+
+            // checkpoints were made along the way, without being asked for
+            SparseMemoryStream copy = new SparseMemoryStream();
+            partStream.position(0);
+            partStream.copyTo(copy);
+            try (NtfsFileSystem snapshot = new NtfsFileSystem(copy)) {
+                int found = 0;
+                for (int d = 0; d < 4; ++d) {
+                    found += snapshot.getFiles("dir" + d).size();
+                }
+                assertTrue(found > files.size() / 2, "files on disk: " + found);
+            }
+            ntfs.endBulkIngest();
+        }
+
+        assertTrue(new NtfsFileSystemChecker(partStream).check(new PrintWriter(new NullWriter()), EnumSet.of(ReportLevels.Errors)));
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            int found = 0;
+            for (int d = 0; d < 4; ++d) {
+                found += ntfs.getFiles("dir" + d).size();
+            }
+            assertEquals(files.size(), found);
+            for (Map.Entry<String, Integer> file : files.entrySet()) {
+                try (Stream s = ntfs.openFile(file.getKey(), FileMode.Open, FileAccess.Read)) {
+                    byte[] content = StreamUtilities.readExact(s, (int) s.getLength());
+                    for (byte b : content) {
+                        assertEquals((byte) (int) file.getValue(), b, file.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void readAllBytes() throws Exception {
+        NtfsFileSystem ntfs = FileSystemSource.ntfsFileSystem();
+        NewFileOptions options = new NewFileOptions();
+        options.setCompressed(true);
+        ntfs.createDirectory("dir");
+        ntfs.createDirectory("compressed", options);
+
+        Random random = new Random(1);
+        byte[] small = new byte[300];
+        random.nextBytes(small);
+        byte[] large = new byte[20000];
+        random.nextBytes(large);
+        byte[] zeros = new byte[70000];
+        for (String path : List.of("dir/small", "dir/large", "dir/large:ads", "compressed/zeros")) {
+            try (Stream s = ntfs.openFile(path, FileMode.Create, FileAccess.ReadWrite)) {
+                byte[] content = path.endsWith("small") ? small : path.endsWith("zeros") ? zeros : large;
+                s.write(content, 0, content.length);
+            }
+        }
+        // only the start of the file written
+        try (Stream s = ntfs.openFile("dir/gap", FileMode.Create, FileAccess.ReadWrite)) {
+            s.write(small, 0, small.length);
+            s.setLength(large.length);
+        }
+
+        assertArrayEquals(small, ntfs.readAllBytes("dir/small"));
+        assertArrayEquals(large, ntfs.readAllBytes("dir/large"));
+        assertArrayEquals(large, ntfs.readAllBytes("dir/large:ads"));
+        assertArrayEquals(zeros, ntfs.readAllBytes("compressed/zeros"));
+        assertArrayEquals(large, ntfs.readAllBytes(ntfs.getFileId("dir/large")));
+        byte[] gap = new byte[large.length];
+        System.arraycopy(small, 0, gap, 0, small.length);
+        assertArrayEquals(gap, ntfs.readAllBytes("dir/gap"));
+
+        assertThrows(FileNotFoundException.class, () -> ntfs.readAllBytes("dir/missing"));
+        assertThrows(dotnet4j.io.IOException.class, () -> ntfs.readAllBytes("dir"));
+    }
+
+    @Test
+    void usnJournal() throws Exception {
+        NtfsFileSystem ntfs = FileSystemSource.ntfsFileSystem();
+        assertNull(ntfs.getUsnJournal());
+
+        ntfs.createDirectory("dir");
+        ntfs.openFile("dir/file.txt", FileMode.Create, FileAccess.ReadWrite).close();
+        long dirId = ntfs.getFileId("dir");
+        long fileId = ntfs.getFileId("dir/file.txt");
+
+        ntfs.openFile("$Extend/$UsnJrnl", FileMode.Create, FileAccess.ReadWrite).close();
+        try (Stream s = ntfs.openFile("$Extend/$UsnJrnl:$Max", FileMode.Create, FileAccess.ReadWrite)) {
+            byte[] max = new byte[0x20];
+            ByteUtil.writeLeLong(0x1234, max, 0x10);
+            ByteUtil.writeLeLong(0x1000, max, 0x18);
+            s.write(max, 0, max.length);
+        }
+        try (Stream s = ntfs.openFile("$Extend/$UsnJrnl:$J", FileMode.Create, FileAccess.ReadWrite)) {
+            // below the lowest valid USN
+            writeUsnRecord(s, 0, fileId, dirId, "gone.txt");
+            writeUsnRecord(s, 0x1000, fileId, dirId, "file.txt");
+            // after the zeros padding out the page
+            writeUsnRecord(s, 0x2000, fileId, dirId, "file.txt");
+        }
+
+        UsnJournal journal = ntfs.getUsnJournal();
+        assertNotNull(journal);
+        assertEquals(0x1234, journal.getJournalId());
+        List<UsnRecord> records = new ArrayList<>();
+        journal.getRecords(0).forEach(records::add);
+        assertEquals(2, records.size());
+        assertEquals(0x1000, records.get(0).getUsn());
+        assertEquals(0x2000, records.get(1).getUsn());
+        assertEquals(EnumSet.of(UsnReasons.FileCreate, UsnReasons.Close), records.get(0).getReasons());
+        assertEquals("dir/file.txt", journal.getPath(records.get(0)));
+
+        ntfs.deleteFile("dir/file.txt");
+        assertTrue(journal.getPaths(records.get(0).getFileReference()).isEmpty());
+    }
+
+    private static void writeUsnRecord(Stream s, long usn, long fileId, long parentId, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_16LE);
+        byte[] buffer = new byte[(0x3c + nameBytes.length + 7) & ~7];
+        ByteUtil.writeLeInt(buffer.length, buffer, 0x00);
+        ByteUtil.writeLeShort((short) 2, buffer, 0x04);
+        ByteUtil.writeLeLong(fileId, buffer, 0x08);
+        ByteUtil.writeLeLong(parentId, buffer, 0x10);
+        ByteUtil.writeLeLong(usn, buffer, 0x18);
+        ByteUtil.writeLeInt(0x80000100, buffer, 0x28);
+        ByteUtil.writeLeShort((short) nameBytes.length, buffer, 0x38);
+        ByteUtil.writeLeShort((short) 0x3c, buffer, 0x3a);
+        System.arraycopy(nameBytes, 0, buffer, 0x3c, nameBytes.length);
+        s.position(usn);
+        s.write(buffer, 0, buffer.length);
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.ntfs;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+import discUtils.core.Geometry;
+import discUtils.ntfs.NtfsFileSystem;
+import discUtils.streams.SparseMemoryStream;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.FileMode;
+import dotnet4j.io.Stream;
+import org.junit.jupiter.api.Test;
+import vavi.util.Debug;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+/**
+ * ReadAllBytesAllocationTest.
+ *
+ * Measures the memory allocated for each small file read, through
+ * {@link NtfsFileSystem#readAllBytes} and by opening the file and reading
+ * its stream.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class ReadAllBytesAllocationTest {
+
+    /** half of them held in the MFT record, half not */
+    private static final int NumFiles = 400;
+
+    private static final int Rounds = 5;
+
+    private static byte[] content(int i) {
+        byte[] content = new byte[i % 2 == 0 ? 40 + i : 4096 + i * 10];
+        new Random(i).nextBytes(content);
+        return content;
+    }
+
+    /** reads the i-th file */
+    private interface Reader {
+        void read(int i) throws Exception;
+    }
+
+    /** @return the bytes allocated by this thread reading each file, on average over the last round */
+    private static long allocatedPerFile(ThreadMXBean threads, Reader reader) throws Exception {
+        long allocated = 0;
+        for (int round = 0; round < Rounds; ++round) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < NumFiles; ++i) {
+                reader.read(i);
+            }
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        return allocated / NumFiles;
+    }
+
+    @Test
+    void allocation() throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        long size = 40 * 1024 * 1024;
+        SparseMemoryStream partStream = new SparseMemoryStream();
+        NtfsFileSystem.format(partStream, "", Geometry.fromCapacity(size), 0, size / 512);
+        try (NtfsFileSystem ntfs = new NtfsFileSystem(partStream)) {
+            ntfs.createDirectory("dir");
+            long[] fileIds = new long[NumFiles];
+            for (int i = 0; i < NumFiles; ++i) {
+                byte[] content = content(i);
+                try (Stream s = ntfs.openFile("dir/file" + i, FileMode.Create, FileAccess.ReadWrite)) {
+                    s.write(content, 0, content.length);
+                }
+                fileIds[i] = ntfs.getFileId("dir/file" + i);
+            }
+
+            long[] checksum = new long[1];
+            long opened = allocatedPerFile(threads, i -> {
+                try (Stream s = ntfs.openFile("dir/file" + i, FileMode.Open, FileAccess.Read)) {
+                    checksum[0] += Arrays.hashCode(StreamUtilities.readExact(s, (int) s.getLength()));
+                }
+            });
+            long byPath = allocatedPerFile(threads, i -> checksum[0] += Arrays.hashCode(ntfs.readAllBytes("dir/file" + i)));
+            long byId = allocatedPerFile(threads, i -> checksum[0] += Arrays.hashCode(ntfs.readAllBytes(fileIds[i])));
+            Debug.printf("bytes allocated per file: opened %d, readAllBytes by path %d, by id %d", opened, byPath, byId);
+
+            for (int i = 0; i < NumFiles; i += 37) {
+                assertArrayEquals(content(i), ntfs.readAllBytes(fileIds[i]));
+            }
+
+            // the streams aren't built, nor the file looked up when given its id
+            assertTrue(byPath < opened * 2 / 3, byPath + " vs " + opened);
+            assertTrue(byId < byPath * 2 / 3, byId + " vs " + byPath);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.qcow2;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import discUtils.qcow2.Disk;
+import discUtils.qcow2.DiskImageFile;
+import discUtils.streams.SparseStream;
+import discUtils.streams.StreamExtent;
+import discUtils.streams.util.Ownership;
+import discUtils.streams.util.StreamUtilities;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.MemoryStream;
+import org.junit.jupiter.api.Test;
+
+import static libraryTests.qcow2.ImageBuilder.CompressedFlag;
+import static libraryTests.qcow2.ImageBuilder.CopiedFlag;
+import static libraryTests.qcow2.ImageBuilder.ZeroFlag;
+import static libraryTests.qcow2.ImageBuilder.clusterData;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * DiskTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class DiskTest {
+
+    @Test
+    void initialize() throws Exception {
+        MemoryStream ms = new MemoryStream();
+
+        try (Disk disk = Disk.initialize(ms, Ownership.None, 16 * 1024L * 1024 * 1024)) {
+            assertEquals(16 * 1024L * 1024 * 1024, disk.getContent().getLength());
+            assertTrue(disk.getContent().getExtents().isEmpty());
+        }
+        assertTrue(1024 * 1024 > ms.getLength());
+    }
+
+    @Test
+    void writeRead() throws Exception {
+        MemoryStream ms = new MemoryStream();
+        byte[] expected = new byte[4 * 1024 * 1024];
+        Random random = new Random(1);
+
+        try (Disk disk = Disk.initialize(ms, Ownership.None, expected.length)) {
+            SparseStream content = disk.getContent();
+            for (int i = 0; i < 50; ++i) {
+                int pos = random.nextInt(expected.length - 1);
+                byte[] data = new byte[1 + random.nextInt(Math.min(expected.length - pos, 200000))];
+                random.nextBytes(data);
+                content.position(pos);
+                content.write(data, 0, data.length);
+                System.arraycopy(data, 0, expected, pos, data.length);
+            }
+        }
+
+        try (Disk disk = new Disk(new DiskImageFile(ms))) {
+            SparseStream content = disk.getContent();
+            byte[] actual = new byte[expected.length];
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    void extents() throws Exception {
+        MemoryStream ms = new MemoryStream();
+
+        try (Disk disk = Disk.initialize(ms, Ownership.None, 16 * 1024 * 1024)) {
+            SparseStream content = disk.getContent();
+            content.position(0x10000 + 100);
+            content.write(new byte[10], 0, 10);
+            content.position(0x80000);
+            content.write(new byte[0x20000], 0, 0x20000);
+
+            List<StreamExtent> extents = content.getExtents();
+            assertEquals(2, extents.size());
+            assertEquals(new StreamExtent(0x10000, 0x10000), extents.get(0));
+            assertEquals(new StreamExtent(0x80000, 0x20000), extents.get(1));
+        }
+    }
+
+    @Test
+    void compressedClusters() throws Exception {
+        for (int clusterBits : new int[] {16, 12, 9}) {
+            int clusterSize = 1 << clusterBits;
+            ImageBuilder image = new ImageBuilder(clusterBits, 8L * clusterSize, null);
+            long l2 = image.addL2Table(0, 1);
+            byte[] expected = new byte[8 * clusterSize];
+            for (int i : new int[] {0, 1, 2, 3, 6, 7}) {
+                System.arraycopy(clusterData(clusterSize, i), 0, expected, i * clusterSize, clusterSize);
+            }
+            // clusters 2 and 3 share a sector, 7 ends the file part way into a sector
+            image.addCompressedCluster(l2, 0, clusterData(clusterSize, 0), 1);
+            image.addDataCluster(l2, 1, clusterData(clusterSize, 1), 1);
+            image.addCompressedCluster(l2, 2, clusterData(clusterSize, 2), 1);
+            image.addCompressedCluster(l2, 3, clusterData(clusterSize, 3), 1);
+            image.setL2Entry(l2, 4, ZeroFlag);
+            image.addDataCluster(l2, 6, clusterData(clusterSize, 6), 1);
+            long last = image.addCompressedCluster(l2, 7, clusterData(clusterSize, 7), 1);
+            assertTrue(((last >>> (62 - (clusterBits - 8))) & ((1L << (clusterBits - 8)) - 1)) > 0,
+                    "the last compressed cluster spans several sectors");
+
+            try (Disk disk = new Disk(new DiskImageFile(image.stream))) {
+                SparseStream content = disk.getContent();
+                byte[] actual = new byte[expected.length];
+                content.position(0);
+                StreamUtilities.readExact(content, actual, 0, actual.length);
+                assertArrayEquals(expected, actual, "cluster bits: " + clusterBits);
+
+                Random random = new Random(clusterBits);
+                for (int i = 0; i < 100; ++i) {
+                    int pos = random.nextInt(expected.length);
+                    byte[] part = new byte[1 + random.nextInt(Math.min(expected.length - pos, 3 * clusterSize))];
+                    content.position(pos);
+                    StreamUtilities.readExact(content, part, 0, part.length);
+                    assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + part.length), part);
+                }
+
+                assertEquals(List.of(new StreamExtent(0, 4L * clusterSize), new StreamExtent(6L * clusterSize, 2L * clusterSize)),
+                        content.getExtents());
+            }
+        }
+    }
+
+    @Test
+    void backingChain() throws Exception {
+        int clusterSize = 1 << 12;
+        Path dir = Files.createTempDirectory("qcow2");
+        dir.toFile().deleteOnExit();
+
+        ImageBuilder base = new ImageBuilder(12, 16L * clusterSize, null);
+        long l2 = base.addL2Table(0, 1);
+        for (int i = 0; i < 3; ++i) {
+            base.addDataCluster(l2, i, clusterData(clusterSize, 10 + i), 1);
+        }
+        ImageBuilder mid = new ImageBuilder(12, 16L * clusterSize, "base.qcow2");
+        l2 = mid.addL2Table(0, 1);
+        mid.addDataCluster(l2, 1, clusterData(clusterSize, 21), 1);
+        mid.setL2Entry(l2, 2, ZeroFlag);
+        // larger than its backing file, the rest reads as zeros
+        ImageBuilder top = new ImageBuilder(12, 32L * clusterSize, "mid.qcow2");
+        l2 = top.addL2Table(0, 1);
+        top.addDataCluster(l2, 3, clusterData(clusterSize, 33), 1);
+
+        byte[] expected = new byte[32 * clusterSize];
+        System.arraycopy(clusterData(clusterSize, 10), 0, expected, 0, clusterSize);
+        System.arraycopy(clusterData(clusterSize, 21), 0, expected, clusterSize, clusterSize);
+        System.arraycopy(clusterData(clusterSize, 33), 0, expected, 3 * clusterSize, clusterSize);
+
+        File baseFile = write(dir, "base.qcow2", base);
+        write(dir, "mid.qcow2", mid);
+        File topFile = write(dir, "top.qcow2", top);
+
+        try (Disk disk = new Disk(topFile.getPath(), FileAccess.ReadWrite)) {
+            assertEquals(3, disk.getLayers().size());
+            assertEquals(32L * clusterSize, disk.getCapacity());
+
+            SparseStream content = disk.getContent();
+            byte[] actual = new byte[expected.length];
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+            assertEquals(List.of(new StreamExtent(0, 2L * clusterSize), new StreamExtent(3L * clusterSize, clusterSize)),
+                    content.getExtents());
+
+            // copies the rest of the cluster up from the base image
+            byte[] data = new byte[20];
+            Arrays.fill(data, (byte) 0xa5);
+            content.position(50);
+            content.write(data, 0, data.length);
+            System.arraycopy(data, 0, expected, 50, data.length);
+
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+        assertArrayEquals(base.stream.toArray(), Files.readAllBytes(baseFile.toPath()));
+    }
+
+    private static File write(Path dir, String name, ImageBuilder image) throws Exception {
+        File file = dir.resolve(name).toFile();
+        file.deleteOnExit();
+        Files.write(file.toPath(), image.stream.toArray());
+        return file;
+    }
+
+    /** an image as it is after a snapshot, the L2 table and clusters shared */
+    @Test
+    void copyOnWrite() throws Exception {
+        int clusterSize = 1 << 12;
+        ImageBuilder image = new ImageBuilder(12, 16L * clusterSize, null);
+        long l2 = image.addL2Table(0, 2);
+        image.addDataCluster(l2, 0, clusterData(clusterSize, 0), 2);
+        image.addDataCluster(l2, 1, clusterData(clusterSize, 1), 2);
+        long compressed = image.addCompressedCluster(l2, 2, clusterData(clusterSize, 2), 2);
+        image.addDataCluster(l2, 3, clusterData(clusterSize, 3), 1);
+        long l1Offset = image.header.l1TableOffset;
+        long d0 = image.readLong(l2) & ~CopiedFlag;
+        long d1Entry = image.readLong(l2 + 8);
+        long d3 = image.readLong(l2 + 24) & ~CopiedFlag;
+        long host = (compressed & ~CompressedFlag & ((1L << 58) - 1)) & -clusterSize;
+
+        byte[] expected = new byte[16 * clusterSize];
+        for (int i = 0; i < 4; ++i) {
+            System.arraycopy(clusterData(clusterSize, i), 0, expected, i * clusterSize, clusterSize);
+        }
+        byte[] data = new byte[10];
+        Arrays.fill(data, (byte) 0x5a);
+
+        try (Disk disk = new Disk(new DiskImageFile(image.stream))) {
+            SparseStream content = disk.getContent();
+
+            long length = image.stream.getLength();
+            content.position(100);
+            content.write(data, 0, data.length);
+            System.arraycopy(data, 0, expected, 100, data.length);
+
+            // the L2 table and the cluster are copied, the snapshot keeps the old ones
+            long newL2 = image.readLong(l1Offset);
+            assertNotEquals(0, newL2 & CopiedFlag);
+            newL2 &= ~CopiedFlag;
+            assertNotEquals(l2, newL2);
+            assertEquals(1, image.refcount(l2));
+            assertEquals(1, image.refcount(newL2));
+            long newD0 = image.readLong(newL2);
+            assertNotEquals(0, newD0 & CopiedFlag);
+            newD0 &= ~CopiedFlag;
+            assertNotEquals(d0, newD0);
+            assertEquals(1, image.refcount(d0));
+            assertEquals(1, image.refcount(newD0));
+            assertArrayEquals(clusterData(clusterSize, 0), image.read(d0, clusterSize));
+            assertArrayEquals(Arrays.copyOf(expected, clusterSize), image.read(newD0, clusterSize));
+            assertEquals(d1Entry, image.readLong(newL2 + 8));
+            assertEquals(2, image.refcount(d1Entry));
+            assertEquals(length + 2L * clusterSize, image.stream.getLength());
+
+            // now ours, written in place
+            length = image.stream.getLength();
+            content.position(clusterSize - data.length);
+            content.write(data, 0, data.length);
+            System.arraycopy(data, 0, expected, clusterSize - data.length, data.length);
+            content.position(3L * clusterSize);
+            content.write(data, 0, data.length);
+            System.arraycopy(data, 0, expected, 3 * clusterSize, data.length);
+            assertEquals(length, image.stream.getLength());
+            assertEquals(newD0 | CopiedFlag, image.readLong(newL2));
+            assertArrayEquals(Arrays.copyOfRange(expected, 3 * clusterSize, 4 * clusterSize), image.read(d3, clusterSize));
+
+            // a compressed cluster is written back uncompressed
+            content.position(2L * clusterSize + 1000);
+            content.write(data, 0, data.length);
+            System.arraycopy(data, 0, expected, 2 * clusterSize + 1000, data.length);
+            assertEquals(length + clusterSize, image.stream.getLength());
+            assertEquals(1, image.refcount(host));
+            assertEquals(length | CopiedFlag, image.readLong(newL2 + 16));
+            assertEquals(1, image.refcount(length));
+
+            byte[] actual = new byte[expected.length];
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+
+        try (Disk disk = new Disk(new DiskImageFile(image.stream))) {
+            SparseStream content = disk.getContent();
+            byte[] actual = new byte[expected.length];
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.qcow2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import discUtils.qcow2.Header;
+import discUtils.streams.util.MathUtilities;
+import dotnet4j.io.MemoryStream;
+import vavi.util.ByteUtil;
+
+
+/**
+ * Lays out a QCOW2 version 3 image by hand, as qemu-img would: the header,
+ * the refcount table, one refcount block of 16 bit refcounts and the L1
+ * table, then L2 tables, data clusters and compressed clusters in the order
+ * they are added.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class ImageBuilder {
+
+    static final long CopiedFlag = 1L << 63;
+
+    static final long CompressedFlag = 1L << 62;
+
+    static final long ZeroFlag = 1;
+
+    private static final int BackingFormatExtension = 0xe2792aca;
+
+    final MemoryStream stream = new MemoryStream();
+
+    final Header header = new Header();
+
+    final int clusterSize;
+
+    private final long refcountBlockOffset;
+
+    /**
+     * @param backingFile the name of the backing file, or null
+     */
+    ImageBuilder(int clusterBits, long capacity, String backingFile) {
+        clusterSize = 1 << clusterBits;
+        header.clusterBits = clusterBits;
+        header.size = capacity;
+        header.l1Size = (int) Math.max(1, MathUtilities.ceil(capacity, (long) clusterSize / 8 * clusterSize));
+        header.refcountTableOffset = clusterSize;
+        header.refcountTableClusters = 1;
+        refcountBlockOffset = 2L * clusterSize;
+        header.l1TableOffset = 3L * clusterSize;
+
+        byte[] name = backingFile == null ? null : backingFile.getBytes(StandardCharsets.UTF_8);
+        if (name != null) {
+            // the format extension, the end of the extensions, then the name
+            header.backingFileOffset = header.headerLength + 24;
+            header.backingFileSize = name.length;
+        }
+        stream.setLength(4L * clusterSize);
+        stream.position(0);
+        byte[] bytes = header.getBytes();
+        stream.write(bytes, 0, bytes.length);
+        if (name != null) {
+            byte[] extension = new byte[24];
+            ByteUtil.writeBeInt(BackingFormatExtension, extension, 0);
+            ByteUtil.writeBeInt(5, extension, 4);
+            System.arraycopy("qcow2".getBytes(StandardCharsets.US_ASCII), 0, extension, 8, 5);
+            stream.position(header.headerLength);
+            stream.write(extension, 0, extension.length);
+            stream.write(name, 0, name.length);
+        }
+
+        writeLong(header.refcountTableOffset, refcountBlockOffset);
+        for (int i = 0; i < 4; ++i) {
+            addRefcount((long) i * clusterSize, 1);
+        }
+    }
+
+    /** adds an L2 table for an L1 entry, flagged COPIED only if it has a single reference */
+    long addL2Table(int l1Index, int refcount) {
+        long offset = appendCluster(new byte[clusterSize], refcount);
+        writeLong(header.l1TableOffset + l1Index * 8L, offset | (refcount == 1 ? CopiedFlag : 0));
+        return offset;
+    }
+
+    /** adds a data cluster, flagged COPIED only if it has a single reference */
+    void addDataCluster(long l2Table, int l2Index, byte[] data, int refcount) {
+        long offset = appendCluster(data, refcount);
+        setL2Entry(l2Table, l2Index, offset | (refcount == 1 ? CopiedFlag : 0));
+    }
+
+    void setL2Entry(long l2Table, int l2Index, long entry) {
+        writeLong(l2Table + l2Index * 8L, entry);
+    }
+
+    /**
+     * Adds a compressed cluster right after the last one, or after some
+     * padding if there is none. Every host cluster it touches gets a
+     * reference.
+     *
+     * @return the L2 entry of the cluster
+     */
+    long addCompressedCluster(long l2Table, int l2Index, byte[] data, int refcount) {
+        byte[] compressed = deflate(data);
+        long offset = stream.getLength();
+        if (offset % clusterSize == 0) {
+            // near the end of a sector, so it spills into the next
+            offset += 500;
+        }
+        stream.position(offset);
+        stream.write(compressed, 0, compressed.length);
+        long last = offset + compressed.length - 1;
+        for (long cluster = offset / clusterSize; cluster <= last / clusterSize; ++cluster) {
+            addRefcount(cluster * clusterSize, refcount);
+        }
+
+        int x = 62 - (header.clusterBits - 8);
+        long sectors = (last >>> 9) - (offset >>> 9);
+        long entry = CompressedFlag | sectors << x | offset;
+        setL2Entry(l2Table, l2Index, entry);
+        return entry;
+    }
+
+    private long appendCluster(byte[] data, int refcount) {
+        long offset = MathUtilities.roundUp(stream.getLength(), clusterSize);
+        stream.position(offset);
+        stream.write(data, 0, clusterSize);
+        addRefcount(offset, refcount);
+        return offset;
+    }
+
+    void addRefcount(long fileOffset, int delta) {
+        long pos = refcountBlockOffset + fileOffset / clusterSize * 2;
+        writeShort(pos, refcount(fileOffset) + delta);
+    }
+
+    int refcount(long fileOffset) {
+        return ByteUtil.readBeShort(read(refcountBlockOffset + fileOffset / clusterSize * 2, 2), 0) & 0xffff;
+    }
+
+    long readLong(long pos) {
+        return ByteUtil.readBeLong(read(pos, 8), 0);
+    }
+
+    byte[] read(long pos, int count) {
+        byte[] bytes = new byte[count];
+        stream.position(pos);
+        stream.read(bytes, 0, count);
+        return bytes;
+    }
+
+    private void writeLong(long pos, long value) {
+        byte[] bytes = new byte[8];
+        ByteUtil.writeBeLong(value, bytes, 0);
+        stream.position(pos);
+        stream.write(bytes, 0, bytes.length);
+    }
+
+    private void writeShort(long pos, int value) {
+        byte[] bytes = new byte[2];
+        ByteUtil.writeBeShort((short) value, bytes, 0);
+        stream.position(pos);
+        stream.write(bytes, 0, bytes.length);
+    }
+
+    /** compressed clusters are raw deflate streams */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[data.length + 1024];
+            int length = 0;
+            while (!deflater.finished()) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** data of a cluster, different for each seed, compressing to about half */
+    static byte[] clusterData(int clusterSize, int seed) {
+        byte[] data = new byte[clusterSize];
+        Random random = new Random(seed);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) ('a' + random.nextInt(16));
+        }
+        return data;
+    }
+}
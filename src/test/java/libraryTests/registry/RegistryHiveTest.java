@@ -27,6 +27,7 @@ import java.util.EnumSet;
 import discUtils.registry.RegistryHive;
 import discUtils.registry.RegistryKey;
 import discUtils.registry.RegistryKeyFlags;
+import discUtils.streams.util.Ownership;
 import dotnet4j.io.FileMode;
 import dotnet4j.io.FileStream;
 import dotnet4j.io.MemoryStream;
@@ -62,6 +63,42 @@ class RegistryHiveTest {
         assertThrows(NullPointerException.class, () -> RegistryHive.create((Stream) null));
     }
 
+    @Test
+    void inMemory() throws Exception {
+        MemoryStream ms = new MemoryStream();
+        RegistryHive.create(ms);
+
+        // enough to spread over several bins and to grow the in-memory image
+        RegistryHive hive = new RegistryHive(ms, Ownership.None, true);
+        RegistryKey key = hive.getRoot().createSubKey("Software");
+        for (int i = 0; i < 500; i++) {
+            key.createSubKey("Key" + i).setValue("Value", "data" + i);
+        }
+        key.deleteSubKey("Key100");
+        key.createSubKey("Key100").setValue("Value", "again");
+
+        for (RegistryHive reopened : new RegistryHive[] {hive, new RegistryHive(ms), new RegistryHive(ms, Ownership.None, true)}) {
+            RegistryKey software = reopened.getRoot().openSubKey("Software");
+            assertEquals(500, software.getSubKeyCount());
+            assertEquals("data499", software.openSubKey("Key499").getValue("Value"));
+            assertEquals("again", software.openSubKey("Key100").getValue("Value"));
+        }
+    }
+
+    @Test
+    void smallBinCache() throws Exception {
+        MemoryStream ms = new MemoryStream();
+        RegistryHive hive = RegistryHive.create(ms);
+        hive.setBinCacheSize(0);
+        RegistryKey key = hive.getRoot().createSubKey("Software");
+        for (int i = 0; i < 500; i++) {
+            key.createSubKey("Key" + i).setValue("Value", new byte[64]);
+        }
+
+        RegistryHive reopened = new RegistryHive(ms);
+        assertEquals(500, reopened.getRoot().openSubKey("Software").getSubKeyCount());
+    }
+
     /**
      * @param args 0: registry file
      */
@@ -34,6 +34,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
@@ -218,4 +219,21 @@ class RegistryKeyTest {
         assertEquals("B", names.get(1));
         assertEquals("C", names.get(2));
     }
+
+    @Test
+    void openSubKeyManyChildren() throws Exception {
+        RegistryKey key = hive.getRoot().createSubKey("Classes");
+        for (int i = 0; i < 2000; ++i) {
+            key.createSubKey(String.format("Key%04d", 1999 - i));
+        }
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals(String.format("Key%04d", i), key.openSubKey(String.format("kEY%04d", i)).getName().substring(8));
+        }
+        assertNull(key.openSubKey("Key2000"));
+        assertNull(key.openSubKey("Key0000a"));
+        assertNull(key.openSubKey("AAA"));
+        List<String> names = key.getSubKeyNames();
+        assertEquals("Key0000", names.get(0));
+        assertEquals("Key1999", names.get(1999));
+    }
 }
@@ -3,11 +3,16 @@
 package libraryTests.utilities;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
 
 import discUtils.core.internal.Utilities;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 class UtilitiesTests {
@@ -26,4 +31,28 @@ class UtilitiesTests {
         String result = Utilities.resolvePath(basePath, relativePath);
         assertEquals(expectedResult, result);
     }
+
+    @Test
+    void join() throws Exception {
+        assertEquals("a", Utilities.join(CompletableFuture.supplyAsync(() -> "a")));
+
+        IllegalStateException unchecked = new IllegalStateException();
+        IOException io = new IOException();
+        Exception checked = new Exception();
+        assertSame(unchecked, assertThrows(IllegalStateException.class, () -> Utilities.join(failed(unchecked))));
+        assertSame(io, assertThrows(dotnet4j.io.IOException.class, () -> Utilities.join(failed(io))).getCause());
+        assertSame(io, assertThrows(dotnet4j.io.IOException.class,
+                                    () -> Utilities.join(failed(new UncheckedIOException(io)))).getCause());
+        assertSame(checked, assertThrows(dotnet4j.io.IOException.class, () -> Utilities.join(failed(checked))).getCause());
+
+        assertSame(unchecked, assertThrows(IllegalStateException.class, () -> Utilities.joinIO(failed(unchecked))));
+        assertSame(io, assertThrows(IOException.class, () -> Utilities.joinIO(failed(io))));
+        assertSame(io, assertThrows(IOException.class, () -> Utilities.joinIO(failed(new UncheckedIOException(io)))));
+        assertSame(checked, assertThrows(dotnet4j.io.IOException.class, () -> Utilities.joinIO(failed(checked))).getCause());
+    }
+
+    /** a task failing on another thread */
+    private static CompletableFuture<Void> failed(Throwable t) {
+        return CompletableFuture.runAsync(() -> {}).thenCompose(v -> CompletableFuture.failedFuture(t));
+    }
 }
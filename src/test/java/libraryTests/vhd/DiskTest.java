@@ -27,7 +27,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import discUtils.core.Geometry;
+import discUtils.streams.SparseStream;
 import discUtils.streams.util.Ownership;
+import discUtils.streams.util.StreamUtilities;
 import discUtils.vhd.Disk;
 import discUtils.vhd.DiskImageFile;
 import dotnet4j.io.IOException;
@@ -146,6 +148,59 @@ class DiskTest {
         }
     }
 
+    @Test
+    void readThroughChain() throws Exception {
+        byte[] expected = new byte[4 * 1024 * 1024];
+        DiskImageFile baseFile = DiskImageFile.initializeDynamic(new MemoryStream(), Ownership.Dispose, 64 * 1024L * 1024);
+        try (SparseStream content = baseFile.openContent(null, Ownership.None)) {
+            writeFill(content, expected, 0, 2 * 1024 * 1024, (byte) 'A');
+        }
+        DiskImageFile childFile = DiskImageFile.initializeDifferencing(new MemoryStream(),
+                                                                       Ownership.Dispose,
+                                                                       baseFile,
+                                                                       "C:" + FS + "temp" + FS + "foo.vhd",
+                                                                       "." + FS + "foo.vhd",
+                                                                       Instant.now().toEpochMilli());
+        try (SparseStream content = childFile.openContent(baseFile.openContent(null, Ownership.None), Ownership.Dispose)) {
+            writeFill(content, expected, 1024 * 1024 + 100, 5000, (byte) 'B');
+        }
+        DiskImageFile grandChildFile = DiskImageFile.initializeDifferencing(new MemoryStream(),
+                                                                            Ownership.Dispose,
+                                                                            childFile,
+                                                                            "C:" + FS + "temp" + FS + "child1.vhd",
+                                                                            "." + FS + "child1.vhd",
+                                                                            Instant.now().toEpochMilli());
+        try (SparseStream content = grandChildFile.openContent(childFile.openContent(baseFile.openContent(null,
+                                                                                                          Ownership.None),
+                                                                                     Ownership.Dispose),
+                                                               Ownership.Dispose)) {
+            writeFill(content, expected, 1024 * 1024 + 3000, 1000, (byte) 'C');
+            writeFill(content, expected, 3 * 1024 * 1024 + 7, 600, (byte) 'C');
+        }
+
+        try (Disk disk = new Disk(Arrays.asList(grandChildFile, childFile, baseFile), Ownership.Dispose)) {
+            SparseStream content = disk.getContent();
+            byte[] actual = new byte[expected.length];
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+
+            // Writes land in the top layer, and are seen by later reads
+            writeFill(content, expected, 1024 * 1024 - 50, 4000, (byte) 'D');
+            content.position(0);
+            StreamUtilities.readExact(content, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    private static void writeFill(SparseStream content, byte[] expected, int pos, int count, byte value) {
+        byte[] buffer = new byte[count];
+        Arrays.fill(buffer, value);
+        System.arraycopy(buffer, 0, expected, pos, count);
+        content.position(pos);
+        content.write(buffer, 0, count);
+    }
+
     @Test
     void undisposedChangedDynamic() throws Exception {
         byte[] firstSector = new byte[512];
@@ -33,6 +33,7 @@ import dotnet4j.io.SeekOrigin;
 import dotnet4j.io.Stream;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -167,4 +168,48 @@ class DynamicStreamTest {
             assertEquals(3 * 512 - 10, extents.get(0).getLength());
         }
     }
+
+    @Test
+    void batchCommit() throws Exception {
+        MemoryStream stream = new MemoryStream();
+        byte[] content = new byte[5000];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) i;
+        }
+        try (Disk disk = Disk.initializeDynamic(stream, Ownership.None, 1024L * 1024 * 1024)) {
+            disk.setBatchCommit(true);
+            assertTrue(disk.getBatchCommit());
+            Stream s = disk.getContent();
+            s.position(10 * 1024 * 1024 + 1000);
+            s.write(content, 0, content.length);
+            s.position(100 * 1024 * 1024);
+            s.write(content, 0, content.length);
+
+            // Nothing is visible in the file until flushed
+            try (Disk copy = new Disk(new MemoryStream(stream.toArray()), Ownership.Dispose)) {
+                assertEquals(0, copy.getContent().getExtents().size());
+            }
+
+            s.flush();
+            try (Disk copy = new Disk(new MemoryStream(stream.toArray()), Ownership.Dispose)) {
+                assertEquals(2, copy.getContent().getExtents().size());
+                byte[] buffer = new byte[content.length];
+                copy.getContent().position(100 * 1024 * 1024);
+                copy.getContent().read(buffer, 0, buffer.length);
+                assertArrayEquals(content, buffer);
+            }
+
+            s.position(20 * 1024 * 1024);
+            s.write(content, 0, content.length);
+        }
+
+        // The rest is committed on close
+        try (Disk disk = new Disk(stream, Ownership.Dispose)) {
+            assertEquals(3, disk.getContent().getExtents().size());
+            byte[] buffer = new byte[content.length];
+            disk.getContent().position(20 * 1024 * 1024);
+            disk.getContent().read(buffer, 0, buffer.length);
+            assertArrayEquals(content, buffer);
+        }
+    }
 }
@@ -25,6 +25,7 @@ package libraryTests.vmdk;
 import java.util.List;
 
 import discUtils.core.DiskImageFileSpecification;
+import discUtils.streams.SparseMemoryStream;
 import discUtils.streams.SparseStream;
 import discUtils.streams.util.Ownership;
 import discUtils.vmdk.Disk;
@@ -32,6 +33,8 @@ import discUtils.vmdk.DiskBuilder;
 import discUtils.vmdk.DiskCreateType;
 import dotnet4j.io.FileAccess;
 import dotnet4j.io.MemoryStream;
+import dotnet4j.io.SeekOrigin;
+import dotnet4j.io.Stream;
 import libraryTests.DiskBuilderFileSystem;
 import org.junit.jupiter.api.Test;
 
@@ -44,9 +47,9 @@ class DiskBuilderTest {
     public DiskBuilderTest() throws Exception {
         MemoryStream fileStream = new MemoryStream();
         discUtils.vhd.Disk baseFile = discUtils.vhd.Disk.initializeDynamic(fileStream, Ownership.Dispose, 16 * 1024L * 1024);
-        for (int i = 0; i < 8; i += 1024 * 1024) {
-            baseFile.getContent().position(i);
-            baseFile.getContent().writeByte((byte) i);
+        for (int i = 0; i < 8; ++i) {
+            baseFile.getContent().position(i * 1024L * 1024);
+            baseFile.getContent().writeByte((byte) (i + 1));
         }
         baseFile.getContent().position(15 * 1024 * 1024);
         baseFile.getContent().writeByte((byte) 0xFF);
@@ -63,9 +66,9 @@ class DiskBuilderTest {
         assertEquals("foo.vmdk", fileSpecs.get(0).getName());
         DiskBuilderFileSystem dbfs = new DiskBuilderFileSystem(fileSpecs);
         try (Disk disk = new Disk(dbfs, "foo.vmdk", FileAccess.Read)) {
-            for (int i = 0; i < 8; i += 1024 * 1024) {
-                disk.getContent().position(i);
-                assertEquals(i, disk.getContent().readByte());
+            for (int i = 0; i < 8; ++i) {
+                disk.getContent().position(i * 1024L * 1024);
+                assertEquals(i + 1, disk.getContent().readByte());
             }
             disk.getContent().position(15 * 1024 * 1024);
             assertEquals(0xFF, disk.getContent().readByte() & 0xff);
@@ -82,12 +85,130 @@ class DiskBuilderTest {
         assertEquals("foo.vmdk", fileSpecs.get(0).getName());
         DiskBuilderFileSystem dbfs = new DiskBuilderFileSystem(fileSpecs);
         try (Disk disk = new Disk(dbfs, "foo.vmdk", FileAccess.Read)) {
-            for (int i = 0; i < 8; i += 1024 * 1024) {
-                disk.getContent().position(i);
-                assertEquals(i, disk.getContent().readByte());
+            for (int i = 0; i < 8; ++i) {
+                disk.getContent().position(i * 1024L * 1024);
+                assertEquals(i + 1, disk.getContent().readByte());
             }
             disk.getContent().position(15 * 1024 * 1024);
             assertEquals(0xFF, disk.getContent().readByte() & 0xff);
         }
     }
+
+    @Test
+    void buildStreamOptimized() throws Exception {
+        DiskBuilder builder = new DiskBuilder();
+        builder.setContent(diskContent);
+        MemoryStream output = new MemoryStream();
+        builder.writeStreamOptimized("foo", output);
+        try (Disk disk = new Disk(new MemoryStream(output.toArray()), Ownership.Dispose)) {
+            assertEquals(diskContent.getLength(), disk.getCapacity());
+            for (int i = 0; i < 8; ++i) {
+                disk.getContent().position(i * 1024L * 1024);
+                assertEquals(i + 1, disk.getContent().readByte());
+            }
+            disk.getContent().position(15 * 1024 * 1024);
+            assertEquals(0xFF, disk.getContent().readByte() & 0xff);
+        }
+    }
+
+    /** a byte every 3 MiB, so in each of the four grain tables, and two either side of the first boundary */
+    private static SparseStream largeContent() {
+        SparseMemoryStream content = new SparseMemoryStream();
+        content.setLength(100 * 1024L * 1024);
+        for (int i = 0; i < 33; ++i) {
+            content.position(i * 3 * 1024L * 1024);
+            content.writeByte((byte) (i + 1));
+        }
+        content.position(32 * 1024L * 1024 - 1);
+        content.write(new byte[] {(byte) 0xaa, (byte) 0xbb}, 0, 2);
+        return content;
+    }
+
+    private static void assertLargeContent(Disk disk) {
+        for (int i = 0; i < 33; ++i) {
+            disk.getContent().position(i * 3 * 1024L * 1024);
+            assertEquals(i + 1, disk.getContent().readByte());
+        }
+        disk.getContent().position(32 * 1024L * 1024 - 1);
+        assertEquals(0xaa, disk.getContent().readByte());
+        assertEquals(0xbb, disk.getContent().readByte());
+        disk.getContent().position(50 * 1024L * 1024);
+        assertEquals(0, disk.getContent().readByte());
+    }
+
+    @Test
+    void buildStreamOptimizedSeveralGrainTables() throws Exception {
+        DiskBuilder builder = new DiskBuilder();
+        builder.setContent(largeContent());
+        MemoryStream output = new MemoryStream();
+        builder.writeStreamOptimized("foo", output);
+        try (Disk disk = new Disk(new MemoryStream(output.toArray()), Ownership.Dispose)) {
+            assertEquals(100 * 1024L * 1024, disk.getCapacity());
+            assertLargeContent(disk);
+        }
+    }
+
+    @Test
+    void buildStreamOptimizedNonSeekable() throws Exception {
+        DiskBuilder builder = new DiskBuilder();
+        builder.setContent(largeContent());
+        MemoryStream written = new MemoryStream();
+        builder.writeStreamOptimized("foo", new WriteOnlyStream(written));
+        try (Disk disk = new Disk(new MemoryStream(written.toArray()), Ownership.Dispose)) {
+            assertLargeContent(disk);
+        }
+    }
+
+    /** a stream that can only be written front to back, like a pipe */
+    private static final class WriteOnlyStream extends Stream {
+
+        private final Stream wrapped;
+
+        WriteOnlyStream(Stream wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        @Override public boolean canRead() {
+            return false;
+        }
+
+        @Override public boolean canSeek() {
+            return false;
+        }
+
+        @Override public boolean canWrite() {
+            return true;
+        }
+
+        @Override public long getLength() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void position(long value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public int read(byte[] buffer, int offset, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void write(byte[] buffer, int offset, int count) {
+            wrapped.write(buffer, offset, count);
+        }
+
+        @Override public long seek(long offset, SeekOrigin origin) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void setLength(long value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public void flush() {
+        }
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.vmdk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import discUtils.streams.SparseMemoryStream;
+import discUtils.streams.util.Ownership;
+import discUtils.streams.util.StreamUtilities;
+import discUtils.vmdk.Disk;
+import discUtils.vmdk.DiskBuilder;
+import dotnet4j.io.IOException;
+import dotnet4j.io.MemoryStream;
+import dotnet4j.io.Stream;
+import org.junit.jupiter.api.Test;
+import vavi.util.ByteUtil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * StreamOptimizedTest.
+ *
+ * Reads a streamOptimized disk spanning several grain tables, around the
+ * grain table boundaries, with more grains than are cached.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class StreamOptimizedTest {
+
+    private static final int GrainSize = 64 * 1024;
+
+    private static final long GrainTableSpan = 512L * GrainSize;
+
+    /** three grain tables, the last grain short */
+    private static final long Capacity = 2 * GrainTableSpan + 60 * GrainSize + 3 * 512;
+
+    /** the grains either side of each grain table boundary written */
+    private static final int GrainsAround = 40;
+
+    private final byte[][] regions = new byte[3][];
+
+    private final long[] regionStarts = {
+        GrainTableSpan - GrainsAround * GrainSize,
+        2 * GrainTableSpan - GrainsAround * GrainSize,
+        Capacity - 5 * GrainSize - 3 * 512
+    };
+
+    private final byte[] image;
+
+    StreamOptimizedTest() throws Exception {
+        SparseMemoryStream content = new SparseMemoryStream();
+        content.setLength(Capacity);
+        Random random = new Random(1234);
+        byte[] text = "the quick brown fox jumps over the lazy dog. ".getBytes(StandardCharsets.US_ASCII);
+        for (int r = 0; r < regionStarts.length; ++r) {
+            long start = regionStarts[r];
+            byte[] region = new byte[(int) Math.min(2 * GrainsAround * GrainSize, Capacity - start)];
+            for (int g = 0; g * GrainSize < region.length; ++g) {
+                // every fifth grain left out, the others alternately random and compressible
+                if (g % 5 == 4) {
+                    continue;
+                }
+                int length = Math.min(GrainSize, region.length - g * GrainSize);
+                if (g % 2 == 0) {
+                    byte[] noise = new byte[length];
+                    random.nextBytes(noise);
+                    System.arraycopy(noise, 0, region, g * GrainSize, length);
+                } else {
+                    for (int i = 0; i < length; ++i) {
+                        region[g * GrainSize + i] = (byte) (text[i % text.length] + g);
+                    }
+                }
+            }
+            content.position(start);
+            content.write(region, 0, region.length);
+            regions[r] = region;
+        }
+
+        DiskBuilder builder = new DiskBuilder();
+        builder.setContent(content);
+        MemoryStream output = new MemoryStream();
+        builder.writeStreamOptimized("foo", output);
+        image = output.toArray();
+    }
+
+    private static byte[] read(Stream s, long pos, int count) {
+        s.position(pos);
+        return StreamUtilities.readExact(s, count);
+    }
+
+    @Test
+    void sequentialRead() throws Exception {
+        try (Disk disk = new Disk(new MemoryStream(image), Ownership.Dispose)) {
+            Stream s = disk.getContent();
+            for (int r = 0; r < regions.length; ++r) {
+                // unaligned reads of a little more than a grain, covering the region end to end
+                byte[] actual = new byte[regions[r].length];
+                s.position(regionStarts[r]);
+                int pos = 0;
+                while (pos < actual.length) {
+                    int n = s.read(actual, pos, Math.min(GrainSize + 4321, actual.length - pos));
+                    pos += n;
+                }
+                assertArrayEquals(regions[r], actual);
+            }
+            assertArrayEquals(new byte[GrainSize], read(s, GrainTableSpan / 2, GrainSize));
+        }
+    }
+
+    @Test
+    void randomRead() throws Exception {
+        try (Disk disk = new Disk(new MemoryStream(image), Ownership.Dispose)) {
+            Stream s = disk.getContent();
+            Random random = new Random(5678);
+            for (int i = 0; i < 300; ++i) {
+                int r = random.nextInt(regions.length);
+                int offset = random.nextInt(regions[r].length);
+                int count = Math.min(1 + random.nextInt(3 * GrainSize), regions[r].length - offset);
+                assertArrayEquals(Arrays.copyOfRange(regions[r], offset, offset + count),
+                                  read(s, regionStarts[r] + offset, count),
+                                  "read " + i + " at " + (regionStarts[r] + offset));
+            }
+
+            // several grains across each grain table boundary in one read
+            for (int r = 0; r < 2; ++r) {
+                int offset = (GrainsAround - 3) * GrainSize + 100;
+                assertArrayEquals(Arrays.copyOfRange(regions[r], offset, offset + 6 * GrainSize),
+                                  read(s, regionStarts[r] + offset, 6 * GrainSize));
+            }
+        }
+    }
+
+    @Test
+    void truncatedGrain() throws Exception {
+        // the first grain follows the header and descriptor, shorten its compressed data
+        byte[] truncated = image.clone();
+        int grainAt = (int) ByteUtil.readLeLong(truncated, 64) * 512;
+        ByteUtil.writeLeInt(ByteUtil.readLeInt(truncated, grainAt + 8) / 2, truncated, grainAt + 8);
+        long lba = ByteUtil.readLeLong(truncated, grainAt);
+
+        try (Disk disk = new Disk(new MemoryStream(truncated), Ownership.Dispose)) {
+            Stream s = disk.getContent();
+            assertThrows(IOException.class, () -> read(s, lba * 512, 1));
+            assertThrows(IOException.class, () -> read(s, lba * 512, 4 * GrainSize));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.wim;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import discUtils.streams.util.StreamUtilities;
+import discUtils.wim.ShortResourceHeader;
+import discUtils.wim.WimBuilder;
+import discUtils.wim.WimFile;
+import discUtils.wim.WimFileSystem;
+import dotnet4j.io.FileAccess;
+import dotnet4j.io.FileMode;
+import dotnet4j.io.MemoryStream;
+import dotnet4j.io.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * WimBuilderTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class WimBuilderTest {
+
+    /** several chunks of text, which compresses */
+    private static byte[] text() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 100000; ++i) {
+            sb.append("line ").append(i).append(": the quick brown fox jumps over the lazy dog\r\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** a little over a chunk of random bytes, which doesn't */
+    private static byte[] random() {
+        byte[] data = new byte[40000];
+        new Random(1).nextBytes(data);
+        return data;
+    }
+
+    private static MemoryStream build(boolean compressed) {
+        WimBuilder builder = new WimBuilder();
+        builder.setCompressed(compressed);
+        builder.addDirectory("empty");
+        builder.addFile("dir/sub/text.txt", new MemoryStream(text()));
+        builder.addFile("dir/copy.txt", new MemoryStream(text()));
+        builder.addFile("dir/random.bin", new MemoryStream(random()));
+        builder.addFile("zero.txt", new MemoryStream());
+
+        MemoryStream wim = new MemoryStream();
+        builder.build(wim);
+        wim.position(0);
+        return wim;
+    }
+
+    private static byte[] read(WimFileSystem fs, String path) throws Exception {
+        try (Stream s = fs.openFile(path, FileMode.Open, FileAccess.Read)) {
+            return StreamUtilities.readExact(s, (int) s.getLength());
+        }
+    }
+
+    private static void assertImage(WimFile wim) throws Exception {
+        WimFileSystem fs = wim.getImage(0);
+        assertTrue(fs.directoryExists("empty"));
+        assertTrue(fs.directoryExists("dir/sub"));
+        assertEquals(0, fs.getFileSystemEntries("empty").size());
+        assertEquals(2, fs.getDirectories("").size());
+        assertEquals(2, fs.getFiles("dir").size());
+        assertTrue(fs.fileExists("zero.txt"));
+        assertFalse(fs.fileExists("dir/sub/missing.txt"));
+
+        assertArrayEquals(text(), read(fs, "dir/sub/text.txt"));
+        assertArrayEquals(text(), read(fs, "dir/copy.txt"));
+        assertArrayEquals(random(), read(fs, "dir/random.bin"));
+        assertEquals(0, read(fs, "zero.txt").length);
+
+        // across a chunk boundary
+        byte[] expected = text();
+        try (Stream s = fs.openFile("dir/sub/text.txt", FileMode.Open, FileAccess.Read)) {
+            s.position(32768 - 100);
+            byte[] buffer = StreamUtilities.readExact(s, 200);
+            for (int i = 0; i < buffer.length; ++i) {
+                assertEquals(expected[32768 - 100 + i], buffer[i]);
+            }
+        }
+    }
+
+    @Test
+    void buildCompressed() throws Exception {
+        WimFile wim = new WimFile(build(true));
+        assertEquals(1, wim.getImageCount());
+        // decoded in parallel, the default, then one chunk after another
+        assertImage(wim);
+        wim.setParallelDecoding(false);
+        assertImage(wim);
+
+        // the duplicate is stored once
+        WimFileSystem fs = wim.getImage(0);
+        byte[] hash = fs.getFileHash("dir/copy.txt");
+        assertArrayEquals(hash, fs.getFileHash("dir/sub/text.txt"));
+        ShortResourceHeader text = wim.locateResource(hash);
+        assertTrue(text.compressedSize < text.originalSize / 2);
+
+        // the random chunks are stored as they are, after the chunk table
+        ShortResourceHeader random = wim.locateResource(fs.getFileHash("dir/random.bin"));
+        assertEquals(random.originalSize + 4, random.compressedSize);
+    }
+
+    @Test
+    void buildUncompressed() throws Exception {
+        WimFile wim = new WimFile(build(false));
+        assertImage(wim);
+
+        ShortResourceHeader text = wim.locateResource(wim.getImage(0).getFileHash("dir/copy.txt"));
+        assertEquals(text.originalSize, text.compressedSize);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2026 by Naohide Sano, All rights reserved.
+ *
+ * Programmed by Naohide Sano
+ */
+
+package libraryTests.wim;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import discUtils.core.compression.CompressionResult;
+import discUtils.wim.XpressCompressor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * XpressCompressorTest.
+ *
+ * @author <a href="mailto:umjammer@gmail.com">Naohide Sano</a> (umjammer)
+ * @version 0.00 2026/10/19 umjammer initial version <br>
+ */
+class XpressCompressorTest {
+
+    private static final int ChunkSize = 32768;
+
+    private static byte[] roundTrip(byte[] data) {
+        return roundTrip(new XpressCompressor(), data);
+    }
+
+    private static byte[] roundTrip(XpressCompressor compressor, byte[] data) {
+        byte[] compressed = new byte[data.length];
+        int[] compressedLength = { compressed.length };
+        assertEquals(CompressionResult.Compressed, compressor.compress(data, 0, data.length, compressed, 0, compressedLength));
+        assertTrue(compressedLength[0] < data.length);
+
+        byte[] decompressed = new byte[data.length];
+        assertEquals(data.length, compressor.decompress(compressed, 0, compressedLength[0], decompressed, 0));
+        return decompressed;
+    }
+
+    @Test
+    void text() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < ChunkSize; ++i) {
+            sb.append("line ").append(i).append(": the quick brown fox jumps over the lazy dog\r\n");
+        }
+        byte[] data = Arrays.copyOf(sb.toString().getBytes(StandardCharsets.US_ASCII), ChunkSize);
+        assertArrayEquals(data, roundTrip(data));
+    }
+
+    @Test
+    void longMatches() throws Exception {
+        // matches long enough for the three byte length
+        byte[] data = new byte[ChunkSize];
+        Arrays.fill(data, 0, 1000, (byte) 'a');
+        Arrays.fill(data, 20000, ChunkSize, (byte) 'b');
+        assertArrayEquals(data, roundTrip(data));
+    }
+
+    @Test
+    void largeBlocks() throws Exception {
+        // a run longer than the longest match, so matches of 32768 bytes and more
+        for (int blockSize : new int[] {65536, 256 * 1024}) {
+            XpressCompressor compressor = new XpressCompressor();
+            compressor.setBlockSize(blockSize);
+            byte[] data = new byte[blockSize];
+            new Random(3).nextBytes(data);
+            Arrays.fill(data, 100, blockSize - 100, (byte) 'x');
+            // and the random head repeated at the end, far back or out of reach
+            System.arraycopy(data, 0, data, blockSize - 50, 50);
+            assertArrayEquals(data, roundTrip(compressor, data));
+        }
+    }
+
+    @Test
+    void partlyRandom() throws Exception {
+        byte[] data = new byte[ChunkSize];
+        new Random(1).nextBytes(data);
+        byte[] repeat = Arrays.copyOf(data, 100);
+        for (int i = ChunkSize / 2; i + repeat.length <= ChunkSize; i += repeat.length) {
+            System.arraycopy(repeat, 0, data, i, repeat.length);
+        }
+        assertArrayEquals(data, roundTrip(data));
+
+        // short, odd length input
+        byte[] small = Arrays.copyOfRange(data, ChunkSize - 777, ChunkSize);
+        assertArrayEquals(small, roundTrip(small));
+    }
+
+    @Test
+    void incompressible() throws Exception {
+        byte[] data = new byte[ChunkSize];
+        new Random(2).nextBytes(data);
+        byte[] compressed = new byte[data.length];
+        int[] compressedLength = { compressed.length };
+        assertEquals(CompressionResult.Incompressible,
+                     new XpressCompressor().compress(data, 0, data.length, compressed, 0, compressedLength));
+
+        // with room to spare it still isn't worth storing compressed
+        compressed = new byte[data.length * 2];
+        compressedLength[0] = compressed.length;
+        assertEquals(CompressionResult.Incompressible,
+                     new XpressCompressor().compress(data, 0, data.length, compressed, 0, compressedLength));
+    }
+}